@@ -1005,9 +1005,15 @@ public class AndroidBinary
     // directly apply to the internal threading/parallelization details of various build commands
     // being executed.  For example, aapt is internally threaded by default when preprocessing
     // images.
-    EnumSet<DxStep.Option> dxOptions = PackageType.RELEASE.equals(packageType)
-        ? EnumSet.noneOf(DxStep.Option.class)
-        : EnumSet.of(DxStep.Option.NO_OPTIMIZE);
+    //
+    // dx runs in process so that every invocation shares the already warm JIT, rather than paying
+    // JVM startup for each secondary dex file.
+    EnumSet<DxStep.Option> dxOptions = EnumSet.of(
+        DxStep.Option.USE_CUSTOM_DX_IF_AVAILABLE,
+        DxStep.Option.RUN_IN_PROCESS);
+    if (!PackageType.RELEASE.equals(packageType)) {
+      dxOptions.add(DxStep.Option.NO_OPTIMIZE);
+    }
     Path selectedPrimaryDexPath = primaryDexPath;
     if (isReorderingClasses()) {
       String primaryDexFileName = primaryDexPath.getFileName().toString();
@@ -282,7 +282,8 @@ public class AndroidBinaryDescription
         args.primaryDexScenarioFile,
         args.primaryDexScenarioOverflowAllowed.or(false),
         args.secondaryDexHeadClassesFile,
-        args.secondaryDexTailClassesFile);
+        args.secondaryDexTailClassesFile,
+        args.stableSecondaryDexBuckets.or(false));
   }
 
   private PackageType getPackageType(Arg args) {
@@ -347,6 +348,7 @@ public class AndroidBinaryDescription
     public Optional<Boolean> primaryDexScenarioOverflowAllowed;
     public Optional<SourcePath> secondaryDexHeadClassesFile;
     public Optional<SourcePath> secondaryDexTailClassesFile;
+    public Optional<Boolean> stableSecondaryDexBuckets;
     public Optional<Long> linearAllocHardLimit;
     public Optional<List<String>> resourceFilter;
     public Optional<ImmutableSet<String>> locales;
@@ -61,6 +61,14 @@ public class AndroidBuckConfig {
     return delegate.getEnum("ndk", "cxx_runtime", NdkCxxPlatforms.CxxRuntime.class);
   }
 
+  /**
+   * Returns how much heap, in megabytes, {@code dx} invocations running inside the buck process may
+   * use at once. Zero disables in-process dexing; if unset, half of the maximum heap is used.
+   */
+  public Optional<Long> getDxInProcessMemoryBudgetMegabytes() {
+    return delegate.getLong("android", "dx_in_process_memory_budget_mb");
+  }
+
   /**
    * Returns the path to the platform specific aapt executable that is overridden by the current
    * project. If not specified, the Android platform aapt will be used.
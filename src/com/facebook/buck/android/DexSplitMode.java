@@ -44,7 +44,8 @@ class DexSplitMode implements RuleKeyAppendable {
       /* primaryDexScenarioFile */ Optional.<SourcePath>absent(),
       /* isPrimaryDexScenarioOverflowAllowed */ false,
       /* secondaryDexHeadClassesFile */ Optional.<SourcePath>absent(),
-      /* secondaryDexTailClassesFile */ Optional.<SourcePath>absent());
+      /* secondaryDexTailClassesFile */ Optional.<SourcePath>absent(),
+      /* useStableSecondaryDexBuckets */ false);
 
   private final boolean shouldSplitDex;
   private final DexStore dexStore;
@@ -113,7 +114,13 @@ class DexSplitMode implements RuleKeyAppendable {
    */
   private final Optional<SourcePath> secondaryDexTailClassesFile;
 
-
+  /**
+   * Boolean identifying whether pre-dexed libraries should stay in the secondary dex they were put
+   * in by the previous build, as long as it stays under the linear alloc limit.  This trades a
+   * tighter packing of secondary dexes for only having to re-merge the secondary dex containing a
+   * changed library.
+   */
+  private final boolean useStableSecondaryDexBuckets;
 
   /**
    *
@@ -133,6 +140,9 @@ class DexSplitMode implements RuleKeyAppendable {
    *     in the first secondary dexes.
    * @param secondaryDexTailClassesFile Path to a file containing a list of classes that are put
    *     in the last secondary dexes.
+   * @param useStableSecondaryDexBuckets If true, pre-dexed libraries keep their secondary dex
+   *     assignment from the previous build where possible. This only applies when the build can't
+   *     store artifacts in the cache, since the previous build isn't part of the rule key.
    * @param useLinearAllocSplitDex If true, {@link com.facebook.buck.dalvik.DalvikAwareZipSplitter}
    *     will be used. Also, {@code linearAllocHardLimit} must have a positive value in this case.
    */
@@ -147,7 +157,8 @@ class DexSplitMode implements RuleKeyAppendable {
       Optional<SourcePath> primaryDexScenarioFile,
       boolean isPrimaryDexScenarioOverflowAllowed,
       Optional<SourcePath> secondaryDexHeadClassesFile,
-      Optional<SourcePath> secondaryDexTailClassesFile) {
+      Optional<SourcePath> secondaryDexTailClassesFile,
+      boolean useStableSecondaryDexBuckets) {
     this.shouldSplitDex = shouldSplitDex;
     this.dexSplitStrategy = dexSplitStrategy;
     this.dexStore = dexStore;
@@ -159,7 +170,7 @@ class DexSplitMode implements RuleKeyAppendable {
     this.isPrimaryDexScenarioOverflowAllowed = isPrimaryDexScenarioOverflowAllowed;
     this.secondaryDexHeadClassesFile = secondaryDexHeadClassesFile;
     this.secondaryDexTailClassesFile = secondaryDexTailClassesFile;
-
+    this.useStableSecondaryDexBuckets = useStableSecondaryDexBuckets;
   }
 
   public DexStore getDexStore() {
@@ -205,6 +216,10 @@ class DexSplitMode implements RuleKeyAppendable {
     return secondaryDexTailClassesFile;
   }
 
+  public boolean useStableSecondaryDexBuckets() {
+    return useStableSecondaryDexBuckets;
+  }
+
   @Override
   public RuleKeyBuilder appendToRuleKey(RuleKeyBuilder builder) {
     builder.setReflectively("dexStore", dexStore.name());
@@ -219,6 +234,7 @@ class DexSplitMode implements RuleKeyAppendable {
     builder.setReflectively("secondaryDexTailClassesFile", secondaryDexTailClassesFile);
     builder.setReflectively("shouldSplitDex", shouldSplitDex);
     builder.setReflectively("useLinearAllocSplitDex", useLinearAllocSplitDex);
+    builder.setReflectively("useStableSecondaryDexBuckets", useStableSecondaryDexBuckets);
     return builder;
   }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * Bounds the amount of heap that concurrently running in-process {@link DxStep}s may use.
+ * <p>
+ * All in-process dx invocations share the buck JVM (and its warm JIT), so without a bound a burst
+ * of large pre-dex or secondary dex jobs could exhaust the heap.  Each invocation reserves an
+ * estimate of its heap usage before it starts, and waits until enough of the budget is free.  A
+ * job whose estimate exceeds the whole budget can never fit, and should be run out of process.
+ * <p>
+ * The size of the budget comes from {@code [android] dx_in_process_memory_budget_mb}; see
+ * {@link AndroidBuckConfig#getDxInProcessMemoryBudgetMegabytes()}.
+ */
+public class DxMemoryBudget {
+
+  /** By default, in-process dexing may use up to this fraction of the maximum heap. */
+  private static final double DEFAULT_HEAP_FRACTION = 0.5;
+
+  private static final long BYTES_PER_MEGABYTE = 1024L * 1024L;
+
+  private static final DxMemoryBudget DEFAULT =
+      new DxMemoryBudget(getCapacityBytes(Optional.<Long>absent()));
+
+  private long capacityBytes;
+  private long reservedBytes;
+
+  DxMemoryBudget(long capacityBytes) {
+    Preconditions.checkArgument(capacityBytes >= 0);
+    this.capacityBytes = capacityBytes;
+  }
+
+  /**
+   * @return the budget shared by every in-process dx invocation in this JVM.
+   */
+  static DxMemoryBudget getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Sizes the budget shared by every in-process dx invocation in this JVM.
+   *
+   * @param capacityMegabytes the size of the budget, where zero disables in-process dexing, or
+   *     absent for a share of the maximum heap.
+   */
+  public static void configureDefault(Optional<Long> capacityMegabytes) {
+    DEFAULT.setCapacityBytes(getCapacityBytes(capacityMegabytes));
+  }
+
+  private static long getCapacityBytes(Optional<Long> capacityMegabytes) {
+    if (capacityMegabytes.isPresent()) {
+      return Math.max(0, capacityMegabytes.get()) * BYTES_PER_MEGABYTE;
+    }
+    return (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_FRACTION);
+  }
+
+  synchronized long getCapacityBytes() {
+    return capacityBytes;
+  }
+
+  synchronized void setCapacityBytes(long capacityBytes) {
+    Preconditions.checkArgument(capacityBytes >= 0);
+    this.capacityBytes = capacityBytes;
+    // A larger budget may let waiting invocations in, and a smaller one may shut them out.
+    notifyAll();
+  }
+
+  synchronized long getReservedBytes() {
+    return reservedBytes;
+  }
+
+  /**
+   * Reserves {@code bytes} of the budget, waiting for other invocations to release theirs if
+   * necessary.
+   *
+   * @return false, without reserving anything, if the request is larger than the whole budget.
+   */
+  synchronized boolean acquire(long bytes) throws InterruptedException {
+    Preconditions.checkArgument(bytes >= 0);
+    while (reservedBytes + bytes > capacityBytes) {
+      if (bytes > capacityBytes) {
+        return false;
+      }
+      wait();
+    }
+    reservedBytes += bytes;
+    return true;
+  }
+
+  synchronized void release(long bytes) {
+    Preconditions.checkState(bytes <= reservedBytes);
+    reservedBytes -= bytes;
+    notifyAll();
+  }
+}
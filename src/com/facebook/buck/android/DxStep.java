@@ -17,6 +17,7 @@
 package com.facebook.buck.android;
 
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.util.Verbosity;
@@ -38,6 +39,17 @@ import javax.annotation.CheckForNull;
 
 public class DxStep extends ShellStep {
 
+  private static final Logger LOG = Logger.get(DxStep.class);
+
+  /**
+   * Rough multiplier from the size of the (compressed) inputs to the heap that dx needs to dex
+   * them, used to reserve space in the {@link DxMemoryBudget} for in-process invocations.
+   */
+  private static final long HEAP_BYTES_PER_INPUT_BYTE = 8;
+
+  /** The smallest heap reservation for an in-process invocation, to cover dx's fixed overhead. */
+  private static final long MIN_HEAP_BYTES = 16L * 1024L * 1024L;
+
   /**
    */
   public static final String XMX_OVERRIDE =
@@ -78,6 +90,7 @@ public class DxStep extends ShellStep {
   private final Set<Path> filesToDex;
   private final Set<Option> options;
   private final Supplier<String> getPathToCustomDx;
+  private final DxMemoryBudget memoryBudget;
 
   /**
    * @param outputDexFile path to the file where the generated classes.dex should go.
@@ -109,12 +122,30 @@ public class DxStep extends ShellStep {
       Iterable<Path> filesToDex,
       EnumSet<Option> options,
       Supplier<String> getPathToCustomDx) {
+    this(
+        filesystem,
+        outputDexFile,
+        filesToDex,
+        options,
+        getPathToCustomDx,
+        DxMemoryBudget.getDefault());
+  }
+
+  @VisibleForTesting
+  DxStep(
+      ProjectFilesystem filesystem,
+      Path outputDexFile,
+      Iterable<Path> filesToDex,
+      EnumSet<Option> options,
+      Supplier<String> getPathToCustomDx,
+      DxMemoryBudget memoryBudget) {
     super(filesystem.getRootPath());
     this.filesystem = filesystem;
     this.outputDexFile = outputDexFile;
     this.filesToDex = ImmutableSet.copyOf(filesToDex);
     this.options = Sets.immutableEnumSet(options);
     this.getPathToCustomDx = getPathToCustomDx;
+    this.memoryBudget = memoryBudget;
 
     Preconditions.checkArgument(
         !options.contains(Option.RUN_IN_PROCESS) ||
@@ -124,6 +155,14 @@ public class DxStep extends ShellStep {
 
   @Override
   protected ImmutableList<String> getShellCommandInternal(ExecutionContext context) {
+    return getDxCommand(context, /* inProcess */ false);
+  }
+
+  /**
+   * @param inProcess whether the command is for the dexer in this JVM, which doesn't understand the
+   *     Xmx override, rather than for a forked dx.
+   */
+  private ImmutableList<String> getDxCommand(ExecutionContext context, boolean inProcess) {
     ImmutableList.Builder<String> builder = ImmutableList.builder();
 
     AndroidPlatformTarget androidPlatformTarget = context.getAndroidPlatformTarget();
@@ -137,8 +176,8 @@ public class DxStep extends ShellStep {
     builder.add(dx);
 
     // Add the Xmx override, but not for in-process dexing, since the dexer won't understand it.
-    // Also, if DX works in-process, it probably wouldn't need an enlarged Xmx.
-    if (!XMX_OVERRIDE.isEmpty() && !options.contains(Option.RUN_IN_PROCESS)) {
+    // Jobs that fall back to a forked dx are the ones that need the enlarged Xmx, so keep it there.
+    if (!XMX_OVERRIDE.isEmpty() && !inProcess) {
       builder.add(XMX_OVERRIDE);
     }
 
@@ -172,15 +211,47 @@ public class DxStep extends ShellStep {
 
   @Override
   public int execute(ExecutionContext context) throws InterruptedException {
-    if (options.contains(Option.RUN_IN_PROCESS)) {
+    // A custom dx is a separate executable, which the dexer in this JVM can't stand in for.
+    if (options.contains(Option.RUN_IN_PROCESS) && getPathToCustomDx.get() == null) {
       return executeInProcess(context);
     } else {
       return super.execute(context);
     }
   }
 
-  private int executeInProcess(ExecutionContext context) {
-    ImmutableList<String> argv = getShellCommandInternal(context);
+  /**
+   * Runs dx on the calling thread, sharing the buck JVM with every other in-process invocation.
+   * Falls back to running dx out of process, before it starts, if the estimated heap usage can
+   * never fit in the {@link DxMemoryBudget}.
+   */
+  private int executeInProcess(ExecutionContext context) throws InterruptedException {
+    long heapEstimate = estimateHeapBytes();
+    if (!memoryBudget.acquire(heapEstimate)) {
+      LOG.info(
+          "Dexing %s out of process: estimated heap usage of %d bytes exceeds the budget of %d.",
+          outputDexFile,
+          heapEstimate,
+          memoryBudget.getCapacityBytes());
+      return super.execute(context);
+    }
+
+    try {
+      return runDexer(context);
+    } catch (OutOfMemoryError e) {
+      // Other threads of the shared JVM may have failed too, so don't carry on as if nothing
+      // happened: fail the step and let the build stop.
+      context.getStdErr().printf(
+          "Ran out of memory dexing %s in process. " +
+              "Lower [android] dx_in_process_memory_budget_mb or give buck a larger heap.%n",
+          outputDexFile);
+      return 1;
+    } finally {
+      memoryBudget.release(heapEstimate);
+    }
+  }
+
+  private int runDexer(ExecutionContext context) {
+    ImmutableList<String> argv = getDxCommand(context, /* inProcess */ true);
 
     // The first arguments should be ".../dx --dex" ("...\dx.bat --dex on Windows).  Strip them off
     // because we bypass the dispatcher and go straight to the dexer.
@@ -201,6 +272,21 @@ public class DxStep extends ShellStep {
     }
   }
 
+  @VisibleForTesting
+  long estimateHeapBytes() {
+    long inputBytes = 0;
+    for (Path fileToDex : filesToDex) {
+      try {
+        if (!filesystem.isDirectory(fileToDex)) {
+          inputBytes += filesystem.getFileSize(fileToDex);
+        }
+      } catch (IOException e) {
+        // Missing inputs will be reported by dx itself.
+      }
+    }
+    return Math.max(MIN_HEAP_BYTES, inputBytes * HEAP_BYTES_PER_INPUT_BYTE);
+  }
+
   @Override
   protected boolean shouldPrintStderr(Verbosity verbosity) {
     return verbosity.shouldPrintSelectCommandOutput();
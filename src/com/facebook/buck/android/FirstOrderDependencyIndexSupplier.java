@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.dalvik.firstorder.FirstOrderDependencyIndex;
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * This Supplier returns a {@link FirstOrderDependencyIndex} of all the classes in a set of jar
+ * files, reading the jars in parallel.
+ */
+class FirstOrderDependencyIndexSupplier implements Supplier<FirstOrderDependencyIndex> {
+
+  private final Iterable<Path> jarPaths;
+  private final int threadCount;
+
+  private FirstOrderDependencyIndexSupplier(Iterable<Path> jarPaths, int threadCount) {
+    this.jarPaths = jarPaths;
+    this.threadCount = threadCount;
+  }
+
+  public static Supplier<FirstOrderDependencyIndex> createMemoized(
+      Iterable<Path> jarPaths,
+      int threadCount) {
+    return Suppliers.memoize(new FirstOrderDependencyIndexSupplier(jarPaths, threadCount));
+  }
+
+  @Override
+  public FirstOrderDependencyIndex get() {
+    ExecutorService executor = MoreExecutors.newMultiThreadExecutor(
+        getClass().getSimpleName(),
+        Math.max(1, Math.min(threadCount, Iterables.size(jarPaths))));
+    try {
+      return FirstOrderDependencyIndex.fromJars(jarPaths, executor);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Throwables.propagate(e);
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
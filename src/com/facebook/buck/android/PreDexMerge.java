@@ -18,6 +18,7 @@ package com.facebook.buck.android;
 
 import com.facebook.buck.android.PreDexMerge.BuildOutput;
 import com.facebook.buck.io.MorePaths;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.rules.AbstractBuildRule;
 import com.facebook.buck.rules.AddToRuleKey;
@@ -43,6 +44,7 @@ import com.google.common.base.Predicates;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -50,6 +52,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
@@ -76,6 +79,8 @@ import javax.annotation.Nullable;
  */
 public class PreDexMerge extends AbstractBuildRule implements InitializableFromDisk<BuildOutput> {
 
+  private static final Logger LOG = Logger.get(PreDexMerge.class);
+
   /** Options to use with {@link DxStep} when merging pre-dexed files. */
   private static final EnumSet<DxStep.Option> DX_MERGE_OPTIONS = EnumSet.of(
       DxStep.Option.USE_CUSTOM_DX_IF_AVAILABLE,
@@ -140,6 +145,7 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
     private final Path metadataSubdir;
     private final Path jarfilesSubdir;
     private final Path metadataFile;
+    private final Path secondaryDexAssignmentsFile;
 
     private SplitDexPaths() {
       Path workDir = BuildTargets.getScratchPath(getBuildTarget(), "_%s_output");
@@ -153,6 +159,7 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
       metadataSubdir = metadataDir.resolve(AndroidBinary.SECONDARY_DEX_SUBDIR);
       jarfilesSubdir = jarfilesDir.resolve(AndroidBinary.SECONDARY_DEX_SUBDIR);
       metadataFile = metadataSubdir.resolve("metadata.txt");
+      secondaryDexAssignmentsFile = workDir.resolve("secondary_dex_assignments.txt");
     }
   }
 
@@ -195,6 +202,22 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
     buildableContext.recordArtifact(paths.metadataSubdir);
     buildableContext.recordArtifact(paths.successDir);
 
+    // The assignments of the previous build aren't part of the rule key, so the secondary dexes
+    // they lead to can differ between machines for the same rule key. Only use them when what this
+    // build produces can't be uploaded to the artifact cache, and pack from scratch otherwise.
+    Optional<ImmutableMap<Path, Integer>> previousSecondaryDexAssignments = Optional.absent();
+    if (dexSplitMode.useStableSecondaryDexBuckets()) {
+      buildableContext.recordArtifact(paths.secondaryDexAssignmentsFile);
+      if (context.getArtifactCache().isStoreSupported()) {
+        LOG.debug(
+            "Not keeping the secondary dex assignments of %s, as it may be stored in the cache.",
+            getBuildTarget());
+      } else {
+        previousSecondaryDexAssignments = Optional.of(
+            readSecondaryDexAssignments(paths.secondaryDexAssignmentsFile));
+      }
+    }
+
     PreDexedFilesSorter preDexedFilesSorter = new PreDexedFilesSorter(
         aaptPackageResources.getRDotJavaDexWithClasses(),
         dexFilesToMerge,
@@ -202,13 +225,33 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
         paths.scratchDir,
         dexSplitMode.getLinearAllocHardLimit(),
         dexSplitMode.getDexStore(),
-        paths.jarfilesSubdir);
+        paths.jarfilesSubdir,
+        previousSecondaryDexAssignments);
     final PreDexedFilesSorter.Result sortResult =
         preDexedFilesSorter.sortIntoPrimaryAndSecondaryDexes(
             context,
             getProjectFilesystem(),
             steps);
 
+    if (dexSplitMode.useStableSecondaryDexBuckets()) {
+      steps.add(new AbstractExecutionStep("write_secondary_dex_assignments") {
+        @Override
+        public int execute(ExecutionContext executionContext) {
+          List<String> lines = Lists.newArrayList();
+          for (Map.Entry<Path, Integer> entry : sortResult.secondaryDexAssignments.entrySet()) {
+            lines.add(String.format("%d %s", entry.getValue(), entry.getKey()));
+          }
+          try {
+            getProjectFilesystem().writeLinesToPath(lines, paths.secondaryDexAssignmentsFile);
+          } catch (IOException e) {
+            executionContext.logError(e, "Failed when writing secondary dex assignments.");
+            return 1;
+          }
+          return 0;
+        }
+      });
+    }
+
     steps.add(
         new SmartDexingStep(
             getProjectFilesystem(),
@@ -259,6 +302,38 @@ public class PreDexMerge extends AbstractBuildRule implements InitializableFromD
     });
   }
 
+  /**
+   * Reads the secondary dex assignments written by the previous build, so that
+   * {@link PreDexedFilesSorter} can keep them stable.  A missing or unreadable file just means the
+   * secondary dexes get packed from scratch.
+   */
+  private ImmutableMap<Path, Integer> readSecondaryDexAssignments(Path assignmentsFile) {
+    Optional<List<String>> lines = Optional.absent();
+    if (getProjectFilesystem().exists(assignmentsFile)) {
+      try {
+        lines = Optional.of(getProjectFilesystem().readLines(assignmentsFile));
+      } catch (IOException e) {
+        LOG.warn(e, "Couldn't read secondary dex assignments from %s.", assignmentsFile);
+      }
+    }
+
+    ImmutableMap.Builder<Path, Integer> assignments = ImmutableMap.builder();
+    for (String line : lines.or(ImmutableList.<String>of())) {
+      int space = line.indexOf(' ');
+      if (space <= 0) {
+        return ImmutableMap.of();
+      }
+      try {
+        assignments.put(
+            Paths.get(line.substring(space + 1)),
+            Integer.parseInt(line.substring(0, space)));
+      } catch (NumberFormatException e) {
+        return ImmutableMap.of();
+      }
+    }
+    return assignments.build();
+  }
+
   private void addStepsForSingleDex(
       ImmutableList.Builder<Step> steps,
       final BuildableContext buildableContext) {
@@ -40,6 +40,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 
@@ -47,6 +48,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -63,6 +65,12 @@ public class PreDexedFilesSorter {
   private final DexStore dexStore;
   private final Path secondaryDexJarFilesDir;
 
+  /**
+   * The secondary dex index that each pre-dexed file was assigned to by the previous build, if
+   * stable secondary dex buckets are enabled.
+   */
+  private final Optional<ImmutableMap<Path, Integer>> previousSecondaryDexAssignments;
+
   /**
    * Directory under the project filesystem where this step may write temporary data. This directory
    * must exist and be empty before this step writes to it.
@@ -77,6 +85,32 @@ public class PreDexedFilesSorter {
       long linearAllocHardLimit,
       DexStore dexStore,
       Path secondaryDexJarFilesDir) {
+    this(
+        rDotJavaDex,
+        dexFilesToMerge,
+        primaryDexPatterns,
+        scratchDirectory,
+        linearAllocHardLimit,
+        dexStore,
+        secondaryDexJarFilesDir,
+        Optional.<ImmutableMap<Path, Integer>>absent());
+  }
+
+  /**
+   * @param previousSecondaryDexAssignments if present, pre-dexed files are kept in the secondary
+   *     dex they were assigned to by the previous build (see {@link Result#secondaryDexAssignments})
+   *     as long as it stays under the linear alloc limit, so that unrelated secondary dex files
+   *     don't need to be re-merged.
+   */
+  public PreDexedFilesSorter(
+      Optional<DexWithClasses> rDotJavaDex,
+      List<DexWithClasses> dexFilesToMerge,
+      ImmutableSet<String> primaryDexPatterns,
+      Path scratchDirectory,
+      long linearAllocHardLimit,
+      DexStore dexStore,
+      Path secondaryDexJarFilesDir,
+      Optional<ImmutableMap<Path, Integer>> previousSecondaryDexAssignments) {
     this.rDotJavaDex = rDotJavaDex;
     this.dexFilesToMerge = dexFilesToMerge;
     this.primaryDexFilter = ClassNameFilter.fromConfiguration(primaryDexPatterns);
@@ -85,6 +119,7 @@ public class PreDexedFilesSorter {
     this.linearAllocHardLimit = linearAllocHardLimit;
     this.dexStore = dexStore;
     this.secondaryDexJarFilesDir = secondaryDexJarFilesDir;
+    this.previousSecondaryDexAssignments = previousSecondaryDexAssignments;
   }
 
   public Result sortIntoPrimaryAndSecondaryDexes(
@@ -92,7 +127,7 @@ public class PreDexedFilesSorter {
       ProjectFilesystem filesystem,
       ImmutableList.Builder<Step> steps) {
     List<DexWithClasses> primaryDexContents = Lists.newArrayList();
-    List<List<DexWithClasses>> secondaryDexesContents = Lists.newArrayList();
+    List<DexWithClasses> secondaryDexFiles = Lists.newArrayList();
 
     int primaryDexSize = 0;
     // R.class files should always be in the primary dex.
@@ -106,9 +141,6 @@ public class PreDexedFilesSorter {
     ImmutableList<DexWithClasses> sortedDexFilesToMerge = FluentIterable.from(dexFilesToMerge)
         .toSortedList(DexWithClasses.DEX_WITH_CLASSES_COMPARATOR);
 
-    // Bucket each DexWithClasses into the appropriate dex file.
-    List<DexWithClasses> currentSecondaryDexContents = null;
-    int currentSecondaryDexSize = 0;
     for (DexWithClasses dexWithClasses : sortedDexFilesToMerge) {
       if (mustBeInPrimaryDex(dexWithClasses)) {
         // Case 1: Entry must be in the primary dex.
@@ -137,26 +169,32 @@ public class PreDexedFilesSorter {
               linearAllocHardLimit);
           throw new HumanReadableException("Secondary dex exceeds linear alloc limit.");
         }
+        secondaryDexFiles.add(dexWithClasses);
+      }
+    }
 
-        // If there is no current secondary dex, or dexWithClasses would put the current secondary
-        // dex over the cost threshold, then create a new secondary dex and initialize it with a
-        // canary.
-        if (currentSecondaryDexContents == null ||
-            dexWithClasses.getSizeEstimate() + currentSecondaryDexSize > linearAllocHardLimit) {
-          DexWithClasses canary = createCanary(
-              filesystem,
-              secondaryDexesContents.size() + 1,
-              steps);
-
-          currentSecondaryDexContents = Lists.newArrayList(canary);
-          currentSecondaryDexSize = canary.getSizeEstimate();
-          secondaryDexesContents.add(currentSecondaryDexContents);
-        }
+    // Bucket each secondary DexWithClasses into the appropriate dex file.
+    Optional<List<List<DexWithClasses>>> stableBuckets = Optional.absent();
+    if (previousSecondaryDexAssignments.isPresent()) {
+      stableBuckets = bucketIntoPreviousSecondaryDexes(
+          secondaryDexFiles,
+          previousSecondaryDexAssignments.get());
+    }
+    List<List<DexWithClasses>> buckets = stableBuckets.isPresent()
+        ? stableBuckets.get()
+        : bucketIntoNewSecondaryDexes(secondaryDexFiles);
 
-        // Now add the contributions from the dexWithClasses entry.
-        currentSecondaryDexContents.add(dexWithClasses);
-        currentSecondaryDexSize += dexWithClasses.getSizeEstimate();
+    // Initialize each secondary dex with a canary.
+    List<List<DexWithClasses>> secondaryDexesContents = Lists.newArrayList();
+    ImmutableMap.Builder<Path, Integer> secondaryDexAssignments = ImmutableMap.builder();
+    for (List<DexWithClasses> bucket : buckets) {
+      int index = secondaryDexesContents.size();
+      List<DexWithClasses> contents = Lists.newArrayList(createCanary(filesystem, index + 1, steps));
+      for (DexWithClasses dexWithClasses : bucket) {
+        contents.add(dexWithClasses);
+        secondaryDexAssignments.put(dexWithClasses.getPathToDexFile(), index);
       }
+      secondaryDexesContents.add(contents);
     }
 
     ImmutableSet<Path> primaryDexInputs = FluentIterable.from(primaryDexContents)
@@ -179,7 +217,108 @@ public class PreDexedFilesSorter {
         primaryDexInputs,
         secondaryOutputToInputs.build(),
         metadataTxtEntries,
-        getDexInputsHashes(primaryDexContents, secondaryDexesContents));
+        getDexInputsHashes(primaryDexContents, secondaryDexesContents),
+        secondaryDexAssignments.build());
+  }
+
+  /**
+   * Packs the sorted secondary dex inputs greedily into as few secondary dexes as possible.
+   */
+  private List<List<DexWithClasses>> bucketIntoNewSecondaryDexes(
+      List<DexWithClasses> secondaryDexFiles) {
+    List<List<DexWithClasses>> buckets = Lists.newArrayList();
+    List<DexWithClasses> currentBucket = null;
+    long currentBucketSize = 0;
+    for (DexWithClasses dexWithClasses : secondaryDexFiles) {
+      // If there is no current secondary dex, or dexWithClasses would put the current secondary
+      // dex over the cost threshold, then create a new secondary dex.
+      if (currentBucket == null ||
+          dexWithClasses.getSizeEstimate() + currentBucketSize > linearAllocHardLimit) {
+        currentBucket = Lists.newArrayList();
+        currentBucketSize = 0;
+        buckets.add(currentBucket);
+      }
+      currentBucket.add(dexWithClasses);
+      currentBucketSize += dexWithClasses.getSizeEstimate();
+    }
+    return buckets;
+  }
+
+  /**
+   * Keeps each secondary dex input in the secondary dex it was assigned to by the previous build,
+   * as long as that dex stays under the linear alloc limit.  Inputs that are new, or that no longer
+   * fit, go into a secondary dex whose contents changed anyway, or into a new one at the end.
+   * That way, a change to one library only changes the secondary dex that contains it.
+   *
+   * @return the assignment, or absent if it would leave a secondary dex empty, in which case the
+   *     secondary dexes are packed from scratch.
+   */
+  private Optional<List<List<DexWithClasses>>> bucketIntoPreviousSecondaryDexes(
+      List<DexWithClasses> secondaryDexFiles,
+      ImmutableMap<Path, Integer> previousAssignments) {
+    int previousBucketCount = 0;
+    for (int index : previousAssignments.values()) {
+      previousBucketCount = Math.max(previousBucketCount, index + 1);
+    }
+    int[] previousBucketMembers = new int[previousBucketCount];
+    for (int index : previousAssignments.values()) {
+      previousBucketMembers[index]++;
+    }
+
+    List<List<DexWithClasses>> buckets = Lists.newArrayList();
+    List<Long> bucketSizes = Lists.newArrayList();
+    for (int i = 0; i < previousBucketCount; i++) {
+      buckets.add(Lists.<DexWithClasses>newArrayList());
+      bucketSizes.add(0L);
+    }
+
+    List<DexWithClasses> unassigned = Lists.newArrayList();
+    for (DexWithClasses dexWithClasses : secondaryDexFiles) {
+      Integer index = previousAssignments.get(dexWithClasses.getPathToDexFile());
+      if (index != null &&
+          bucketSizes.get(index) + dexWithClasses.getSizeEstimate() <= linearAllocHardLimit) {
+        buckets.get(index).add(dexWithClasses);
+        bucketSizes.set(index, bucketSizes.get(index) + dexWithClasses.getSizeEstimate());
+      } else {
+        unassigned.add(dexWithClasses);
+      }
+    }
+
+    // A secondary dex that lost any of its previous inputs has to be re-merged, so it's free to
+    // take on new inputs as well.  The untouched ones are left alone.
+    Set<Integer> changedBuckets = Sets.newTreeSet();
+    for (int i = 0; i < previousBucketCount; i++) {
+      if (buckets.get(i).size() != previousBucketMembers[i]) {
+        changedBuckets.add(i);
+      }
+    }
+
+    for (DexWithClasses dexWithClasses : unassigned) {
+      Integer target = null;
+      for (int index : changedBuckets) {
+        if (bucketSizes.get(index) + dexWithClasses.getSizeEstimate() <= linearAllocHardLimit) {
+          target = index;
+          break;
+        }
+      }
+      if (target == null) {
+        target = buckets.size();
+        buckets.add(Lists.<DexWithClasses>newArrayList());
+        bucketSizes.add(0L);
+        changedBuckets.add(target);
+      }
+      buckets.get(target).add(dexWithClasses);
+      bucketSizes.set(target, bucketSizes.get(target) + dexWithClasses.getSizeEstimate());
+    }
+
+    for (List<DexWithClasses> bucket : buckets) {
+      if (bucket.isEmpty()) {
+        return Optional.absent();
+      }
+      // Keep the inputs in a canonical order, so an unchanged secondary dex has identical inputs.
+      Collections.sort(bucket, DexWithClasses.DEX_WITH_CLASSES_COMPARATOR);
+    }
+    return Optional.of(buckets);
   }
 
   private static ImmutableMap<Path, Sha1HashCode> getDexInputsHashes(
@@ -271,13 +410,17 @@ public class PreDexedFilesSorter {
     public final Multimap<Path, Path> secondaryOutputToInputs;
     public final Map<Path, DexWithClasses> metadataTxtDexEntries;
     public final DexInputHashesProvider dexInputHashesProvider;
+    /** The index of the secondary dex that each pre-dexed file was put in. */
+    public final ImmutableMap<Path, Integer> secondaryDexAssignments;
 
     public Result(
         Set<Path> primaryDexInputs,
         Multimap<Path, Path> secondaryOutputToInputs,
         Map<Path, DexWithClasses> metadataTxtDexEntries,
-        final ImmutableMap<Path, Sha1HashCode> dexInputHashes) {
+        final ImmutableMap<Path, Sha1HashCode> dexInputHashes,
+        ImmutableMap<Path, Integer> secondaryDexAssignments) {
       this.primaryDexInputs = primaryDexInputs;
+      this.secondaryDexAssignments = secondaryDexAssignments;
       this.secondaryOutputToInputs = secondaryOutputToInputs;
       this.metadataTxtDexEntries = metadataTxtDexEntries;
       this.dexInputHashesProvider = new DexInputHashesProvider() {
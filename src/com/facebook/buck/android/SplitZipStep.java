@@ -20,6 +20,7 @@ import com.facebook.buck.dalvik.DalvikAwareZipSplitterFactory;
 import com.facebook.buck.dalvik.DefaultZipSplitterFactory;
 import com.facebook.buck.dalvik.ZipSplitter;
 import com.facebook.buck.dalvik.ZipSplitterFactory;
+import com.facebook.buck.dalvik.firstorder.FirstOrderDependencyIndex;
 import com.facebook.buck.dalvik.firstorder.FirstOrderHelper;
 import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.io.ProjectFilesystem;
@@ -42,7 +43,6 @@ import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 
 import org.objectweb.asm.Type;
-import org.objectweb.asm.tree.ClassNode;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -184,8 +184,10 @@ public class SplitZipStep implements Step {
       Set<Path> inputJarPaths = FluentIterable.from(inputPathsToSplit)
           .transform(filesystem.getAbsolutifier())
           .toSet();
-      Supplier<ImmutableList<ClassNode>> classes =
-          ClassNodeListSupplier.createMemoized(inputJarPaths);
+      Supplier<FirstOrderDependencyIndex> classes =
+          FirstOrderDependencyIndexSupplier.createMemoized(
+              inputJarPaths,
+              context.getConcurrencyLimit().threadLimit);
       ProguardTranslatorFactory translatorFactory = ProguardTranslatorFactory.create(
           filesystem,
           proguardFullConfigFile,
@@ -236,7 +238,7 @@ public class SplitZipStep implements Step {
   @VisibleForTesting
   Predicate<String> createRequiredInPrimaryZipPredicate(
       ProguardTranslatorFactory translatorFactory,
-      Supplier<ImmutableList<ClassNode>> classesSupplier)
+      Supplier<FirstOrderDependencyIndex> classesSupplier)
       throws IOException {
     final Function<String, String> deobfuscate = translatorFactory.createDeobfuscationFunction();
     final ImmutableSet<String> primaryDexClassNames =
@@ -275,7 +277,7 @@ public class SplitZipStep implements Step {
    */
   private ImmutableSet<String> getRequiredPrimaryDexClassNames(
       ProguardTranslatorFactory translatorFactory,
-      Supplier<ImmutableList<ClassNode>> classesSupplier)
+      Supplier<FirstOrderDependencyIndex> classesSupplier)
       throws IOException {
     ImmutableSet.Builder<String> builder = ImmutableSet.builder();
 
@@ -349,7 +351,7 @@ public class SplitZipStep implements Step {
    */
   private ImmutableSet<String> getWantedPrimaryDexEntries(
       ProguardTranslatorFactory translatorFactory,
-      Supplier<ImmutableList<ClassNode>> classesSupplier)
+      Supplier<FirstOrderDependencyIndex> classesSupplier)
       throws IOException {
     ImmutableSet.Builder<String> builder = ImmutableSet.builder();
 
@@ -372,7 +374,7 @@ public class SplitZipStep implements Step {
    */
   private void addScenarioClasses(
       ProguardTranslatorFactory translatorFactory,
-      Supplier<ImmutableList<ClassNode>> classesSupplier,
+      Supplier<FirstOrderDependencyIndex> classesSupplier,
       ImmutableSet.Builder<String> builder)
       throws IOException {
 
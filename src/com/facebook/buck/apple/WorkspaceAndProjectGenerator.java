@@ -33,12 +33,14 @@ import com.facebook.buck.rules.TargetGraph;
 import com.facebook.buck.rules.TargetNode;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.Optionals;
+import com.facebook.buck.util.concurrent.MoreFutures;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -50,6 +52,8 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -57,6 +61,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 public class WorkspaceAndProjectGenerator {
   private static final Logger LOG = Logger.get(WorkspaceAndProjectGenerator.class);
@@ -162,6 +168,31 @@ public class WorkspaceAndProjectGenerator {
   public Path generateWorkspaceAndDependentProjects(
         Map<Path, ProjectGenerator> projectGenerators)
       throws IOException {
+    try {
+      return generateWorkspaceAndDependentProjects(
+          projectGenerators,
+          MoreExecutors.newDirectExecutorService());
+    } catch (InterruptedException e) {
+      // Generating on the calling thread never waits for another one.
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Like {@link #generateWorkspaceAndDependentProjects(Map)}, but generates the projects that
+   * haven't been generated for an earlier workspace concurrently on {@code executorService}. Each
+   * project only writes files under its own directory, and the GIDs of its objects only depend on
+   * its own contents, so the projects are the same as when they are generated one at a time.
+   * <p>
+   * Only separate projects are generated concurrently: a combined project, and the project of
+   * combined test bundles, are each still generated on the calling thread, as the targets of one
+   * project all add to the same object graph.
+   */
+  public Path generateWorkspaceAndDependentProjects(
+        Map<Path, ProjectGenerator> projectGenerators,
+        ListeningExecutorService executorService)
+      throws IOException, InterruptedException {
     LOG.debug("Generating workspace for target %s", workspaceBuildTarget);
 
     String workspaceName = XcodeWorkspaceConfigDescription.getWorkspaceNameFromArg(
@@ -273,6 +304,8 @@ public class WorkspaceAndProjectGenerator {
       }
       ImmutableMultimap<Path, BuildTarget> projectDirectoryToBuildTargets =
           projectDirectoryToBuildTargetsBuilder.build();
+      ImmutableList.Builder<Path> requiredProjectDirectoriesBuilder = ImmutableList.builder();
+      ImmutableList.Builder<ProjectGenerator> newGeneratorsBuilder = ImmutableList.builder();
       for (Path projectDirectory : projectDirectoryToBuildTargets.keySet()) {
         final ImmutableSet<BuildTarget> rules = filterRulesForProjectDirectory(
             projectGraph,
@@ -280,6 +313,7 @@ public class WorkspaceAndProjectGenerator {
         if (Sets.intersection(targetsInRequiredProjects, rules).isEmpty()) {
           continue;
         }
+        requiredProjectDirectoriesBuilder.add(projectDirectory);
 
         ProjectGenerator generator = projectGenerators.get(projectDirectory);
         if (generator == null) {
@@ -318,14 +352,22 @@ public class WorkspaceAndProjectGenerator {
               defaultCxxPlatform,
               outputPathOfNode)
               .setTestsToGenerateAsStaticLibraries(groupableTests);
-
-          generator.createXcodeProjects();
-          requiredBuildTargetsBuilder.addAll(generator.getRequiredBuildTargets());
+          newGeneratorsBuilder.add(generator);
           projectGenerators.put(projectDirectory, generator);
         } else {
           LOG.debug("Already generated project for target %s, skipping", projectDirectory);
         }
+      }
 
+      ImmutableList<ProjectGenerator> newGenerators = newGeneratorsBuilder.build();
+      createXcodeProjects(newGenerators, executorService);
+      for (ProjectGenerator generator : newGenerators) {
+        requiredBuildTargetsBuilder.addAll(generator.getRequiredBuildTargets());
+      }
+
+      for (Path projectDirectory : requiredProjectDirectoriesBuilder.build()) {
+        ProjectGenerator generator = Preconditions.checkNotNull(
+            projectGenerators.get(projectDirectory));
         workspaceGenerator.addFilePath(generator.getProjectPath());
 
         buildTargetToPbxTargetMapBuilder.putAll(generator.getBuildTargetToGeneratedTargetMap());
@@ -768,6 +810,28 @@ public class WorkspaceAndProjectGenerator {
     }
   }
 
+  private static void createXcodeProjects(
+      ImmutableList<ProjectGenerator> generators,
+      ListeningExecutorService executorService) throws IOException, InterruptedException {
+    ImmutableList.Builder<Callable<Void>> generations = ImmutableList.builder();
+    for (final ProjectGenerator generator : generators) {
+      generations.add(
+          new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              generator.createXcodeProjects();
+              return null;
+            }
+          });
+    }
+    try {
+      MoreFutures.getAll(executorService, generations.build());
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
   private void writeWorkspaceSchemes(
       String workspaceName,
       Path outputDirectory,
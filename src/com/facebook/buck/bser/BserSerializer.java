@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.bser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Encoder for the BSER binary JSON format used by the Watchman service, which can be read back by
+ * {@link BserDeserializer}:
+ *
+ * https://facebook.github.io/watchman/docs/bser.html
+ *
+ * Like Watchman, integers are written with the smallest encoding that can hold them.
+ */
+public class BserSerializer {
+
+  private static final int INITIAL_BUFFER_SIZE = 8192;
+
+  private static final byte BSER_ARRAY = 0x00;
+  private static final byte BSER_OBJECT = 0x01;
+  private static final byte BSER_STRING = 0x02;
+  private static final byte BSER_INT8 = 0x03;
+  private static final byte BSER_INT16 = 0x04;
+  private static final byte BSER_INT32 = 0x05;
+  private static final byte BSER_INT64 = 0x06;
+  private static final byte BSER_REAL = 0x07;
+  private static final byte BSER_TRUE = 0x08;
+  private static final byte BSER_FALSE = 0x09;
+  private static final byte BSER_NULL = 0x0a;
+
+  private ByteBuffer buffer;
+
+  public BserSerializer() {
+    this.buffer = allocate(INITIAL_BUFFER_SIZE);
+  }
+
+  /**
+   * Serializes {@code value} to the stream as a single BSER PDU.
+   *
+   * @param value either a {@link String}, {@link Number}, {@link Boolean}, {@link Collection},
+   *     {@link Map} with {@link String} keys, or {@code null}, containing only values of the same
+   *     types.
+   */
+  public void serializeToStream(@Nullable Object value, OutputStream outputStream)
+      throws IOException {
+    buffer.clear();
+    serializeRecursive(value);
+    int length = buffer.position();
+
+    ByteBuffer header = allocate(11);
+    header.put((byte) 0x00).put((byte) 0x01);
+    putInt(header, length);
+    outputStream.write(header.array(), 0, header.position());
+    outputStream.write(buffer.array(), 0, length);
+  }
+
+  private static ByteBuffer allocate(int capacity) {
+    return ByteBuffer.allocate(capacity).order(ByteOrder.nativeOrder());
+  }
+
+  private void ensureRemaining(int bytes) {
+    if (buffer.remaining() >= bytes) {
+      return;
+    }
+    int capacity = buffer.capacity();
+    while (capacity - buffer.position() < bytes) {
+      capacity *= 2;
+    }
+    ByteBuffer grown = allocate(capacity);
+    buffer.flip();
+    grown.put(buffer);
+    buffer = grown;
+  }
+
+  private static void putInt(ByteBuffer target, long value) {
+    if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+      target.put(BSER_INT8).put((byte) value);
+    } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+      target.put(BSER_INT16).putShort((short) value);
+    } else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+      target.put(BSER_INT32).putInt((int) value);
+    } else {
+      target.put(BSER_INT64).putLong(value);
+    }
+  }
+
+  private void serializeInt(long value) {
+    ensureRemaining(9);
+    putInt(buffer, value);
+  }
+
+  private void serializeString(String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    ensureRemaining(10 + bytes.length);
+    buffer.put(BSER_STRING);
+    putInt(buffer, bytes.length);
+    buffer.put(bytes);
+  }
+
+  private void serializeRecursive(@Nullable Object value) throws IOException {
+    if (value == null) {
+      ensureRemaining(1);
+      buffer.put(BSER_NULL);
+    } else if (value instanceof String) {
+      serializeString((String) value);
+    } else if (value instanceof Boolean) {
+      ensureRemaining(1);
+      buffer.put(((Boolean) value) ? BSER_TRUE : BSER_FALSE);
+    } else if (value instanceof Double || value instanceof Float) {
+      ensureRemaining(9);
+      buffer.put(BSER_REAL).putDouble(((Number) value).doubleValue());
+    } else if (value instanceof Number) {
+      serializeInt(((Number) value).longValue());
+    } else if (value instanceof Collection<?>) {
+      Collection<?> collection = (Collection<?>) value;
+      ensureRemaining(1);
+      buffer.put(BSER_ARRAY);
+      serializeInt(collection.size());
+      for (Object item : collection) {
+        serializeRecursive(item);
+      }
+    } else if (value instanceof Map<?, ?>) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      ensureRemaining(1);
+      buffer.put(BSER_OBJECT);
+      serializeInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        if (!(entry.getKey() instanceof String)) {
+          throw new IOException(
+              String.format("BSER object keys must be strings, got %s", entry.getKey()));
+        }
+        serializeString((String) entry.getKey());
+        serializeRecursive(entry.getValue());
+      }
+    } else {
+      throw new IOException(
+          String.format("Cannot encode %s (class %s) as BSER", value, value.getClass()));
+    }
+  }
+}
@@ -37,6 +37,7 @@ public class AuditCommand extends AbstractContainerCommand {
       @SubCommand(name = "owner", impl = AuditOwnerCommand.class),
       @SubCommand(name = "rules", impl = AuditRulesCommand.class),
       @SubCommand(name = "tests", impl = AuditTestsCommand.class),
+      @SubCommand(name = "timings", impl = AuditTimingsCommand.class),
   })
   @SuppressFieldNotInitialized
   Command subcommand;
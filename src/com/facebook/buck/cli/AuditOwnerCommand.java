@@ -23,6 +23,7 @@ import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetException;
 import com.facebook.buck.model.FilesystemBackedBuildFileTree;
 import com.facebook.buck.parser.ParserConfig;
+import com.facebook.buck.parser.TargetNodeInputIndex;
 import com.facebook.buck.rules.TargetNode;
 import com.facebook.buck.util.Ansi;
 import com.google.common.annotations.VisibleForTesting;
@@ -203,6 +204,7 @@ public class AuditOwnerCommand extends AbstractCommand {
               params.getConsole(),
               params.getBuckEventBus());
 
+          targetNodes.put(buckFile, Lists.<TargetNode<?>>newArrayList());
           for (Map<String, Object> buildFileTarget : buildFileTargets) {
             if (!buildFileTarget.containsKey("name")) {
               continue;
@@ -212,9 +214,6 @@ public class AuditOwnerCommand extends AbstractCommand {
                 targetBaseName,
                 (String) buildFileTarget.get("name")).build();
 
-            if (!targetNodes.containsKey(buckFile)) {
-              targetNodes.put(buckFile, Lists.<TargetNode<?>>newArrayList());
-            }
             TargetNode<?> parsedTargetNode = params.getParser().getTargetNode(target);
             if (parsedTargetNode != null) {
               targetNodes.get(buckFile).add(parsedTargetNode);
@@ -229,14 +228,13 @@ public class AuditOwnerCommand extends AbstractCommand {
         }
       }
 
-      for (TargetNode<?> targetNode : targetNodes.get(buckFile)) {
-        report = report.updatedWith(
-            generateOwnersReport(
-                params,
-                targetNode,
-                ImmutableList.of(filePath.toString()),
-                guessForDeletedEnabled));
-      }
+      report = report.updatedWith(
+          generateOwnersReport(
+              params,
+              targetNodes.get(buckFile),
+              params.getParser().getTargetNodeInputIndex(),
+              filePath,
+              guessForDeletedEnabled));
     }
     return report;
   }
@@ -246,6 +244,51 @@ public class AuditOwnerCommand extends AbstractCommand {
     return true;
   }
 
+  /**
+   * Finds the owners of {@code filePath} among the {@code targetNodes} of its build file using
+   * {@code index}, rather than checking each node's inputs in turn.
+   */
+  private static OwnersReport generateOwnersReport(
+      CommandRunnerParams params,
+      List<TargetNode<?>> targetNodes,
+      TargetNodeInputIndex index,
+      Path filePath,
+      boolean guessForDeletedEnabled) {
+    File file = params.getRepository().getFilesystem().getFileForRelativePath(filePath.toString());
+    if (!file.exists()) {
+      SetMultimap<TargetNode<?>, Path> owners = TreeMultimap.create();
+      if (guessForDeletedEnabled) {
+        for (TargetNode<?> targetNode : targetNodes) {
+          owners.put(targetNode, filePath);
+        }
+      }
+      return new OwnersReport(
+          owners,
+          ImmutableSet.<Path>of(),
+          ImmutableSet.of(filePath.toString()),
+          ImmutableSet.<String>of());
+    } else if (!file.isFile()) {
+      return new OwnersReport(
+          ImmutableSetMultimap.<TargetNode<?>, Path>of(),
+          ImmutableSet.<Path>of(),
+          ImmutableSet.<String>of(),
+          ImmutableSet.of(filePath.toString()));
+    }
+
+    ImmutableSet<BuildTarget> ownerTargets = index.getOwners(filePath);
+    SetMultimap<TargetNode<?>, Path> owners = TreeMultimap.create();
+    for (TargetNode<?> targetNode : targetNodes) {
+      if (ownerTargets.contains(targetNode.getBuildTarget())) {
+        owners.put(targetNode, filePath);
+      }
+    }
+    return new OwnersReport(
+        owners,
+        owners.isEmpty() ? ImmutableSet.of(filePath) : ImmutableSet.<Path>of(),
+        ImmutableSet.<String>of(),
+        ImmutableSet.<String>of());
+  }
+
   @VisibleForTesting
   static OwnersReport generateOwnersReport(
       CommandRunnerParams params,
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.event.listener.BuildTimingHistory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summarizes how long rules took in the last builds, as recorded in the {@link BuildTimingHistory},
+ * so that regressions in specific rules show up.
+ */
+public class AuditTimingsCommand extends AbstractCommand {
+
+  @Option(name = "--builds",
+      usage = "How many of the last builds to summarize.")
+  private int builds = 100;
+
+  @Option(name = "--limit",
+      usage = "How many rules to list, slowest first.")
+  private int limit = 50;
+
+  @Option(name = "--steps",
+      usage = "Also list how long the steps of each rule took.")
+  private boolean showSteps;
+
+  @Option(name = "--json",
+      usage = "Output in JSON format")
+  private boolean generateJsonOutput;
+
+  @Argument
+  private List<String> arguments = Lists.newArrayList();
+
+  public List<String> getArguments() {
+    return arguments;
+  }
+
+  @Override
+  public int runWithoutHelp(CommandRunnerParams params) throws IOException, InterruptedException {
+    ImmutableSet<String> targets = ImmutableSet.copyOf(
+        getCommandLineBuildTargetNormalizer(params.getBuckConfig()).normalizeAll(getArguments()));
+    ImmutableList<BuildTimingHistory.BuildRecord> records =
+        new BuildTimingHistory(params.getRepository().getFilesystem(), params.getObjectMapper())
+            .read(builds);
+    Map<String, BuildTimingHistory.RuleStatistics> statistics =
+        selectSlowest(BuildTimingHistory.computeStatistics(records), targets);
+
+    if (generateJsonOutput) {
+      params.getObjectMapper().writeValue(params.getConsole().getStdOut(), statistics);
+      return 0;
+    }
+
+    PrintStream stdOut = params.getConsole().getStdOut();
+    stdOut.printf(
+        "Timings of %d rules over the last %d builds, in milliseconds.%n",
+        statistics.size(),
+        records.size());
+    stdOut.printf(
+        "%8s %8s %8s %8s %6s %6s %6s %12s  %s%n",
+        "median", "p90", "max", "last", "built", "cached", "failed", "output bytes", "target");
+    for (Map.Entry<String, BuildTimingHistory.RuleStatistics> entry : statistics.entrySet()) {
+      BuildTimingHistory.RuleStatistics rule = entry.getValue();
+      stdOut.printf(
+          "%8d %8d %8d %8d %6d %6d %6d %12s  %s%n",
+          rule.getMedianMillis(),
+          rule.getP90Millis(),
+          rule.getMaxMillis(),
+          rule.getLastMillis(),
+          rule.getBuiltLocally(),
+          rule.getFetchedFromCache(),
+          rule.getFailed(),
+          rule.getLastOutputBytes() == null ? "-" : String.valueOf(rule.getLastOutputBytes()),
+          entry.getKey());
+      if (showSteps) {
+        for (Map.Entry<String, Long> step : rule.getMedianStepMillis().entrySet()) {
+          stdOut.printf("%8d %61s  %s%n", step.getValue(), "", step.getKey());
+        }
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * @return the statistics of {@code targets}, or of all rules if there are none, up to
+   *     {@link #limit} of them, slowest first.
+   */
+  private Map<String, BuildTimingHistory.RuleStatistics> selectSlowest(
+      ImmutableSortedMap<String, BuildTimingHistory.RuleStatistics> statistics,
+      ImmutableSet<String> targets) {
+    List<Map.Entry<String, BuildTimingHistory.RuleStatistics>> entries = new ArrayList<>();
+    for (Map.Entry<String, BuildTimingHistory.RuleStatistics> entry : statistics.entrySet()) {
+      if (targets.isEmpty() || targets.contains(entry.getKey())) {
+        entries.add(entry);
+      }
+    }
+    Collections.sort(
+        entries,
+        new Comparator<Map.Entry<String, BuildTimingHistory.RuleStatistics>>() {
+          @Override
+          public int compare(
+              Map.Entry<String, BuildTimingHistory.RuleStatistics> a,
+              Map.Entry<String, BuildTimingHistory.RuleStatistics> b) {
+            return Long.compare(b.getValue().getMedianMillis(), a.getValue().getMedianMillis());
+          }
+        });
+    Map<String, BuildTimingHistory.RuleStatistics> selected = new LinkedHashMap<>();
+    for (Map.Entry<String, BuildTimingHistory.RuleStatistics> entry :
+        entries.subList(0, Math.min(limit, entries.size()))) {
+      selected.put(entry.getKey(), entry.getValue());
+    }
+    return selected;
+  }
+
+  @Override
+  public boolean isReadOnly() {
+    return true;
+  }
+
+  @Override
+  public String getShortDescription() {
+    return "summarizes how long rules took in the last builds";
+  }
+}
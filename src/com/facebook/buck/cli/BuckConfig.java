@@ -37,6 +37,7 @@ import com.facebook.buck.rules.Tool;
 import com.facebook.buck.util.Ansi;
 import com.facebook.buck.util.AnsiEnvironmentChecking;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
 import com.facebook.buck.util.environment.Platform;
 import com.facebook.buck.util.network.HostnameFetching;
 import com.google.common.annotations.Beta;
@@ -44,6 +45,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -74,6 +76,8 @@ public class BuckConfig {
 
   private static final String ALIAS_SECTION_HEADER = "alias";
 
+  private static final String RULE_RESOURCES_SECTION_HEADER = "rule_resources";
+
   /**
    * This pattern is designed so that a fully-qualified build target cannot be a valid alias name
    * and vice-versa.
@@ -85,6 +89,9 @@ public class BuckConfig {
 
   private static final String DEFAULT_MAX_TRACES = "25";
 
+  private static final long DEFAULT_MAX_TIMING_HISTORY_BUILDS = 1000;
+  private static final long DEFAULT_FILE_HASH_PREFETCH_WINDOW = 256;
+
   private static final Function<String, URI> TO_URI = new Function<String, URI>() {
     @Override
     public URI apply(String input) {
@@ -391,6 +398,15 @@ public class BuckConfig {
     return getBooleanValue("log", "compress_traces", false);
   }
 
+  /**
+   * @return how many builds the timings of rules are kept for, or zero not to record them.
+   */
+  public int getMaxTimingHistoryBuilds() {
+    return config.getLong("log", "max_timing_history_builds")
+        .or(DEFAULT_MAX_TIMING_HISTORY_BUILDS)
+        .intValue();
+  }
+
   public boolean getRestartAdbOnFailure() {
     return Boolean.parseBoolean(getValue("adb", "adb_restart_on_failure").or("true"));
   }
@@ -613,6 +629,73 @@ public class BuckConfig {
         .or(Float.POSITIVE_INFINITY);
   }
 
+  /**
+   * @return how much memory, in megabytes, the steps that a build runs at once may be expected to
+   *     use, if limited beyond what the machine has available.
+   */
+  public long getMemoryLimitMegabytes() {
+    return config.getLong("build", "memory_limit_mb").or(Long.MAX_VALUE);
+  }
+
+  /**
+   * @return what the steps of each type of rule are expected to use, by rule type, from entries of
+   *     the form {@code <type> = <cores>, <megabytes of memory>}.
+   */
+  public ImmutableMap<String, ResourceAmounts> getResourceAmountsByRuleType() {
+    ImmutableMap.Builder<String, ResourceAmounts> amounts = ImmutableMap.builder();
+    for (String type : getEntriesForSection(RULE_RESOURCES_SECTION_HEADER).keySet()) {
+      ImmutableList<String> values = getListWithoutComments(RULE_RESOURCES_SECTION_HEADER, type);
+      try {
+        Preconditions.checkArgument(values.size() == 2);
+        amounts.put(
+            type,
+            new ResourceAmounts(Integer.parseInt(values.get(0)), Long.parseLong(values.get(1))));
+      } catch (IllegalArgumentException e) {
+        throw new HumanReadableException(
+            "%s:%s must be a number of cores and megabytes of memory, such as \"1, 512\": %s",
+            RULE_RESOURCES_SECTION_HEADER,
+            type,
+            getValue(RULE_RESOURCES_SECTION_HEADER, type).or(""));
+      }
+    }
+    return amounts.build();
+  }
+
+  /**
+   * @return the number of threads to hash the inputs of a build with before computing its rule
+   *     keys, or zero to leave hashing them to the rule key computations.
+   */
+  public int getFileHashPrefetchThreads() {
+    return config.getLong("build", "hash_prefetch_threads")
+        .or((long) getNumThreads())
+        .intValue();
+  }
+
+  /**
+   * @return how many of the inputs of a build may be hashed at once ahead of its rule keys.
+   */
+  public int getFileHashPrefetchWindow() {
+    return config.getLong("build", "hash_prefetch_window")
+        .or(DEFAULT_FILE_HASH_PREFETCH_WINDOW)
+        .intValue();
+  }
+
+  /**
+   * @return whether build metadata is kept in a single store under {@code buck-out} rather than as
+   *     a file per key in the metadata directory of each rule.
+   */
+  public boolean isBuildMetadataStoreEnabled() {
+    return getBooleanValue("build", "metadata_store", true);
+  }
+
+  /**
+   * @return whether buckd may finish a build without doing anything when it is the same as the
+   *     last successful one and Watchman has reported no changes since.
+   */
+  public boolean isUnchangedBuildSkippingEnabled() {
+    return getBooleanValue("build", "skip_unchanged_builds", true);
+  }
+
   public Optional<Path> getPath(String sectionName, String name, boolean isRepoRootRelative) {
     Optional<String> pathString = getValue(sectionName, name);
     return pathString.isPresent() ?
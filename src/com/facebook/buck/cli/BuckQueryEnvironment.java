@@ -57,6 +57,7 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryTarget> {
   private final CommandRunnerParams params;
   private final ParserConfig parserConfig;
   private final BuildFileTree buildFileTree;
+  private final QueryTargetIndex index = new QueryTargetIndex();
   private TargetGraph graph = TargetGraph.EMPTY;
 
   @VisibleForTesting
@@ -174,12 +175,46 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryTarget> {
   }
 
   @Override
-  public Collection<QueryTarget> getFwdDeps(Iterable<QueryTarget> targets)
+  public Set<QueryTarget> newTargetSet() {
+    return new QueryTargetSet(index);
+  }
+
+  /**
+   * @return the ids of {@code targets}.  Targets that aren't in the graph are loaded, which fails
+   *     if they aren't build targets, but have no edges.
+   */
+  private int[] getIds(Iterable<QueryTarget> targets)
       throws QueryException, InterruptedException {
-    Set<QueryTarget> result = new LinkedHashSet<>();
+    if (targets instanceof QueryTargetSet && ((QueryTargetSet) targets).getIndex() == index) {
+      int[] ids = ((QueryTargetSet) targets).toIdArray();
+      for (int id : ids) {
+        if (!index.isInGraph(id)) {
+          getNode(index.getTarget(id));
+        }
+      }
+      return ids;
+    }
+    QueryTargetSet set = new QueryTargetSet(index);
     for (QueryTarget target : targets) {
-      TargetNode<?> node = getNode(target);
-      result.addAll(getTargetsFromBuildTargetsContainer(graph.getOutgoingNodesFor(node)));
+      int id = index.getOrCreateId(target);
+      if (!index.isInGraph(id)) {
+        getNode(target);
+      }
+      set.addId(id);
+    }
+    return set.toIdArray();
+  }
+
+  @Override
+  public Collection<QueryTarget> getFwdDeps(Iterable<QueryTarget> targets)
+      throws QueryException, InterruptedException {
+    QueryTargetSet result = new QueryTargetSet(index);
+    for (int id : getIds(targets)) {
+      if (index.isInGraph(id)) {
+        for (int dep : index.getDeps(id)) {
+          result.addId(dep);
+        }
+      }
     }
     return result;
   }
@@ -187,24 +222,25 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryTarget> {
   @Override
   public Collection<QueryTarget> getReverseDeps(Iterable<QueryTarget> targets)
       throws QueryException, InterruptedException {
-    Set<QueryTarget> result = new LinkedHashSet<>();
-    for (QueryTarget target : targets) {
-      TargetNode<?> node = getNode(target);
-      result.addAll(getTargetsFromBuildTargetsContainer(graph.getIncomingNodesFor(node)));
+    QueryTargetSet result = new QueryTargetSet(index);
+    for (int id : getIds(targets)) {
+      if (index.isInGraph(id)) {
+        for (int dependent : index.getReverseDeps(id)) {
+          result.addId(dependent);
+        }
+      }
     }
     return result;
   }
 
   @Override
-  public ImmutableSet<QueryTarget> getTransitiveClosure(Set<QueryTarget> targets)
+  public Set<QueryTarget> getTransitiveClosure(Set<QueryTarget> targets)
       throws QueryException, InterruptedException {
-    Set<TargetNode<?>> nodes = new LinkedHashSet<>();
-    for (QueryTarget target : targets) {
-      nodes.add(getNode(target));
+    QueryTargetSet result = new QueryTargetSet(index);
+    for (int id : index.getTransitiveClosure(getIds(targets))) {
+      result.addId(id);
     }
-    // Reusing the existing getSubgraph() for simplicity. It builds the graph when we only need the
-    // nodes. The impact of creating the edges in terms of time and space should be minimal.
-    return getTargetsFromBuildTargetsContainer(graph.getSubgraph(nodes).getNodes());
+    return result;
   }
 
   private void buildGraphForBuildTargets(Set<BuildTarget> targets)
@@ -226,18 +262,19 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryTarget> {
   public void buildTransitiveClosure(Set<QueryTarget> targets, int maxDepth)
       throws QueryException, InterruptedException {
     // Filter QueryTargets that are build targets and not yet present in the build target graph.
-    Set<BuildTarget> graphTargets = getTargetsFromNodes(graph.getNodes());
     Set<BuildTarget> newBuildTargets = new HashSet<>();
     for (QueryTarget target : targets) {
       if (target instanceof QueryBuildTarget) {
         BuildTarget buildTarget = ((QueryBuildTarget) target).getBuildTarget();
-        if (!graphTargets.contains(buildTarget)) {
+        if (graph.get(buildTarget) == null) {
           newBuildTargets.add(buildTarget);
         }
       }
     }
     if (!newBuildTargets.isEmpty()) {
+      Set<BuildTarget> graphTargets = getTargetsFromNodes(graph.getNodes());
       buildGraphForBuildTargets(Sets.union(newBuildTargets, graphTargets));
+      index.setGraph(graph);
       for (BuildTarget buildTarget : getTargetsFromNodes(graph.getNodes())) {
         if (!buildTargetToQueryTarget.containsKey(buildTarget)) {
           buildTargetToQueryTarget.put(buildTarget, QueryBuildTarget.of(buildTarget));
@@ -21,8 +21,12 @@ import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.NoopArtifactCache;
 import com.facebook.buck.command.Build;
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.PerfEventId;
+import com.facebook.buck.event.SimplePerfEvent;
+import com.facebook.buck.event.listener.BuildTimingHistory;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.json.BuildFileParseException;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetException;
 import com.facebook.buck.model.HasBuildTarget;
@@ -33,18 +37,26 @@ import com.facebook.buck.parser.ParserConfig;
 import com.facebook.buck.rules.ActionGraph;
 import com.facebook.buck.rules.BuildEngine;
 import com.facebook.buck.rules.BuildEvent;
+import com.facebook.buck.rules.BuildMetadataStores;
 import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleDurationHistory;
 import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.BuildRuleResources;
 import com.facebook.buck.rules.CachingBuildEngine;
 import com.facebook.buck.rules.TargetGraph;
 import com.facebook.buck.rules.TargetGraphToActionGraph;
+import com.facebook.buck.rules.TargetNode;
 import com.facebook.buck.step.AdbOptions;
 import com.facebook.buck.step.TargetDevice;
 import com.facebook.buck.step.TargetDeviceOptions;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.util.cache.FileHashPrefetchStats;
+import com.facebook.buck.util.cache.FileHashPrefetcher;
 import com.facebook.buck.util.concurrent.ConcurrencyLimit;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
+import com.facebook.buck.util.concurrent.ResourceLimiter;
 import com.facebook.buck.util.environment.Platform;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
@@ -58,6 +70,8 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
@@ -65,11 +79,14 @@ import org.kohsuke.args4j.Option;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.annotation.Nullable;
 
 public class BuildCommand extends AbstractCommand {
 
+  private static final Logger LOG = Logger.get(BuildCommand.class);
+
   private static final String KEEP_GOING_LONG_ARG = "--keep-going";
   private static final String BUILD_REPORT_LONG_ARG = "--build-report";
   private static final String LOAD_LIMIT_LONG_ARG = "--load-limit";
@@ -181,9 +198,11 @@ public class BuildCommand extends AbstractCommand {
 
   Build createBuild(
       BuckConfig buckConfig,
+      ProjectFilesystem filesystem,
       ActionGraph graph,
       Supplier<AndroidPlatformTarget> androidPlatformTargetSupplier,
       BuildEngine buildEngine,
+      ListeningExecutorService executorService,
       ArtifactCache artifactCache,
       Console console,
       BuckEventBus eventBus,
@@ -202,6 +221,7 @@ public class BuildCommand extends AbstractCommand {
         targetDevice,
         androidPlatformTargetSupplier,
         buildEngine,
+        executorService,
         artifactCache,
         buckConfig.createDefaultJavaPackageFinder(),
         console,
@@ -215,17 +235,90 @@ public class BuildCommand extends AbstractCommand {
         clock,
         getConcurrencyLimit(buckConfig),
         adbOptions,
-        targetDeviceOptions);
+        targetDeviceOptions,
+        buckConfig.isBuildMetadataStoreEnabled()
+            ? BuildMetadataStores.create()
+            : BuildMetadataStores.disabled(),
+        new BuildRuleResources(
+            new ResourceLimiter(
+                new ResourceAmounts(
+                    buckConfig.getNumThreads(),
+                    buckConfig.getMemoryLimitMegabytes()),
+                buckConfig.getLoadLimit()),
+            buckConfig.getResourceAmountsByRuleType()),
+        BuildRuleDurationHistory.load(
+            filesystem,
+            objectMapper,
+            new BuildTimingHistory(filesystem, objectMapper).getEstimatedDurations(
+                Math.min(
+                    buckConfig.getMaxTimingHistoryBuilds(),
+                    BuildTimingHistory.ESTIMATE_BUILDS))));
   }
 
   @Nullable private Build lastBuild;
 
   private ImmutableSet<BuildTarget> buildTargets = ImmutableSet.of();
 
+  private final boolean isBuildReadAfterwards;
+
+  public BuildCommand() {
+    this(/* isBuildReadAfterwards */ false);
+  }
+
+  /**
+   * @param isBuildReadAfterwards whether the caller reads {@link #getBuild()} after running this
+   *     command, in which case the build is never skipped, as there would be no {@link Build}.
+   */
+  BuildCommand(boolean isBuildReadAfterwards) {
+    this.isBuildReadAfterwards = isBuildReadAfterwards;
+  }
+
   @Override
   @SuppressWarnings("PMD.PrematureDeclaration")
   public int runWithoutHelp(CommandRunnerParams params) throws IOException, InterruptedException {
-    return run(params, Optional.<String>absent());
+    if (!params.getLastBuildState().isPresent() ||
+        !params.getBuckConfig().isUnchangedBuildSkippingEnabled() ||
+        !isUnchangedBuildSkippable()) {
+      return run(params, Optional.<String>absent());
+    }
+
+    LastBuildState lastBuildState = params.getLastBuildState().get();
+    ImmutableList<Object> key = ImmutableList.of(
+        getArguments(),
+        getOptions(),
+        getBuildEngineMode(),
+        params.getBuckConfig(),
+        params.getEnvironment());
+    if (lastBuildState.isUnchanged(key)) {
+      LOG.info("Nothing changed since the last build of %s.", getArguments());
+      BuildEvent.Started started = BuildEvent.started(getArguments());
+      params.getBuckEventBus().post(started);
+      params.getBuckEventBus().post(BuildEvent.finished(started, 0));
+      return 0;
+    }
+
+    lastBuildState.invalidate();
+    int exitCode = run(params, Optional.<String>absent());
+    if (exitCode == 0 && lastBuild != null) {
+      ImmutableSet.Builder<Path> outputs = ImmutableSet.builder();
+      for (BuildTarget target : buildTargets) {
+        BuildRule rule = lastBuild.getActionGraph().findBuildRuleByTarget(target);
+        if (rule != null && rule.getPathToOutput() != null) {
+          outputs.add(rule.getProjectFilesystem().resolve(rule.getPathToOutput()));
+        }
+      }
+      lastBuildState.recordSuccessfulBuild(key, outputs.build());
+    }
+    return exitCode;
+  }
+
+  /**
+   * @return whether the build may be skipped altogether when nothing changed since the last
+   *     successful one.
+   */
+  @VisibleForTesting
+  boolean isUnchangedBuildSkippable() {
+    return !isBuildReadAfterwards && getArguments().size() > 0 && buildReport == null;
   }
 
   protected int run(CommandRunnerParams params, Optional<String> additionalTarget)
@@ -266,6 +359,7 @@ public class BuildCommand extends AbstractCommand {
     // Parse the build files to create a ActionGraph.
     ActionGraph actionGraph;
     ImmutableMap<ProjectFilesystem, BuildRuleResolver> resolvers;
+    TargetGraph targetGraph;
     try {
       Pair<ImmutableSet<BuildTarget>, TargetGraph> result = params.getParser()
           .buildTargetGraphForTargetNodeSpecs(
@@ -279,31 +373,45 @@ public class BuildCommand extends AbstractCommand {
               params.getEnvironment(),
               getEnableProfiling());
       buildTargets = result.getFirst();
+      targetGraph = result.getSecond();
+    } catch (BuildTargetException | BuildFileParseException e) {
+      params.getConsole().printBuildFailureWithoutStacktrace(e);
+      return 1;
+    }
+
+    // Hash the inputs while the action graph is being built, rather than after.
+    Optional<InputHashPrefetch> prefetch = startPrefetchingInputHashes(params, targetGraph);
+    try {
       TargetGraphToActionGraph targetGraphToActionGraph =
           new TargetGraphToActionGraph(
               params.getBuckEventBus(),
               new BuildTargetNodeToBuildRuleTransformer(),
               params.getFileHashCache());
-      actionGraph = targetGraphToActionGraph.apply(result.getSecond());
+      actionGraph = targetGraphToActionGraph.apply(targetGraph);
       resolvers = targetGraphToActionGraph.getRuleResolvers();
-    } catch (BuildTargetException | BuildFileParseException e) {
-      params.getConsole().printBuildFailureWithoutStacktrace(e);
-      return 1;
-    }
 
-    // If the user specified an explicit build target, use that.
-    if (justBuildTarget != null) {
-      BuildTarget explicitTarget = BuildTargetParser.INSTANCE.parse(
-          justBuildTarget, BuildTargetPatternParser.fullyQualified());
-      Iterable<BuildRule> actionGraphRules = Preconditions.checkNotNull(actionGraph.getNodes());
-      ImmutableSet<BuildTarget> actionGraphTargets =
-          ImmutableSet.copyOf(Iterables.transform(actionGraphRules, HasBuildTarget.TO_TARGET));
-      if (!actionGraphTargets.contains(explicitTarget)) {
-        params.getConsole().printBuildFailure(
-            "Targets specified via `--just-build` must be a subset of action graph.");
-        return 1;
+      // If the user specified an explicit build target, use that.
+      if (justBuildTarget != null) {
+        BuildTarget explicitTarget = BuildTargetParser.INSTANCE.parse(
+            justBuildTarget, BuildTargetPatternParser.fullyQualified());
+        Iterable<BuildRule> actionGraphRules = Preconditions.checkNotNull(actionGraph.getNodes());
+        ImmutableSet<BuildTarget> actionGraphTargets =
+            ImmutableSet.copyOf(Iterables.transform(actionGraphRules, HasBuildTarget.TO_TARGET));
+        if (!actionGraphTargets.contains(explicitTarget)) {
+          params.getConsole().printBuildFailure(
+              "Targets specified via `--just-build` must be a subset of action graph.");
+          return 1;
+        }
+        buildTargets = ImmutableSet.of(explicitTarget);
+      }
+
+      if (prefetch.isPresent()) {
+        prefetch.get().waitUntilDone();
+      }
+    } finally {
+      if (prefetch.isPresent()) {
+        prefetch.get().close();
       }
-      buildTargets = ImmutableSet.of(explicitTarget);
     }
 
     try (CommandThreadManager pool = new CommandThreadManager(
@@ -311,6 +419,7 @@ public class BuildCommand extends AbstractCommand {
         getConcurrencyLimit(params.getBuckConfig()));
          Build build = createBuild(
              params.getBuckConfig(),
+             params.getRepository().getFilesystem(),
              actionGraph,
              params.getAndroidPlatformTargetSupplier(),
              new CachingBuildEngine(
@@ -319,6 +428,7 @@ public class BuildCommand extends AbstractCommand {
                  getBuildEngineMode().or(params.getBuckConfig().getBuildEngineMode()),
                  params.getBuckConfig().getBuildDepFiles(),
                  resolvers),
+             pool.getExecutor(),
              artifactCache,
              params.getConsole(),
              params.getBuckEventBus(),
@@ -341,6 +451,82 @@ public class BuildCommand extends AbstractCommand {
     }
   }
 
+  /**
+   * Starts hashing the inputs of every node of {@code targetGraph} on a pool of their own, so that
+   * computing the rule keys of the build doesn't wait on reading them one at a time.
+   *
+   * @return the running prefetch, or absent if prefetching is disabled.
+   */
+  private Optional<InputHashPrefetch> startPrefetchingInputHashes(
+      CommandRunnerParams params,
+      TargetGraph targetGraph) {
+    BuckConfig buckConfig = params.getBuckConfig();
+    int threads = buckConfig.getFileHashPrefetchThreads();
+    if (threads <= 0) {
+      return Optional.absent();
+    }
+
+    ImmutableSet.Builder<Path> inputs = ImmutableSet.builder();
+    for (TargetNode<?> node : targetGraph.getNodes()) {
+      ProjectFilesystem filesystem = node.getRuleFactoryParams().getProjectFilesystem();
+      for (Path input : node.getInputs()) {
+        inputs.add(filesystem.resolve(input));
+      }
+    }
+
+    CommandThreadManager pool = new CommandThreadManager(
+        "FileHashPrefetch",
+        new ConcurrencyLimit(threads, buckConfig.getLoadLimit()));
+    SimplePerfEvent.Scope scope = SimplePerfEvent.scope(
+        params.getBuckEventBus(),
+        PerfEventId.of("FileHashPrefetch"));
+    ListenableFuture<FileHashPrefetchStats> stats =
+        new FileHashPrefetcher(pool.getExecutor(), buckConfig.getFileHashPrefetchWindow())
+            .prefetchInBackground(params.getFileHashCache(), inputs.build());
+    return Optional.of(new InputHashPrefetch(pool, scope, stats));
+  }
+
+  /**
+   * A prefetch started by {@link #startPrefetchingInputHashes}. Closing it stops any hashing that
+   * hasn't been waited for, and shuts its pool down.
+   */
+  private static class InputHashPrefetch implements AutoCloseable {
+    private final CommandThreadManager pool;
+    private final SimplePerfEvent.Scope scope;
+    private final ListenableFuture<FileHashPrefetchStats> stats;
+
+    public InputHashPrefetch(
+        CommandThreadManager pool,
+        SimplePerfEvent.Scope scope,
+        ListenableFuture<FileHashPrefetchStats> stats) {
+      this.pool = pool;
+      this.scope = scope;
+      this.stats = stats;
+    }
+
+    public void waitUntilDone() throws InterruptedException {
+      try {
+        FileHashPrefetchStats result = stats.get();
+        scope.appendFinishedInfo("paths", result.getPaths());
+        scope.appendFinishedInfo("bytes", result.getBytes());
+        scope.appendFinishedInfo("bytesPerSecond", result.getBytesPerSecond());
+      } catch (ExecutionException e) {
+        // The build hashes whatever is missing itself, so this only costs time.
+        LOG.warn(e.getCause(), "Could not hash the inputs of the build ahead of time.");
+      }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+      stats.cancel(true);
+      try {
+        pool.close();
+      } finally {
+        scope.close();
+      }
+    }
+  }
+
   @Override
   public boolean isReadOnly() {
     return false;
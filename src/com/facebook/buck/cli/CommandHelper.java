@@ -22,11 +22,13 @@ import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetException;
 import com.facebook.buck.parser.ParserConfig;
 import com.facebook.buck.rules.TargetNode;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
@@ -116,31 +118,114 @@ public abstract class CommandHelper {
       return null;
     }
 
+    return getBuildTargetRule(targetNode, findRule(rules, buildTarget));
+  }
+
+  @Nullable
+  private static Map<String, Object> findRule(
+      Iterable<Map<String, Object>> rules,
+      BuildTarget buildTarget) {
     // Find the build rule information that corresponds to this build buildTarget.
-    Map<String, Object> targetRule = null;
     for (Map<String, Object> rule : rules) {
       String name = (String) Preconditions.checkNotNull(rule.get("name"));
       if (name.equals(buildTarget.getShortName())) {
-        targetRule = rule;
-        break;
+        return rule;
       }
     }
+    return null;
+  }
 
+  @Nullable
+  private static SortedMap<String, Object> getBuildTargetRule(
+      TargetNode<?> targetNode,
+      @Nullable Map<String, Object> targetRule) {
     if (targetRule == null) {
       return null;
     }
 
-    targetRule.put(
-        "buck.direct_dependencies",
-        ImmutableList.copyOf((Iterables.transform(
-            targetNode.getDeps(),
-            Functions.toStringFunction()))));
-
     // Sort the rule items, both so we have a stable order for unit tests and
     // to improve readability of the output.
     SortedMap<String, Object> sortedTargetRule = Maps.newTreeMap();
     sortedTargetRule.putAll(targetRule);
+    sortedTargetRule.put(
+        "buck.direct_dependencies",
+        ImmutableList.copyOf((Iterables.transform(
+            targetNode.getDeps(),
+            Functions.toStringFunction()))));
     return sortedTargetRule;
   }
 
+  /**
+   * Creates a generator that {@link #writeJsonLine} writes to standard out with, leaving standard
+   * out open when it is closed.
+   */
+  public static JsonGenerator createJsonLinesGenerator(CommandRunnerParams params)
+      throws IOException {
+    JsonGenerator generator = params.getObjectMapper().getJsonFactory()
+        .createJsonGenerator(params.getConsole().getStdOut());
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    return generator;
+  }
+
+  /**
+   * Writes {@code value} as JSON on a line of its own and flushes it, so that a reader of the
+   * output can use it straight away.
+   */
+  public static void writeJsonLine(
+      CommandRunnerParams params,
+      JsonGenerator generator,
+      Object value) throws IOException {
+    params.getObjectMapper().writeValue(generator, value);
+    generator.writeRaw('\n');
+    generator.flush();
+  }
+
+  /**
+   * Reads what {@link #getBuildTargetRules} does for one target node after another, parsing a
+   * build file once for each run of nodes that come from it rather than once per node, and only
+   * holding on to the rules of the last build file it parsed.
+   */
+  public static class BuildTargetRulesReader {
+    private final CommandRunnerParams params;
+    private final ParserConfig parserConfig;
+    @Nullable
+    private Path buildFile;
+    private ImmutableMap<String, Map<String, Object>> rulesByName = ImmutableMap.of();
+
+    public BuildTargetRulesReader(CommandRunnerParams params, ParserConfig parserConfig) {
+      this.params = params;
+      this.parserConfig = parserConfig;
+    }
+
+    @Nullable
+    public SortedMap<String, Object> read(TargetNode<?> targetNode)
+        throws BuildFileParseException, InterruptedException, IOException {
+      BuildTarget buildTarget = targetNode.getBuildTarget();
+      try {
+        Path buildFile = params.getRepository().getAbsolutePathToBuildFile(buildTarget);
+        if (!buildFile.equals(this.buildFile)) {
+          // Let go of the previous build file's rules before parsing the next one.
+          this.buildFile = null;
+          rulesByName = ImmutableMap.of();
+          List<Map<String, Object>> rules = params.getParser().parseBuildFile(
+              buildFile,
+              parserConfig,
+              params.getEnvironment(),
+              params.getConsole(),
+              params.getBuckEventBus());
+          ImmutableMap.Builder<String, Map<String, Object>> builder = ImmutableMap.builder();
+          for (Map<String, Object> rule : rules) {
+            builder.put((String) Preconditions.checkNotNull(rule.get("name")), rule);
+          }
+          rulesByName = builder.build();
+          this.buildFile = buildFile;
+        }
+      } catch (BuildTargetException e) {
+        return null;
+      }
+
+      return getBuildTargetRule(targetNode, rulesByName.get(buildTarget.getShortName()));
+    }
+  }
+
 }
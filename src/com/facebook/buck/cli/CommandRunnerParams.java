@@ -54,6 +54,7 @@ class CommandRunnerParams {
   private final Optional<WebServer> webServer;
   private final BuckConfig buckConfig;
   private final FileHashCache fileHashCache;
+  private final Optional<LastBuildState> lastBuildState;
 
   public CommandRunnerParams(
       Console console,
@@ -70,7 +71,8 @@ class CommandRunnerParams {
       Optional<ProcessManager> processManager,
       Optional<WebServer> webServer,
       BuckConfig buckConfig,
-      FileHashCache fileHashCache) {
+      FileHashCache fileHashCache,
+      Optional<LastBuildState> lastBuildState) {
     this.console = console;
     this.repository = repository;
     this.artifactCache = artifactCache;
@@ -86,6 +88,7 @@ class CommandRunnerParams {
     this.webServer = webServer;
     this.buckConfig = buckConfig;
     this.fileHashCache = fileHashCache;
+    this.lastBuildState = lastBuildState;
   }
 
   public Console getConsole() {
@@ -148,6 +151,14 @@ class CommandRunnerParams {
     return fileHashCache;
   }
 
+  /**
+   * @return the last successful build of the daemon running this command, if any, as long as the
+   *     daemon is told about changes to the project.
+   */
+  public Optional<LastBuildState> getLastBuildState() {
+    return lastBuildState;
+  }
+
   protected ExecutionContext createExecutionContext() {
     return ExecutionContext.builder()
         .setConsole(console)
@@ -92,6 +92,7 @@ public class FetchCommand extends BuildCommand {
              new CommandThreadManager("Fetch", getConcurrencyLimit(params.getBuckConfig()));
          Build build = createBuild(
              params.getBuckConfig(),
+             params.getRepository().getFilesystem(),
              actionGraph,
              params.getAndroidPlatformTargetSupplier(),
              new CachingBuildEngine(
@@ -100,6 +101,7 @@ public class FetchCommand extends BuildCommand {
                  getBuildEngineMode().or(params.getBuckConfig().getBuildEngineMode()),
                  params.getBuckConfig().getBuildDepFiles(),
                  transformer.getRuleResolvers()),
+             pool.getExecutor(),
              params.getArtifactCache(),
              params.getConsole(),
              params.getBuckEventBus(),
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.BuckConstant;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.Subscribe;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+
+/**
+ * What buckd knows about the last successful {@code buck build}, so that running the same build
+ * again can finish without parsing or building anything when Watchman has reported no changes to
+ * the project since.
+ * <p>
+ * Watchman reports changes to the daemon through a cursor of its own, at the start of each command,
+ * so changes made while the last build ran are seen by the next command before it asks whether
+ * anything changed. A build only counts as unchanged if it was run with the same arguments,
+ * configuration and environment, and its outputs are still there.
+ */
+class LastBuildState {
+
+  private static final Logger LOG = Logger.get(LastBuildState.class);
+
+  private final ProjectFilesystem filesystem;
+
+  /** Arguments, configuration and environment of the last successful build, if still valid. */
+  private Optional<ImmutableList<Object>> key = Optional.absent();
+  private ImmutableSet<Path> outputs = ImmutableSet.of();
+
+  public LastBuildState(ProjectFilesystem filesystem) {
+    this.filesystem = filesystem;
+  }
+
+  /**
+   * Forgets the last build if {@code event} changed anything that a build could depend on.
+   */
+  @Subscribe
+  public synchronized void onFileSystemChange(WatchEvent<?> event) {
+    if (!key.isPresent()) {
+      return;
+    }
+    if (filesystem.isPathChangeEvent(event)) {
+      Path path = ((Path) event.context()).normalize();
+      if (path.startsWith(BuckConstant.BUCK_OUTPUT_PATH) || filesystem.isIgnored(path)) {
+        return;
+      }
+      LOG.debug("%s changed since the last build.", path);
+    } else {
+      LOG.debug("Watchman overflowed since the last build.");
+    }
+    invalidate();
+  }
+
+  public synchronized void invalidate() {
+    key = Optional.absent();
+    outputs = ImmutableSet.of();
+  }
+
+  /**
+   * @param key everything other than the contents of the project that the build depends on.
+   * @param outputs absolute paths to the outputs of the rules that the build was asked for.
+   */
+  public synchronized void recordSuccessfulBuild(
+      ImmutableList<Object> key,
+      ImmutableSet<Path> outputs) {
+    this.key = Optional.of(key);
+    this.outputs = outputs;
+  }
+
+  /**
+   * @return whether a build with {@code key} would do nothing but reproduce the last one.
+   */
+  public synchronized boolean isUnchanged(ImmutableList<Object> key) {
+    if (!this.key.isPresent() || !this.key.get().equals(key)) {
+      return false;
+    }
+    for (Path output : outputs) {
+      if (!Files.exists(output)) {
+        LOG.debug("%s was deleted since the last build.", output);
+        invalidate();
+        return false;
+      }
+    }
+    return true;
+  }
+}
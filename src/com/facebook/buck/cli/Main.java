@@ -28,6 +28,8 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.listener.AbstractConsoleEventBusListener;
+import com.facebook.buck.event.listener.BuildTimingHistory;
+import com.facebook.buck.event.listener.BuildTimingListener;
 import com.facebook.buck.event.listener.ChromeTraceBuildListener;
 import com.facebook.buck.event.listener.FileSerializationEventBusListener;
 import com.facebook.buck.event.listener.JavaUtilsLoggingBuildListener;
@@ -189,6 +191,7 @@ public final class Main {
     private final EventBus fileEventBus;
     private final Optional<WebServer> webServer;
     private final UUID watchmanQueryUUID;
+    private final LastBuildState lastBuildState;
 
     public Daemon(
         Repository repository,
@@ -207,8 +210,10 @@ public final class Main {
       this.parser = Parser.createBuildFileParser(
           repository,
           globHandler == ParserConfig.GlobHandler.WATCHMAN);
+      this.lastBuildState = new LastBuildState(repository.getFilesystem());
       fileEventBus.register(parser);
       fileEventBus.register(hashCache);
+      fileEventBus.register(lastBuildState);
 
       webServer = createWebServer(repository.getBuckConfig(), repository.getFilesystem());
       watchmanQueryUUID = UUID.randomUUID();
@@ -328,6 +333,10 @@ public final class Main {
       return watchmanQueryUUID;
     }
 
+    public LastBuildState getLastBuildState() {
+      return lastBuildState;
+    }
+
     @Override
     public void close() throws IOException {
       shutdownWebServer();
@@ -706,6 +715,7 @@ public final class Main {
 
       // Create or get Parser and invalidate cached command parameters.
       Parser parser = null;
+      Optional<LastBuildState> lastBuildState = Optional.absent();
 
       if (isDaemon && watchman != Watchman.NULL_WATCHMAN) {
         try {
@@ -727,7 +737,10 @@ public final class Main {
               buildEventBus,
               watchmanWatcher,
               globHandler);
+          lastBuildState = Optional.of(daemon.getLastBuildState());
         } catch (WatchmanWatcherException | IOException e) {
+          // Some changes may not have been seen, so the last build can't be trusted any more.
+          getDaemon(rootRepository, globHandler).getLastBuildState().invalidate();
           buildEventBus.post(
               ConsoleEvent.warning(
                   "Watchman threw an exception while parsing file changes.\n%s",
@@ -782,7 +795,8 @@ public final class Main {
               processManager,
               webServer,
               buckConfig,
-              fileHashCache));
+              fileHashCache,
+              lastBuildState));
       parser.cleanCache();
       buildEventBus.post(CommandEvent.finished(startedEvent, exitCode));
     } catch (Throwable t) {
@@ -1026,6 +1040,11 @@ public final class Main {
     } catch (IOException e) {
       LOG.error("Unable to create ChromeTrace listener!");
     }
+    if (config.getMaxTimingHistoryBuilds() > 0) {
+      eventListenersBuilder.add(new BuildTimingListener(
+          new BuildTimingHistory(projectFilesystem, objectMapper),
+          config.getMaxTimingHistoryBuilds()));
+    }
     if (webServer.isPresent()) {
       eventListenersBuilder.add(webServer.get().createListener());
     }
@@ -65,6 +65,8 @@ import com.facebook.buck.rules.TargetNode;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.ProcessManager;
+import com.facebook.buck.util.concurrent.ConcurrencyLimit;
+import com.facebook.infer.annotation.SuppressFieldNotInitialized;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Ascii;
 import com.google.common.base.Charsets;
@@ -75,6 +77,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.base.Splitter;
+import com.google.common.base.Supplier;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -208,6 +211,15 @@ public class ProjectCommand extends BuildCommand {
       usage = "Enables the experimental IntelliJ project generator.")
   private boolean experimentalIntelliJProjectGenerationEnabled = false;
 
+  @Option(
+      name = "--intellij-changed-targets",
+      usage = "Only regenerate the IntelliJ modules affected by changes to the given targets, " +
+          "--intellij-changed-targets target1 target2 ... targetN --other_option. (Only applies " +
+          "to the experimental IntelliJ project generator.)",
+      handler = StringSetOptionHandler.class)
+  @SuppressFieldNotInitialized
+  private Supplier<ImmutableSet<String>> intellijChangedTargets;
+
   @Option(
       name = "--intellij-aggregation-mode",
       usage = "Changes how modules are aggregated. Valid options are 'none' (no aggregation), " +
@@ -529,16 +541,30 @@ public class ProjectCommand extends BuildCommand {
     JavacOptions javacOptions = new JavaBuckConfig(params.getBuckConfig())
         .getDefaultJavacOptions();
 
-    IjProject project = new IjProject(
-        targetGraphAndTargets,
-        getJavaPackageFinder(params.getBuckConfig()),
-        JavaFileParser.createJavaFileParser(javacOptions),
-        buildRuleResolver,
-        sourcePathResolver,
-        params.getRepository().getFilesystem(),
-        getIntellijAggregationMode(params.getBuckConfig()));
+    Optional<ImmutableSet<BuildTarget>> changedTargets = Optional.absent();
+    if (!intellijChangedTargets.get().isEmpty()) {
+      ImmutableSet.Builder<BuildTarget> changedTargetsBuilder = ImmutableSet.builder();
+      for (String target : intellijChangedTargets.get()) {
+        changedTargetsBuilder.add(
+            params.getBuckConfig().getBuildTargetForFullyQualifiedTarget(target));
+      }
+      changedTargets = Optional.of(changedTargetsBuilder.build());
+    }
 
-    ImmutableSet<BuildTarget> requiredBuildTargets = project.write();
+    ImmutableSet<BuildTarget> requiredBuildTargets;
+    try (CommandThreadManager pool =
+             new CommandThreadManager("Project", getConcurrencyLimit(params.getBuckConfig()))) {
+      IjProject project = new IjProject(
+          targetGraphAndTargets,
+          getJavaPackageFinder(params.getBuckConfig()),
+          JavaFileParser.createJavaFileParser(javacOptions),
+          buildRuleResolver,
+          sourcePathResolver,
+          params.getRepository().getFilesystem(),
+          getIntellijAggregationMode(params.getBuckConfig()),
+          pool.getExecutor());
+      requiredBuildTargets = project.write(changedTargets);
+    }
 
     if (!requiredBuildTargets.isEmpty()) {
       BuildCommand buildCommand = new BuildCommand();
@@ -753,65 +779,70 @@ public class ProjectCommand extends BuildCommand {
         ? AppleBuildRules.filterGroupableTests(testTargetNodes)
         : ImmutableSet.<TargetNode<AppleTestDescription.Arg>>of();
     ImmutableSet.Builder<BuildTarget> requiredBuildTargetsBuilder = ImmutableSet.builder();
-    for (final BuildTarget inputTarget : targets) {
-      TargetNode<?> inputNode = Preconditions.checkNotNull(
-          targetGraphAndTargets.getTargetGraph().get(inputTarget));
-      XcodeWorkspaceConfigDescription.Arg workspaceArgs;
-      BuildRuleType type = inputNode.getType();
-      if (type == XcodeWorkspaceConfigDescription.TYPE) {
-        TargetNode<XcodeWorkspaceConfigDescription.Arg> castedWorkspaceNode =
-            castToXcodeWorkspaceTargetNode(inputNode);
-        workspaceArgs = castedWorkspaceNode.getConstructorArg();
-      } else if (canGenerateImplicitWorkspaceForType(type)) {
-        workspaceArgs = createImplicitWorkspaceArgs(inputNode);
-      } else {
-        throw new HumanReadableException(
-            "%s must be a xcode_workspace_config, apple_binary, apple_bundle, or apple_library",
-            inputNode);
+    ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit(
+        params.getBuckConfig().getNumThreads(),
+        params.getBuckConfig().getLoadLimit());
+    try (CommandThreadManager pool = new CommandThreadManager("Project", concurrencyLimit)) {
+      for (final BuildTarget inputTarget : targets) {
+        TargetNode<?> inputNode = Preconditions.checkNotNull(
+            targetGraphAndTargets.getTargetGraph().get(inputTarget));
+        XcodeWorkspaceConfigDescription.Arg workspaceArgs;
+        BuildRuleType type = inputNode.getType();
+        if (type == XcodeWorkspaceConfigDescription.TYPE) {
+          TargetNode<XcodeWorkspaceConfigDescription.Arg> castedWorkspaceNode =
+              castToXcodeWorkspaceTargetNode(inputNode);
+          workspaceArgs = castedWorkspaceNode.getConstructorArg();
+        } else if (canGenerateImplicitWorkspaceForType(type)) {
+          workspaceArgs = createImplicitWorkspaceArgs(inputNode);
+        } else {
+          throw new HumanReadableException(
+              "%s must be a xcode_workspace_config, apple_binary, apple_bundle, or apple_library",
+              inputNode);
+        }
+        WorkspaceAndProjectGenerator generator = new WorkspaceAndProjectGenerator(
+            params.getRepository().getFilesystem(),
+            new ReactNativeBuckConfig(params.getBuckConfig()),
+            targetGraphAndTargets.getTargetGraph(),
+            workspaceArgs,
+            inputTarget,
+            options,
+            combinedProject,
+            buildWithBuck,
+            buildWithBuckFlags,
+            !(new AppleConfig(params.getBuckConfig()).getXcodeDisableParallelizeBuild()),
+            new ExecutableFinder(),
+            params.getEnvironment(),
+            params.getRepository().getKnownBuildRuleTypes().getCxxPlatforms(),
+            params.getRepository().getKnownBuildRuleTypes().getDefaultCxxPlatforms(),
+            new ParserConfig(params.getBuckConfig()).getBuildFileName(),
+            new Function<TargetNode<?>, Path>() {
+              @Nullable
+              @Override
+              public Path apply(TargetNode<?> input) {
+                TargetGraphToActionGraph targetGraphToActionGraph = new TargetGraphToActionGraph(
+                    params.getBuckEventBus(),
+                    new BuildTargetNodeToBuildRuleTransformer(),
+                    params.getFileHashCache());
+                TargetGraph subgraph = targetGraphAndTargets.getTargetGraph().getSubgraph(
+                    ImmutableSet.of(
+                        input));
+                ActionGraph actionGraph = Preconditions.checkNotNull(
+                    targetGraphToActionGraph.apply(subgraph));
+                BuildRule rule = Preconditions.checkNotNull(
+                    actionGraph.findBuildRuleByTarget(input.getBuildTarget()));
+                return rule.getPathToOutput();
+              }
+            });
+        generator.setGroupableTests(groupableTests);
+        generator.generateWorkspaceAndDependentProjects(projectGenerators, pool.getExecutor());
+        ImmutableSet<BuildTarget> requiredBuildTargetsForWorkspace =
+            generator.getRequiredBuildTargets();
+        LOG.debug(
+            "Required build targets for workspace %s: %s",
+            inputTarget,
+            requiredBuildTargetsForWorkspace);
+        requiredBuildTargetsBuilder.addAll(requiredBuildTargetsForWorkspace);
       }
-      WorkspaceAndProjectGenerator generator = new WorkspaceAndProjectGenerator(
-          params.getRepository().getFilesystem(),
-          new ReactNativeBuckConfig(params.getBuckConfig()),
-          targetGraphAndTargets.getTargetGraph(),
-          workspaceArgs,
-          inputTarget,
-          options,
-          combinedProject,
-          buildWithBuck,
-          buildWithBuckFlags,
-          !(new AppleConfig(params.getBuckConfig()).getXcodeDisableParallelizeBuild()),
-          new ExecutableFinder(),
-          params.getEnvironment(),
-          params.getRepository().getKnownBuildRuleTypes().getCxxPlatforms(),
-          params.getRepository().getKnownBuildRuleTypes().getDefaultCxxPlatforms(),
-          new ParserConfig(params.getBuckConfig()).getBuildFileName(),
-          new Function<TargetNode<?>, Path>() {
-            @Nullable
-            @Override
-            public Path apply(TargetNode<?> input) {
-              TargetGraphToActionGraph targetGraphToActionGraph = new TargetGraphToActionGraph(
-                  params.getBuckEventBus(),
-                  new BuildTargetNodeToBuildRuleTransformer(),
-                  params.getFileHashCache());
-              TargetGraph subgraph = targetGraphAndTargets.getTargetGraph().getSubgraph(
-                  ImmutableSet.of(
-                      input));
-              ActionGraph actionGraph = Preconditions.checkNotNull(
-                  targetGraphToActionGraph.apply(subgraph));
-              BuildRule rule = Preconditions.checkNotNull(
-                  actionGraph.findBuildRuleByTarget(input.getBuildTarget()));
-              return rule.getPathToOutput();
-            }
-          });
-      generator.setGroupableTests(groupableTests);
-      generator.generateWorkspaceAndDependentProjects(projectGenerators);
-      ImmutableSet<BuildTarget> requiredBuildTargetsForWorkspace =
-          generator.getRequiredBuildTargets();
-      LOG.debug(
-          "Required build targets for workspace %s: %s",
-          inputTarget,
-          requiredBuildTargetsForWorkspace);
-      requiredBuildTargetsBuilder.addAll(requiredBuildTargetsForWorkspace);
     }
 
     return requiredBuildTargetsBuilder.build();
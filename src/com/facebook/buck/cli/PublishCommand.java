@@ -74,6 +74,11 @@ public class PublishCommand extends BuildCommand {
       usage = "Just print the artifacts to be published")
   private boolean dryRun = false;
 
+  public PublishCommand() {
+    // Publishing needs the rules of the build.
+    super(/* isBuildReadAfterwards */ true);
+  }
+
   @Override
   public int runWithoutHelp(CommandRunnerParams params) throws IOException, InterruptedException {
 
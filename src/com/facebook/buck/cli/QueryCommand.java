@@ -25,12 +25,15 @@ import com.facebook.buck.log.Logger;
 import com.facebook.buck.parser.ParserConfig;
 import com.facebook.buck.rules.TargetNode;
 import com.facebook.infer.annotation.SuppressFieldNotInitialized;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.TreeMultimap;
@@ -63,6 +66,10 @@ public class QueryCommand extends AbstractCommand {
       usage = "Output in JSON format")
   private boolean generateJsonOutput;
 
+  @Option(name = "--json-lines",
+      usage = "Output in JSON format, one result per line, printing each as soon as it is known")
+  private boolean generateJsonLinesOutput;
+
   @Option(name = "--output-attributes",
       usage = "List of attributes to output, --output-attributes attr1 att2 ... attrN --other-opt",
       handler = StringSetOptionHandler.class)
@@ -73,6 +80,10 @@ public class QueryCommand extends AbstractCommand {
     return generateJsonOutput;
   }
 
+  public boolean shouldGenerateJsonLinesOutput() {
+    return generateJsonLinesOutput;
+  }
+
   public boolean shouldGenerateDotOutput() {
     return generateDotOutput;
   }
@@ -104,6 +115,9 @@ public class QueryCommand extends AbstractCommand {
     try {
       String queryFormat = arguments.remove(0);
       if (queryFormat.contains("%s")) {
+        if (shouldGenerateJsonLinesOutput()) {
+          return runMultipleQueryWithJsonLines(params, env, queryFormat, arguments);
+        }
         return runMultipleQuery(params, env, queryFormat, arguments, shouldGenerateJsonOutput());
       } else {
         return runSingleQuery(params, env, queryFormat);
@@ -148,6 +162,39 @@ public class QueryCommand extends AbstractCommand {
     return 0;
   }
 
+  /**
+   * Like {@link #runMultipleQuery}, but prints the results of each query as a JSON object on a line
+   * of its own as soon as the query is evaluated, rather than all of them at the end.
+   */
+  static int runMultipleQueryWithJsonLines(
+      CommandRunnerParams params,
+      BuckQueryEnvironment env,
+      String queryFormat,
+      List<String> inputsFormattedAsBuildTargets)
+      throws IOException, InterruptedException, QueryException {
+    if (inputsFormattedAsBuildTargets.isEmpty()) {
+      params.getConsole().printBuildFailure(
+          "Specify one or more input targets after the query expression format");
+      return 1;
+    }
+
+    try (JsonGenerator generator = CommandHelper.createJsonLinesGenerator(params)) {
+      for (String input : inputsFormattedAsBuildTargets) {
+        String query = queryFormat.replace("%s", input);
+        Set<QueryTarget> queryResult = env.evaluateQuery(query);
+        ImmutableSortedSet.Builder<String> names = ImmutableSortedSet.naturalOrder();
+        for (QueryTarget target : queryResult) {
+          names.add(target.toString());
+        }
+        CommandHelper.writeJsonLine(
+            params,
+            generator,
+            ImmutableMap.of(input, names.build()));
+      }
+    }
+    return 0;
+  }
+
   int runSingleQuery(CommandRunnerParams params, BuckQueryEnvironment env, String query)
       throws IOException, InterruptedException, QueryException {
     Set<QueryTarget> queryResult = env.evaluateQuery(query);
@@ -157,6 +204,12 @@ public class QueryCommand extends AbstractCommand {
       collectAndPrintAttributes(params, env, queryResult);
     } else if (shouldGenerateDotOutput()) {
       printDotOutput(params, env, queryResult);
+    } else if (shouldGenerateJsonLinesOutput()) {
+      try (JsonGenerator generator = CommandHelper.createJsonLinesGenerator(params)) {
+        for (QueryTarget target : queryResult) {
+          CommandHelper.writeJsonLine(params, generator, target.toString());
+        }
+      }
     } else if (shouldGenerateJsonOutput()) {
       CommandHelper.printJSON(params, queryResult);
     } else {
@@ -188,36 +241,45 @@ public class QueryCommand extends AbstractCommand {
       BuckQueryEnvironment env,
       Set<QueryTarget> queryResult)
       throws InterruptedException, IOException, QueryException {
-    ParserConfig parserConfig = new ParserConfig(params.getBuckConfig());
+    CommandHelper.BuildTargetRulesReader reader = new CommandHelper.BuildTargetRulesReader(
+        params,
+        new ParserConfig(params.getBuckConfig()));
     SortedMap<String, SortedMap<String, Object>> result = Maps.newTreeMap();
-    for (QueryTarget target : queryResult) {
-      if (!(target instanceof QueryBuildTarget)) {
-        continue;
-      }
-      TargetNode<?> node = env.getNode(target);
-      try {
-        SortedMap<String, Object> sortedTargetRule =
-            CommandHelper.getBuildTargetRules(params, parserConfig, node);
-        if (sortedTargetRule == null) {
-          params.getConsole().printErrorText(
-              "unable to find rule for target " + node.getBuildTarget().getFullyQualifiedName());
+    try (JsonGenerator generator = CommandHelper.createJsonLinesGenerator(params)) {
+      for (QueryTarget target : queryResult) {
+        if (!(target instanceof QueryBuildTarget)) {
           continue;
         }
-        SortedMap<String, Object> attributes = Maps.newTreeMap();
-        for (String attribute : outputAttributes.get()) {
-          if (sortedTargetRule.containsKey(attribute)) {
-            attributes.put(attribute, sortedTargetRule.get(attribute));
+        TargetNode<?> node = env.getNode(target);
+        try {
+          SortedMap<String, Object> sortedTargetRule = reader.read(node);
+          if (sortedTargetRule == null) {
+            params.getConsole().printErrorText(
+                "unable to find rule for target " + node.getBuildTarget().getFullyQualifiedName());
+            continue;
+          }
+          SortedMap<String, Object> attributes = Maps.newTreeMap();
+          for (String attribute : outputAttributes.get()) {
+            if (sortedTargetRule.containsKey(attribute)) {
+              attributes.put(attribute, sortedTargetRule.get(attribute));
+            }
+          }
+          String name = node.getBuildTarget().getUnflavoredBuildTarget().getFullyQualifiedName();
+          if (shouldGenerateJsonLinesOutput()) {
+            CommandHelper.writeJsonLine(params, generator, ImmutableMap.of(name, attributes));
+          } else {
+            result.put(name, attributes);
           }
+        } catch (BuildFileParseException e) {
+          params.getConsole().printErrorText(
+              "unable to find rule for target " + node.getBuildTarget().getFullyQualifiedName());
+          continue;
         }
-        result.put(
-            node.getBuildTarget().getUnflavoredBuildTarget().getFullyQualifiedName(),
-            attributes);
-      } catch (BuildFileParseException e) {
-        params.getConsole().printErrorText(
-            "unable to find rule for target " + node.getBuildTarget().getFullyQualifiedName());
-        continue;
       }
     }
+    if (shouldGenerateJsonLinesOutput()) {
+      return;
+    }
     StringWriter stringWriter = new StringWriter();
     try {
       params.getObjectMapper().writerWithDefaultPrettyPrinter().writeValue(stringWriter, result);
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.query.QueryBuildTarget;
+import com.facebook.buck.query.QueryTarget;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.rules.TargetNode;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numbers every {@link QueryTarget} seen while evaluating queries with consecutive ints, so that
+ * sets of them can be {@link QueryTargetSet}s, and keeps the edges of the loaded
+ * {@link TargetGraph} as arrays of those ints.  Ids are never reused, so sets created before the
+ * graph grows stay valid.
+ */
+class QueryTargetIndex {
+
+  private static final int[] NO_EDGES = new int[0];
+
+  private final Map<QueryTarget, Integer> ids = new HashMap<>();
+  private final List<QueryTarget> targets = new ArrayList<>();
+
+  /** Dependencies of each id, sorted by target; {@code null} for targets not in the graph. */
+  private int[][] deps = new int[0][];
+  private int[][] reverseDeps = new int[0][];
+
+  public int getOrCreateId(QueryTarget target) {
+    Integer id = ids.get(target);
+    if (id == null) {
+      id = targets.size();
+      ids.put(target, id);
+      targets.add(target);
+    }
+    return id;
+  }
+
+  /** @return the id of {@code target}, or -1 if it has never been seen. */
+  public int getId(Object target) {
+    Integer id = ids.get(target);
+    return id == null ? -1 : id;
+  }
+
+  public QueryTarget getTarget(int id) {
+    return targets.get(id);
+  }
+
+  /**
+   * Replaces the graph whose edges are indexed.  The edges of every node are rebuilt, which costs
+   * about as much as building the graph did.
+   */
+  public void setGraph(TargetGraph graph) {
+    for (TargetNode<?> node : graph.getNodes()) {
+      getOrCreateId(QueryBuildTarget.of(node.getBuildTarget()));
+    }
+    deps = new int[targets.size()][];
+    reverseDeps = new int[targets.size()][];
+    for (TargetNode<?> node : graph.getNodes()) {
+      int id = getId(QueryBuildTarget.of(node.getBuildTarget()));
+      deps[id] = getIds(graph.getOutgoingNodesFor(node));
+      reverseDeps[id] = getIds(graph.getIncomingNodesFor(node));
+    }
+  }
+
+  private int[] getIds(ImmutableSet<TargetNode<?>> nodes) {
+    if (nodes.isEmpty()) {
+      return NO_EDGES;
+    }
+    // Sorting keeps the order in which deps() and rdeps() visit each level stable.
+    ImmutableSortedSet<TargetNode<?>> sorted = ImmutableSortedSet.copyOf(nodes);
+    int[] result = new int[sorted.size()];
+    int i = 0;
+    for (TargetNode<?> node : sorted) {
+      result[i++] = getId(QueryBuildTarget.of(node.getBuildTarget()));
+    }
+    return result;
+  }
+
+  public boolean isInGraph(int id) {
+    return id < deps.length && deps[id] != null;
+  }
+
+  public int[] getDeps(int id) {
+    Preconditions.checkArgument(isInGraph(id));
+    return deps[id];
+  }
+
+  public int[] getReverseDeps(int id) {
+    Preconditions.checkArgument(isInGraph(id));
+    return reverseDeps[id];
+  }
+
+  /**
+   * @return the ids of {@code roots} and every node of the graph reachable from them, in
+   *     breadth-first order.
+   */
+  public int[] getTransitiveClosure(int[] roots) {
+    BitSet visited = new BitSet(deps.length);
+    int[] queue = new int[Math.max(roots.length, 16)];
+    int tail = 0;
+    for (int root : roots) {
+      if (!visited.get(root)) {
+        visited.set(root);
+        queue = ensureCapacity(queue, tail + 1);
+        queue[tail++] = root;
+      }
+    }
+    for (int head = 0; head < tail; head++) {
+      int id = queue[head];
+      if (!isInGraph(id)) {
+        continue;
+      }
+      for (int dep : deps[id]) {
+        if (!visited.get(dep)) {
+          visited.set(dep);
+          queue = ensureCapacity(queue, tail + 1);
+          queue[tail++] = dep;
+        }
+      }
+    }
+    return Arrays.copyOf(queue, tail);
+  }
+
+  private static int[] ensureCapacity(int[] array, int size) {
+    return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+  }
+}
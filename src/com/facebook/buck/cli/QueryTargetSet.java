@@ -0,0 +1,250 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.query.QueryTarget;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A mutable set of {@link QueryTarget}s that iterates in insertion order, like a
+ * {@link java.util.LinkedHashSet}, but stores its members as a {@link BitSet} of the ids assigned
+ * by a {@link QueryTargetIndex}.  Membership tests are a bit lookup, and when both sides share an
+ * index {@link #addAll}, {@link #retainAll} and {@link #removeAll} are word-parallel bit
+ * operations.
+ */
+class QueryTargetSet extends AbstractSet<QueryTarget> {
+
+  private final QueryTargetIndex index;
+  private final BitSet members;
+
+  /**
+   * Ids in insertion order.  After a removal this may still contain ids that are no longer
+   * members until {@link #compact()} drops them.
+   */
+  private int[] order;
+  private int orderLength;
+  private int size;
+  private int modCount;
+
+  QueryTargetSet(QueryTargetIndex index) {
+    this.index = index;
+    this.members = new BitSet();
+    this.order = new int[8];
+  }
+
+  QueryTargetIndex getIndex() {
+    return index;
+  }
+
+  /** Adds the target with the given id, returning whether it was absent. */
+  boolean addId(int id) {
+    if (members.get(id)) {
+      return false;
+    }
+    compact();
+    members.set(id);
+    if (orderLength == order.length) {
+      order = Arrays.copyOf(order, order.length * 2);
+    }
+    order[orderLength++] = id;
+    size++;
+    modCount++;
+    return true;
+  }
+
+  boolean containsId(int id) {
+    return id >= 0 && members.get(id);
+  }
+
+  /** @return the ids of the members, in insertion order. */
+  int[] toIdArray() {
+    compact();
+    return Arrays.copyOf(order, orderLength);
+  }
+
+  private boolean sharesIndexWith(Collection<?> other) {
+    return other instanceof QueryTargetSet && ((QueryTargetSet) other).index == index;
+  }
+
+  /** Drops ids that are no longer members from {@link #order}. */
+  private void compact() {
+    if (orderLength == size) {
+      return;
+    }
+    int length = 0;
+    for (int i = 0; i < orderLength; i++) {
+      if (members.get(order[i])) {
+        order[length++] = order[i];
+      }
+    }
+    orderLength = length;
+  }
+
+  private boolean updateSize() {
+    int newSize = members.cardinality();
+    boolean changed = newSize != size;
+    size = newSize;
+    if (changed) {
+      modCount++;
+    }
+    return changed;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return containsId(index.getId(o));
+  }
+
+  @Override
+  public boolean add(QueryTarget target) {
+    return addId(index.getOrCreateId(target));
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    int id = index.getId(o);
+    if (!containsId(id)) {
+      return false;
+    }
+    members.clear(id);
+    size--;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    members.clear();
+    orderLength = 0;
+    size = 0;
+    modCount++;
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends QueryTarget> c) {
+    if (!sharesIndexWith(c)) {
+      return super.addAll(c);
+    }
+    QueryTargetSet other = (QueryTargetSet) c;
+    BitSet added = (BitSet) other.members.clone();
+    added.andNot(members);
+    if (added.isEmpty()) {
+      return false;
+    }
+    compact();
+    other.compact();
+    int addedCount = added.cardinality();
+    if (orderLength + addedCount > order.length) {
+      order = Arrays.copyOf(order, Math.max(orderLength + addedCount, order.length * 2));
+    }
+    for (int i = 0; i < other.orderLength; i++) {
+      int id = other.order[i];
+      if (added.get(id)) {
+        order[orderLength++] = id;
+      }
+    }
+    members.or(added);
+    size += addedCount;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    if (sharesIndexWith(c)) {
+      members.and(((QueryTargetSet) c).members);
+    } else {
+      for (int i = 0; i < orderLength; i++) {
+        int id = order[i];
+        if (members.get(id) && !c.contains(index.getTarget(id))) {
+          members.clear(id);
+        }
+      }
+    }
+    return updateSize();
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> c) {
+    if (sharesIndexWith(c)) {
+      members.andNot(((QueryTargetSet) c).members);
+    } else {
+      for (Object o : c) {
+        int id = index.getId(o);
+        if (id >= 0) {
+          members.clear(id);
+        }
+      }
+    }
+    return updateSize();
+  }
+
+  @Override
+  public Iterator<QueryTarget> iterator() {
+    compact();
+    return new Iterator<QueryTarget>() {
+      private int next = 0;
+      private int last = -1;
+      private int expectedModCount = modCount;
+
+      @Override
+      public boolean hasNext() {
+        return next < orderLength;
+      }
+
+      @Override
+      public QueryTarget next() {
+        if (modCount != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        last = order[next++];
+        return index.getTarget(last);
+      }
+
+      @Override
+      public void remove() {
+        if (last == -1) {
+          throw new IllegalStateException();
+        }
+        if (modCount != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        // Leave the id in the order array so the positions of the remaining ids don't shift.
+        members.clear(last);
+        size--;
+        modCount++;
+        expectedModCount = modCount;
+        last = -1;
+      }
+    };
+  }
+}
@@ -99,7 +99,7 @@ public class RunCommand extends AbstractCommand {
     }
 
     // Make sure the target is built.
-    BuildCommand buildCommand = new BuildCommand();
+    BuildCommand buildCommand = new BuildCommand(/* isBuildReadAfterwards */ true);
     buildCommand.setArguments(ImmutableList.of(getTarget(params.getBuckConfig())));
     int exitCode = buildCommand.runWithoutHelp(params);
     if (exitCode != 0) {
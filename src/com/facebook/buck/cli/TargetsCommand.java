@@ -17,6 +17,7 @@
 package com.facebook.buck.cli;
 
 import com.facebook.buck.graph.AbstractBreadthFirstTraversal;
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.json.BuildFileParseException;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildFileTree;
@@ -32,6 +33,7 @@ import com.facebook.buck.parser.BuildTargetSpec;
 import com.facebook.buck.parser.NoSuchBuildTargetException;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserConfig;
+import com.facebook.buck.parser.TargetNodeInputIndex;
 import com.facebook.buck.parser.TargetNodePredicateSpec;
 import com.facebook.buck.rules.ActionGraph;
 import com.facebook.buck.rules.BuildRule;
@@ -44,7 +46,9 @@ import com.facebook.buck.rules.TargetGraphTransformer;
 import com.facebook.buck.rules.TargetNode;
 import com.facebook.buck.rules.TargetNodes;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.concurrent.ConcurrencyLimit;
 import com.facebook.infer.annotation.SuppressFieldNotInitialized;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
@@ -68,6 +72,7 @@ import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
@@ -81,6 +86,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import javax.annotation.Nullable;
 
@@ -97,6 +104,13 @@ public class TargetsCommand extends AbstractCommand {
   @SuppressFieldNotInitialized
   private Supplier<ImmutableSet<String>> referencedFiles;
 
+  @Option(name = "--affected-by",
+      usage = "Print the targets and tests affected by changes to the given files, " +
+          "--affected-by file1 file2 ... fileN --other_option",
+      handler = StringSetOptionHandler.class)
+  @SuppressFieldNotInitialized
+  private Supplier<ImmutableSet<String>> affectedByFiles;
+
   @Option(name = "--detect-test-changes",
       usage = "Modifies the --referenced-file and --show-target-hash flags to pretend that " +
           "tarets depend on their tests (experimental)")
@@ -111,6 +125,12 @@ public class TargetsCommand extends AbstractCommand {
   @Option(name = "--json", usage = "Print JSON representation of each target")
   private boolean json;
 
+  @Option(name = "--json-lines",
+      usage = "Print the JSON representation of each target on a line of its own, as soon as " +
+          "its build file is parsed. With --show-output or --show-rulekey, they are added to " +
+          "each target as buck.output_path and buck.rule_key.")
+  private boolean jsonLines;
+
   @Option(name = "--print0", usage = "Delimit targets using the ASCII NUL character.")
   private boolean print0;
 
@@ -154,6 +174,22 @@ public class TargetsCommand extends AbstractCommand {
     return PathArguments.getCanonicalFilesUnderProjectRoot(projectRoot, referencedFiles.get());
   }
 
+  /**
+   * @return the files passed to {@code --affected-by}, relative to the project root.  Unlike
+   *     {@link #getReferencedFiles}, files don't need to exist, since deleted files affect targets
+   *     too.
+   */
+  public ImmutableSet<Path> getAffectedByFiles(Path projectRoot) {
+    ImmutableSet.Builder<Path> files = ImmutableSet.builder();
+    for (String file : affectedByFiles.get()) {
+      Path path = projectRoot.resolve(file).normalize();
+      if (path.startsWith(projectRoot)) {
+        files.add(projectRoot.relativize(path));
+      }
+    }
+    return files.build();
+  }
+
   /** @return {@code true} if {@code --detect-test-changes} was specified. */
   public boolean isDetectTestChanges() {
     return isDetectTestChanges;
@@ -163,6 +199,10 @@ public class TargetsCommand extends AbstractCommand {
     return json;
   }
 
+  public boolean getPrintJsonLines() {
+    return jsonLines;
+  }
+
   public boolean isPrint0() {
     return print0;
   }
@@ -210,10 +250,20 @@ public class TargetsCommand extends AbstractCommand {
       throw new HumanReadableException("Cannot show rule key and target hash at the same time.");
     }
 
+    if (getPrintJsonLines() && isShowTargetHash()) {
+      throw new HumanReadableException("--json-lines cannot be combined with --show-target-hash.");
+    }
+
     if (isShowOutput() || isShowRuleKey() || isShowTargetHash()) {
       return doShowRules(params);
     }
 
+    if (isAffectedBy() &&
+        (!getArguments().isEmpty() || !referencedFiles.get().isEmpty())) {
+      throw new HumanReadableException(
+          "--affected-by cannot be combined with build targets or --referenced-file.");
+    }
+
     // Verify the --type argument.
     ImmutableSet<String> types = getTypes();
     ImmutableSet.Builder<BuildRuleType> buildRuleTypesBuilder = ImmutableSet.builder();
@@ -238,7 +288,7 @@ public class TargetsCommand extends AbstractCommand {
     ImmutableSet<BuildTarget> matchingBuildTargets;
     TargetGraph graph;
     try {
-      if (getArguments().isEmpty() || isDetectTestChanges()) {
+      if (getArguments().isEmpty() || isDetectTestChanges() || isAffectedBy()) {
         matchingBuildTargets = ImmutableSet.of();
         graph = params.getParser()
             .buildTargetGraphForTargetNodeSpecs(
@@ -276,8 +326,18 @@ public class TargetsCommand extends AbstractCommand {
     PathArguments.ReferencedFiles referencedFiles = getReferencedFiles(
         params.getRepository().getFilesystem().getRootPath());
     SortedMap<String, TargetNode<?>> matchingNodes;
-    // If all of the referenced files are paths outside the project root, then print nothing.
-    if (!referencedFiles.absolutePathsOutsideProjectRootOrNonExistingPaths.isEmpty() &&
+    if (isAffectedBy()) {
+      ImmutableSet<BuildRuleType> buildRuleTypes = buildRuleTypesBuilder.build();
+      matchingNodes = getAffectedNodes(
+          graph,
+          params.getParser().getTargetNodeInputIndex(),
+          getAffectedByFiles(params.getRepository().getFilesystem().getRootPath()),
+          buildRuleTypes.isEmpty() ?
+              Optional.<ImmutableSet<BuildRuleType>>absent() :
+              Optional.of(buildRuleTypes),
+          params.getRepository().getFilesystem(),
+          parserConfig.getBuildFileName());
+    } else if (!referencedFiles.absolutePathsOutsideProjectRootOrNonExistingPaths.isEmpty() &&
         referencedFiles.relativePathsUnderProjectRoot.isEmpty()) {
       matchingNodes = ImmutableSortedMap.of();
     } else {
@@ -299,7 +359,18 @@ public class TargetsCommand extends AbstractCommand {
     }
 
     // Print out matching targets in alphabetical order.
-    if (getPrintJson()) {
+    if (getPrintJsonLines()) {
+      try {
+        printJsonLinesForTargets(
+            params,
+            matchingNodes.values(),
+            parserConfig,
+            ImmutableMap.<BuildTarget, ListenableFuture<ImmutableMap<String, String>>>of());
+      } catch (BuildFileParseException e) {
+        params.getConsole().printBuildFailureWithoutStacktrace(e);
+        return 1;
+      }
+    } else if (getPrintJson()) {
       try {
         printJsonForTargets(params, matchingNodes, new ParserConfig(params.getBuckConfig()));
       } catch (BuildFileParseException e) {
@@ -387,6 +458,64 @@ public class TargetsCommand extends AbstractCommand {
     return matchingNodesBuilder.build();
   }
 
+  private boolean isAffectedBy() {
+    return !affectedByFiles.get().isEmpty();
+  }
+
+  /**
+   * Finds the targets affected by changes to {@code changedFiles} using the parser's
+   * {@link TargetNodeInputIndex}, which must contain every node of {@code graph}.
+   * <p>
+   * A target is affected if it owns a changed file, is defined in a changed build file, or
+   * transitively depends on or is a test of an affected target.  A deleted file that no target
+   * owns any more affects every target in its package, since we can't tell which used it.
+   *
+   * @param buildRuleTypes If present, the result will be limited to targets with the specified
+   *                       types.
+   * @return A map of target names to target nodes.
+   */
+  @VisibleForTesting
+  static ImmutableSortedMap<String, TargetNode<?>> getAffectedNodes(
+      TargetGraph graph,
+      TargetNodeInputIndex index,
+      ImmutableSet<Path> changedFiles,
+      Optional<ImmutableSet<BuildRuleType>> buildRuleTypes,
+      ProjectFilesystem filesystem,
+      String buildFileName) {
+    BuildFileTree buildFileTree = new InMemoryBuildFileTree(
+        FluentIterable
+            .from(graph.getNodes())
+            .transform(HasBuildTarget.TO_TARGET)
+            .toSet());
+    ImmutableSet.Builder<BuildTarget> directlyAffected = ImmutableSet.builder();
+    for (Path file : changedFiles) {
+      ImmutableSet<BuildTarget> owners = index.getOwners(file);
+      directlyAffected.addAll(owners);
+      if (file.getFileName() != null && file.getFileName().toString().equals(buildFileName)) {
+        directlyAffected.addAll(index.getTargetsDefinedIn(file));
+      } else if (owners.isEmpty() && !filesystem.exists(file)) {
+        Optional<Path> basePath = buildFileTree.getBasePathOfAncestorTarget(file);
+        if (basePath.isPresent()) {
+          directlyAffected.addAll(
+              index.getTargetsDefinedIn(basePath.get().resolve(buildFileName)));
+        }
+      }
+    }
+
+    ImmutableSortedMap.Builder<String, TargetNode<?>> affectedNodes =
+        ImmutableSortedMap.naturalOrder();
+    for (BuildTarget target :
+        index.getReverseTransitiveClosure(directlyAffected.build(), /* includeTests */ true)) {
+      TargetNode<?> node = graph.get(target);
+      if (node == null ||
+          (buildRuleTypes.isPresent() && !buildRuleTypes.get().contains(node.getType()))) {
+        continue;
+      }
+      affectedNodes.put(target.getFullyQualifiedName(), node);
+    }
+    return affectedNodes.build();
+  }
+
   /**
    * @param graph A graph used to resolve dependencies between targets.
    * @param nodes A set of nodes.
@@ -494,6 +623,47 @@ public class TargetsCommand extends AbstractCommand {
     params.getConsole().getStdOut().println("]");
   }
 
+  /**
+   * Prints the JSON representation of each of {@code nodes} on a line of its own, as soon as its
+   * build file is parsed, rather than building the whole document first as
+   * {@link #printJsonForTargets} does. The nodes of a build file should be next to each other, as
+   * they are when sorted by name, so that each build file is only parsed once.
+   *
+   * @param columns extra attributes of some of the targets, which are printed as they are ready.
+   */
+  @VisibleForTesting
+  void printJsonLinesForTargets(
+      CommandRunnerParams params,
+      Iterable<TargetNode<?>> nodes,
+      ParserConfig parserConfig,
+      Map<BuildTarget, ListenableFuture<ImmutableMap<String, String>>> columns)
+      throws BuildFileParseException, IOException, InterruptedException {
+    CommandHelper.BuildTargetRulesReader reader =
+        new CommandHelper.BuildTargetRulesReader(params, parserConfig);
+    try (JsonGenerator generator = CommandHelper.createJsonLinesGenerator(params)) {
+      for (TargetNode<?> targetNode : nodes) {
+        SortedMap<String, Object> sortedTargetRule = reader.read(targetNode);
+        if (sortedTargetRule == null) {
+          params.getConsole().printErrorText(
+              "unable to find rule for target " +
+                  targetNode.getBuildTarget().getFullyQualifiedName());
+          continue;
+        }
+        ListenableFuture<ImmutableMap<String, String>> targetColumns =
+            columns.get(targetNode.getBuildTarget());
+        if (targetColumns != null) {
+          try {
+            sortedTargetRule.putAll(targetColumns.get());
+          } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+          }
+        }
+        CommandHelper.writeJsonLine(params, generator, sortedTargetRule);
+      }
+    }
+  }
+
   @VisibleForTesting
   static void printNullDelimitedTargets(Iterable<String> targets, PrintStream printStream) {
     for (String target : targets) {
@@ -546,7 +716,7 @@ public class TargetsCommand extends AbstractCommand {
     }
 
     ImmutableSet<BuildTarget> matchingBuildTargets;
-    TargetGraph targetGraph;
+    final TargetGraph targetGraph;
     try {
       Pair<ImmutableSet<BuildTarget>, TargetGraph> result = params.getParser()
           .buildTargetGraphForTargetNodeSpecs(
@@ -580,29 +750,92 @@ public class TargetsCommand extends AbstractCommand {
         actionGraph = Optional.absent();
       }
 
-      for (BuildTarget target : ImmutableSortedSet.copyOf(matchingBuildTargets)) {
-        ImmutableList.Builder<String> builder = ImmutableList.builder();
-        builder.add(target.getFullyQualifiedName());
+      ImmutableSortedSet<BuildTarget> sortedTargets =
+          ImmutableSortedSet.copyOf(matchingBuildTargets);
+      ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit(
+          params.getBuckConfig().getNumThreads(),
+          params.getBuckConfig().getLoadLimit());
+      try (CommandThreadManager pool = new CommandThreadManager("Targets", concurrencyLimit)) {
+        // Computing rule keys hashes the inputs of every rule, so do it for many rules at once
+        // and print each one as soon as it and those before it are ready.
+        ImmutableMap.Builder<BuildTarget, ListenableFuture<ImmutableMap<String, String>>>
+            columnsBuilder = ImmutableMap.builder();
         if (actionGraph.isPresent()) {
-          BuildRule rule = Preconditions.checkNotNull(
-              actionGraph.get().findBuildRuleByTarget(target));
-          if (isShowRuleKey()) {
-            builder.add(rule.getRuleKey().toString());
+          for (BuildTarget target : sortedTargets) {
+            final BuildRule rule = Preconditions.checkNotNull(
+                actionGraph.get().findBuildRuleByTarget(target));
+            columnsBuilder.put(
+                target,
+                pool.getExecutor().submit(
+                    new Callable<ImmutableMap<String, String>>() {
+                      @Override
+                      public ImmutableMap<String, String> call() {
+                        return getShowRulesColumns(rule);
+                      }
+                    }));
+          }
+        }
+        ImmutableMap<BuildTarget, ListenableFuture<ImmutableMap<String, String>>> columns =
+            columnsBuilder.build();
+
+        if (getPrintJsonLines()) {
+          try {
+            printJsonLinesForTargets(
+                params,
+                FluentIterable.from(sortedTargets).transform(
+                    new Function<BuildTarget, TargetNode<?>>() {
+                      @Override
+                      public TargetNode<?> apply(BuildTarget target) {
+                        return Preconditions.checkNotNull(targetGraph.get(target));
+                      }
+                    }),
+                new ParserConfig(params.getBuckConfig()),
+                columns);
+          } catch (BuildFileParseException e) {
+            params.getConsole().printBuildFailureWithoutStacktrace(e);
+            return 1;
           }
-          if (isShowOutput()) {
-            Path outputPath = rule.getPathToOutput();
-            if (outputPath != null) {
-              builder.add(outputPath.toString());
+          return 0;
+        }
+
+        for (BuildTarget target : sortedTargets) {
+          ImmutableList.Builder<String> builder = ImmutableList.builder();
+          builder.add(target.getFullyQualifiedName());
+          ListenableFuture<ImmutableMap<String, String>> targetColumns = columns.get(target);
+          if (targetColumns != null) {
+            try {
+              builder.addAll(targetColumns.get().values());
+            } catch (ExecutionException e) {
+              Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+              throw Throwables.propagate(e.getCause());
             }
           }
+          params.getConsole().getStdOut().println(Joiner.on(' ').join(builder.build()));
         }
-        params.getConsole().getStdOut().println(Joiner.on(' ').join(builder.build()));
       }
     }
 
     return 0;
   }
 
+  /**
+   * @return the rule key and output path of {@code rule}, as requested, in the order they are
+   *     printed in.
+   */
+  private ImmutableMap<String, String> getShowRulesColumns(BuildRule rule) {
+    ImmutableMap.Builder<String, String> columns = ImmutableMap.builder();
+    if (isShowRuleKey()) {
+      columns.put("buck.rule_key", rule.getRuleKey().toString());
+    }
+    if (isShowOutput()) {
+      Path outputPath = rule.getPathToOutput();
+      if (outputPath != null) {
+        columns.put("buck.output_path", outputPath.toString());
+      }
+    }
+    return columns.build();
+  }
+
   private int doShowTargetHash(
       CommandRunnerParams params,
       ImmutableSet<BuildTarget> matchingBuildTargets)
@@ -17,6 +17,7 @@
 package com.facebook.buck.cli;
 
 import com.facebook.buck.command.Build;
+import com.facebook.buck.java.TestJvmPool;
 import com.facebook.buck.json.BuildFileParseException;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
@@ -40,6 +41,7 @@ import com.facebook.buck.step.TargetDevice;
 import com.facebook.buck.step.TargetDeviceOptions;
 import com.facebook.buck.test.CoverageReportFormat;
 import com.facebook.buck.test.TestRunningOptions;
+import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.concurrent.ConcurrencyLimit;
 import com.facebook.infer.annotation.SuppressFieldNotInitialized;
@@ -67,6 +69,10 @@ public class TestCommand extends BuildCommand {
 
   public static final String USE_RESULTS_CACHE = "use_results_cache";
 
+  private static final long DEFAULT_JVM_POOL_MAX_RUNS_PER_WORKER = 50;
+  private static final long DEFAULT_JVM_POOL_MAX_HEAP_GROWTH_MB = 256;
+  private static final long DEFAULT_MIN_SHARD_DURATION_MS = 30000;
+
   private static final Logger LOG = Logger.get(TestCommand.class);
 
   @Option(name = "--all",
@@ -347,9 +353,11 @@ public class TestCommand extends BuildCommand {
               targetGraphToActionGraph.getRuleResolvers());
       try (Build build = createBuild(
           params.getBuckConfig(),
+          params.getRepository().getFilesystem(),
           graph,
           params.getAndroidPlatformTargetSupplier(),
           cachingBuildEngine,
+          pool.getExecutor(),
           params.getArtifactCache(),
           params.getConsole(),
           params.getBuckEventBus(),
@@ -384,6 +392,7 @@ public class TestCommand extends BuildCommand {
         ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit(
             getNumTestThreads(params.getBuckConfig()),
             params.getBuckConfig().getLoadLimit());
+        Optional<TestJvmPool> testJvmPool = createTestJvmPool(params);
         try (CommandThreadManager testPool =
                  new CommandThreadManager("Test-Run", concurrencyLimit)) {
           TestRunningOptions options = TestRunningOptions.builder()
@@ -400,6 +409,15 @@ public class TestCommand extends BuildCommand {
               .setPathToJavaAgent(Optional.fromNullable(pathToJavaAgent))
               .setCoverageReportFormat(coverageReportFormat)
               .setCoverageReportTitle(coverageReportTitle)
+              .setTestJvmPool(testJvmPool)
+              .setMaxShardsPerJavaTest(
+                  Math.min(
+                      getNumTestThreads(params.getBuckConfig()),
+                      params.getBuckConfig().getLong("test", "max_shards_per_java_test")
+                          .or(1L).intValue()))
+              .setMinShardDurationMillis(
+                  params.getBuckConfig().getLong("test", "min_shard_duration_ms")
+                      .or(DEFAULT_MIN_SHARD_DURATION_MS))
               .build();
           return TestRunning.runTests(
               params,
@@ -413,11 +431,43 @@ public class TestCommand extends BuildCommand {
         } catch (ExecutionException e) {
           params.getConsole().printBuildFailureWithoutStacktrace(e);
           return 1;
+        } finally {
+          if (testJvmPool.isPresent()) {
+            testJvmPool.get().close();
+          }
         }
       }
     }
   }
 
+  /**
+   * @return a pool of warm JVMs for Java tests to run in, if {@code test.jvm_pool_size} asks for
+   *     one.
+   */
+  private Optional<TestJvmPool> createTestJvmPool(CommandRunnerParams params) {
+    BuckConfig buckConfig = params.getBuckConfig();
+    long size = buckConfig.getLong("test", "jvm_pool_size").or(0L);
+    // Tests that are debugged or have their coverage measured need a JVM of their own anyway.
+    if (size <= 0 || isDebugEnabled() || isCodeCoverageEnabled()) {
+      return Optional.absent();
+    }
+    return Optional.of(
+        new TestJvmPool(
+            params.getRepository().getFilesystem().getRootPath(),
+            params.getEnvironment(),
+            params.getRepository().getFilesystem().resolve(
+                BuckConstant.LOG_PATH.resolve("test-jvm-pool.log")),
+            params.getRepository().getFilesystem().resolve(
+                BuckConstant.SCRATCH_PATH.resolve("test-jvm-pool")),
+            (int) size,
+            buckConfig.getLong("test", "jvm_pool_max_runs_per_worker")
+                .or(DEFAULT_JVM_POOL_MAX_RUNS_PER_WORKER).intValue(),
+            buckConfig.getLong("test", "jvm_pool_max_heap_growth_mb")
+                .or(DEFAULT_JVM_POOL_MAX_HEAP_GROWTH_MB) * 1024 * 1024,
+            ImmutableSet.copyOf(
+                buckConfig.getListWithoutComments("test", "jvm_pool_isolated_labels"))));
+  }
+
   @Override
   public boolean isReadOnly() {
     return false;
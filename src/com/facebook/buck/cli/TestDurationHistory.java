@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.test.TestCaseSummary;
+import com.facebook.buck.test.TestResults;
+import com.facebook.buck.util.BuckConstant;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * How long each test case (for Java tests, each test class) of each test rule took the last time
+ * it ran, kept across runs of {@code buck test} so that {@link TestRunning} can start the longest
+ * work first and split long Java tests into shards of similar length.
+ */
+class TestDurationHistory {
+
+  private static final Logger LOG = Logger.get(TestDurationHistory.class);
+
+  @VisibleForTesting
+  static final Path PATH = BuckConstant.BUCK_OUTPUT_PATH.resolve("test_durations.json");
+
+  private static final TypeReference<Map<String, Map<String, Long>>> TYPE =
+      new TypeReference<Map<String, Map<String, Long>>>() {};
+
+  /** Durations in milliseconds, by test case name, by fully qualified build target. */
+  private final ConcurrentMap<String, Map<String, Long>> durations;
+
+  @VisibleForTesting
+  TestDurationHistory(Map<String, Map<String, Long>> durations) {
+    this.durations = new ConcurrentHashMap<>(durations);
+  }
+
+  /**
+   * @return the history saved by the last run, or an empty one if there is none or it can't be
+   *     read.
+   */
+  public static TestDurationHistory load(ProjectFilesystem filesystem, ObjectMapper objectMapper) {
+    Optional<String> contents = filesystem.readFileIfItExists(PATH);
+    if (contents.isPresent()) {
+      try {
+        Map<String, Map<String, Long>> durations =
+            objectMapper.readValue(contents.get(), TYPE);
+        return new TestDurationHistory(durations);
+      } catch (IOException e) {
+        LOG.warn(e, "Ignoring unreadable test durations in %s.", PATH);
+      }
+    }
+    return new TestDurationHistory(ImmutableMap.<String, Map<String, Long>>of());
+  }
+
+  public void save(ProjectFilesystem filesystem, ObjectMapper objectMapper) throws IOException {
+    // Write elsewhere and move into place, so that a concurrent reader never sees half a file.
+    Path tempPath = PATH.resolveSibling(PATH.getFileName() + "." + UUID.randomUUID());
+    filesystem.createParentDirs(PATH);
+    filesystem.writeContentsToPath(
+        objectMapper.writeValueAsString(new TreeMap<>(durations)),
+        tempPath);
+    filesystem.move(
+        tempPath,
+        PATH,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @return how long {@code testCaseName} of {@code target} took when it last ran.
+   */
+  public Optional<Long> getDuration(BuildTarget target, String testCaseName) {
+    Map<String, Long> testCases = durations.get(target.getFullyQualifiedName());
+    return testCases == null
+        ? Optional.<Long>absent()
+        : Optional.fromNullable(testCases.get(testCaseName));
+  }
+
+  /**
+   * @return how long all of the test cases of {@code target} took when they last ran.
+   */
+  public Optional<Long> getTotalDuration(BuildTarget target) {
+    Map<String, Long> testCases = durations.get(target.getFullyQualifiedName());
+    if (testCases == null) {
+      return Optional.absent();
+    }
+    long total = 0;
+    for (long duration : testCases.values()) {
+      total += duration;
+    }
+    return Optional.of(total);
+  }
+
+  /**
+   * Replaces the durations of the test rule that produced {@code results} with theirs.
+   */
+  public void record(TestResults results) {
+    // Keep what we knew about rules that didn't get as far as running any tests.
+    if (results.getBuildTarget() == null || results.getTestCases().isEmpty()) {
+      return;
+    }
+    Map<String, Long> testCases = new TreeMap<>();
+    for (TestCaseSummary testCase : results.getTestCases()) {
+      testCases.put(testCase.getTestCaseName(), testCase.getTotalTime());
+    }
+    durations.put(results.getBuildTarget().getFullyQualifiedName(), testCases);
+  }
+}
@@ -66,8 +66,11 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Callables;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -113,6 +116,11 @@ public class TestRunning {
 
   private static final Logger LOG = Logger.get(TestRunning.class);
 
+  /**
+   * What a test class that hasn't run before is assumed to take when sharding Java tests.
+   */
+  private static final long DEFAULT_TEST_CLASS_DURATION_MILLIS = 1000;
+
   // Utility class; do not instantiate.
   private TestRunning() { }
 
@@ -188,10 +196,33 @@ public class TestRunning {
       grouper = null;
     }
 
+    final StepRunner.StepRunningCallback testStepRunningCallback =
+        new StepRunner.StepRunningCallback() {
+          @Override
+          public void stepsWillRun(Optional<BuildTarget> buildTarget) {
+            Preconditions.checkState(buildTarget.isPresent());
+            LOG.debug("Test steps will run for %s", buildTarget);
+            params.getBuckEventBus().post(TestRuleEvent.started(buildTarget.get()));
+          }
+
+          @Override
+          public void stepsDidRun(Optional<BuildTarget> buildTarget) {
+            Preconditions.checkState(buildTarget.isPresent());
+            LOG.debug("Test steps did run for %s", buildTarget);
+            params.getBuckEventBus().post(TestRuleEvent.finished(buildTarget.get()));
+          }
+        };
+
+    ProjectFilesystem filesystem = params.getRepository().getFilesystem();
+    TestDurationHistory durationHistory =
+        TestDurationHistory.load(filesystem, params.getObjectMapper());
+
     TestRuleKeyFileHelper testRuleKeyFileHelper = new TestRuleKeyFileHelper(buildEngine);
     final AtomicInteger lastReportedTestSequenceNumber = new AtomicInteger();
     final List<TestRun> separateTestRuns = Lists.newArrayList();
     List<TestRun> parallelTestRuns = Lists.newArrayList();
+    // The work that each of the parallel test runs is split into, in the same order.
+    List<List<ParallelWork>> parallelWorkByTestRun = Lists.newArrayList();
     for (final TestRule test : tests) {
       // Determine whether the test needs to be executed.
       boolean isTestRunRequired;
@@ -256,19 +287,46 @@ public class TestRunning {
           }
         };
 
+      BuildTarget target = test.getBuildTarget();
       List<Step> steps;
+      ImmutableList<ImmutableSet<String>> shards = ImmutableList.of();
       if (isTestRunRequired) {
         params.getBuckEventBus().post(IndividualTestEvent.started(testTargets));
         ImmutableList.Builder<Step> stepsBuilder = ImmutableList.builder();
-        Preconditions.checkState(buildEngine.isRuleBuilt(test.getBuildTarget()));
-        List<Step> testSteps = test.runTests(
-            buildContext,
-            executionContext,
-            options,
-            testReportingCallback);
-        if (!testSteps.isEmpty()) {
-          stepsBuilder.addAll(testSteps);
+        Preconditions.checkState(buildEngine.isRuleBuilt(target));
+        if (test instanceof JavaTest &&
+            !test.runTestSeparately() &&
+            !options.isDryRun() &&
+            options.getMaxShardsPerJavaTest() > 1) {
+          shards = shardTestClasses(
+              target,
+              ((JavaTest) test).getTestClassNames(),
+              durationHistory,
+              options.getMaxShardsPerJavaTest(),
+              options.getMinShardDurationMillis());
+        }
+        if (shards.size() > 1) {
+          // The shards share the directories that this cleans, so it has to happen before any of
+          // them are submitted. Once they have all run, only the rule key is left to write.
+          try {
+            for (Step step : ((JavaTest) test).getTestShardSetupSteps()) {
+              stepRunner.runStepForBuildTarget(step, Optional.of(target));
+            }
+          } catch (StepFailedException e) {
+            params.getConsole().printBuildFailureWithoutStacktrace(e);
+            return 1;
+          }
           stepsBuilder.add(testRuleKeyFileHelper.createRuleKeyInDirStep(test));
+        } else {
+          List<Step> testSteps = test.runTests(
+              buildContext,
+              executionContext,
+              options,
+              testReportingCallback);
+          if (!testSteps.isEmpty()) {
+            stepsBuilder.addAll(testSteps);
+            stepsBuilder.add(testRuleKeyFileHelper.createRuleKeyInDirStep(test));
+          }
         }
         steps = stepsBuilder.build();
       } else {
@@ -294,34 +352,76 @@ public class TestRunning {
       } else {
         LOG.debug("Running test %s in parallel", test);
         parallelTestRuns.add(testRun);
+        ImmutableList.Builder<ParallelWork> work = ImmutableList.builder();
+        if (shards.size() > 1) {
+          LOG.debug("Running test %s in %d shards", test, shards.size());
+          StepRunner.StepRunningCallback shardsStepRunningCallback =
+              createShardsStepRunningCallback(testStepRunningCallback, shards.size());
+          for (int shard = 0; shard < shards.size(); shard++) {
+            work.add(
+                new ParallelWork(
+                    target,
+                    ((JavaTest) test).runTestShard(
+                        executionContext,
+                        options,
+                        shards.get(shard),
+                        shard),
+                    Callables.<TestResults>returning(null),
+                    shardsStepRunningCallback,
+                    getEstimatedDurationMillis(target, shards.get(shard), durationHistory)));
+          }
+        } else {
+          work.add(
+              new ParallelWork(
+                  target,
+                  testRun.getSteps(),
+                  testRun.getTestResultsCallable(),
+                  testStepRunningCallback,
+                  steps.isEmpty()
+                      ? 0
+                      // Tests that haven't run before may be long ones, so start them early.
+                      : durationHistory.getTotalDuration(target).or(Long.MAX_VALUE)));
+        }
+        parallelWorkByTestRun.add(work.build());
       }
     }
 
-    final StepRunner.StepRunningCallback testStepRunningCallback =
-        new StepRunner.StepRunningCallback() {
-          @Override
-          public void stepsWillRun(Optional<BuildTarget> buildTarget) {
-            Preconditions.checkState(buildTarget.isPresent());
-            LOG.debug("Test steps will run for %s", buildTarget);
-            params.getBuckEventBus().post(TestRuleEvent.started(buildTarget.get()));
-          }
-
-          @Override
-          public void stepsDidRun(Optional<BuildTarget> buildTarget) {
-            Preconditions.checkState(buildTarget.isPresent());
-            LOG.debug("Test steps did run for %s", buildTarget);
-            params.getBuckEventBus().post(TestRuleEvent.finished(buildTarget.get()));
-          }
-        };
+    // Submit the parallel work longest first, judging by how long it took the last time it ran.
+    // The test threads take work in the order it is submitted, so this keeps a long test from
+    // starting late and then running on its own once everything else has finished.
+    List<ParallelWork> longestParallelWorkFirst =
+        ParallelWork.LONGEST_FIRST.sortedCopy(Iterables.concat(parallelWorkByTestRun));
+    for (ParallelWork work : longestParallelWorkFirst) {
+      work.submit(stepRunner, service);
+    }
 
-    for (TestRun testRun : parallelTestRuns) {
-      ListenableFuture<TestResults> testResults =
-          stepRunner.runStepsAndYieldResult(
-              testRun.getSteps(),
-              testRun.getTestResultsCallable(),
-              Optional.of(testRun.getTest().getBuildTarget()),
-              service,
-              testStepRunningCallback);
+    final ListeningExecutorService directExecutorService = MoreExecutors.newDirectExecutorService();
+    for (int i = 0; i < parallelTestRuns.size(); i++) {
+      final TestRun testRun = parallelTestRuns.get(i);
+      List<ParallelWork> work = parallelWorkByTestRun.get(i);
+      ListenableFuture<TestResults> testResults;
+      if (work.size() == 1) {
+        testResults = work.get(0).getFuture();
+      } else {
+        List<ListenableFuture<TestResults>> shardFutures = Lists.newArrayList();
+        for (ParallelWork shard : work) {
+          shardFutures.add(shard.getFuture());
+        }
+        // Once all of the shards have run, their results are read back as those of the rule.
+        testResults = Futures.transform(
+            Futures.allAsList(shardFutures),
+            new AsyncFunction<List<TestResults>, TestResults>() {
+              @Override
+              public ListenableFuture<TestResults> apply(List<TestResults> input) {
+                return stepRunner.runStepsAndYieldResult(
+                    testRun.getSteps(),
+                    testRun.getTestResultsCallable(),
+                    Optional.of(testRun.getTest().getBuildTarget()),
+                    directExecutorService,
+                    StepRunner.NOOP_CALLBACK);
+              }
+            });
+      }
         results.add(
             transformTestResults(
                 params,
@@ -340,7 +440,6 @@ public class TestRunning {
 
     final List<TestResults> completedResults = Lists.newArrayList();
 
-    final ListeningExecutorService directExecutorService = MoreExecutors.newDirectExecutorService();
     ListenableFuture<Void> uberFuture = stepRunner.addCallback(
         parallelTestStepsFuture,
         new FutureCallback<List<TestResults>>() {
@@ -412,6 +511,17 @@ public class TestRunning {
 
     params.getBuckEventBus().post(TestRunEvent.finished(testTargets, completedResults));
 
+    if (!options.isDryRun()) {
+      for (TestResults testResults : completedResults) {
+        durationHistory.record(testResults);
+      }
+      try {
+        durationHistory.save(filesystem, params.getObjectMapper());
+      } catch (IOException e) {
+        LOG.warn(e, "Could not save the durations of the tests.");
+      }
+    }
+
     // Write out the results as XML, if requested.
     Optional<String> path = options.getPathToXmlTestOutput();
     if (path.isPresent()) {
@@ -453,6 +563,150 @@ public class TestRunning {
     return failures ? TEST_FAILURES_EXIT_CODE : 0;
   }
 
+  /**
+   * Splits the test classes of a Java test into shards that are each estimated to take about as
+   * long as the others, by giving each class in turn, longest first, to the shard with the least
+   * work so far. There are only as many shards as can each be given at least
+   * {@code minShardDurationMillis} of work.
+   *
+   * @return the shards, or a single one with all of the classes if the test isn't worth splitting.
+   */
+  @VisibleForTesting
+  static ImmutableList<ImmutableSet<String>> shardTestClasses(
+      BuildTarget target,
+      Set<String> testClassNames,
+      TestDurationHistory durationHistory,
+      int maxShards,
+      long minShardDurationMillis) {
+    final Map<String, Long> durations = new HashMap<>();
+    long totalDuration = 0;
+    for (String testClassName : testClassNames) {
+      long duration = getEstimatedDurationMillis(
+          target,
+          ImmutableSet.of(testClassName),
+          durationHistory);
+      durations.put(testClassName, duration);
+      totalDuration += duration;
+    }
+    long shardCount = Math.min(
+        Math.min(maxShards, testClassNames.size()),
+        totalDuration / Math.max(1, minShardDurationMillis));
+    if (shardCount <= 1) {
+      return ImmutableList.of(ImmutableSet.copyOf(testClassNames));
+    }
+
+    List<String> longestFirst = Ordering.natural()
+        .onResultOf(Functions.forMap(durations))
+        .reverse()
+        .sortedCopy(testClassNames);
+    List<ImmutableSet.Builder<String>> shards = Lists.newArrayList();
+    long[] shardDurations = new long[(int) shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards.add(ImmutableSet.<String>builder());
+    }
+    for (String testClassName : longestFirst) {
+      int shortest = 0;
+      for (int i = 1; i < shardCount; i++) {
+        if (shardDurations[i] < shardDurations[shortest]) {
+          shortest = i;
+        }
+      }
+      shards.get(shortest).add(testClassName);
+      shardDurations[shortest] += durations.get(testClassName);
+    }
+
+    ImmutableList.Builder<ImmutableSet<String>> builtShards = ImmutableList.builder();
+    for (ImmutableSet.Builder<String> shard : shards) {
+      builtShards.add(shard.build());
+    }
+    return builtShards.build();
+  }
+
+  private static long getEstimatedDurationMillis(
+      BuildTarget target,
+      Set<String> testClassNames,
+      TestDurationHistory durationHistory) {
+    long duration = 0;
+    for (String testClassName : testClassNames) {
+      duration += durationHistory.getDuration(target, testClassName)
+          .or(DEFAULT_TEST_CLASS_DURATION_MILLIS);
+    }
+    return duration;
+  }
+
+  /**
+   * Reports the shards of a test rule to {@code delegate} as if they were the steps of the rule:
+   * as starting when the first shard does, and as finished once all of them have.
+   */
+  private static StepRunner.StepRunningCallback createShardsStepRunningCallback(
+      final StepRunner.StepRunningCallback delegate,
+      final int shardCount) {
+    final AtomicInteger startedShards = new AtomicInteger();
+    final AtomicInteger finishedShards = new AtomicInteger();
+    return new StepRunner.StepRunningCallback() {
+      @Override
+      public void stepsWillRun(Optional<BuildTarget> buildTarget) {
+        if (startedShards.getAndIncrement() == 0) {
+          delegate.stepsWillRun(buildTarget);
+        }
+      }
+
+      @Override
+      public void stepsDidRun(Optional<BuildTarget> buildTarget) {
+        if (finishedShards.incrementAndGet() == shardCount) {
+          delegate.stepsDidRun(buildTarget);
+        }
+      }
+    };
+  }
+
+  /**
+   * Steps that run on one of the test threads: all of those of a test rule, or one of its shards.
+   */
+  private static class ParallelWork {
+
+    public static final Ordering<ParallelWork> LONGEST_FIRST = new Ordering<ParallelWork>() {
+      @Override
+      public int compare(ParallelWork left, ParallelWork right) {
+        return Long.compare(right.estimatedDurationMillis, left.estimatedDurationMillis);
+      }
+    };
+
+    private final BuildTarget target;
+    private final List<Step> steps;
+    private final Callable<TestResults> testResultsCallable;
+    private final StepRunner.StepRunningCallback stepRunningCallback;
+    private final long estimatedDurationMillis;
+    @Nullable
+    private ListenableFuture<TestResults> future;
+
+    public ParallelWork(
+        BuildTarget target,
+        List<Step> steps,
+        Callable<TestResults> testResultsCallable,
+        StepRunner.StepRunningCallback stepRunningCallback,
+        long estimatedDurationMillis) {
+      this.target = target;
+      this.steps = steps;
+      this.testResultsCallable = testResultsCallable;
+      this.stepRunningCallback = stepRunningCallback;
+      this.estimatedDurationMillis = estimatedDurationMillis;
+    }
+
+    public void submit(StepRunner stepRunner, ListeningExecutorService service) {
+      future = stepRunner.runStepsAndYieldResult(
+          steps,
+          testResultsCallable,
+          Optional.of(target),
+          service,
+          stepRunningCallback);
+    }
+
+    public ListenableFuture<TestResults> getFuture() {
+      return Preconditions.checkNotNull(future);
+    }
+  }
+
   private static ListenableFuture<TestResults> transformTestResults(
       final CommandRunnerParams params,
       ListenableFuture<TestResults> originalTestResults,
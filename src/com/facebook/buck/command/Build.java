@@ -21,6 +21,7 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.ThrowableConsoleEvent;
 import com.facebook.buck.java.JavaPackageFinder;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.HasBuildTarget;
 import com.facebook.buck.rules.ActionGraph;
@@ -28,8 +29,13 @@ import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.rules.BuildContext;
 import com.facebook.buck.rules.BuildEngine;
 import com.facebook.buck.rules.BuildEvent;
+import com.facebook.buck.rules.BuildMetadataStores;
 import com.facebook.buck.rules.BuildResult;
 import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleCriticalPaths;
+import com.facebook.buck.rules.BuildRuleDurationHistory;
+import com.facebook.buck.rules.BuildRuleResources;
+import com.facebook.buck.rules.CriticalPathEvent;
 import com.facebook.buck.rules.ImmutableBuildContext;
 import com.facebook.buck.step.AdbOptions;
 import com.facebook.buck.step.DefaultStepRunner;
@@ -59,6 +65,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.io.Files;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -72,6 +79,8 @@ import javax.annotation.Nullable;
 
 public class Build implements Closeable {
 
+  private static final Logger LOG = Logger.get(Build.class);
+
   private static final Predicate<Optional<BuildResult>> RULES_FAILED_PREDICATE =
       new Predicate<Optional<BuildResult>>() {
         @Override
@@ -94,6 +103,12 @@ public class Build implements Closeable {
 
   private final Clock clock;
 
+  private final BuildMetadataStores buildMetadataStores;
+
+  private final BuildRuleResources buildRuleResources;
+
+  private final BuildRuleDurationHistory buildRuleDurationHistory;
+
   /** Not set until {@link #executeBuild(Iterable, boolean)} is invoked. */
   @Nullable
   private BuildContext buildContext;
@@ -103,6 +118,7 @@ public class Build implements Closeable {
       Optional<TargetDevice> targetDevice,
       Supplier<AndroidPlatformTarget> androidPlatformTargetSupplier,
       BuildEngine buildEngine,
+      ListeningExecutorService executorService,
       ArtifactCache artifactCache,
       JavaPackageFinder javaPackageFinder,
       Console console,
@@ -116,7 +132,10 @@ public class Build implements Closeable {
       Clock clock,
       ConcurrencyLimit concurrencyLimit,
       Optional<AdbOptions> adbOptions,
-      Optional<TargetDeviceOptions> targetDeviceOptions) {
+      Optional<TargetDeviceOptions> targetDeviceOptions,
+      BuildMetadataStores buildMetadataStores,
+      BuildRuleResources buildRuleResources,
+      BuildRuleDurationHistory buildRuleDurationHistory) {
     this.actionGraph = actionGraph;
 
     this.executionContext = ExecutionContext.builder()
@@ -134,12 +153,16 @@ public class Build implements Closeable {
         .setConcurrencyLimit(concurrencyLimit)
         .setAdbOptions(adbOptions)
         .setTargetDeviceOptions(targetDeviceOptions)
+        .setExecutorService(Optional.of(executorService))
         .build();
     this.artifactCache = artifactCache;
     this.buildEngine = buildEngine;
     this.stepRunner = new DefaultStepRunner(executionContext);
     this.javaPackageFinder = javaPackageFinder;
     this.clock = clock;
+    this.buildMetadataStores = buildMetadataStores;
+    this.buildRuleResources = buildRuleResources;
+    this.buildRuleDurationHistory = buildRuleDurationHistory;
   }
 
   public ActionGraph getActionGraph() {
@@ -169,21 +192,6 @@ public class Build implements Closeable {
       Iterable<? extends HasBuildTarget> targetish,
       boolean isKeepGoing)
       throws IOException, StepFailedException, ExecutionException, InterruptedException {
-    buildContext = ImmutableBuildContext.builder()
-        .setActionGraph(actionGraph)
-        .setStepRunner(stepRunner)
-        .setClock(clock)
-        .setArtifactCache(artifactCache)
-        .setJavaPackageFinder(javaPackageFinder)
-        .setEventBus(executionContext.getBuckEventBus())
-        .setAndroidBootclasspathSupplier(
-            BuildContext.createBootclasspathSupplier(
-                executionContext.getAndroidPlatformTargetSupplier()))
-        .setBuildId(executionContext.getBuildId())
-        .putAllEnvironment(executionContext.getEnvironment())
-        .setKeepGoing(isKeepGoing)
-        .build();
-
     ImmutableSet<BuildTarget> targetsToBuild = FluentIterable.from(targetish)
         .transform(HasBuildTarget.TO_TARGET)
         .toSet();
@@ -206,6 +214,29 @@ public class Build implements Closeable {
                        })
             .toSet());
 
+    BuildRuleCriticalPaths criticalPaths =
+        BuildRuleCriticalPaths.compute(rulesToBuild, buildRuleDurationHistory);
+    getExecutionContext().getBuckEventBus().post(CriticalPathEvent.estimated(criticalPaths));
+
+    buildContext = ImmutableBuildContext.builder()
+        .setActionGraph(actionGraph)
+        .setStepRunner(stepRunner)
+        .setClock(clock)
+        .setArtifactCache(artifactCache)
+        .setJavaPackageFinder(javaPackageFinder)
+        .setEventBus(executionContext.getBuckEventBus())
+        .setAndroidBootclasspathSupplier(
+            BuildContext.createBootclasspathSupplier(
+                executionContext.getAndroidPlatformTargetSupplier()))
+        .setBuildId(executionContext.getBuildId())
+        .putAllEnvironment(executionContext.getEnvironment())
+        .setKeepGoing(isKeepGoing)
+        .setBuildMetadataStores(buildMetadataStores)
+        .setBuildRuleResources(buildRuleResources)
+        .setBuildRuleDurationHistory(buildRuleDurationHistory)
+        .setBuildRuleCriticalPaths(criticalPaths)
+        .build();
+
     // Calculate and post the number of rules that need to built.
     int numRules = buildEngine.getNumRulesToBuild(rulesToBuild);
     getExecutionContext().getBuckEventBus().post(
@@ -244,6 +275,12 @@ public class Build implements Closeable {
       }
       Thread.currentThread().interrupt();
       throw e;
+    } finally {
+      try {
+        buildRuleDurationHistory.save();
+      } catch (IOException e) {
+        LOG.warn(e, "Could not save the durations of the rules.");
+      }
     }
 
     // Insertion order matters
@@ -329,7 +366,11 @@ public class Build implements Closeable {
 
   @Override
   public void close() throws IOException {
-    executionContext.close();
+    try {
+      executionContext.close();
+    } finally {
+      buildMetadataStores.close();
+    }
   }
 
 }
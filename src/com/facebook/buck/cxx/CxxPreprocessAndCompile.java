@@ -16,6 +16,7 @@
 
 package com.facebook.buck.cxx;
 
+import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.rules.AbstractBuildRule;
 import com.facebook.buck.rules.AddToRuleKey;
@@ -82,6 +83,7 @@ public class CxxPreprocessAndCompile
   @AddToRuleKey
   private final ImmutableList<CxxHeaders> includes;
   private final DebugPathSanitizer sanitizer;
+  private final boolean cachePreprocessedOutput;
 
   @VisibleForTesting
   CxxPreprocessAndCompile(
@@ -103,7 +105,8 @@ public class CxxPreprocessAndCompile
       ImmutableSet<Path> frameworkRoots,
       Optional<SourcePath> prefixHeader,
       ImmutableList<CxxHeaders> includes,
-      DebugPathSanitizer sanitizer) {
+      DebugPathSanitizer sanitizer,
+      boolean cachePreprocessedOutput) {
     super(params, resolver);
     Preconditions.checkState(operation.isPreprocess() == preprocessor.isPresent());
     Preconditions.checkState(operation.isPreprocess() == platformPreprocessorFlags.isPresent());
@@ -111,6 +114,9 @@ public class CxxPreprocessAndCompile
     Preconditions.checkState(operation.isCompile() == compiler.isPresent());
     Preconditions.checkState(operation.isCompile() == platformCompilerFlags.isPresent());
     Preconditions.checkState(operation.isCompile() == ruleCompilerFlags.isPresent());
+    Preconditions.checkState(
+        !cachePreprocessedOutput ||
+            operation == CxxPreprocessAndCompileStep.Operation.PIPED_PREPROCESS_AND_COMPILE);
     this.operation = operation;
     this.preprocessor = preprocessor;
     this.platformPreprocessorFlags = platformPreprocessorFlags;
@@ -128,6 +134,7 @@ public class CxxPreprocessAndCompile
     this.prefixHeader = prefixHeader;
     this.includes = includes;
     this.sanitizer = sanitizer;
+    this.cachePreprocessedOutput = cachePreprocessedOutput;
   }
 
   /**
@@ -162,7 +169,8 @@ public class CxxPreprocessAndCompile
         ImmutableSet.<Path>of(),
         Optional.<SourcePath>absent(),
         ImmutableList.<CxxHeaders>of(),
-        sanitizer);
+        sanitizer,
+        /* cachePreprocessedOutput */ false);
   }
 
   /**
@@ -203,7 +211,8 @@ public class CxxPreprocessAndCompile
         frameworkRoots,
         prefixHeader,
         includes,
-        sanitizer);
+        sanitizer,
+        /* cachePreprocessedOutput */ false);
   }
 
   /**
@@ -232,7 +241,7 @@ public class CxxPreprocessAndCompile
     return new CxxPreprocessAndCompile(
         params,
         resolver,
-        (strategy == CxxPreprocessMode.PIPED
+        (strategy == CxxPreprocessMode.PIPED || strategy == CxxPreprocessMode.PIPED_CACHED
             ? CxxPreprocessAndCompileStep.Operation.PIPED_PREPROCESS_AND_COMPILE
             : CxxPreprocessAndCompileStep.Operation.COMPILE_MUNGE_DEBUGINFO),
         Optional.of(preprocessor),
@@ -250,7 +259,8 @@ public class CxxPreprocessAndCompile
         frameworkRoots,
         prefixHeader,
         includes,
-        sanitizer);
+        sanitizer,
+        strategy == CxxPreprocessMode.PIPED_CACHED);
   }
 
   @Override
@@ -291,6 +301,11 @@ public class CxxPreprocessAndCompile
 
   @VisibleForTesting
   CxxPreprocessAndCompileStep makeMainStep() {
+    return makeMainStep(Optional.<ArtifactCache>absent());
+  }
+
+  private CxxPreprocessAndCompileStep makeMainStep(
+      Optional<ArtifactCache> preprocessedOutputCache) {
 
     // Resolve the map of symlinks to real paths to hand off the preprocess step.  If we're
     // compiling, this will just be empty.
@@ -348,7 +363,8 @@ public class CxxPreprocessAndCompile
               public Optional<Function<String, Iterable<String>>> apply(Preprocessor input) {
                 return input.getExtraLineProcessor();
               }
-            }));
+            }),
+        preprocessedOutputCache);
   }
 
   @Override
@@ -358,7 +374,10 @@ public class CxxPreprocessAndCompile
     buildableContext.recordArtifact(output);
     return ImmutableList.of(
         new MkdirStep(getProjectFilesystem(), output.getParent()),
-        makeMainStep());
+        makeMainStep(
+            cachePreprocessedOutput ?
+                Optional.of(context.getArtifactCache()) :
+                Optional.<ArtifactCache>absent()));
   }
 
   private ImmutableList<String> getPreprocessorPlatformPrefix() {
@@ -16,11 +16,15 @@
 
 package com.facebook.buck.cxx;
 
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.PerfEventId;
 import com.facebook.buck.event.SimplePerfEvent;
+import com.facebook.buck.io.ExecutableFinder;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.util.Escaper;
@@ -35,6 +39,10 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
 import com.google.common.io.Files;
 
 import java.io.BufferedReader;
@@ -71,6 +79,7 @@ public class CxxPreprocessAndCompileStep implements Step {
   private final ImmutableMap<Path, Path> replacementPaths;
   private final DebugPathSanitizer sanitizer;
   private final Optional<Function<String, Iterable<String>>> extraLineProcessor;
+  private final Optional<ArtifactCache> preprocessedOutputCache;
 
   // N.B. These include paths are special to GCC. They aren't real files and there is no remapping
   // needed, so we can just ignore them everywhere.
@@ -90,9 +99,13 @@ public class CxxPreprocessAndCompileStep implements Step {
       Optional<ImmutableList<String>> compilerCommand,
       ImmutableMap<Path, Path> replacementPaths,
       DebugPathSanitizer sanitizer,
-      Optional<Function<String, Iterable<String>>> extraLineProcessor) {
+      Optional<Function<String, Iterable<String>>> extraLineProcessor,
+      Optional<ArtifactCache> preprocessedOutputCache) {
     Preconditions.checkState(operation.isPreprocess() == preprocessorCommand.isPresent());
     Preconditions.checkState(operation.isCompile() == compilerCommand.isPresent());
+    Preconditions.checkState(
+        !preprocessedOutputCache.isPresent() ||
+            operation == Operation.PIPED_PREPROCESS_AND_COMPILE);
 
     this.filesystem = filesystem;
     this.operation = operation;
@@ -105,6 +118,7 @@ public class CxxPreprocessAndCompileStep implements Step {
     this.replacementPaths = replacementPaths;
     this.sanitizer = sanitizer;
     this.extraLineProcessor = extraLineProcessor;
+    this.preprocessedOutputCache = preprocessedOutputCache;
   }
 
   @Override
@@ -222,6 +236,10 @@ public class CxxPreprocessAndCompileStep implements Step {
     return depFile.getFileSystem().getPath(depFile + ".tmp");
   }
 
+  private Path getPreprocessedTemp() {
+    return output.getFileSystem().getPath(output + ".pp.tmp");
+  }
+
   private ImmutableList<String> getDepFileArgs(Path depFile) {
     return ImmutableList.of("-MD", "-MF", depFile.toString());
   }
@@ -323,31 +341,8 @@ public class CxxPreprocessAndCompileStep implements Step {
       safeCloseProcessor(errorProcessorPreprocess);
       safeCloseProcessor(errorProcessorCompile);
 
-      String preprocessErr = new String(preprocessError.toByteArray());
-      if (!preprocessErr.isEmpty()) {
-        context.getBuckEventBus().post(
-            ConsoleEvent.create(
-                preprocessStatus == 0 ? Level.WARNING : Level.SEVERE,
-                preprocessErr));
-      }
-
-      String compileErr = new String(compileError.toByteArray());
-      if (!compileErr.isEmpty()) {
-        context.getBuckEventBus().post(
-            ConsoleEvent.create(
-                compileStatus == 0 ? Level.WARNING : Level.SEVERE,
-                compileErr));
-      }
-
-      if (preprocessStatus != 0) {
-        LOG.warn("error %d %s(preprocess) %s: %s", preprocessStatus,
-            operation.toString().toLowerCase(), input, preprocessErr);
-      }
-
-      if (compileStatus != 0) {
-        LOG.warn("error %d %s(compile) %s: %s", compileStatus,
-            operation.toString().toLowerCase(), input, compileErr);
-      }
+      reportErrorOutput(context, "preprocess", preprocessStatus, preprocessError);
+      reportErrorOutput(context, "compile", compileStatus, compileError);
 
       if (preprocessStatus != 0) {
         return preprocessStatus;
@@ -375,6 +370,192 @@ public class CxxPreprocessAndCompileStep implements Step {
     }
   }
 
+  private void reportErrorOutput(
+      ExecutionContext context,
+      String phase,
+      int status,
+      ByteArrayOutputStream errorOutput) {
+    String err = new String(errorOutput.toByteArray());
+    if (!err.isEmpty()) {
+      context.getBuckEventBus().post(
+          ConsoleEvent.create(
+              status == 0 ? Level.WARNING : Level.SEVERE,
+              err));
+    }
+    if (status != 0) {
+      LOG.warn("error %d %s(%s) %s: %s", status,
+          operation.toString().toLowerCase(), phase, input, err);
+    }
+  }
+
+  /**
+   * @return the key under which the object file compiled from preprocessed output with the given
+   *     hash is stored in the preprocessed output cache.  This deliberately ignores the original
+   *     source and headers: two translation units which preprocess to the same bytes and are
+   *     compiled with the same compiler and flags produce the same object file.
+   */
+  @VisibleForTesting
+  RuleKey getPreprocessedOutputCacheKey(
+      HashCode preprocessedOutputHash,
+      ImmutableMap<String, String> environment) throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putBytes(preprocessedOutputHash.asBytes());
+    hasher.putUnencodedChars(inputType.getPreprocessedLanguage());
+    hasher.putByte((byte) 0);
+    for (String arg : compilerCommand.get()) {
+      hasher.putUnencodedChars(arg);
+      hasher.putByte((byte) 0);
+    }
+
+    // Like ccache, identify the compiler binary itself by its size and modification time, so that
+    // upgrading a compiler in place doesn't serve stale objects.
+    Optional<Path> compilerPath = resolveCompiler(environment);
+    if (compilerPath.isPresent()) {
+      hasher.putLong(java.nio.file.Files.size(compilerPath.get()));
+      hasher.putLong(java.nio.file.Files.getLastModifiedTime(compilerPath.get()).toMillis());
+    }
+
+    return new RuleKey(hasher.hash().toString());
+  }
+
+  /**
+   * @return the compiler binary the compile command runs: a path with a directory in it is
+   *     relative to the project root, where the compiler is run, and a bare name is looked up on
+   *     the {@code PATH}.
+   */
+  private Optional<Path> resolveCompiler(ImmutableMap<String, String> environment) {
+    Path compiler = Paths.get(compilerCommand.get().get(0));
+    if (compiler.isAbsolute() || compiler.getNameCount() > 1) {
+      Path resolved = filesystem.resolve(compiler);
+      return java.nio.file.Files.isRegularFile(resolved)
+          ? Optional.of(resolved)
+          : Optional.<Path>absent();
+    }
+    return new ExecutableFinder().getOptionalExecutable(compiler, environment);
+  }
+
+  /**
+   * Like {@link #executePiped}, but spools the preprocessed output to disk while hashing it, then
+   * tries to fetch the object file for that hash from the preprocessed output cache before
+   * invoking the compiler.  Successfully compiled objects are stored back into the cache.
+   */
+  private int executePipedWithCache(ExecutionContext context, ArtifactCache cache)
+      throws IOException, InterruptedException {
+    Path preprocessed = getPreprocessedTemp();
+
+    try {
+      ByteArrayOutputStream preprocessError = new ByteArrayOutputStream();
+      ProcessBuilder preprocessBuilder = makeSubprocessBuilder();
+      preprocessBuilder.command(makePreprocessCommand());
+      preprocessBuilder.redirectOutput(ProcessBuilder.Redirect.PIPE);
+
+      LOG.debug(
+          "Running command (pwd=%s): %s",
+          preprocessBuilder.directory(),
+          getDescription(context));
+
+      Process preprocess = null;
+      FunctionLineProcessorThread errorProcessorPreprocess = null;
+      FunctionLineProcessorThread lineDirectiveMunger = null;
+      HashingOutputStream preprocessedOutput = null;
+      int preprocessStatus;
+      try {
+        preprocess = preprocessBuilder.start();
+
+        errorProcessorPreprocess =
+            new FunctionLineProcessorThread(
+                preprocess.getErrorStream(),
+                preprocessError,
+                createErrorLineProcessor(filesystem.getRootPath()));
+        errorProcessorPreprocess.start();
+
+        preprocessedOutput =
+            new HashingOutputStream(
+                Hashing.sha1(),
+                filesystem.newFileOutputStream(preprocessed));
+        lineDirectiveMunger =
+            new FunctionLineProcessorThread(
+                preprocess.getInputStream(),
+                preprocessedOutput,
+                createPreprocessOutputLineProcessor(filesystem.getRootPath()));
+        lineDirectiveMunger.start();
+
+        preprocessStatus = preprocess.waitFor();
+
+        // Wait for the munger to drain and close the spooled output before hashing it.
+        safeCloseProcessor(lineDirectiveMunger);
+        safeCloseProcessor(errorProcessorPreprocess);
+      } finally {
+        if (preprocess != null) {
+          preprocess.destroy();
+          preprocess.waitFor();
+        }
+        safeCloseProcessor(errorProcessorPreprocess);
+        safeCloseProcessor(lineDirectiveMunger);
+        if (preprocessedOutput != null) {
+          preprocessedOutput.close();
+        }
+      }
+
+      reportErrorOutput(context, "preprocess", preprocessStatus, preprocessError);
+      if (preprocessStatus != 0) {
+        return preprocessStatus;
+      }
+
+      RuleKey key = getPreprocessedOutputCacheKey(
+          preprocessedOutput.hash(),
+          context.getEnvironment());
+      Path absoluteOutput = filesystem.resolve(output);
+      CacheResult cacheResult = cache.fetch(key, absoluteOutput);
+      if (cacheResult.getType().isSuccess()) {
+        LOG.debug("Fetched %s for %s from preprocessed output cache (%s)", output, input, key);
+        return 0;
+      }
+
+      ByteArrayOutputStream compileError = new ByteArrayOutputStream();
+      ProcessBuilder compileBuilder = makeSubprocessBuilder();
+      compileBuilder.command(
+          makeCompileCommand(
+              "-",
+              inputType.getPreprocessedLanguage(),
+              /* preprocessable */ false));
+      compileBuilder.redirectInput(filesystem.resolve(preprocessed).toFile());
+
+      Process compile = null;
+      FunctionLineProcessorThread errorProcessorCompile = null;
+      int compileStatus;
+      try {
+        compile = compileBuilder.start();
+
+        errorProcessorCompile =
+            new FunctionLineProcessorThread(
+                compile.getErrorStream(),
+                compileError,
+                createErrorLineProcessor(filesystem.getRootPath()));
+        errorProcessorCompile.start();
+
+        compileStatus = compile.waitFor();
+        safeCloseProcessor(errorProcessorCompile);
+      } finally {
+        if (compile != null) {
+          compile.destroy();
+          compile.waitFor();
+        }
+        safeCloseProcessor(errorProcessorCompile);
+      }
+
+      reportErrorOutput(context, "compile", compileStatus, compileError);
+      if (compileStatus != 0) {
+        return compileStatus;
+      }
+
+      cache.store(ImmutableSet.of(key), ImmutableMap.<String, String>of(), absoluteOutput);
+      return 0;
+    } finally {
+      filesystem.deleteFileAtPathIfExists(preprocessed);
+    }
+  }
+
   private int executeOther(ExecutionContext context) throws Exception {
     ProcessBuilder builder = makeSubprocessBuilder();
 
@@ -459,7 +640,10 @@ public class CxxPreprocessAndCompileStep implements Step {
 
       // We need completely different logic if we're piping from the preprocessor to the compiler.
       int exitCode;
-      if (operation == Operation.PIPED_PREPROCESS_AND_COMPILE) {
+      if (operation == Operation.PIPED_PREPROCESS_AND_COMPILE &&
+          preprocessedOutputCache.isPresent()) {
+        exitCode = executePipedWithCache(context, preprocessedOutputCache.get());
+      } else if (operation == Operation.PIPED_PREPROCESS_AND_COMPILE) {
         exitCode = executePiped(context);
       } else {
         exitCode = executeOther(context);
@@ -32,6 +32,14 @@ public enum CxxPreprocessMode {
    */
   PIPED,
 
+  /**
+   * Like PIPED, but hash the rewritten preprocessor output and use it, together with the compiler
+   * and its flags, as a key into the artifact cache for the resulting object file.  Changes which
+   * don't affect the preprocessed output (e.g. touching or reformatting headers) then fetch the
+   * object from the cache rather than recompiling it.
+   */
+  PIPED_CACHED,
+
   /**
    * Run the preprocessor and compiler together.  Does not currently normalize debugging
    * information at the preprocessor level; does a search-and-replace on the debug section
@@ -712,6 +712,7 @@ public class CxxSourceRuleFactory {
       switch (strategy) {
 
         case PIPED:
+        case PIPED_CACHED:
         case COMBINED: {
           CxxPreprocessAndCompile rule;
 
@@ -24,7 +24,9 @@ import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableMap;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Map;
 
 public class HeaderMapStep implements Step {
@@ -58,8 +60,14 @@ public class HeaderMapStep implements Step {
     for (Map.Entry<Path, Path> entry : entries.entrySet()) {
       builder.add(entry.getKey().toString(), entry.getValue());
     }
-    HeaderMap headerMap = builder.build();
-    filesystem.writeBytesToPath(headerMap.getBytes(), output);
+    byte[] bytes = builder.build().getBytes();
+
+    // Leave an up-to-date header map alone, so that its mtime only changes along with its contents.
+    if (filesystem.isFile(output) &&
+        Arrays.equals(bytes, Files.readAllBytes(filesystem.resolve(output)))) {
+      return 0;
+    }
+    filesystem.writeBytesToPath(bytes, output);
     return 0;
   }
 
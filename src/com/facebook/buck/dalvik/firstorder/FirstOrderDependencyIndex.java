@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.dalvik.firstorder;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import javax.annotation.Nullable;
+
+/**
+ * The facts about a set of classes needed to compute first-order dependencies: for every class,
+ * its supertypes and the types it references.
+ * <p>
+ * Classes are read with a streaming ASM visitor, so no {@link ClassNode} trees are retained.  Type
+ * names are interned to dense int ids and the relationships between them are stored as int
+ * arrays, which keeps the index small enough to hold for apps with tens of thousands of classes.
+ */
+public class FirstOrderDependencyIndex {
+
+  private static final int[] NO_TYPES = new int[0];
+
+  private final Map<String, Integer> ids;
+  private final List<String> names;
+  // Both of these are indexed by type id.  A null entry means the type was referenced but not
+  // defined by any of the indexed classes (e.g. android.* or java.* types).
+  private final List<int[]> supertypes;
+  private final List<int[]> dependencies;
+
+  private FirstOrderDependencyIndex() {
+    this.ids = Maps.newHashMap();
+    this.names = Lists.newArrayList();
+    this.supertypes = Lists.newArrayList();
+    this.dependencies = Lists.newArrayList();
+  }
+
+  public static FirstOrderDependencyIndex of() {
+    return new FirstOrderDependencyIndex();
+  }
+
+  public static FirstOrderDependencyIndex fromClassNodes(Iterable<ClassNode> classNodes) {
+    FirstOrderDependencyIndex index = new FirstOrderDependencyIndex();
+    for (ClassNode classNode : classNodes) {
+      FirstOrderVisitorContext context = new FirstOrderVisitorContext();
+      classNode.accept(context.classVisitor);
+      index.add(context.builder.build());
+    }
+    return index;
+  }
+
+  /**
+   * Indexes every class in the given jars, reading the jars in parallel on {@code executor}.
+   * If a class is defined in more than one jar, the definition from the last jar wins.
+   */
+  public static FirstOrderDependencyIndex fromJars(
+      Iterable<Path> jarPaths,
+      ExecutorService executor) throws IOException, InterruptedException {
+    List<Future<List<FirstOrderTypeInfo>>> futures = Lists.newArrayList();
+    for (final Path jarPath : jarPaths) {
+      futures.add(
+          executor.submit(
+              new Callable<List<FirstOrderTypeInfo>>() {
+                @Override
+                public List<FirstOrderTypeInfo> call() throws IOException {
+                  return readJar(jarPath);
+                }
+              }));
+    }
+
+    // Merge in jar order, so that the result doesn't depend on scheduling, and so that each jar's
+    // intermediate results can be dropped as soon as they're merged.
+    FirstOrderDependencyIndex index = new FirstOrderDependencyIndex();
+    try {
+      for (Future<List<FirstOrderTypeInfo>> future : futures) {
+        for (FirstOrderTypeInfo info : future.get()) {
+          index.add(info);
+        }
+      }
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return index;
+  }
+
+  private static List<FirstOrderTypeInfo> readJar(Path jarPath) throws IOException {
+    List<FirstOrderTypeInfo> infos = Lists.newArrayList();
+    try (JarFile jarFile = new JarFile(jarPath.toFile())) {
+      for (JarEntry entry : Collections.list(jarFile.entries())) {
+        String name = entry.getName();
+        if (entry.isDirectory() || (name == null) || !name.endsWith(".class")) {
+          continue;
+        }
+
+        FirstOrderVisitorContext context = new FirstOrderVisitorContext();
+        try (InputStream stream = jarFile.getInputStream(entry)) {
+          ClassReader reader = new ClassReader(stream);
+          reader.accept(context.classVisitor, ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+        }
+        infos.add(context.builder.build());
+      }
+    }
+    return infos;
+  }
+
+  private void add(FirstOrderTypeInfo info) {
+    int id = intern(info.type);
+
+    int[] supers = new int[1 + info.interfaceTypes.size()];
+    supers[0] = intern(info.superType);
+    int i = 1;
+    for (Type interfaceType : info.interfaceTypes) {
+      supers[i++] = intern(interfaceType);
+    }
+
+    supertypes.set(id, supers);
+    dependencies.set(id, internAll(info.observedDependencies));
+  }
+
+  private int[] internAll(Collection<Type> types) {
+    if (types.isEmpty()) {
+      return NO_TYPES;
+    }
+    int[] result = new int[types.size()];
+    int i = 0;
+    for (Type type : types) {
+      result[i++] = intern(type);
+    }
+    // Sort for determinism, since the source collections are hash based.
+    Arrays.sort(result);
+    return result;
+  }
+
+  private int intern(Type type) {
+    String name = type.getInternalName();
+    Integer id = ids.get(name);
+    if (id == null) {
+      id = names.size();
+      ids.put(name, id);
+      names.add(name);
+      supertypes.add(null);
+      dependencies.add(null);
+    }
+    return id;
+  }
+
+  /**
+   * @return the number of classes defined in the index.
+   */
+  public int getClassCount() {
+    int count = 0;
+    for (int[] supers : supertypes) {
+      if (supers != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Nullable
+  Integer getId(Type type) {
+    return ids.get(type.getInternalName());
+  }
+
+  String getName(int id) {
+    return names.get(id);
+  }
+
+  /**
+   * @return the ids of the superclass followed by the directly implemented interfaces, or null
+   *     if the type isn't defined in the index.
+   */
+  @Nullable
+  int[] getSupertypes(int id) {
+    return supertypes.get(id);
+  }
+
+  /**
+   * @return the ids of all the types the given type references, or null if the type isn't
+   *     defined in the index.
+   */
+  @Nullable
+  int[] getDependencies(int id) {
+    return dependencies.get(id);
+  }
+
+  /**
+   * @return the internal names of all classes defined in the index.
+   */
+  public ImmutableList<String> getClassNames() {
+    ImmutableList.Builder<String> builder = ImmutableList.builder();
+    for (int id = 0; id < names.size(); id++) {
+      if (supertypes.get(id) != null) {
+        builder.add(names.get(id));
+      }
+    }
+    return builder.build();
+  }
+}
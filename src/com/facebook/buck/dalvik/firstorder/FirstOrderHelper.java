@@ -17,44 +17,49 @@
 package com.facebook.buck.dalvik.firstorder;
 
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
 
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
 
-import java.util.Map;
+import java.util.BitSet;
 
 public class FirstOrderHelper {
 
   private final Iterable<Type> scenarioTypes;
   private final ImmutableSet.Builder<String> resultBuilder;
-  private final Map<Type, FirstOrderTypeInfo> knownTypes;
+  private final FirstOrderDependencyIndex index;
+  // Types whose supertypes have already been added to the result.
+  private final BitSet visited;
 
   private FirstOrderHelper(
       Iterable<Type> scenarioTypes,
-      ImmutableSet.Builder<String> resultBuilder) {
+      ImmutableSet.Builder<String> resultBuilder,
+      FirstOrderDependencyIndex index) {
     this.scenarioTypes = scenarioTypes;
     this.resultBuilder = resultBuilder;
-    this.knownTypes = Maps.newHashMap();
+    this.index = index;
+    this.visited = new BitSet();
   }
 
   public static void addTypesAndDependencies(
       Iterable<Type> scenarioTypes,
       Iterable<ClassNode> allClasses,
       ImmutableSet.Builder<String> classNamesBuilder) {
-    FirstOrderHelper helper = new FirstOrderHelper(scenarioTypes, classNamesBuilder);
-    helper.addDependencies(allClasses);
+    addTypesAndDependencies(
+        scenarioTypes,
+        FirstOrderDependencyIndex.fromClassNodes(allClasses),
+        classNamesBuilder);
   }
 
-  private ImmutableSet<String> addDependencies(Iterable<ClassNode> allClasses) {
-    for (ClassNode classNode : allClasses) {
-      FirstOrderVisitorContext context = new FirstOrderVisitorContext();
-      classNode.accept(context.classVisitor);
-
-      FirstOrderTypeInfo info = context.builder.build();
-      knownTypes.put(info.type, info);
-    }
+  public static void addTypesAndDependencies(
+      Iterable<Type> scenarioTypes,
+      FirstOrderDependencyIndex index,
+      ImmutableSet.Builder<String> classNamesBuilder) {
+    FirstOrderHelper helper = new FirstOrderHelper(scenarioTypes, classNamesBuilder, index);
+    helper.addDependencies();
+  }
 
+  private void addDependencies() {
     // TODO(user): consider adding events here that allow developers to track
     // how many non android.* and java.* classes went unrecognized over time.
     //
@@ -65,35 +70,39 @@ public class FirstOrderHelper {
     for (Type type : scenarioTypes) {
       addFirstOrderTypes(type);
     }
-
-    return resultBuilder.build();
   }
 
   private void addFirstOrderTypes(Type type) {
-    addTypeAndSupers(type);
+    Integer id = index.getId(type);
+    if (id == null) {
+      resultBuilder.add(type.getInternalName());
+      return;
+    }
+
+    addTypeAndSupers(id);
 
-    FirstOrderTypeInfo info = knownTypes.get(type);
-    if (info != null) {
-      for (Type dependency : info.observedDependencies) {
+    int[] dependencies = index.getDependencies(id);
+    if (dependencies != null) {
+      for (int dependency : dependencies) {
         addTypeAndSupers(dependency);
       }
     }
   }
 
-  private void addTypeAndSupers(Type type) {
-    addType(type);
+  private void addTypeAndSupers(int id) {
+    resultBuilder.add(index.getName(id));
 
-    FirstOrderTypeInfo info = knownTypes.get(type);
-    if (info != null) {
-      addTypeAndSupers(info.superType);
+    // Once a type has been walked, all of its supertypes are already in the result.
+    if (visited.get(id)) {
+      return;
+    }
+    visited.set(id);
 
-      for (Type interfaceType : info.interfaceTypes) {
-        addTypeAndSupers(interfaceType);
+    int[] supertypes = index.getSupertypes(id);
+    if (supertypes != null) {
+      for (int supertype : supertypes) {
+        addTypeAndSupers(supertype);
       }
     }
   }
-
-  private void addType(Type type) {
-    resultBuilder.add(type.getInternalName());
-  }
 }
@@ -0,0 +1,490 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.io.PathListing;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.BuckConstant;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Ordering;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * How long each rule and each of its steps took in each of the last builds, whether it was built
+ * or fetched from the cache, and how big its output was, kept as one compressed file per build
+ * under {@code buck-out/log/timings} by {@link BuildTimingListener}. {@code buck audit timings}
+ * reads it to summarize recent builds.
+ * <p>
+ * Scheduling reads {@link com.facebook.buck.rules.BuildRuleDurationHistory} at the start of every
+ * build instead, a single bounded snapshot rather than a directory of per-build files that would
+ * all have to be decompressed first. Rules that fell out of that snapshot are estimated from the
+ * last {@link #ESTIMATE_BUILDS} builds of this history, see {@link #getEstimatedDurations}. Test
+ * sharding needs per-test-case durations, which rule timings do not have, so it keeps its own.
+ * <p>
+ * Only rules that did some work are recorded: rules whose outputs were already up to date take
+ * no time worth tracking, and leaving them out keeps no-op builds from filling the history.
+ */
+public class BuildTimingHistory {
+
+  private static final Logger LOG = Logger.get(BuildTimingHistory.class);
+
+  @VisibleForTesting
+  static final Path DIRECTORY = BuckConstant.LOG_PATH.resolve("timings");
+
+  private static final String GLOB = "timings.*.json.gz";
+
+  /** How many of the last builds estimated durations are taken from, bounding how long it takes. */
+  public static final int ESTIMATE_BUILDS = 50;
+
+  private final ProjectFilesystem filesystem;
+  private final ObjectMapper objectMapper;
+
+  public BuildTimingHistory(ProjectFilesystem filesystem, ObjectMapper objectMapper) {
+    this.filesystem = filesystem;
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * Adds {@code build} to the history, then forgets all but the last {@code buildsToKeep} builds.
+   */
+  public void write(BuildRecord build, int buildsToKeep) throws IOException {
+    Path path = DIRECTORY.resolve(
+        String.format("timings.%d.%s.json.gz", build.getStartedMillis(), build.getBuildId()));
+    filesystem.createParentDirs(path);
+    try (OutputStream stream = new GZIPOutputStream(filesystem.newFileOutputStream(path))) {
+      objectMapper.writeValue(stream, build);
+    }
+
+    for (Path old : PathListing.listMatchingPathsWithFilters(
+             filesystem.getPathForRelativePath(DIRECTORY),
+             GLOB,
+             PathListing.GET_PATH_MODIFIED_TIME,
+             PathListing.FilterMode.EXCLUDE,
+             Optional.of(buildsToKeep),
+             Optional.<Long>absent())) {
+      filesystem.deleteFileAtPath(old);
+    }
+  }
+
+  /**
+   * @return up to {@code maxBuilds} of the last builds, the latest first, leaving out any that
+   *     can't be read.
+   */
+  public ImmutableList<BuildRecord> read(int maxBuilds) throws IOException {
+    if (!filesystem.exists(DIRECTORY)) {
+      return ImmutableList.of();
+    }
+    List<BuildRecord> builds = new ArrayList<>();
+    for (Path path : PathListing.listMatchingPathsWithFilters(
+             filesystem.getPathForRelativePath(DIRECTORY),
+             GLOB,
+             PathListing.GET_PATH_MODIFIED_TIME,
+             PathListing.FilterMode.INCLUDE,
+             Optional.of(maxBuilds),
+             Optional.<Long>absent())) {
+      try (InputStream stream = new GZIPInputStream(filesystem.newFileInputStream(path))) {
+        builds.add(objectMapper.readValue(stream, BuildRecord.class));
+      } catch (IOException e) {
+        LOG.warn(e, "Ignoring unreadable build timings in %s.", path);
+      }
+    }
+    Collections.sort(
+        builds,
+        new Comparator<BuildRecord>() {
+          @Override
+          public int compare(BuildRecord a, BuildRecord b) {
+            return Long.compare(b.getStartedMillis(), a.getStartedMillis());
+          }
+        });
+    return ImmutableList.copyOf(builds);
+  }
+
+  /**
+   * @param builds builds from {@link #read}, the latest first.
+   * @return statistics of each rule in {@code builds}, by fully qualified build target.
+   */
+  public static ImmutableSortedMap<String, RuleStatistics> computeStatistics(
+      Iterable<BuildRecord> builds) {
+    Map<String, List<RuleRecord>> recordsByTarget = new TreeMap<>();
+    for (BuildRecord build : builds) {
+      for (Map.Entry<String, RuleRecord> rule : build.getRules().entrySet()) {
+        List<RuleRecord> records = recordsByTarget.get(rule.getKey());
+        if (records == null) {
+          records = new ArrayList<>();
+          recordsByTarget.put(rule.getKey(), records);
+        }
+        records.add(rule.getValue());
+      }
+    }
+
+    ImmutableSortedMap.Builder<String, RuleStatistics> statistics =
+        ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, List<RuleRecord>> entry : recordsByTarget.entrySet()) {
+      statistics.put(entry.getKey(), RuleStatistics.of(entry.getValue()));
+    }
+    return statistics.build();
+  }
+
+  /**
+   * @return a supplier that reads how long the rules built locally in the last {@code maxBuilds}
+   *     builds took, as the median of those builds, by fully qualified build target, or nothing if
+   *     the history can't be read.
+   */
+  public Supplier<ImmutableMap<String, Long>> getEstimatedDurations(final int maxBuilds) {
+    return new Supplier<ImmutableMap<String, Long>>() {
+      @Override
+      public ImmutableMap<String, Long> get() {
+        ImmutableMap.Builder<String, Long> durations = ImmutableMap.builder();
+        try {
+          for (Map.Entry<String, RuleStatistics> rule :
+                   computeStatistics(read(maxBuilds)).entrySet()) {
+            if (rule.getValue().getBuiltLocally() > 0) {
+              durations.put(rule.getKey(), rule.getValue().getMedianMillis());
+            }
+          }
+        } catch (IOException e) {
+          LOG.warn(e, "Not estimating rule durations from unreadable build timings.");
+          return ImmutableMap.of();
+        }
+        return durations.build();
+      }
+    };
+  }
+
+  /**
+   * @return the value below which {@code percent} percent of {@code sortedValues} lie.
+   */
+  @VisibleForTesting
+  static long percentile(List<Long> sortedValues, int percent) {
+    if (sortedValues.isEmpty()) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percent / 100.0 * sortedValues.size()) - 1;
+    return sortedValues.get(Math.max(0, Math.min(index, sortedValues.size() - 1)));
+  }
+
+  /**
+   * What one build did with the rules that it did some work for.
+   */
+  public static class BuildRecord {
+    private final String buildId;
+    private final long startedMillis;
+    @Nullable
+    private final String command;
+    private final ImmutableSortedMap<String, RuleRecord> rules;
+
+    @JsonCreator
+    public BuildRecord(
+        @JsonProperty("buildId") String buildId,
+        @JsonProperty("startedMillis") long startedMillis,
+        @JsonProperty("command") @Nullable String command,
+        @JsonProperty("rules") @Nullable Map<String, RuleRecord> rules) {
+      this.buildId = buildId;
+      this.startedMillis = startedMillis;
+      this.command = command;
+      this.rules = rules == null
+          ? ImmutableSortedMap.<String, RuleRecord>of()
+          : ImmutableSortedMap.copyOf(rules);
+    }
+
+    @JsonProperty("buildId")
+    public String getBuildId() {
+      return buildId;
+    }
+
+    @JsonProperty("startedMillis")
+    public long getStartedMillis() {
+      return startedMillis;
+    }
+
+    @JsonProperty("command")
+    @Nullable
+    public String getCommand() {
+      return command;
+    }
+
+    /** By fully qualified build target. */
+    @JsonProperty("rules")
+    public ImmutableSortedMap<String, RuleRecord> getRules() {
+      return rules;
+    }
+  }
+
+  /**
+   * How one rule fared in one build.
+   */
+  public static class RuleRecord {
+    private final String type;
+    private final long durationMillis;
+    private final String successType;
+    private final String cacheResult;
+    @Nullable
+    private final Long outputBytes;
+    private final ImmutableSortedMap<String, Long> stepMillis;
+
+    /**
+     * @param durationMillis how long the rule kept a build thread busy, including fetching it from
+     *     the cache.
+     * @param successType how the rule succeeded, in lower case, or {@code failed}.
+     * @param stepMillis how long the steps of the rule took, by short name, summed over steps of
+     *     the same name.
+     */
+    @JsonCreator
+    public RuleRecord(
+        @JsonProperty("type") String type,
+        @JsonProperty("durationMillis") long durationMillis,
+        @JsonProperty("successType") String successType,
+        @JsonProperty("cacheResult") String cacheResult,
+        @JsonProperty("outputBytes") @Nullable Long outputBytes,
+        @JsonProperty("stepMillis") @Nullable Map<String, Long> stepMillis) {
+      this.type = type;
+      this.durationMillis = durationMillis;
+      this.successType = successType;
+      this.cacheResult = cacheResult;
+      this.outputBytes = outputBytes;
+      this.stepMillis = stepMillis == null
+          ? ImmutableSortedMap.<String, Long>of()
+          : ImmutableSortedMap.copyOf(stepMillis);
+    }
+
+    @JsonProperty("type")
+    public String getType() {
+      return type;
+    }
+
+    @JsonProperty("durationMillis")
+    public long getDurationMillis() {
+      return durationMillis;
+    }
+
+    @JsonProperty("successType")
+    public String getSuccessType() {
+      return successType;
+    }
+
+    @JsonProperty("cacheResult")
+    public String getCacheResult() {
+      return cacheResult;
+    }
+
+    @JsonProperty("outputBytes")
+    @Nullable
+    public Long getOutputBytes() {
+      return outputBytes;
+    }
+
+    @JsonProperty("stepMillis")
+    public ImmutableSortedMap<String, Long> getStepMillis() {
+      return stepMillis;
+    }
+
+    @JsonIgnore
+    public boolean isBuiltLocally() {
+      return "built_locally".equals(successType);
+    }
+
+    @JsonIgnore
+    public boolean isFetchedFromCache() {
+      return "fetched_from_cache".equals(successType) ||
+          "fetched_from_cache_input_based".equals(successType);
+    }
+  }
+
+  /**
+   * How a rule fared across builds. Durations are those of the builds that built the rule
+   * locally, since fetching it from the cache says little about how long it takes to build.
+   */
+  public static class RuleStatistics {
+    private final String type;
+    private final int builds;
+    private final int builtLocally;
+    private final int fetchedFromCache;
+    private final int failed;
+    private final long medianMillis;
+    private final long p90Millis;
+    private final long maxMillis;
+    private final long lastMillis;
+    @Nullable
+    private final Long lastOutputBytes;
+    private final ImmutableSortedMap<String, Long> medianStepMillis;
+
+    private RuleStatistics(
+        String type,
+        int builds,
+        int builtLocally,
+        int fetchedFromCache,
+        int failed,
+        long medianMillis,
+        long p90Millis,
+        long maxMillis,
+        long lastMillis,
+        @Nullable Long lastOutputBytes,
+        ImmutableSortedMap<String, Long> medianStepMillis) {
+      this.type = type;
+      this.builds = builds;
+      this.builtLocally = builtLocally;
+      this.fetchedFromCache = fetchedFromCache;
+      this.failed = failed;
+      this.medianMillis = medianMillis;
+      this.p90Millis = p90Millis;
+      this.maxMillis = maxMillis;
+      this.lastMillis = lastMillis;
+      this.lastOutputBytes = lastOutputBytes;
+      this.medianStepMillis = medianStepMillis;
+    }
+
+    /**
+     * @param records the records of one rule, the latest first.
+     */
+    private static RuleStatistics of(List<RuleRecord> records) {
+      int builtLocally = 0;
+      int fetchedFromCache = 0;
+      int failed = 0;
+      long lastMillis = 0;
+      Long lastOutputBytes = null;
+      List<Long> durations = new ArrayList<>();
+      Map<String, List<Long>> stepDurations = new HashMap<>();
+      for (RuleRecord record : records) {
+        if (lastOutputBytes == null) {
+          lastOutputBytes = record.getOutputBytes();
+        }
+        if (record.isFetchedFromCache()) {
+          fetchedFromCache++;
+        } else if (!record.isBuiltLocally()) {
+          failed++;
+        } else {
+          if (builtLocally == 0) {
+            lastMillis = record.getDurationMillis();
+          }
+          builtLocally++;
+          durations.add(record.getDurationMillis());
+          for (Map.Entry<String, Long> step : record.getStepMillis().entrySet()) {
+            List<Long> stepDuration = stepDurations.get(step.getKey());
+            if (stepDuration == null) {
+              stepDuration = new ArrayList<>();
+              stepDurations.put(step.getKey(), stepDuration);
+            }
+            stepDuration.add(step.getValue());
+          }
+        }
+      }
+
+      Collections.sort(durations);
+      ImmutableSortedMap.Builder<String, Long> medianStepMillis = ImmutableSortedMap.naturalOrder();
+      for (Map.Entry<String, List<Long>> step : stepDurations.entrySet()) {
+        medianStepMillis.put(
+            step.getKey(),
+            percentile(Ordering.natural().sortedCopy(step.getValue()), 50));
+      }
+      return new RuleStatistics(
+          records.get(0).getType(),
+          records.size(),
+          builtLocally,
+          fetchedFromCache,
+          failed,
+          percentile(durations, 50),
+          percentile(durations, 90),
+          durations.isEmpty() ? 0 : durations.get(durations.size() - 1),
+          lastMillis,
+          lastOutputBytes,
+          medianStepMillis.build());
+    }
+
+    @JsonProperty("type")
+    public String getType() {
+      return type;
+    }
+
+    /** How many of the builds did some work for the rule. */
+    @JsonProperty("builds")
+    public int getBuilds() {
+      return builds;
+    }
+
+    @JsonProperty("builtLocally")
+    public int getBuiltLocally() {
+      return builtLocally;
+    }
+
+    @JsonProperty("fetchedFromCache")
+    public int getFetchedFromCache() {
+      return fetchedFromCache;
+    }
+
+    @JsonProperty("failed")
+    public int getFailed() {
+      return failed;
+    }
+
+    @JsonProperty("medianMillis")
+    public long getMedianMillis() {
+      return medianMillis;
+    }
+
+    @JsonProperty("p90Millis")
+    public long getP90Millis() {
+      return p90Millis;
+    }
+
+    @JsonProperty("maxMillis")
+    public long getMaxMillis() {
+      return maxMillis;
+    }
+
+    /** How long the latest local build of the rule took. */
+    @JsonProperty("lastMillis")
+    public long getLastMillis() {
+      return lastMillis;
+    }
+
+    @JsonProperty("lastOutputBytes")
+    @Nullable
+    public Long getLastOutputBytes() {
+      return lastOutputBytes;
+    }
+
+    @JsonProperty("medianStepMillis")
+    public ImmutableSortedMap<String, Long> getMedianStepMillis() {
+      return medianStepMillis;
+    }
+  }
+}
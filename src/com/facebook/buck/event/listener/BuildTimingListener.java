@@ -0,0 +1,207 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.cli.CommandEvent;
+import com.facebook.buck.event.BuckEventListener;
+import com.facebook.buck.log.CommandThreadFactory;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.rules.BuildEvent;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.BuildRuleSuccessType;
+import com.facebook.buck.step.StepEvent;
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.eventbus.Subscribe;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds what each build did with each of its rules to the {@link BuildTimingHistory}, writing it
+ * on a thread of its own once the build finishes.
+ * <p>
+ * A rule takes as long as it keeps a build thread busy: from when it starts or resumes until it
+ * is suspended or finishes. Steps run on the thread of the rule that runs them, which is how
+ * they are told apart.
+ */
+public class BuildTimingListener implements BuckEventListener {
+
+  private static final Logger LOG = Logger.get(BuildTimingListener.class);
+  private static final int TIMEOUT_SECONDS = 30;
+
+  /** The ways of succeeding that did some work for the rule, unlike finding it up to date. */
+  private static final Set<BuildRuleSuccessType> RECORDED_SUCCESS_TYPES =
+      EnumSet.of(
+          BuildRuleSuccessType.BUILT_LOCALLY,
+          BuildRuleSuccessType.FETCHED_FROM_CACHE,
+          BuildRuleSuccessType.FETCHED_FROM_CACHE_INPUT_BASED);
+
+  private final BuildTimingHistory history;
+  private final int buildsToKeep;
+  private final ExecutorService outputExecutor;
+
+  private Optional<String> command = Optional.absent();
+  private long buildStartedMillis;
+  /** When each rule that is running last started or resumed. */
+  private final Map<BuildRule, Long> runningSince = new HashMap<>();
+  private final Map<BuildRule, Long> ruleMillis = new HashMap<>();
+  private final Map<BuildRule, Map<String, Long>> stepMillis = new HashMap<>();
+  /** The rule running on each thread. */
+  private final Map<Long, BuildRule> rulesByThread = new HashMap<>();
+  private final Map<Long, StepEvent.Started> stepsByThread = new HashMap<>();
+  private final Map<String, BuildTimingHistory.RuleRecord> rules = new TreeMap<>();
+
+  public BuildTimingListener(BuildTimingHistory history, int buildsToKeep) {
+    this.history = history;
+    this.buildsToKeep = buildsToKeep;
+    this.outputExecutor = MoreExecutors.newSingleThreadExecutor(
+        new CommandThreadFactory(getClass().getName()));
+  }
+
+  @Subscribe
+  public synchronized void commandStarted(CommandEvent.Started started) {
+    command = Optional.of(
+        "buck " + started.getCommandName() + " " + Joiner.on(' ').join(started.getArgs()));
+  }
+
+  @Subscribe
+  public synchronized void buildStarted(BuildEvent.Started started) {
+    buildStartedMillis = started.getTimestamp();
+  }
+
+  @Subscribe
+  public synchronized void ruleStarted(BuildRuleEvent.Started started) {
+    startRunning(started);
+  }
+
+  @Subscribe
+  public synchronized void ruleResumed(BuildRuleEvent.Resumed resumed) {
+    startRunning(resumed);
+  }
+
+  @Subscribe
+  public synchronized void ruleSuspended(BuildRuleEvent.Suspended suspended) {
+    stopRunning(suspended);
+  }
+
+  @Subscribe
+  public synchronized void ruleFinished(BuildRuleEvent.Finished finished) {
+    stopRunning(finished);
+    BuildRule rule = finished.getBuildRule();
+    Long millis = ruleMillis.remove(rule);
+    Map<String, Long> steps = stepMillis.remove(rule);
+    Optional<BuildRuleSuccessType> successType = finished.getSuccessType();
+    if (successType.isPresent() && !RECORDED_SUCCESS_TYPES.contains(successType.get())) {
+      // The outputs were up to date, so nothing worth recording happened.
+      return;
+    }
+    rules.put(
+        rule.getFullyQualifiedName(),
+        new BuildTimingHistory.RuleRecord(
+            rule.getType(),
+            millis == null ? 0 : millis,
+            successType.isPresent() ? successType.get().name().toLowerCase() : "failed",
+            finished.getCacheResult().getType().name().toLowerCase(),
+            finished.getOutputSize().orNull(),
+            steps));
+  }
+
+  @Subscribe
+  public synchronized void stepStarted(StepEvent.Started started) {
+    stepsByThread.put(started.getThreadId(), started);
+  }
+
+  @Subscribe
+  public synchronized void stepFinished(StepEvent.Finished finished) {
+    StepEvent.Started started = stepsByThread.remove(finished.getThreadId());
+    BuildRule rule = rulesByThread.get(finished.getThreadId());
+    if (started == null || rule == null) {
+      return;
+    }
+    Map<String, Long> steps = stepMillis.get(rule);
+    if (steps == null) {
+      steps = new TreeMap<>();
+      stepMillis.put(rule, steps);
+    }
+    Long previous = steps.get(finished.getShortStepName());
+    steps.put(
+        finished.getShortStepName(),
+        (previous == null ? 0 : previous) + finished.getTimestamp() - started.getTimestamp());
+  }
+
+  @Subscribe
+  public synchronized void buildFinished(BuildEvent.Finished finished) {
+    if (rules.isEmpty()) {
+      return;
+    }
+    final BuildTimingHistory.BuildRecord build = new BuildTimingHistory.BuildRecord(
+        finished.getBuildId().toString(),
+        buildStartedMillis,
+        command.orNull(),
+        rules);
+    rules.clear();
+    outputExecutor.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              history.write(build, buildsToKeep);
+            } catch (IOException e) {
+              LOG.warn(e, "Couldn't record the timings of build %s.", build.getBuildId());
+            }
+          }
+        });
+  }
+
+  private void startRunning(BuildRuleEvent event) {
+    runningSince.put(event.getBuildRule(), event.getTimestamp());
+    rulesByThread.put(event.getThreadId(), event.getBuildRule());
+  }
+
+  private void stopRunning(BuildRuleEvent event) {
+    BuildRule rule = event.getBuildRule();
+    rulesByThread.remove(event.getThreadId());
+    Long since = runningSince.remove(rule);
+    if (since == null) {
+      return;
+    }
+    Long millis = ruleMillis.get(rule);
+    ruleMillis.put(rule, (millis == null ? 0 : millis) + event.getTimestamp() - since);
+  }
+
+  @Override
+  public void outputTrace(BuildId buildId) {
+    outputExecutor.shutdown();
+    try {
+      if (!outputExecutor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        LOG.warn("Timed out recording the timings of build %s.", buildId);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
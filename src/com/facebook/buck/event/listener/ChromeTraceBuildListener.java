@@ -26,6 +26,7 @@ import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.event.StartActivityEvent;
 import com.facebook.buck.event.TraceEvent;
 import com.facebook.buck.event.UninstallEvent;
+import com.facebook.buck.httpserver.TraceCatalog;
 import com.facebook.buck.io.PathListing;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.java.AnnotationProcessingEvent;
@@ -41,6 +42,7 @@ import com.facebook.buck.artifact_cache.ArtifactCacheEvent;
 import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.CriticalPathEvent;
 import com.facebook.buck.rules.TestSummaryEvent;
 import com.facebook.buck.step.StepEvent;
 import com.facebook.buck.timing.Clock;
@@ -57,6 +59,7 @@ import com.google.common.base.Functions;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.eventbus.Subscribe;
 
@@ -87,9 +90,17 @@ public class ChromeTraceBuildListener implements BuckEventListener {
   private final Path tracePath;
   private final OutputStream traceStream;
   private final JsonGenerator jsonGenerator;
+  private final long startedMillis;
+  private final TraceCatalog traceCatalog;
 
   private final ExecutorService outputExecutor;
 
+  /** The command line that produced the trace, once the command has started. */
+  private volatile Optional<String> command = Optional.absent();
+
+  /** The rules the build estimated to be on its critical path, once it has estimated it. */
+  private volatile ImmutableSet<String> criticalPath = ImmutableSet.of();
+
 
   public ChromeTraceBuildListener(
       ProjectFilesystem projectFilesystem,
@@ -134,6 +145,8 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     this.compressTraces = compressTraces;
     this.outputExecutor = MoreExecutors.newSingleThreadExecutor(
         new CommandThreadFactory(getClass().getName()));
+    this.startedMillis = clock.currentTimeMillis();
+    this.traceCatalog = new TraceCatalog(projectFilesystem);
     TracePathAndStream tracePathAndStream = createPathAndStream(buildId);
     this.tracePath = tracePathAndStream.getPath();
     this.traceStream = tracePathAndStream.getStream();
@@ -171,7 +184,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     try {
       for (Path path : PathListing.listMatchingPathsWithFilters(
                traceDirectory,
-               "build.*.trace",
+               "build.*.{trace,trace.gz}",
                PathListing.GET_PATH_MODIFIED_TIME,
                PathListing.FilterMode.EXCLUDE,
                Optional.of(tracesToKeep),
@@ -184,7 +197,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
   }
 
   private TracePathAndStream createPathAndStream(BuildId buildId) {
-    String filenameTime = dateFormat.get().format(new Date(clock.currentTimeMillis()));
+    String filenameTime = dateFormat.get().format(new Date(startedMillis));
     String traceName = String.format("build.%s.%s.trace", filenameTime, buildId);
     if (compressTraces) {
       traceName = traceName + ".gz";
@@ -226,13 +239,32 @@ public class ChromeTraceBuildListener implements BuckEventListener {
           true);
 
       deleteOldTraces();
+      recordInCatalog(buildId);
     } catch (IOException e) {
       throw new HumanReadableException(e, "Unable to write trace file: " + e);
     }
   }
 
+  private void recordInCatalog(BuildId buildId) {
+    try {
+      traceCatalog.record(
+          tracePath,
+          new TraceCatalog.Entry(
+              buildId.toString(),
+              command.orNull(),
+              startedMillis,
+              clock.currentTimeMillis() - startedMillis,
+              projectFilesystem.getFileSize(tracePath)));
+    } catch (IOException e) {
+      // The traces page falls back to reading the trace itself.
+      LOG.warn(e, "Couldn't add %s to the trace catalog.", tracePath);
+    }
+  }
+
   @Subscribe
   public void commandStarted(CommandEvent.Started started) {
+    command = Optional.of(
+        "buck " + started.getCommandName() + " " + Joiner.on(' ').join(started.getArgs()));
     writeChromeTraceEvent("buck",
         started.getCommandName(),
         ChromeTraceEvent.Phase.BEGIN,
@@ -271,6 +303,18 @@ public class ChromeTraceBuildListener implements BuckEventListener {
         finished);
   }
 
+  @Subscribe
+  public void criticalPathEstimated(CriticalPathEvent estimated) {
+    criticalPath = ImmutableSet.copyOf(estimated.getTargets());
+    writeChromeTraceEvent("buck",
+        "critical_path",
+        ChromeTraceEvent.Phase.IMMEDIATE,
+        ImmutableMap.of(
+            "estimated_millis", String.valueOf(estimated.getEstimatedMillis()),
+            "targets", Joiner.on(' ').join(estimated.getTargets())),
+        estimated);
+  }
+
   @Subscribe
   public void ruleStarted(BuildRuleEvent.Started started) {
     BuildRule buildRule = started.getBuildRule();
@@ -283,14 +327,19 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   @Subscribe
   public void ruleFinished(BuildRuleEvent.Finished finished) {
+    String name = finished.getBuildRule().getFullyQualifiedName();
+    ImmutableMap.Builder<String, String> args = ImmutableMap.<String, String>builder()
+        .put("cache_result", finished.getCacheResult().toString().toLowerCase())
+        .put(
+            "success_type",
+            finished.getSuccessType().transform(Functions.toStringFunction()).or("failed"));
+    if (criticalPath.contains(name)) {
+      args.put("critical_path", "true");
+    }
     writeChromeTraceEvent("buck",
-        finished.getBuildRule().getFullyQualifiedName(),
+        name,
         ChromeTraceEvent.Phase.END,
-        ImmutableMap.of(
-            "cache_result", finished.getCacheResult().toString().toLowerCase(),
-            "success_type",
-            finished.getSuccessType().transform(Functions.toStringFunction()).or("failed")
-        ),
+        args.build(),
         finished);
   }
 
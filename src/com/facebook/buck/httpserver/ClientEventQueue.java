@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.httpserver;
+
+import com.google.common.base.Optional;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * The messages waiting to be sent to one WebSocket client, which limits how many of them may be on
+ * their way at once so that a slow client can't make the server buffer without bound.
+ * <p>
+ * Once a client has as many messages on their way as it may, further messages wait in a backlog,
+ * except for those that are only worth sending to a client that keeps up, which are dropped. A
+ * message with a coalescing key replaces any message with the same key that is still waiting.
+ */
+class ClientEventQueue {
+
+  private final int maxInFlight;
+  private final int maxBacklog;
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  /** Messages by coalescing key, or by a key of their own if they have none. */
+  private final Map<Object, String> backlog = new LinkedHashMap<>();
+  private int dropped;
+
+  /**
+   * @param maxInFlight how many messages may be sent without having been written to the client.
+   * @param maxBacklog how many messages may wait to be sent before the client is given up on.
+   */
+  public ClientEventQueue(int maxInFlight, int maxBacklog) {
+    this.maxInFlight = maxInFlight;
+    this.maxBacklog = maxBacklog;
+  }
+
+  /**
+   * @param isDroppable whether the message may be dropped rather than wait, if the client is
+   *     behind.
+   * @param coalescingKey if present, the message replaces any waiting one with the same key.
+   * @return false if the client is so far behind that it should be disconnected.
+   */
+  public synchronized boolean offer(
+      String message,
+      boolean isDroppable,
+      Optional<?> coalescingKey) {
+    if (isDroppable && (!backlog.isEmpty() || inFlight.get() >= maxInFlight)) {
+      dropped++;
+      return true;
+    }
+    Object key = coalescingKey.isPresent() ? coalescingKey.get() : new Object();
+    // Remove first so that the replacement goes to the back.
+    backlog.remove(key);
+    backlog.put(key, message);
+    return backlog.size() <= maxBacklog;
+  }
+
+  /**
+   * @return the next message to send, if the client may be sent one now, in which case
+   *     {@link #messageWritten()} must be called once it has been written or has failed to be.
+   */
+  @Nullable
+  public synchronized String poll() {
+    if (backlog.isEmpty() || inFlight.get() >= maxInFlight) {
+      return null;
+    }
+    Iterator<String> messages = backlog.values().iterator();
+    String message = messages.next();
+    messages.remove();
+    inFlight.incrementAndGet();
+    return message;
+  }
+
+  public void messageWritten() {
+    inFlight.decrementAndGet();
+  }
+
+  /**
+   * @return how many messages have been dropped since the last call.
+   */
+  public synchronized int takeDroppedCount() {
+    int count = dropped;
+    dropped = 0;
+    return count;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.httpserver;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The events waiting for the next flush to the WebSocket clients.
+ * <p>
+ * Follows the same rules as {@link ClientEventQueue}: once the queue is full, further events that
+ * are only worth sending to clients that keep up are dropped, and an event with a coalescing key
+ * replaces any waiting event with the same key. Other events are always queued, so that no client
+ * misses, say, the end of a build because the flusher fell behind.
+ */
+class PendingEventQueue<T> {
+
+  private final int maxDroppable;
+
+  /** Events by coalescing key, or by a key of their own if they have none. */
+  private Map<Object, T> events = new LinkedHashMap<>();
+  private int dropped;
+
+  /**
+   * @param maxDroppable how many events may be waiting before droppable ones are dropped.
+   */
+  public PendingEventQueue(int maxDroppable) {
+    this.maxDroppable = maxDroppable;
+  }
+
+  /**
+   * @param isDroppable whether the event may be dropped rather than wait, if the queue is full.
+   * @param coalescingKey if present, the event replaces any waiting one with the same key.
+   */
+  public synchronized void offer(T event, boolean isDroppable, Optional<?> coalescingKey) {
+    if (isDroppable && events.size() >= maxDroppable) {
+      dropped++;
+      return;
+    }
+    Object key = coalescingKey.isPresent() ? coalescingKey.get() : new Object();
+    // Remove first so that the replacement goes to the back.
+    events.remove(key);
+    events.put(key, event);
+  }
+
+  /**
+   * @return the waiting events, in the order they were queued, leaving the queue empty.
+   */
+  public synchronized ImmutableList<T> drain() {
+    ImmutableList<T> drained = ImmutableList.copyOf(events.values());
+    events = new LinkedHashMap<>();
+    return drained;
+  }
+
+  /**
+   * @return how many events have been dropped since the last call.
+   */
+  public synchronized int takeDroppedCount() {
+    int count = dropped;
+    dropped = 0;
+    return count;
+  }
+}
@@ -16,13 +16,24 @@
 
 package com.facebook.buck.httpserver;
 
+import com.facebook.buck.artifact_cache.ArtifactCacheEvent;
 import com.facebook.buck.event.BuckEvent;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.BuildEvent;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.step.StepEvent;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.base.Throwables;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
 import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.eclipse.jetty.websocket.api.WriteCallback;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeRequest;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeResponse;
 import org.eclipse.jetty.websocket.servlet.WebSocketCreator;
@@ -32,15 +43,45 @@ import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
+
+/**
+ * Streams {@link BuckEvent}s as JSON to the WebSocket clients of the web server, one event per
+ * message.
+ * <p>
+ * {@link #tellClients(BuckEvent)} only queues the event, as it is called on the thread of the event
+ * bus. Every {@link #FLUSH_INTERVAL_MS} milliseconds, the queued events are serialized, once for
+ * all clients, and sent in a single batch of frames to each. A client that falls behind has the
+ * most numerous kinds of events dropped and only the latest rule count kept, and is disconnected if
+ * it falls further behind still. The same rules apply to the events waiting for the next flush.
+ */
 @SuppressWarnings("serial")
 public class StreamingWebSocketServlet extends WebSocketServlet {
 
+  private static final Logger LOG = Logger.get(StreamingWebSocketServlet.class);
+
+  private static final long FLUSH_INTERVAL_MS = 10;
+  private static final int MAX_PENDING_DROPPABLE_EVENTS = 10000;
+  private static final int MAX_IN_FLIGHT_MESSAGES = 256;
+  private static final int MAX_BACKLOG_MESSAGES = 4096;
+
+  // Writers are threadsafe, so one serves all events.
+  private static final ObjectWriter WRITER = new ObjectMapper().writer();
+
   // This is threadsafe
   private final Set<MyWebSocket> connections;
+  private final PendingEventQueue<BuckEvent> pendingEvents;
+
+  @Nullable
+  private ScheduledExecutorService flusher;
 
   public StreamingWebSocketServlet() {
     this.connections = Collections.newSetFromMap(Maps.<MyWebSocket, Boolean>newConcurrentMap());
+    this.pendingEvents = new PendingEventQueue<>(MAX_PENDING_DROPPABLE_EVENTS);
   }
 
   @Override
@@ -58,35 +99,106 @@ public class StreamingWebSocketServlet extends WebSocketServlet {
     factory.setCreator(wrapperCreator);
   }
 
+  @Override
+  public synchronized void destroy() {
+    if (flusher != null) {
+      flusher.shutdownNow();
+      flusher = null;
+    }
+    super.destroy();
+  }
+
+  private synchronized void startFlusher() {
+    if (flusher != null) {
+      return;
+    }
+    flusher = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat(getClass().getSimpleName() + "-%d")
+            .setDaemon(true)
+            .build());
+    flusher.scheduleWithFixedDelay(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              flush();
+            } catch (RuntimeException e) {
+              LOG.warn(e, "Failed to send events to WebSocket clients.");
+            }
+          }
+        },
+        FLUSH_INTERVAL_MS,
+        FLUSH_INTERVAL_MS,
+        TimeUnit.MILLISECONDS);
+  }
+
   public void tellClients(BuckEvent event) {
     if (connections.isEmpty()) {
       return;
     }
 
-    try {
-      String message = new ObjectMapper().writeValueAsString(event);
-      tellAll(message);
-    } catch (IOException e) {
-      Throwables.propagate(e);
-    }
+    pendingEvents.offer(event, isDroppable(event), getCoalescingKey(event));
   }
 
-  /** Sends the message to all WebSockets that are currently connected. */
-  private void tellAll(String message) {
-    for (MyWebSocket webSocket : connections) {
-      if (webSocket.isConnected()) {
-        webSocket.getRemote().sendStringByFuture(message);
+  /** Sends the events queued since the last flush to all WebSockets that are connected. */
+  @VisibleForTesting
+  void flush() {
+    int dropped = pendingEvents.takeDroppedCount();
+    if (dropped > 0) {
+      LOG.debug("Dropped %d events as too many were waiting to be sent.", dropped);
+    }
+    for (BuckEvent event : pendingEvents.drain()) {
+      String message;
+      try {
+        message = WRITER.writeValueAsString(event);
+      } catch (IOException e) {
+        LOG.warn(e, "Could not serialize %s.", event);
+        continue;
+      }
+      boolean isDroppable = isDroppable(event);
+      Optional<?> coalescingKey = getCoalescingKey(event);
+      for (MyWebSocket webSocket : connections) {
+        webSocket.queue(message, isDroppable, coalescingKey);
       }
     }
+    for (MyWebSocket webSocket : connections) {
+      webSocket.send();
+    }
+  }
+
+  /**
+   * @return whether {@code event} is one of the many that a client that can't keep up may miss.
+   */
+  @VisibleForTesting
+  static boolean isDroppable(BuckEvent event) {
+    return event instanceof StepEvent ||
+        event instanceof BuildRuleEvent ||
+        event instanceof ArtifactCacheEvent;
+  }
+
+  /**
+   * @return the key of the events that supersede {@code event}, if any.
+   */
+  @VisibleForTesting
+  static Optional<?> getCoalescingKey(BuckEvent event) {
+    if (event instanceof BuildEvent.RuleCountCalculated) {
+      return Optional.of(BuildEvent.RuleCountCalculated.class);
+    }
+    return Optional.absent();
   }
 
   /** This is the httpserver component of a WebSocket that maintains a session with one client. */
   public class MyWebSocket extends WebSocketAdapter {
 
+    private final ClientEventQueue queue =
+        new ClientEventQueue(MAX_IN_FLIGHT_MESSAGES, MAX_BACKLOG_MESSAGES);
+
     @Override
     public void onWebSocketConnect(Session session) {
       super.onWebSocketConnect(session);
       connections.add(this);
+      startFlusher();
 
       // TODO(mbolin): Record all of the events for the last build that was started. For a fresh
       // connection, replay all of the events to get the client caught up. Though must be careful,
@@ -105,5 +217,50 @@ public class StreamingWebSocketServlet extends WebSocketServlet {
       super.onWebSocketText(message);
       // TODO(mbolin): Handle requests from client instead of only pushing data down.
     }
+
+    private void queue(String message, boolean isDroppable, Optional<?> coalescingKey) {
+      if (!queue.offer(message, isDroppable, coalescingKey) && isConnected()) {
+        LOG.info("Disconnecting a WebSocket client that fell too far behind.");
+        connections.remove(this);
+        getSession().close(StatusCode.POLICY_VIOLATION, "Too far behind.");
+      }
+    }
+
+    private void send() {
+      if (!isConnected()) {
+        return;
+      }
+      RemoteEndpoint remote = getRemote();
+      WriteCallback callback = new WriteCallback() {
+        @Override
+        public void writeFailed(Throwable x) {
+          queue.messageWritten();
+        }
+
+        @Override
+        public void writeSuccess() {
+          queue.messageWritten();
+        }
+      };
+      // By default, the remote endpoint batches small frames until it is flushed, so the frames of
+      // each flush are written at once.
+      boolean isSent = false;
+      String message;
+      while ((message = queue.poll()) != null) {
+        remote.sendString(message, callback);
+        isSent = true;
+      }
+      if (isSent) {
+        try {
+          remote.flush();
+        } catch (IOException e) {
+          LOG.debug(e, "Failed to flush events to a WebSocket client.");
+        }
+      }
+      int dropped = queue.takeDroppedCount();
+      if (dropped > 0) {
+        LOG.debug("Dropped %d events for a WebSocket client that is behind.", dropped);
+      }
+    }
   }
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.httpserver;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.BuckConstant;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+/**
+ * An index of the traces in {@link BuckConstant#BUCK_TRACE_DIR}, written as each trace is
+ * finalized, so that listing the traces doesn't have to open and parse every one of them.
+ * <p>
+ * The index is rewritten as a whole and moved into place atomically, so readers never see a
+ * partial index. Two processes finishing traces at the same time may drop each other's entry,
+ * which only means that {@link TracesHelper} falls back to parsing that trace.
+ */
+public class TraceCatalog {
+
+  private static final Logger LOG = Logger.get(TraceCatalog.class);
+
+  @VisibleForTesting
+  static final Path INDEX_PATH = BuckConstant.BUCK_TRACE_DIR.resolve("index.json");
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final TypeReference<TreeMap<String, Entry>> TYPE =
+      new TypeReference<TreeMap<String, Entry>>() {};
+
+  private final ProjectFilesystem projectFilesystem;
+
+  private long cachedLastModifiedTime = -1;
+  private long cachedSize = -1;
+  private ImmutableMap<String, Entry> cachedEntries = ImmutableMap.of();
+
+  public TraceCatalog(ProjectFilesystem projectFilesystem) {
+    this.projectFilesystem = projectFilesystem;
+  }
+
+  /**
+   * Adds {@code entry} for the trace at {@code tracePath} to the index, dropping the entries of
+   * traces that have since been deleted.
+   */
+  public synchronized void record(Path tracePath, Entry entry) throws IOException {
+    TreeMap<String, Entry> entries = new TreeMap<>(read());
+    entries.put(tracePath.getFileName().toString(), entry);
+    Iterator<String> fileNames = entries.keySet().iterator();
+    while (fileNames.hasNext()) {
+      if (!projectFilesystem.exists(BuckConstant.BUCK_TRACE_DIR.resolve(fileNames.next()))) {
+        fileNames.remove();
+      }
+    }
+
+    Path tempPath = INDEX_PATH.resolveSibling(INDEX_PATH.getFileName() + "." + UUID.randomUUID());
+    projectFilesystem.createParentDirs(INDEX_PATH);
+    projectFilesystem.writeContentsToPath(MAPPER.writeValueAsString(entries), tempPath);
+    projectFilesystem.move(
+        tempPath,
+        INDEX_PATH,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    cachedEntries = ImmutableMap.copyOf(entries);
+    cachedLastModifiedTime = projectFilesystem.getLastModifiedTime(INDEX_PATH);
+    cachedSize = projectFilesystem.getFileSize(INDEX_PATH);
+  }
+
+  /**
+   * @return the entry for the trace at {@code tracePath}, if the index has one.
+   */
+  public Optional<Entry> get(Path tracePath) {
+    return Optional.fromNullable(read().get(tracePath.getFileName().toString()));
+  }
+
+  /**
+   * @return the entries of the index by trace file name, reading the index again only if its
+   *     modification time or size has changed since it was last read.
+   */
+  synchronized ImmutableMap<String, Entry> read() {
+    if (!projectFilesystem.exists(INDEX_PATH)) {
+      cachedLastModifiedTime = -1;
+      cachedEntries = ImmutableMap.of();
+      return cachedEntries;
+    }
+    try {
+      long lastModifiedTime = projectFilesystem.getLastModifiedTime(INDEX_PATH);
+      long size = projectFilesystem.getFileSize(INDEX_PATH);
+      if (lastModifiedTime != cachedLastModifiedTime || size != cachedSize) {
+        Optional<String> contents = projectFilesystem.readFileIfItExists(INDEX_PATH);
+        Map<String, Entry> entries = contents.isPresent()
+            ? MAPPER.<Map<String, Entry>>readValue(contents.get(), TYPE)
+            : ImmutableMap.<String, Entry>of();
+        cachedEntries = ImmutableMap.copyOf(entries);
+        cachedLastModifiedTime = lastModifiedTime;
+        cachedSize = size;
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Ignoring unreadable trace index %s.", INDEX_PATH);
+      cachedLastModifiedTime = -1;
+      cachedEntries = ImmutableMap.of();
+    }
+    return cachedEntries;
+  }
+
+  /**
+   * What the index knows about a single trace.
+   */
+  public static class Entry {
+    private final String buildId;
+    private final String command;
+    private final long startedMillis;
+    private final long durationMillis;
+    private final long sizeBytes;
+
+    /**
+     * @param command the command line that produced the trace, or empty if it isn't known.
+     * @param sizeBytes the size of the trace file, which is compressed if the trace is.
+     */
+    @JsonCreator
+    public Entry(
+        @JsonProperty("buildId") String buildId,
+        @JsonProperty("command") @Nullable String command,
+        @JsonProperty("startedMillis") long startedMillis,
+        @JsonProperty("durationMillis") long durationMillis,
+        @JsonProperty("sizeBytes") long sizeBytes) {
+      this.buildId = buildId;
+      this.command = command == null ? "" : command;
+      this.startedMillis = startedMillis;
+      this.durationMillis = durationMillis;
+      this.sizeBytes = sizeBytes;
+    }
+
+    @JsonProperty("buildId")
+    public String getBuildId() {
+      return buildId;
+    }
+
+    @JsonProperty("command")
+    public String getCommand() {
+      return command;
+    }
+
+    @JsonProperty("startedMillis")
+    public long getStartedMillis() {
+      return startedMillis;
+    }
+
+    @JsonProperty("durationMillis")
+    public long getDurationMillis() {
+      return durationMillis;
+    }
+
+    @JsonProperty("sizeBytes")
+    public long getSizeBytes() {
+      return sizeBytes;
+    }
+  }
+}
@@ -16,20 +16,27 @@
 
 package com.facebook.buck.httpserver;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.io.CharStreams;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.io.ByteStreams;
 import com.google.common.net.MediaType;
 
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Writer;
-import java.util.Iterator;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -37,6 +44,10 @@ import javax.servlet.http.HttpServletResponse;
 
 /**
  * HTTP handler for requests to the {@code /tracedata} path.
+ * <p>
+ * Serves the traces of a build as a JSON array, optionally wrapped in a JSONP callback, streaming
+ * them from disk. The response is compressed if the client accepts gzip, and a single byte range
+ * of it can be requested when the traces aren't compressed on disk.
  */
 class TraceDataHandler extends AbstractHandler {
 
@@ -45,6 +56,11 @@ class TraceDataHandler extends AbstractHandler {
   @VisibleForTesting
   static final Pattern CALLBACK_PATTERN = Pattern.compile("[\\w\\.]+");
 
+  /**
+   * A single range of bytes, which is all that the trace viewer asks for.
+   */
+  private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
   private final TracesHelper tracesHelper;
 
   TraceDataHandler(TracesHelper tracesHelper) {
@@ -76,46 +92,124 @@ class TraceDataHandler extends AbstractHandler {
 
     String id = matcher.group(1);
 
-    response.setContentType(MediaType.JAVASCRIPT_UTF_8.toString());
-    response.setStatus(HttpServletResponse.SC_OK);
-
-    boolean hasValidCallbackParam = false;
-    Writer responseWriter = response.getWriter();
+    String prefix = "[";
+    String suffix = "]";
     String callback = baseRequest.getParameter("callback");
     if (callback != null) {
       Matcher callbackMatcher = CALLBACK_PATTERN.matcher(callback);
       if (callbackMatcher.matches()) {
-        hasValidCallbackParam = true;
-        responseWriter.write(callback);
-        responseWriter.write("(");
+        prefix = callback + "(" + prefix;
+        suffix = suffix + ");\n";
       }
     }
 
-    responseWriter.write("[");
+    response.setContentType(MediaType.JAVASCRIPT_UTF_8.toString());
+    response.setHeader("Accept-Ranges", "bytes");
 
-    Iterator<InputStream> traceStreams = tracesHelper.getInputsForTraces(id).iterator();
+    // The body is the traces joined into a JSON array, which is streamed from the trace files
+    // rather than loaded into memory.
+    List<InputStream> parts = new ArrayList<>();
+    parts.add(toStream(prefix));
     boolean isFirst = true;
-
-    while (traceStreams.hasNext()) {
+    for (InputStream trace : tracesHelper.getInputsForTraces(id)) {
       if (!isFirst) {
-        responseWriter.write(",");
+        parts.add(toStream(","));
       } else {
         isFirst = false;
       }
-      try (
-          InputStream input = traceStreams.next();
-          InputStreamReader inputStreamReader = new InputStreamReader(input)) {
-        CharStreams.copy(inputStreamReader, responseWriter);
+      parts.add(trace);
+    }
+    parts.add(toStream(suffix));
+
+    try (InputStream body = new SequenceInputStream(Iterators.asEnumeration(parts.iterator()))) {
+      Optional<long[]> range = getRequestedRange(baseRequest, id, prefix, suffix, response);
+      if (range.isPresent()) {
+        long start = range.get()[0];
+        long length = range.get()[1];
+        ByteStreams.skipFully(body, start);
+        ByteStreams.copy(ByteStreams.limit(body, length), response.getOutputStream());
+      } else if (acceptsGzip(baseRequest)) {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setHeader("Content-Encoding", "gzip");
+        GZIPOutputStream output = new GZIPOutputStream(response.getOutputStream());
+        ByteStreams.copy(body, output);
+        output.finish();
+      } else {
+        response.setStatus(HttpServletResponse.SC_OK);
+        ByteStreams.copy(body, response.getOutputStream());
       }
     }
 
-    responseWriter.write("]");
+    response.flushBuffer();
+    baseRequest.setHandled(true);
+  }
 
-    if (hasValidCallbackParam) {
-      responseWriter.write(");\n");
+  /**
+   * Works out which part of the body a {@code Range} header asks for, setting the status and
+   * headers of a partial response if it can be served.
+   *
+   * @return the offset and length of the part of the body to send, or absent if the whole body
+   *     should be sent, either because no single range was requested or because the size of the
+   *     body isn't known, as it isn't for compressed traces.
+   */
+  private Optional<long[]> getRequestedRange(
+      Request baseRequest,
+      String id,
+      String prefix,
+      String suffix,
+      HttpServletResponse response) throws IOException {
+    String rangeHeader = baseRequest.getHeader("Range");
+    if (rangeHeader == null) {
+      return Optional.absent();
+    }
+    Matcher rangeMatcher = RANGE_PATTERN.matcher(rangeHeader.trim());
+    if (!rangeMatcher.matches() ||
+        (rangeMatcher.group(1).isEmpty() && rangeMatcher.group(2).isEmpty())) {
+      return Optional.absent();
+    }
+    Optional<ImmutableList<Long>> sizes = tracesHelper.getSizesOfTraces(id);
+    if (!sizes.isPresent()) {
+      return Optional.absent();
     }
 
-    response.flushBuffer();
-    baseRequest.setHandled(true);
+    long total = prefix.getBytes(UTF_8).length + suffix.getBytes(UTF_8).length;
+    for (long size : sizes.get()) {
+      total += size;
+    }
+    // The commas between the traces.
+    total += Math.max(0, sizes.get().size() - 1);
+
+    long first;
+    long last;
+    if (rangeMatcher.group(1).isEmpty()) {
+      // A suffix range: the last N bytes.
+      first = Math.max(0, total - Long.parseLong(rangeMatcher.group(2)));
+      last = total - 1;
+    } else {
+      first = Long.parseLong(rangeMatcher.group(1));
+      last = rangeMatcher.group(2).isEmpty()
+          ? total - 1
+          : Math.min(total - 1, Long.parseLong(rangeMatcher.group(2)));
+    }
+    if (first >= total || first > last) {
+      response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      response.setHeader("Content-Range", "bytes */" + total);
+      return Optional.of(new long[] {0, 0});
+    }
+
+    long length = last - first + 1;
+    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    response.setHeader("Content-Range", String.format("bytes %d-%d/%d", first, last, total));
+    response.setHeader("Content-Length", String.valueOf(length));
+    return Optional.of(new long[] {first, length});
+  }
+
+  private static boolean acceptsGzip(Request baseRequest) {
+    String acceptEncoding = baseRequest.getHeader("Accept-Encoding");
+    return acceptEncoding != null && acceptEncoding.contains("gzip");
+  }
+
+  private static InputStream toStream(String string) {
+    return new ByteArrayInputStream(string.getBytes(UTF_8));
   }
 }
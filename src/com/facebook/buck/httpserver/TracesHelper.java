@@ -22,6 +22,7 @@ import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.HumanReadableException;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
@@ -37,6 +38,7 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.Date;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Utility to help with reading data from build trace files.
@@ -45,10 +47,18 @@ public class TracesHelper {
 
   private static final Logger logger = Logger.get(TracesHelper.class);
 
+  /**
+   * Glob for the names of the traces of builds, which are compressed if
+   * {@code [log] compress_traces} is set.
+   */
+  private static final String TRACE_FILE_NAME_SUFFIX_GLOB = ".{trace,trace.gz}";
+
   private final ProjectFilesystem projectFilesystem;
+  private final TraceCatalog traceCatalog;
 
   TracesHelper(ProjectFilesystem projectFilesystem) {
     this.projectFilesystem = projectFilesystem;
+    this.traceCatalog = new TraceCatalog(projectFilesystem);
   }
 
   static class TraceAttributes {
@@ -84,14 +94,46 @@ public class TracesHelper {
     }
   }
 
+  /**
+   * @return the contents of the traces for the specified build ID, decompressed if they are
+   *     compressed on disk.
+   */
   Iterable<InputStream> getInputsForTraces(String id) throws IOException {
     ImmutableList.Builder<InputStream> tracesBuilder = ImmutableList.builder();
     for (Path p : getPathsToTraces(id)) {
-      tracesBuilder.add(projectFilesystem.getInputStreamForRelativePath(p));
+      tracesBuilder.add(newTraceInputStream(p));
     }
     return tracesBuilder.build();
   }
 
+  /**
+   * @return the sizes of the streams that {@link #getInputsForTraces(String)} returns, in the same
+   *     order, or absent if any of the traces are compressed, as their sizes aren't known without
+   *     decompressing them.
+   */
+  Optional<ImmutableList<Long>> getSizesOfTraces(String id) throws IOException {
+    ImmutableList.Builder<Long> sizes = ImmutableList.builder();
+    for (Path p : getPathsToTraces(id)) {
+      if (isCompressed(p)) {
+        return Optional.absent();
+      }
+      sizes.add(projectFilesystem.getFileSize(p));
+    }
+    return Optional.of(sizes.build());
+  }
+
+  private InputStream newTraceInputStream(Path pathToTrace) throws IOException {
+    InputStream input = projectFilesystem.newFileInputStream(pathToTrace);
+    if (isCompressed(pathToTrace)) {
+      input = new GZIPInputStream(input);
+    }
+    return input;
+  }
+
+  private static boolean isCompressed(Path pathToTrace) {
+    return pathToTrace.getFileName().toString().endsWith(".gz");
+  }
+
   TraceAttributes getTraceAttributesFor(String id) throws IOException {
     for (Path p : getPathsToTraces(id)) {
       if (isTraceForBuild(p, id)) {
@@ -102,12 +144,20 @@ public class TracesHelper {
   }
 
   /**
-   * Parses a trace file and returns the command that the user executed to create the trace.
+   * Looks up the command that the user executed to create the trace in the {@link TraceCatalog},
+   * or parses the trace file to find it if the catalog doesn't know about the trace.
    * <p>
-   * This method tries to be reasonably tolerant of changes to the .trace file schema, returning
+   * Parsing tries to be reasonably tolerant of changes to the .trace file schema, returning
    * {@link Optional#absent()} if it does not find the fields in the JSON that it expects.
    */
   TraceAttributes getTraceAttributesFor(Path pathToTrace) throws IOException {
+    Optional<TraceCatalog.Entry> entry = traceCatalog.get(pathToTrace);
+    if (entry.isPresent()) {
+      return new TraceAttributes(
+          Optional.fromNullable(Strings.emptyToNull(entry.get().getCommand())),
+          entry.get().getStartedMillis() + entry.get().getDurationMillis());
+    }
+
     long lastModifiedTime = projectFilesystem.getLastModifiedTime(pathToTrace);
     Optional<String> command = parseCommandFrom(pathToTrace);
     return new TraceAttributes(command, lastModifiedTime);
@@ -115,7 +165,7 @@ public class TracesHelper {
 
   private Optional<String> parseCommandFrom(Path pathToTrace) {
     try (
-        InputStream input = projectFilesystem.newFileInputStream(pathToTrace);
+        InputStream input = newTraceInputStream(pathToTrace);
         JsonReader jsonReader = new JsonReader(new InputStreamReader(input))) {
       jsonReader.beginArray();
       Gson gson = new Gson();
@@ -168,13 +218,14 @@ public class TracesHelper {
     String testPrefix = "build.";
     String testSuffix = "." + id + ".trace";
     String name = path.getFileName().toString();
-    return name.startsWith(testPrefix) && name.endsWith(testSuffix);
+    return name.startsWith(testPrefix) &&
+        (name.endsWith(testSuffix) || name.endsWith(testSuffix + ".gz"));
   }
 
   Collection<Path> listTraceFilesByLastModified() throws IOException {
     return projectFilesystem.getSortedMatchingDirectoryContents(
         BuckConstant.BUCK_TRACE_DIR,
-        "build.*.trace");
+        "build.*" + TRACE_FILE_NAME_SUFFIX_GLOB);
   }
 
   /**
@@ -188,7 +239,7 @@ public class TracesHelper {
 
     Collection<Path> traces = projectFilesystem.getSortedMatchingDirectoryContents(
         BuckConstant.BUCK_TRACE_DIR,
-        "*" + id + "*.trace");
+        "*" + id + "*" + TRACE_FILE_NAME_SUFFIX_GLOB);
 
     if (traces.isEmpty()) {
       throw new HumanReadableException("Could not find a build trace with id %s.", id);
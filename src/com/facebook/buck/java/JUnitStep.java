@@ -19,6 +19,7 @@ package com.facebook.buck.java;
 import com.facebook.buck.io.ExecutableFinder;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.java.runner.FileClassPathRunner;
+import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.shell.ShellStep;
@@ -27,6 +28,7 @@ import com.facebook.buck.test.selectors.TestSelectorList;
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.util.Verbosity;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
@@ -37,6 +39,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 
 import java.io.File;
 import java.io.IOException;
@@ -72,6 +75,7 @@ public class JUnitStep extends ShellStep {
   @VisibleForTesting
   public static final String MODULE_BASE_PATH_PROPERTY = "com.facebook.buck.moduleBasePath";
 
+  private static final String TESTRUNNER_CLASSES_PROPERTY = "buck.testrunner_classes";
   private static final String STD_OUT_LOG_LEVEL_PROPERTY = "com.facebook.buck.stdOutLogLevel";
   private static final String STD_ERR_LOG_LEVEL_PROPERTY = "com.facebook.buck.stdErrLogLevel";
 
@@ -94,6 +98,7 @@ public class JUnitStep extends ShellStep {
   private final TestType type;
   private final Optional<Long> testRuleTimeoutMs;
   private final Optional<String> pathToJavaAgent;
+  private final Optional<TestJvmPool> testJvmPool;
 
   // Set when the junit command times out.
   private boolean hasTimedOut = false;
@@ -118,6 +123,8 @@ public class JUnitStep extends ShellStep {
    * @param testClassNames the fully qualified names of the Java tests to run
    * @param directoryForTestResults directory where test results should be written
    * @param tmpDirectory directory tests can use for local file scratch space.
+   * @param testJvmPool if present, the tests are run in one of its workers when they don't need a
+   *     JVM of their own.
    */
   public JUnitStep(
       ProjectFilesystem filesystem,
@@ -137,7 +144,8 @@ public class JUnitStep extends ShellStep {
       Optional<Long> testRuleTimeoutMs,
       Optional<Level> stdOutLogLevel,
       Optional<Level> stdErrLogLevel,
-      Optional<String> pathToJavaAgent) {
+      Optional<String> pathToJavaAgent,
+      Optional<TestJvmPool> testJvmPool) {
     this(
         filesystem,
         classpathEntries,
@@ -157,7 +165,8 @@ public class JUnitStep extends ShellStep {
         testRuleTimeoutMs,
         stdOutLogLevel,
         stdErrLogLevel,
-        pathToJavaAgent
+        pathToJavaAgent,
+        testJvmPool
         );
   }
 
@@ -181,7 +190,8 @@ public class JUnitStep extends ShellStep {
       Optional<Long> testRuleTimeoutMs,
       Optional<Level> stdOutLogLevel,
       Optional<Level> stdErrLogLevel,
-      Optional<String> pathToJavaAgent) {
+      Optional<String> pathToJavaAgent,
+      Optional<TestJvmPool> testJvmPool) {
     super(filesystem.getRootPath());
     this.filesystem = filesystem;
     this.classpathEntries = ImmutableSet.copyOf(classpathEntries);
@@ -202,6 +212,7 @@ public class JUnitStep extends ShellStep {
     this.stdOutLogLevel = stdOutLogLevel;
     this.stdErrLogLevel = stdErrLogLevel;
     this.pathToJavaAgent = pathToJavaAgent;
+    this.testJvmPool = testJvmPool;
   }
 
   @Override
@@ -222,7 +233,8 @@ public class JUnitStep extends ShellStep {
     // to find the test runner classes, so propagate these down via the relevant properties.
     args.add(
         String.format(
-            "-Dbuck.testrunner_classes=%s",
+            "-D%s=%s",
+            TESTRUNNER_CLASSES_PROPERTY,
             testRunnerClasspath));
 
     if (isCodeCoverageEnabled) {
@@ -236,18 +248,8 @@ public class JUnitStep extends ShellStep {
       args.add(String.format("-agentpath:%s", pathToJavaAgent.get()));
     }
 
-    // Include the buildId
-    args.add(String.format("-D%s=%s", BUILD_ID_PROPERTY, buildId));
-
-    // Include the baseDir
-    args.add(String.format("-D%s=%s", MODULE_BASE_PATH_PROPERTY, modulePath));
-
-    // Include log levels
-    if (stdOutLogLevel.isPresent()) {
-      args.add(String.format("-D%s=%s", STD_OUT_LOG_LEVEL_PROPERTY, stdOutLogLevel.get()));
-    }
-    if (stdErrLogLevel.isPresent()) {
-      args.add(String.format("-D%s=%s", STD_ERR_LOG_LEVEL_PROPERTY, stdErrLogLevel.get()));
+    for (Map.Entry<String, String> property : getTestRunnerProperties().entrySet()) {
+      args.add(String.format("-D%s=%s", property.getKey(), property.getValue()));
     }
 
     if (isDebugEnabled) {
@@ -274,17 +276,52 @@ public class JUnitStep extends ShellStep {
             testRunnerClasspath));
 
     args.add(FileClassPathRunner.class.getName());
+    args.add(getTestRunnerClassName());
+    args.addAll(getTestRunnerArgs(context));
+
+    return args.build();
+  }
+
+  /**
+   * @return the properties that tell the test runner about the build, such as its id and log
+   *     levels.
+   */
+  private ImmutableMap<String, String> getTestRunnerProperties() {
+    ImmutableMap.Builder<String, String> properties = ImmutableMap.builder();
+
+    // Include the buildId
+    properties.put(BUILD_ID_PROPERTY, buildId.toString());
+
+    // Include the baseDir
+    properties.put(MODULE_BASE_PATH_PROPERTY, modulePath.toString());
+
+    // Include log levels
+    if (stdOutLogLevel.isPresent()) {
+      properties.put(STD_OUT_LOG_LEVEL_PROPERTY, stdOutLogLevel.get().toString());
+    }
+    if (stdErrLogLevel.isPresent()) {
+      properties.put(STD_ERR_LOG_LEVEL_PROPERTY, stdErrLogLevel.get().toString());
+    }
+    return properties.build();
+  }
 
-    // Specify the Java class whose main() method should be run. This is the class that is
-    // responsible for running the tests.
+  /**
+   * @return the Java class whose main() method should be run. This is the class that is
+   *     responsible for running the tests.
+   */
+  private String getTestRunnerClassName() {
     if (TestType.JUNIT == type) {
-      args.add(JUNIT_TEST_RUNNER_CLASS_NAME);
+      return JUNIT_TEST_RUNNER_CLASS_NAME;
     } else if (TestType.TESTNG == type) {
-      args.add(TESTNG_TEST_RUNNER_CLASS_NAME);
+      return TESTNG_TEST_RUNNER_CLASS_NAME;
     } else {
       throw new IllegalArgumentException(
           "java_test: unrecognized type " + type + ", expected eg. junit or testng");
     }
+  }
+
+  private ImmutableList<String> getTestRunnerArgs(ExecutionContext context) {
+    ImmutableList.Builder<String> args = ImmutableList.builder();
 
     // The first argument to the test runner is where the test results should be written. It is not
     // reliable to write test results to stdout or stderr because there may be output from the unit
@@ -343,9 +380,84 @@ public class JUnitStep extends ShellStep {
       e.printStackTrace(context.getStdErr());
       return 1;
     }
+    if (testJvmPool.isPresent()) {
+      Optional<Integer> exitCode = executeInTestJvmPool(context, testJvmPool.get());
+      if (exitCode.isPresent()) {
+        return exitCode.get();
+      }
+    }
     return super.execute(context);
   }
 
+  /**
+   * Runs the tests in a worker of {@code pool}, if the JVM that would otherwise be forked to run
+   * them only differs from a worker in its system properties.
+   *
+   * @return the exit code of the run, or absent if the tests should be run in a forked JVM.
+   */
+  private Optional<Integer> executeInTestJvmPool(ExecutionContext context, TestJvmPool pool)
+      throws InterruptedException {
+    // The environment of a running JVM can't be changed, and agents, debuggers, heap sizes and the
+    // like need a JVM of their own.
+    if (!nativeLibsEnvironment.isEmpty() ||
+        isCodeCoverageEnabled ||
+        isDebugEnabled ||
+        pathToJavaAgent.isPresent() ||
+        context.getVerbosity().shouldUseVerbosityFlagIfAvailable()) {
+      return Optional.absent();
+    }
+
+    // The worker has a temporary directory of its own, as the JVM only reads java.io.tmpdir once,
+    // so only tests that choose their own need a JVM of their own for it.
+    Map<String, String> systemProperties = Maps.newLinkedHashMap();
+    systemProperties.put(TESTRUNNER_CLASSES_PROPERTY, testRunnerClasspath.toString());
+    systemProperties.putAll(getTestRunnerProperties());
+    for (String vmArg : vmArgs) {
+      if (!vmArg.startsWith("-D")) {
+        return Optional.absent();
+      }
+      int equals = vmArg.indexOf('=');
+      String name = equals < 0 ? vmArg.substring(2) : vmArg.substring(2, equals);
+      if (name.equals("java.io.tmpdir")) {
+        return Optional.absent();
+      }
+      systemProperties.put(name, equals < 0 ? "" : vmArg.substring(equals + 1));
+    }
+
+    // The test runner comes first, as it does on the classpath of the forked JVM.
+    ImmutableList.Builder<Path> classpath = ImmutableList.builder();
+    classpath.add(testRunnerClasspath);
+    for (Path entry : classpathEntries) {
+      classpath.add(filesystem.resolve(entry));
+    }
+
+    Optional<ProcessExecutor.Result> result = pool.run(
+        testRunnerClasspath,
+        classpath.build(),
+        getTestRunnerClassName(),
+        getTestRunnerArgs(context),
+        systemProperties,
+        testRuleTimeoutMs);
+    if (!result.isPresent()) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      LOG.info("Test runner worker died running %s; forking a JVM instead.", testClassNames);
+      return Optional.absent();
+    }
+
+    Verbosity verbosity = context.getVerbosity();
+    Optional<String> stdout = result.get().getStdout();
+    if (stdout.isPresent() && !stdout.get().isEmpty() && shouldPrintStdout(verbosity)) {
+      context.postEvent(ConsoleEvent.info("%s", stdout.get()));
+    }
+    Optional<String> stderr = result.get().getStderr();
+    if (stderr.isPresent() && !stderr.get().isEmpty() && shouldPrintStderr(verbosity)) {
+      context.postEvent(ConsoleEvent.warning("%s", stderr.get()));
+    }
+    return Optional.of(getExitCodeFromResult(context, result.get()));
+  }
+
   @Override
   protected Optional<Long> getTimeout() {
     return testRuleTimeoutMs;
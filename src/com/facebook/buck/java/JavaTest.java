@@ -66,6 +66,7 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -104,8 +105,8 @@ public class JavaTest extends DefaultJavaLibrary implements TestRule, HasRuntime
 
   private static final Logger LOG = Logger.get(JavaTest.class);
 
-  @Nullable
-  private JUnitStep junit;
+  /** The step running each test class, which may differ between classes when sharding. */
+  private final Map<String, JUnitStep> junitStepsByTestClass = new ConcurrentHashMap<>();
 
   @AddToRuleKey
   private final boolean runTestSeparately;
@@ -207,15 +208,59 @@ public class JavaTest extends DefaultJavaLibrary implements TestRule, HasRuntime
       return ImmutableList.of();
     }
 
-    Iterable<String> reorderedTestClasses =
-        reorderClasses(testClassNames, options.isShufflingTests());
-
     ImmutableList.Builder<Step> steps = ImmutableList.builder();
+    steps.addAll(getTestShardSetupSteps());
+    steps.add(
+        createJUnitStep(
+            executionContext,
+            options,
+            testClassNames,
+            getPathToTmpDirectory()));
+    return steps.build();
+  }
+
+  /**
+   * @return the test classes that {@link #runTestShard} can divide between shards.
+   */
+  public ImmutableSet<String> getTestClassNames() {
+    return ImmutableSet.copyOf(getClassNamesForSources());
+  }
+
+  /**
+   * @return the steps that must run once, before any of the shards from {@link #runTestShard},
+   *     to clean the directories that the shards share.
+   */
+  public ImmutableList<Step> getTestShardSetupSteps() {
+    junitStepsByTestClass.clear();
+    return ImmutableList.<Step>of(
+        new MakeCleanDirectoryStep(getProjectFilesystem(), getPathToTestOutputDirectory()),
+        new MakeCleanDirectoryStep(getProjectFilesystem(), getPathToTmpDirectory()));
+  }
+
+  /**
+   * Like {@link #runTests}, but only runs {@code testClassNames}, as shard number {@code shard} of
+   * the tests of this rule. Once the steps from {@link #getTestShardSetupSteps} have run, the
+   * shards can run concurrently. They all write their results to the same directory, from which
+   * {@link #interpretTestResults} reads them back as the results of the rule.
+   */
+  public ImmutableList<Step> runTestShard(
+      ExecutionContext executionContext,
+      TestRunningOptions options,
+      Set<String> testClassNames,
+      int shard) {
+    Path tmpDirectory = getPathToTmpDirectory().resolve("shard-" + shard);
+    return ImmutableList.<Step>of(
+        new MakeCleanDirectoryStep(getProjectFilesystem(), tmpDirectory),
+        createJUnitStep(executionContext, options, testClassNames, tmpDirectory));
+  }
 
-    Path pathToTestOutput = getPathToTestOutputDirectory();
-    Path tmpDirectory = getPathToTmpDirectory();
-    steps.add(new MakeCleanDirectoryStep(getProjectFilesystem(), pathToTestOutput));
-    steps.add(new MakeCleanDirectoryStep(getProjectFilesystem(), tmpDirectory));
+  private JUnitStep createJUnitStep(
+      ExecutionContext executionContext,
+      TestRunningOptions options,
+      Set<String> testClassNames,
+      Path tmpDirectory) {
+    Iterable<String> reorderedTestClasses =
+        reorderClasses(testClassNames, options.isShufflingTests());
 
     ImmutableSet<Path> classpathEntries = ImmutableSet.<Path>builder()
         .addAll(getTransitiveClasspathEntries().values())
@@ -227,13 +272,13 @@ public class JavaTest extends DefaultJavaLibrary implements TestRule, HasRuntime
         this.vmArgs,
         executionContext.getTargetDeviceOptional());
 
-    junit = new JUnitStep(
+    JUnitStep junit = new JUnitStep(
         getProjectFilesystem(),
         classpathEntries,
         reorderedTestClasses,
         properVmArgs,
         nativeLibsEnvironment,
-        pathToTestOutput,
+        getPathToTestOutputDirectory(),
         getBuildTarget().getBasePath(),
         tmpDirectory,
         executionContext.isCodeCoverageEnabled(),
@@ -245,11 +290,29 @@ public class JavaTest extends DefaultJavaLibrary implements TestRule, HasRuntime
         testRuleTimeoutMs,
         stdOutLogLevel,
         stdErrLogLevel,
-        options.getPathToJavaAgent()
+        options.getPathToJavaAgent(),
+        getTestJvmPool(options)
     );
-    steps.add(junit);
+    for (String testClassName : testClassNames) {
+      junitStepsByTestClass.put(testClassName, junit);
+    }
+    return junit;
+  }
 
-    return steps.build();
+  /**
+   * @return the pool to run the tests in, unless this rule has a label that asks for a JVM of its
+   *     own.
+   */
+  private Optional<TestJvmPool> getTestJvmPool(TestRunningOptions options) {
+    Optional<TestJvmPool> pool = options.getTestJvmPool();
+    if (pool.isPresent()) {
+      for (Label label : labels) {
+        if (pool.get().getIsolatedLabels().contains(label.getLabelString())) {
+          return Optional.absent();
+        }
+      }
+    }
+    return pool;
   }
 
   private static Iterable<String> reorderClasses(Set<String> testClassNames, boolean shuffle) {
@@ -414,7 +477,7 @@ public class JavaTest extends DefaultJavaLibrary implements TestRule, HasRuntime
               getPathToTestOutputDirectory().resolve(path));
           if (!isUsingTestSelectors && !Files.isRegularFile(testResultFile)) {
             String message;
-            if (Preconditions.checkNotNull(junit).hasTimedOut()) {
+            if (Preconditions.checkNotNull(junitStepsByTestClass.get(testClass)).hasTimedOut()) {
               message = "test timed out before generating results file";
             } else {
               message = "test exited before generating results file";
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.java;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.facebook.buck.io.MoreFiles;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.ProcessExecutor;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of warm JVMs that {@link JUnitStep} runs tests in, instead of forking a JVM for every
+ * {@link JavaTest}, so that most test rules pay for neither starting a JVM nor loading the test
+ * runner. Each JVM runs {@code com.facebook.buck.junit.TestRunnerWorker}, which describes how the
+ * tests of each rule are isolated from the others and the protocol spoken over its socket.
+ * <p>
+ * Workers are started on demand, up to {@code maxWorkers} of them, and each runs the tests of one
+ * rule at a time. A worker is replaced once it retires, dies or times out, and all of them are
+ * stopped when the pool is closed.
+ * <p>
+ * Each worker has a temporary directory of its own, which is its {@code java.io.tmpdir} and its
+ * {@code TMP}, and which it empties before each run, so no rule sees what another left there.
+ */
+public class TestJvmPool implements AutoCloseable {
+
+  private static final Logger LOG = Logger.get(TestJvmPool.class);
+
+  private static final String WORKER_CLASS_NAME = "com.facebook.buck.junit.TestRunnerWorker";
+
+  private final Path workingDirectory;
+  private final ImmutableMap<String, String> environment;
+  private final Path workerLogFile;
+  private final Path tmpDirectoryRoot;
+  private final int maxRunsPerWorker;
+  private final long maxHeapGrowthBytes;
+  private final ImmutableSet<String> isolatedLabels;
+  private final Semaphore availableWorkers;
+  private final BlockingQueue<Worker> idleWorkers = new LinkedBlockingQueue<>();
+  private final Set<Worker> workers = Sets.newConcurrentHashSet();
+  private final AtomicInteger nextWorkerId = new AtomicInteger();
+  private volatile boolean isClosed = false;
+
+  /**
+   * @param workingDirectory the directory the workers are started in, which is the one a forked
+   *     test JVM would be started in.
+   * @param workerLogFile where the workers write anything printed outside of a test run.
+   * @param tmpDirectoryRoot the directory under which each worker gets its temporary directory.
+   * @param isolatedLabels labels that make a test rule fork a JVM of its own anyway.
+   */
+  public TestJvmPool(
+      Path workingDirectory,
+      ImmutableMap<String, String> environment,
+      Path workerLogFile,
+      Path tmpDirectoryRoot,
+      int maxWorkers,
+      int maxRunsPerWorker,
+      long maxHeapGrowthBytes,
+      ImmutableSet<String> isolatedLabels) {
+    Preconditions.checkArgument(maxWorkers > 0);
+    Preconditions.checkArgument(maxRunsPerWorker > 0);
+    this.workingDirectory = workingDirectory;
+    this.environment = environment;
+    this.workerLogFile = workerLogFile;
+    this.tmpDirectoryRoot = tmpDirectoryRoot;
+    this.maxRunsPerWorker = maxRunsPerWorker;
+    this.maxHeapGrowthBytes = maxHeapGrowthBytes;
+    this.isolatedLabels = isolatedLabels;
+    this.availableWorkers = new Semaphore(maxWorkers);
+  }
+
+  public ImmutableSet<String> getIsolatedLabels() {
+    return isolatedLabels;
+  }
+
+  /**
+   * Runs {@code launcherClassName} in a worker, as
+   * {@code java -D<systemProperties> -classpath <classpath> <launcherClassName> <launcherArgs>}
+   * would, starting the worker with {@code workerClasspath} if none is idle.
+   *
+   * @return the result of the run, or absent if the worker died before reporting one, in which
+   *     case the caller should fork a JVM of its own.
+   */
+  public Optional<ProcessExecutor.Result> run(
+      Path workerClasspath,
+      List<Path> classpath,
+      String launcherClassName,
+      List<String> launcherArgs,
+      Map<String, String> systemProperties,
+      Optional<Long> timeoutMs) throws InterruptedException {
+    availableWorkers.acquire();
+    Worker worker = null;
+    try {
+      if (isClosed) {
+        return Optional.absent();
+      }
+      worker = idleWorkers.poll();
+      if (worker == null) {
+        worker = startWorker(workerClasspath);
+      }
+      return worker.run(classpath, launcherClassName, launcherArgs, systemProperties, timeoutMs);
+    } catch (IOException e) {
+      LOG.warn(e, "Could not start a test runner worker; see %s.", workerLogFile);
+      return Optional.absent();
+    } finally {
+      if (worker != null) {
+        if (worker.isUsable() && !isClosed) {
+          idleWorkers.add(worker);
+        } else {
+          stopWorker(worker);
+        }
+      }
+      availableWorkers.release();
+    }
+  }
+
+  private Worker startWorker(Path workerClasspath) throws IOException {
+    Path tmpDirectory = tmpDirectoryRoot.resolve(String.valueOf(nextWorkerId.getAndIncrement()));
+    Files.createDirectories(tmpDirectory);
+    ProcessBuilder builder = new ProcessBuilder(
+        "java",
+        "-Djava.io.tmpdir=" + tmpDirectory,
+        "-classpath",
+        workerClasspath.toString(),
+        WORKER_CLASS_NAME,
+        String.valueOf(maxRunsPerWorker),
+        String.valueOf(maxHeapGrowthBytes),
+        tmpDirectory.toString());
+    builder.directory(workingDirectory.toFile());
+    builder.environment().clear();
+    builder.environment().putAll(environment);
+    builder.environment().put("PWD", workingDirectory.toString());
+    builder.environment().put("TMP", tmpDirectory.toString());
+    Files.createDirectories(workerLogFile.getParent());
+    builder.redirectError(ProcessBuilder.Redirect.appendTo(workerLogFile.toFile()));
+
+    Process process = builder.start();
+    process.getOutputStream().close();
+    String port;
+    try (BufferedReader reader =
+             new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8))) {
+      port = reader.readLine();
+    }
+    if (port == null) {
+      process.destroy();
+      throw new IOException("Test runner worker exited before listening for tests.");
+    }
+
+    Socket socket;
+    try {
+      socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(port));
+      socket.setTcpNoDelay(true);
+    } catch (IOException | NumberFormatException e) {
+      process.destroy();
+      throw new IOException("Could not connect to test runner worker on port " + port, e);
+    }
+    Worker worker = new Worker(process, socket, tmpDirectory);
+    workers.add(worker);
+    LOG.debug("Started test runner worker on port %s.", port);
+    return worker;
+  }
+
+  private void stopWorker(Worker worker) {
+    workers.remove(worker);
+    worker.destroy();
+    try {
+      MoreFiles.deleteRecursivelyIfExists(worker.getTmpDirectory());
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to delete the temporary directory of a test runner worker.");
+    }
+  }
+
+  /**
+   * Stops all of the workers, including any that are still running tests.
+   */
+  @Override
+  public void close() {
+    isClosed = true;
+    for (Worker worker : workers) {
+      stopWorker(worker);
+    }
+    idleWorkers.clear();
+  }
+
+  private static class Worker {
+    private final Process process;
+    private final Socket socket;
+    private final Path tmpDirectory;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private boolean isUsable = true;
+
+    public Worker(Process process, Socket socket, Path tmpDirectory) throws IOException {
+      this.process = process;
+      this.socket = socket;
+      this.tmpDirectory = tmpDirectory;
+      this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    public boolean isUsable() {
+      return isUsable;
+    }
+
+    public Path getTmpDirectory() {
+      return tmpDirectory;
+    }
+
+    public Optional<ProcessExecutor.Result> run(
+        List<Path> classpath,
+        String launcherClassName,
+        List<String> launcherArgs,
+        Map<String, String> systemProperties,
+        Optional<Long> timeoutMs) {
+      try {
+        out.writeInt(classpath.size());
+        for (Path entry : classpath) {
+          writeString(entry.toString());
+        }
+        writeString(launcherClassName);
+        out.writeInt(launcherArgs.size());
+        for (String arg : launcherArgs) {
+          writeString(arg);
+        }
+        out.writeInt(systemProperties.size() * 2);
+        for (Map.Entry<String, String> property : systemProperties.entrySet()) {
+          writeString(property.getKey());
+          writeString(property.getValue());
+        }
+        out.flush();
+
+        socket.setSoTimeout(timeoutMs.or(0L).intValue());
+        int exitCode = in.readInt();
+        String stdout = readString();
+        String stderr = readString();
+        if (in.readBoolean()) {
+          // The worker is retiring.
+          isUsable = false;
+        }
+        return Optional.of(new ProcessExecutor.Result(exitCode, stdout, stderr));
+      } catch (SocketTimeoutException e) {
+        isUsable = false;
+        return Optional.of(
+            new ProcessExecutor.Result(
+                1,
+                /* timedOut */ true,
+                Optional.<String>absent(),
+                Optional.<String>absent()));
+      } catch (IOException e) {
+        LOG.debug(e, "Test runner worker died.");
+        isUsable = false;
+        return Optional.absent();
+      }
+    }
+
+    private String readString() throws IOException {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      return new String(bytes, UTF_8);
+    }
+
+    private void writeString(String string) throws IOException {
+      byte[] bytes = string.getBytes(UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    public void destroy() {
+      isUsable = false;
+      try {
+        socket.close();
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to close the socket of a test runner worker.");
+      }
+      process.destroy();
+    }
+  }
+}
@@ -29,9 +29,17 @@ import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.TargetGraphAndTargets;
 import com.facebook.buck.rules.TargetNode;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -48,6 +56,7 @@ public class IjProject {
   private final SourcePathResolver sourcePathResolver;
   private final ProjectFilesystem projectFilesystem;
   private final IjModuleGraph.AggregationMode aggregationMode;
+  private final ListeningExecutorService executorService;
 
   public IjProject(
       TargetGraphAndTargets targetGraphAndTargets,
@@ -56,7 +65,8 @@ public class IjProject {
       BuildRuleResolver buildRuleResolver,
       SourcePathResolver sourcePathResolver,
       ProjectFilesystem projectFilesystem,
-      IjModuleGraph.AggregationMode aggregationMode) {
+      IjModuleGraph.AggregationMode aggregationMode,
+      ListeningExecutorService executorService) {
     this.targetGraphAndTargets = targetGraphAndTargets;
     this.javaPackageFinder = javaPackageFinder;
     this.javaFileParser = javaFileParser;
@@ -64,16 +74,21 @@ public class IjProject {
     this.sourcePathResolver = sourcePathResolver;
     this.projectFilesystem = projectFilesystem;
     this.aggregationMode = aggregationMode;
+    this.executorService = executorService;
   }
 
   /**
    * Write the project to disk.
    *
+   * @param changedTargets if present, only the modules which these targets could have changed are
+   *   regenerated: those containing them, those depending on them directly and those which haven't
+   *   been written yet.
    * @return set of {@link BuildTarget}s which should be built in order for the project to index
    *   correctly.
    * @throws IOException
    */
-  public ImmutableSet<BuildTarget> write() throws IOException {
+  public ImmutableSet<BuildTarget> write(Optional<ImmutableSet<BuildTarget>> changedTargets)
+      throws IOException, InterruptedException {
     final ImmutableSet.Builder<BuildTarget> requiredBuildTargets = ImmutableSet.builder();
     IjLibraryFactory libraryFactory = new DefaultIjLibraryFactory(
         new DefaultIjLibraryFactory.IjLibraryFactoryResolver() {
@@ -123,9 +138,49 @@ public class IjProject {
         javaPackageFinder);
     IjProjectWriter writer = new IjProjectWriter(
         new IjProjectTemplateDataPreparer(parsingJavaPackageFinder, moduleGraph, projectFilesystem),
-        projectFilesystem);
-    writer.write();
+        projectFilesystem,
+        executorService);
+    Optional<ImmutableSetMultimap<String, String>> previousModuleTargets =
+        IjProjectWriter.readPreviousModuleTargets(projectFilesystem);
+    if (changedTargets.isPresent() && previousModuleTargets.isPresent()) {
+      writer.write(
+          isAffectedBy(changedTargets.get(), previousModuleTargets.get(), projectFilesystem));
+    } else {
+      writer.write(Predicates.<IjModule>alwaysTrue());
+    }
     return requiredBuildTargets.build();
   }
 
+  /**
+   * @param previousModuleTargets the targets of each module when the project was last written.
+   * @return whether {@code changedTargets} could have changed a module: it contains one of them,
+   *     contained one when it was last written (which covers targets that were deleted or moved
+   *     elsewhere), depends on one directly, or hasn't been written yet.
+   */
+  @VisibleForTesting
+  static Predicate<IjModule> isAffectedBy(
+      final ImmutableSet<BuildTarget> changedTargets,
+      final ImmutableSetMultimap<String, String> previousModuleTargets,
+      final ProjectFilesystem projectFilesystem) {
+    final ImmutableSet<String> changedTargetNames = FluentIterable.from(changedTargets)
+        .transform(Functions.toStringFunction())
+        .toSet();
+    return new Predicate<IjModule>() {
+      @Override
+      public boolean apply(IjModule module) {
+        for (TargetNode<?> targetNode : module.getTargets()) {
+          if (changedTargets.contains(targetNode.getBuildTarget())) {
+            return true;
+          }
+        }
+        return
+            !Sets.intersection(previousModuleTargets.get(module.getName()), changedTargetNames)
+                .isEmpty() ||
+            !Sets.intersection(module.getDependencies().keySet(), changedTargets).isEmpty() ||
+            !projectFilesystem.exists(
+                IjProjectTemplateDataPreparer.getModuleOutputFilePath(module.getName()));
+      }
+    };
+  }
+
 }
@@ -17,9 +17,20 @@
 package com.facebook.buck.java.intellij;
 
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.rules.TargetNode;
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.concurrent.MoreFutures;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.hash.Hashing;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import org.stringtemplate.v4.AutoIndentWriter;
 import org.stringtemplate.v4.ST;
@@ -32,9 +43,14 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 /**
- * Writes the serialized representations of IntelliJ project components to disk.
+ * Writes the serialized representations of IntelliJ project components to disk. Modules and
+ * libraries are rendered and written concurrently, and files whose contents are unchanged are left
+ * alone, so that IntelliJ doesn't reindex them.
  */
 public class IjProjectWriter {
 
@@ -43,6 +59,15 @@ public class IjProjectWriter {
   public static final Path LIBRARIES_PREFIX = IDEA_CONFIG_DIR_PREFIX.resolve("libraries");
   public static final Path MODULES_PREFIX = IDEA_CONFIG_DIR_PREFIX.resolve("modules");
 
+  /**
+   * The targets each module contained when the project was last written, as lines of
+   * {@code <module name> <fully qualified target>}, so that modules which lost a target can be told
+   * apart from the others.
+   */
+  @VisibleForTesting
+  static final Path MODULE_TARGETS_PATH =
+      BuckConstant.BUCK_OUTPUT_PATH.resolve("intellij/module_targets.txt");
+
   private enum StringTemplateFile {
     MODULE_TEMPLATE("ij-module.st"),
     MODULE_INDEX_TEMPLATE("ij-module-index.st"),
@@ -60,26 +85,96 @@ public class IjProjectWriter {
 
   private IjProjectTemplateDataPreparer projectDataPreparer;
   private ProjectFilesystem projectFilesystem;
+  private ListeningExecutorService executorService;
 
   public IjProjectWriter(
       IjProjectTemplateDataPreparer projectDataPreparer,
-      ProjectFilesystem projectFilesystem) {
+      ProjectFilesystem projectFilesystem,
+      ListeningExecutorService executorService) {
     this.projectDataPreparer = projectDataPreparer;
     this.projectFilesystem = projectFilesystem;
+    this.executorService = executorService;
   }
 
-  public void write() throws IOException {
-    for (IjModule module : projectDataPreparer.getModulesToBeWritten()) {
-      writeModule(module);
+  public void write() throws IOException, InterruptedException {
+    write(Predicates.<IjModule>alwaysTrue());
+  }
+
+  /**
+   * Like {@link #write()}, but only regenerates the modules that {@code shouldWriteModule}
+   * accepts. The libraries and the module index are always regenerated, since they are cheap.
+   */
+  public void write(Predicate<IjModule> shouldWriteModule)
+      throws IOException, InterruptedException {
+    projectFilesystem.mkdirs(MODULES_PREFIX);
+    projectFilesystem.mkdirs(LIBRARIES_PREFIX);
+
+    ImmutableList.Builder<Callable<Void>> writes = ImmutableList.builder();
+    for (final IjModule module : projectDataPreparer.getModulesToBeWritten()) {
+      if (!shouldWriteModule.apply(module)) {
+        continue;
+      }
+      writes.add(
+          new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              writeModule(module);
+              return null;
+            }
+          });
     }
-    for (IjLibrary library : projectDataPreparer.getLibrariesToBeWritten()) {
-      writeLibrary(library);
+    for (final IjLibrary library : projectDataPreparer.getLibrariesToBeWritten()) {
+      writes.add(
+          new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              writeLibrary(library);
+              return null;
+            }
+          });
     }
+    try {
+      MoreFutures.getAll(executorService, writes.build());
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+
     writeModulesIndex();
+    writeModuleTargets();
+  }
+
+  /**
+   * @return the fully qualified names of the targets of each module when the project was last
+   *     written, by module name, or absent if that isn't known.
+   */
+  public static Optional<ImmutableSetMultimap<String, String>> readPreviousModuleTargets(
+      ProjectFilesystem projectFilesystem) throws IOException {
+    if (!projectFilesystem.exists(MODULE_TARGETS_PATH)) {
+      return Optional.absent();
+    }
+    ImmutableSetMultimap.Builder<String, String> moduleTargets = ImmutableSetMultimap.builder();
+    for (String line : projectFilesystem.readLines(MODULE_TARGETS_PATH)) {
+      List<String> parts = Splitter.on(' ').omitEmptyStrings().splitToList(line);
+      if (parts.size() == 2) {
+        moduleTargets.put(parts.get(0), parts.get(1));
+      }
+    }
+    return Optional.of(moduleTargets.build());
+  }
+
+  private void writeModuleTargets() throws IOException {
+    ImmutableList.Builder<String> lines = ImmutableList.builder();
+    for (IjModule module : projectDataPreparer.getModulesToBeWritten()) {
+      for (TargetNode<?> targetNode : module.getTargets()) {
+        lines.add(module.getName() + " " + targetNode.getBuildTarget().getFullyQualifiedName());
+      }
+    }
+    projectFilesystem.createParentDirs(MODULE_TARGETS_PATH);
+    projectFilesystem.writeLinesToPath(lines.build(), MODULE_TARGETS_PATH);
   }
 
   private void writeModule(IjModule module) throws IOException {
-    projectFilesystem.mkdirs(MODULES_PREFIX);
     Path path = IjProjectTemplateDataPreparer.getModuleOutputFilePath(module.getName());
 
     ST moduleContents = getST(StringTemplateFile.MODULE_TEMPLATE);
@@ -93,7 +188,6 @@ public class IjProjectWriter {
   }
 
   private void writeLibrary(IjLibrary library) throws IOException {
-    projectFilesystem.mkdirs(LIBRARIES_PREFIX);
     Path path = LIBRARIES_PREFIX.resolve(library.getName() + ".xml");
 
     ST contents = getST(StringTemplateFile.LIBRARY_TEMPLATE);
@@ -128,7 +222,7 @@ public class IjProjectWriter {
     StringWriter stringWriter = new StringWriter();
     AutoIndentWriter noIndentWriter = new AutoIndentWriter(stringWriter);
     contents.write(noIndentWriter);
-    byte[] renderedContentsBytes = noIndentWriter.toString().getBytes(StandardCharsets.UTF_8);
+    byte[] renderedContentsBytes = stringWriter.toString().getBytes(StandardCharsets.UTF_8);
     if (projectFilesystem.exists(path)) {
       String fileSha1 = projectFilesystem.computeSha1(path);
       String contentsSha1 = Hashing.sha1().hashBytes(renderedContentsBytes).toString();
@@ -145,7 +239,7 @@ public class IjProjectWriter {
     try {
       danglingTempFile = true;
       try (OutputStream outputStream = projectFilesystem.newFileOutputStream(tempFile)) {
-        outputStream.write(contents.render().getBytes());
+        outputStream.write(renderedContentsBytes);
       }
       projectFilesystem.createParentDirs(path);
       projectFilesystem.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
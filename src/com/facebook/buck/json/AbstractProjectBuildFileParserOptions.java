@@ -48,4 +48,10 @@ abstract class AbstractProjectBuildFileParserOptions {
   }
 
   abstract Optional<Long> getWatchmanQueryTimeoutMs();
+
+  /**
+   * If present, {@code glob()} calls are sent back over the {@code buck.py} pipe and evaluated by
+   * this globber.
+   */
+  abstract Optional<CachingGlobber> getGlobber();
 }
@@ -21,6 +21,7 @@ import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import java.io.IOException;
 import java.io.Reader;
@@ -95,6 +96,22 @@ public class BuildFileToJsonParser implements AutoCloseable {
     }
   }
 
+  /**
+   * Access the next value from the build file processor, which is either the next set of rules (as
+   * returned by {@link #nextRules()}) or a single JSON object.
+   */
+  Object nextValue() throws IOException {
+    try {
+      if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+        JsonObject json = gson.fromJson(reader, JsonObject.class);
+        return RawParser.toRawTypes(json);
+      }
+    } catch (IllegalStateException e) {
+      throw new IOException(e); // Rethrow Gson exceptions as IO (non-runtime) exceptions.
+    }
+    return nextRules();
+  }
+
   @Override
   public void close() throws IOException {
     reader.close();
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates {@code glob()} calls for {@code buck.py} against a {@link FileTreeIndex} of the
+ * project, and memoizes the results.
+ * <p>
+ * When owned by the {@link com.facebook.buck.parser.Parser} of a buck daemon, the index and the
+ * memoized globs survive between commands, and are invalidated precisely by {@link #invalidate}
+ * as Watchman reports files being added or removed.
+ */
+public class CachingGlobber {
+
+  private final FileTreeIndex index;
+  private final Map<GlobKey, ImmutableList<String>> results;
+
+  public CachingGlobber(Path projectRoot) {
+    this.index = new FileTreeIndex(projectRoot);
+    this.results = Maps.newHashMap();
+  }
+
+  /**
+   * @param basePath the directory containing the build file, relative to the project root.
+   * @return the sorted paths of the files under {@code basePath} that match any of the
+   *     {@code includes} and none of the {@code excludes}, relative to {@code basePath}.
+   */
+  public synchronized ImmutableList<String> glob(
+      Path basePath,
+      List<String> includes,
+      List<String> excludes,
+      boolean includeDotfiles) throws IOException {
+    GlobKey key = new GlobKey(basePath, includes, excludes, includeDotfiles);
+    ImmutableList<String> result = results.get(key);
+    if (result == null) {
+      result = computeGlob(basePath, includes, excludes, includeDotfiles);
+      results.put(key, result);
+    }
+    return result;
+  }
+
+  private ImmutableList<String> computeGlob(
+      Path basePath,
+      List<String> includes,
+      List<String> excludes,
+      boolean includeDotfiles) throws IOException {
+    ImmutableList<GlobPattern> excludePatterns = GlobPattern.compileAll(excludes, includeDotfiles);
+    ImmutableSortedSet.Builder<String> matches = ImmutableSortedSet.naturalOrder();
+    for (GlobPattern include : GlobPattern.compileAll(includes, includeDotfiles)) {
+      String prefix = include.getLiteralPrefix();
+      collectMatches(
+          basePath,
+          prefix.isEmpty() ? "" : prefix + "/",
+          include,
+          excludePatterns,
+          include.getMaxDepth(),
+          matches);
+    }
+    return ImmutableList.copyOf(matches.build());
+  }
+
+  private void collectMatches(
+      Path basePath,
+      String relativeDirectory,
+      GlobPattern include,
+      ImmutableList<GlobPattern> excludes,
+      int remainingDepth,
+      ImmutableSortedSet.Builder<String> matches) throws IOException {
+    if (remainingDepth <= 0) {
+      return;
+    }
+    FileTreeIndex.Listing listing = index.getListing(basePath.resolve(relativeDirectory));
+    for (String file : listing.files) {
+      String relativePath = relativeDirectory + file;
+      if (include.matches(relativePath) && !matchesAny(excludes, relativePath)) {
+        matches.add(relativePath);
+      }
+    }
+    for (String directory : listing.directories) {
+      collectMatches(
+          basePath,
+          relativeDirectory + directory + "/",
+          include,
+          excludes,
+          remainingDepth - 1,
+          matches);
+    }
+  }
+
+  private static boolean matchesAny(ImmutableList<GlobPattern> patterns, String relativePath) {
+    for (GlobPattern pattern : patterns) {
+      if (pattern.matches(relativePath)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Invalidates the directory listings and globs that could be affected by {@code path} having
+   * been created or deleted.
+   *
+   * @param path relative to the project root.
+   */
+  public synchronized void invalidate(Path path) {
+    index.invalidate(path);
+    Iterator<GlobKey> keys = results.keySet().iterator();
+    while (keys.hasNext()) {
+      Path basePath = keys.next().basePath;
+      // The root package's base path is empty, which no path starts with, but it covers them all.
+      if (basePath.toString().isEmpty() || path.startsWith(basePath)) {
+        keys.remove();
+      }
+    }
+  }
+
+  public synchronized void invalidateAll() {
+    index.invalidateAll();
+    results.clear();
+  }
+
+  private static class GlobKey {
+    private final Path basePath;
+    private final ImmutableList<String> includes;
+    private final ImmutableList<String> excludes;
+    private final boolean includeDotfiles;
+
+    private GlobKey(
+        Path basePath,
+        List<String> includes,
+        List<String> excludes,
+        boolean includeDotfiles) {
+      this.basePath = basePath;
+      this.includes = ImmutableList.copyOf(includes);
+      this.excludes = ImmutableList.copyOf(excludes);
+      this.includeDotfiles = includeDotfiles;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof GlobKey)) {
+        return false;
+      }
+      GlobKey that = (GlobKey) other;
+      return includeDotfiles == that.includeDotfiles &&
+          basePath.equals(that.basePath) &&
+          includes.equals(that.includes) &&
+          excludes.equals(that.excludes);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(basePath, includes, excludes, includeDotfiles);
+    }
+  }
+}
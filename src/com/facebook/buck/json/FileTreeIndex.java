@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory index of the directories under the project root, filled in lazily as directories
+ * are listed and invalidated as files are added or removed.
+ * <p>
+ * Each directory's entries are kept as sorted arrays of interned names, since the same names
+ * (e.g. {@code BUCK}, {@code src}, {@code res}) occur throughout a large tree.
+ */
+class FileTreeIndex {
+
+  /** The entries of a single directory. */
+  static class Listing {
+    private static final Listing EMPTY = new Listing(new String[0], new String[0]);
+
+    /** Regular files and symlinks, which Watchman reports as files even if they point at dirs. */
+    final String[] files;
+    final String[] directories;
+
+    private Listing(String[] files, String[] directories) {
+      this.files = files;
+      this.directories = directories;
+    }
+  }
+
+  private static final Interner<String> NAME_INTERNER = Interners.newWeakInterner();
+
+  private final Path projectRoot;
+  private final Map<Path, Listing> listings;
+
+  FileTreeIndex(Path projectRoot) {
+    this.projectRoot = projectRoot;
+    this.listings = Maps.newHashMap();
+  }
+
+  /**
+   * @param directory relative to the project root.
+   * @return the entries of {@code directory}, which are empty if it doesn't exist.
+   */
+  synchronized Listing getListing(Path directory) throws IOException {
+    Listing listing = listings.get(directory);
+    if (listing == null) {
+      listing = readListing(directory);
+      listings.put(directory, listing);
+    }
+    return listing;
+  }
+
+  private Listing readListing(Path directory) throws IOException {
+    List<String> files = Lists.newArrayList();
+    List<String> directories = Lists.newArrayList();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(projectRoot.resolve(directory))) {
+      for (Path entry : stream) {
+        BasicFileAttributes attributes = Files.readAttributes(
+            entry,
+            BasicFileAttributes.class,
+            LinkOption.NOFOLLOW_LINKS);
+        String name = NAME_INTERNER.intern(entry.getFileName().toString());
+        if (attributes.isDirectory()) {
+          directories.add(name);
+        } else if (attributes.isRegularFile() || attributes.isSymbolicLink()) {
+          files.add(name);
+        }
+      }
+    } catch (NoSuchFileException | NotDirectoryException e) {
+      return Listing.EMPTY;
+    }
+    Collections.sort(files);
+    Collections.sort(directories);
+    return new Listing(
+        files.toArray(new String[files.size()]),
+        directories.toArray(new String[directories.size()]));
+  }
+
+  /**
+   * Forgets everything known about {@code path}, which was created or deleted, and its parent
+   * directory's entries.
+   *
+   * @param path relative to the project root.
+   */
+  synchronized void invalidate(Path path) {
+    Path parent = path.getParent();
+    listings.remove(parent == null ? path.getFileSystem().getPath("") : parent);
+
+    // If a directory was deleted, everything we knew about below it is stale too.
+    Iterator<Path> directories = listings.keySet().iterator();
+    while (directories.hasNext()) {
+      if (directories.next().startsWith(path)) {
+        directories.remove();
+      }
+    }
+  }
+
+  synchronized void invalidateAll() {
+    listings.clear();
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled {@code glob()} pattern, with the same semantics as the Watchman {@code wholename}
+ * matches issued by {@code buck.py}: {@code *}, {@code ?} and {@code [...]} never match a
+ * {@code /}, {@code **&#47;} matches zero or more directories, and unless dotfiles are included, a
+ * leading {@code .} in a path component must be matched literally.
+ */
+class GlobPattern {
+
+  private static final String ANY_COMPONENT = "[^/]*";
+  private static final String ANY_NON_DOT_COMPONENT = "(?!\\.)[^/]*";
+
+  private final Pattern regex;
+  private final String literalPrefix;
+  private final int maxDepth;
+
+  private GlobPattern(Pattern regex, String literalPrefix, int maxDepth) {
+    this.regex = regex;
+    this.literalPrefix = literalPrefix;
+    this.maxDepth = maxDepth;
+  }
+
+  public static GlobPattern compile(String glob, boolean includeDotfiles) {
+    List<String> components = Splitter.on('/').splitToList(glob);
+
+    // The leading directories without any wildcards, which is where the walk can start.
+    int literalComponents = 0;
+    while (literalComponents < components.size() - 1 &&
+        !hasWildcard(components.get(literalComponents))) {
+      literalComponents++;
+    }
+    String literalPrefix = Joiner.on('/').join(components.subList(0, literalComponents));
+
+    int maxDepth = glob.contains("**")
+        ? Integer.MAX_VALUE
+        : components.size() - literalComponents;
+
+    return new GlobPattern(
+        Pattern.compile(toRegex(glob, includeDotfiles)),
+        literalPrefix,
+        maxDepth);
+  }
+
+  private static boolean hasWildcard(String component) {
+    return component.contains("*") ||
+        component.contains("?") ||
+        component.contains("[") ||
+        component.contains("\\");
+  }
+
+  private static String toRegex(String glob, boolean includeDotfiles) {
+    String component = includeDotfiles ? ANY_COMPONENT : ANY_NON_DOT_COMPONENT;
+    StringBuilder regex = new StringBuilder();
+    boolean atComponentStart = true;
+    int length = glob.length();
+    for (int i = 0; i < length; i++) {
+      char c = glob.charAt(i);
+      switch (c) {
+        case '*':
+          if (i + 1 < length && glob.charAt(i + 1) == '*' && atComponentStart) {
+            int end = i + 2;
+            if (end == length) {
+              // A trailing "**" matches everything below this directory.
+              regex.append(component).append("(?:/").append(component).append(")*");
+              i = end - 1;
+              atComponentStart = false;
+              break;
+            } else if (glob.charAt(end) == '/') {
+              // "**/" matches zero or more directories.
+              regex.append("(?:").append(component).append("/)*");
+              i = end;
+              break;
+            }
+          }
+          // Any other run of stars behaves like a single star.
+          while (i + 1 < length && glob.charAt(i + 1) == '*') {
+            i++;
+          }
+          regex.append(atComponentStart ? component : ANY_COMPONENT);
+          atComponentStart = false;
+          break;
+
+        case '?':
+          regex.append(atComponentStart && !includeDotfiles ? "[^/.]" : "[^/]");
+          atComponentStart = false;
+          break;
+
+        case '[':
+          int close = findClosingBracket(glob, i);
+          if (close < 0) {
+            regex.append(Pattern.quote("["));
+          } else {
+            if (atComponentStart && !includeDotfiles) {
+              regex.append("(?!\\.)");
+            }
+            regex.append("(?!/)").append(toCharacterClass(glob.substring(i + 1, close)));
+            i = close;
+          }
+          atComponentStart = false;
+          break;
+
+        case '\\':
+          if (i + 1 < length) {
+            i++;
+            regex.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+          } else {
+            regex.append(Pattern.quote("\\"));
+          }
+          atComponentStart = false;
+          break;
+
+        case '/':
+          regex.append('/');
+          atComponentStart = true;
+          break;
+
+        default:
+          regex.append(Pattern.quote(String.valueOf(c)));
+          atComponentStart = false;
+          break;
+      }
+    }
+    return regex.toString();
+  }
+
+  private static int findClosingBracket(String glob, int open) {
+    int i = open + 1;
+    if (i < glob.length() && (glob.charAt(i) == '!' || glob.charAt(i) == '^')) {
+      i++;
+    }
+    // A ']' right after the (possibly negated) opening bracket is a literal.
+    if (i < glob.length() && glob.charAt(i) == ']') {
+      i++;
+    }
+    return glob.indexOf(']', i);
+  }
+
+  private static String toCharacterClass(String contents) {
+    StringBuilder characterClass = new StringBuilder("[");
+    int i = 0;
+    if (!contents.isEmpty() && (contents.charAt(0) == '!' || contents.charAt(0) == '^')) {
+      characterClass.append('^');
+      i++;
+    }
+    for (; i < contents.length(); i++) {
+      char c = contents.charAt(i);
+      if (c == '-' && i > 0 && i < contents.length() - 1) {
+        characterClass.append('-');
+      } else if (Character.isLetterOrDigit(c)) {
+        characterClass.append(c);
+      } else {
+        characterClass.append('\\').append(c);
+      }
+    }
+    return characterClass.append(']').toString();
+  }
+
+  /**
+   * @return whether the given path, relative to the glob's base path and using {@code /} as the
+   *     separator, matches the pattern.
+   */
+  public boolean matches(String relativePath) {
+    return regex.matcher(relativePath).matches();
+  }
+
+  /**
+   * @return the leading directories of the pattern that don't contain any wildcards, relative to
+   *     the glob's base path, or the empty string if there are none.
+   */
+  public String getLiteralPrefix() {
+    return literalPrefix;
+  }
+
+  /**
+   * @return how many path components below {@link #getLiteralPrefix()} a match can be.
+   */
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  public static ImmutableList<GlobPattern> compileAll(
+      Iterable<String> globs,
+      boolean includeDotfiles) {
+    ImmutableList.Builder<GlobPattern> patterns = ImmutableList.builder();
+    for (String glob : globs) {
+      patterns.add(compile(glob, includeDotfiles));
+    }
+    return patterns.build();
+  }
+}
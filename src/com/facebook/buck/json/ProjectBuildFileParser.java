@@ -44,8 +44,13 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Resources;
+import com.google.gson.Gson;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -88,6 +93,17 @@ public class ProjectBuildFileParser implements AutoCloseable {
 
   private static final Logger LOG = Logger.get(ProjectBuildFileParser.class);
 
+  /** Key of the message buck.py sends to have a glob evaluated by {@link CachingGlobber}. */
+  private static final String GLOB_REQUEST_KEY = "__glob";
+
+  /**
+   * Key of the message buck.py sends when the build file it is executing globbed files without
+   * the {@link CachingGlobber}, so its rules depend on the file system in ways we can't track.
+   */
+  private static final String UNCACHEABLE_KEY = "__uncacheable";
+
+  private static final Gson GSON = new Gson();
+
   private enum BuckPyOutputFormat {
     JSON,
     BSER
@@ -110,6 +126,14 @@ public class ProjectBuildFileParser implements AutoCloseable {
   private boolean isInitialized;
   private boolean isClosed;
 
+  /**
+   * The globs evaluated by the {@link CachingGlobber} for the build file being parsed, along with
+   * their results, or null if the build file also relied on globs evaluated by buck.py itself.
+   */
+  @Nullable private ImmutableList.Builder<Map<String, Object>> daemonGlobs;
+  private Optional<ImmutableList<Map<String, Object>>> lastBuildFileDaemonGlobs =
+      Optional.absent();
+
   private boolean enableProfiling;
   @Nullable private NamedTemporaryFile profileOutputFile;
   @Nullable private Thread stderrConsumer;
@@ -245,6 +269,10 @@ public class ProjectBuildFileParser implements AutoCloseable {
       argBuilder.add("--use_watchman_glob");
     }
 
+    if (options.getGlobber().isPresent()) {
+      argBuilder.add("--use_daemon_glob");
+    }
+
     if (options.getWatchman().getProjectPrefix().isPresent()) {
       argBuilder.add("--watchman_project_prefix", options.getWatchman().getProjectPrefix().get());
     }
@@ -313,6 +341,10 @@ public class ProjectBuildFileParser implements AutoCloseable {
 
     ParseBuckFileEvent.Started parseBuckFileStarted = ParseBuckFileEvent.started(buildFile);
     buckEventBus.post(parseBuckFileStarted);
+    lastBuildFileDaemonGlobs = Optional.absent();
+    daemonGlobs = options.getGlobber().isPresent() ?
+        ImmutableList.<Map<String, Object>>builder() :
+        null;
     String buildFileString = buildFile.toString();
     LOG.verbose("Writing to buck.py stdin: %s", buildFileString);
     buckPyStdinWriter.write(buildFileString);
@@ -320,26 +352,106 @@ public class ProjectBuildFileParser implements AutoCloseable {
     buckPyStdinWriter.flush();
 
     LOG.debug("Parsing output of process %s using format %s...", buckPyProcess, buckPyOutputFormat);
-    List<Map<String, Object>> result;
+    Object value = readNextValue();
+    // While evaluating the build file, buck.py may ask us to evaluate globs for it.
+    while (value instanceof Map<?, ?>) {
+      handleMessage((Map<String, Object>) value);
+      value = readNextValue();
+    }
+    Preconditions.checkState(value instanceof List<?>);
+    List<Map<String, Object>> result = (List<Map<String, Object>>) value;
+    if (daemonGlobs != null) {
+      lastBuildFileDaemonGlobs = Optional.of(daemonGlobs.build());
+      daemonGlobs = null;
+    }
+    LOG.verbose("Got rules: %s", result);
+    int numRules = result.size();
+    LOG.debug("Parsed %d rules from process", numRules);
+    buckEventBus.post(ParseBuckFileEvent.finished(parseBuckFileStarted, numRules));
+    return result;
+  }
+
+  /**
+   * @return the next value written by buck.py: either the list of rules for the build file being
+   *     parsed, or a map containing a glob request.
+   */
+  private Object readNextValue() throws IOException {
+    Preconditions.checkNotNull(buckPyProcess);
     if (buckPyOutputFormat == BuckPyOutputFormat.BSER) {
       try {
-        Object deserializedValue = bserDeserializer.deserializeBserValue(
-            buckPyProcess.getInputStream());
-        Preconditions.checkState(deserializedValue instanceof List<?>);
-        result = (List<Map<String, Object>>) deserializedValue;
+        return Preconditions.checkNotNull(
+            bserDeserializer.deserializeBserValue(buckPyProcess.getInputStream()));
       } catch (BserDeserializer.BserEofException e) {
         LOG.warn(e, "Parser exited while decoding BSER data");
         throw new IOException("Parser exited unexpectedly", e);
       }
     } else {
       Preconditions.checkNotNull(buckPyStdoutParser);
-      result = buckPyStdoutParser.nextRules();
+      return buckPyStdoutParser.nextValue();
     }
-    LOG.verbose("Got rules: %s", result);
-    int numRules = result.size();
-    LOG.debug("Parsed %d rules from process", numRules);
-    buckEventBus.post(ParseBuckFileEvent.finished(parseBuckFileStarted, numRules));
-    return result;
+  }
+
+  /**
+   * @return the globs evaluated by the {@link CachingGlobber} while parsing the most recent build
+   *     file, each as the request sent by buck.py with the matching {@code files} added, or absent
+   *     if there is no globber or the build file also globbed files some other way.
+   */
+  public Optional<ImmutableList<Map<String, Object>>> getDaemonGlobsForLastBuildFile() {
+    return lastBuildFileDaemonGlobs;
+  }
+
+  private void handleMessage(Map<String, Object> message) throws IOException {
+    if (message.containsKey(UNCACHEABLE_KEY)) {
+      LOG.verbose("Build file can't be cached: %s", message.get(UNCACHEABLE_KEY));
+      daemonGlobs = null;
+    } else {
+      handleGlobRequest(message);
+    }
+  }
+
+  /**
+   * Evaluates a glob on behalf of buck.py, and writes the result back to its stdin as a single
+   * line of JSON.  Errors are reported back to buck.py, which falls back to globbing itself.
+   */
+  @SuppressWarnings("unchecked")
+  private void handleGlobRequest(Map<String, Object> message) throws IOException {
+    Preconditions.checkNotNull(buckPyStdinWriter);
+    Object request = message.get(GLOB_REQUEST_KEY);
+    Preconditions.checkState(
+        request instanceof Map<?, ?>,
+        "Unexpected message from buck.py: %s",
+        message);
+    Map<String, Object> params = (Map<String, Object>) request;
+
+    Map<String, Object> response;
+    if (!options.getGlobber().isPresent()) {
+      response = ImmutableMap.<String, Object>of("error", "glob requests are not enabled");
+    } else {
+      try {
+        ImmutableList<String> files = options.getGlobber().get().glob(
+            Paths.get((String) params.get("base_path")),
+            (List<String>) params.get("includes"),
+            (List<String>) params.get("excludes"),
+            Boolean.TRUE.equals(params.get("include_dotfiles")));
+        response = ImmutableMap.<String, Object>of("files", files);
+        if (daemonGlobs != null) {
+          daemonGlobs.add(
+              ImmutableMap.<String, Object>builder()
+                  .putAll(params)
+                  .put("files", files)
+                  .build());
+        }
+      } catch (IOException | RuntimeException e) {
+        LOG.warn(e, "Failed to evaluate glob %s", params);
+        response = ImmutableMap.<String, Object>of("error", String.valueOf(e.getMessage()));
+        // buck.py will glob by itself from now on.
+        daemonGlobs = null;
+      }
+    }
+
+    buckPyStdinWriter.write(GSON.toJson(response));
+    buckPyStdinWriter.newLine();
+    buckPyStdinWriter.flush();
   }
 
   @Override
@@ -462,39 +574,56 @@ public class ProjectBuildFileParser implements AutoCloseable {
     Files.createDirectories(buckDotPy.getParent());
 
     try (Writer out = Files.newBufferedWriter(buckDotPy, UTF_8)) {
-      URL resource = Resources.getResource(BUCK_PY_RESOURCE);
-      String pathlibDir = PATH_TO_PATHLIB_PY.getParent().toString();
-      String watchmanDir = PATH_TO_PYWATCHMAN.toString();
-      out.write(
-          "from __future__ import with_statement\n" +
-          "import sys\n" +
-          "sys.path.insert(0, \"" +
-              Escaper.escapeAsBashString(MorePaths.pathWithUnixSeparators(pathlibDir)) + "\")\n" +
-          "sys.path.insert(0, \"" +
-              Escaper.escapeAsBashString(MorePaths.pathWithUnixSeparators(watchmanDir)) + "\")\n");
-
-      Resources.asCharSource(resource, UTF_8).copyTo(out);
-      out.write("\n\n");
-
-      ConstructorArgMarshaller inspector = new ConstructorArgMarshaller();
-      BuckPyFunction function = new BuckPyFunction(inspector);
-      for (Description<?> description : descriptions) {
-        out.write(function.toPythonFunction(
-            description.getBuildRuleType(),
-            description.createUnpopulatedConstructorArg()));
-        out.write('\n');
-      }
-
-      out.write(Joiner.on("\n").join(
-          "if __name__ == '__main__':",
-          "  try:",
-          "    main()",
-          "  except KeyboardInterrupt:",
-          "    print >> sys.stderr, 'Killed by User'",
-          ""));
+      writeBuckPy(out, descriptions);
     }
     Path normalizedBuckDotPyPath = buckDotPy.normalize();
     pathToBuckPy = Optional.of(normalizedBuckDotPyPath);
     LOG.debug("Created temporary buck.py instance at %s.", normalizedBuckDotPyPath);
   }
+
+  /**
+   * @return a hash of the buck.py that parsers for {@code descriptions} execute build files with,
+   *     which changes whenever what the build files are executed with does.
+   */
+  public static HashCode hashBuckPy(ImmutableSet<Description<?>> descriptions) throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    try (Writer out = new OutputStreamWriter(Funnels.asOutputStream(hasher), UTF_8)) {
+      writeBuckPy(out, descriptions);
+    }
+    return hasher.hash();
+  }
+
+  private static void writeBuckPy(Writer out, ImmutableSet<Description<?>> descriptions)
+      throws IOException {
+    URL resource = Resources.getResource(BUCK_PY_RESOURCE);
+    String pathlibDir = PATH_TO_PATHLIB_PY.getParent().toString();
+    String watchmanDir = PATH_TO_PYWATCHMAN.toString();
+    out.write(
+        "from __future__ import with_statement\n" +
+        "import sys\n" +
+        "sys.path.insert(0, \"" +
+            Escaper.escapeAsBashString(MorePaths.pathWithUnixSeparators(pathlibDir)) + "\")\n" +
+        "sys.path.insert(0, \"" +
+            Escaper.escapeAsBashString(MorePaths.pathWithUnixSeparators(watchmanDir)) + "\")\n");
+
+    Resources.asCharSource(resource, UTF_8).copyTo(out);
+    out.write("\n\n");
+
+    ConstructorArgMarshaller inspector = new ConstructorArgMarshaller();
+    BuckPyFunction function = new BuckPyFunction(inspector);
+    for (Description<?> description : descriptions) {
+      out.write(function.toPythonFunction(
+          description.getBuildRuleType(),
+          description.createUnpopulatedConstructorArg()));
+      out.write('\n');
+    }
+
+    out.write(Joiner.on("\n").join(
+        "if __name__ == '__main__':",
+        "  try:",
+        "    main()",
+        "  except KeyboardInterrupt:",
+        "    print >> sys.stderr, 'Killed by User'",
+        ""));
+  }
 }
@@ -63,7 +63,7 @@ class BuildFileContext(object):
 
     def __init__(self, base_path, dirname, allow_empty_globs, watchman_client,
                  watchman_watch_root, watchman_project_prefix, sync_cookie_state,
-                 watchman_error):
+                 watchman_error, daemon_globber=None):
         self.globals = {}
         self.includes = set()
         self.base_path = base_path
@@ -74,6 +74,7 @@ class BuildFileContext(object):
         self.watchman_project_prefix = watchman_project_prefix
         self.sync_cookie_state = sync_cookie_state
         self.watchman_error = watchman_error
+        self.daemon_globber = daemon_globber
         self.rules = {}
 
 
@@ -175,7 +176,21 @@ def glob(includes, excludes=[], include_dotfiles=False, build_env=None, search_b
     results = None
     if not includes:
         results = []
-    elif build_env.watchman_client:
+    elif build_env.daemon_globber and search_base is not None:
+        # Buck can only track the results of globs it evaluated itself.
+        build_env.daemon_globber.report_uncacheable('glob() with a search_base')
+    elif build_env.daemon_globber:
+        try:
+            results = build_env.daemon_globber.glob(
+                includes,
+                excludes,
+                include_dotfiles,
+                build_env.base_path)
+        except DaemonGlobError, e:
+            print >>sys.stderr, 'Daemon glob error, falling back to slow glob: ' + str(e)
+            build_env.daemon_globber = None
+
+    if results is None and build_env.watchman_client:
         try:
             results = glob_watchman(
                 includes,
@@ -326,6 +341,52 @@ def glob_watchman(includes, excludes, include_dotfiles, base_path, watchman_watc
     return sorted(result)
 
 
+class DaemonGlobError(Exception):
+    pass
+
+
+class DaemonGlobber(object):
+    """
+    Asks the buck process that launched us to evaluate globs, over the same
+    pipes used to exchange build files and rules.  Buck keeps an index of the
+    project tree and memoizes glob results, which a buck daemon keeps up to
+    date between commands.
+    """
+
+    def __init__(self, to_parent, encode, from_parent):
+        self._to_parent = to_parent
+        self._encode = encode
+        self._from_parent = from_parent
+
+    def glob(self, includes, excludes, include_dotfiles, base_path):
+        request = {
+            '__glob': {
+                'base_path': base_path,
+                'includes': list(includes),
+                'excludes': list(excludes),
+                'include_dotfiles': bool(include_dotfiles),
+            },
+        }
+        self._to_parent.write(self._encode(request))
+        self._to_parent.flush()
+        line = self._from_parent.readline()
+        if not line:
+            raise DaemonGlobError('buck closed the pipe while waiting for a glob result')
+        response = json.loads(line)
+        if 'error' in response:
+            raise DaemonGlobError(response['error'])
+        return [str(f) for f in response['files']]
+
+    def report_uncacheable(self, reason):
+        """
+        Tells buck that the rules of the build file being processed depend on
+        files it doesn't know about, so it must not cache them.  There is no
+        reply.
+        """
+        self._to_parent.write(self._encode({'__uncacheable': reason}))
+        self._to_parent.flush()
+
+
 def glob_internal(includes, excludes, include_dotfiles, search_base):
 
     def includes_iterator():
@@ -397,7 +458,7 @@ class BuildFileProcessor(object):
 
     def __init__(self, project_root, watchman_watch_root, watchman_project_prefix, build_file_name,
                  allow_empty_globs, watchman_client, watchman_error, implicit_includes=[],
-                 extra_funcs=[]):
+                 extra_funcs=[], daemon_globber=None):
         self._cache = {}
         self._build_env_stack = []
         self._sync_cookie_state = SyncCookieState()
@@ -410,6 +471,7 @@ class BuildFileProcessor(object):
         self._allow_empty_globs = allow_empty_globs
         self._watchman_client = watchman_client
         self._watchman_error = watchman_error
+        self._daemon_globber = daemon_globber
 
         lazy_functions = {}
         for func in BUILD_FUNCTIONS + extra_funcs:
@@ -592,7 +654,8 @@ class BuildFileProcessor(object):
             self._watchman_watch_root,
             self._watchman_project_prefix,
             self._sync_cookie_state,
-            self._watchman_error)
+            self._watchman_error,
+            self._daemon_globber)
 
         return self._process(
             build_env,
@@ -665,6 +728,11 @@ def main():
         action='store_true',
         dest='use_watchman_glob',
         help='Invokes `watchman query` to get lists of files instead of globbing in-process.')
+    parser.add_option(
+        '--use_daemon_glob',
+        action='store_true',
+        dest='use_daemon_glob',
+        help='Asks buck to evaluate globs over stdin/stdout instead of globbing in-process.')
     parser.add_option(
         '--watchman_watch_root',
         action='store',
@@ -725,6 +793,10 @@ def main():
             #         repr(e))
             pass
 
+    daemon_globber = None
+    if options.use_daemon_glob:
+        daemon_globber = DaemonGlobber(to_parent, output_encode, sys.stdin)
+
     buildFileProcessor = BuildFileProcessor(
         project_root,
         options.watchman_watch_root,
@@ -733,7 +805,8 @@ def main():
         options.allow_empty_globs,
         watchman_client,
         watchman_error,
-        implicit_includes=options.include or [])
+        implicit_includes=options.include or [],
+        daemon_globber=daemon_globber)
 
     buildFileProcessor.install_builtins(__builtin__.__dict__)
 
@@ -204,12 +204,22 @@ public abstract class BaseRunner {
     this.testSelectorList = testSelectorList;
   }
 
-  protected void runAndExit() throws Throwable {
-    // Run the tests.
+  /**
+   * Runs the tests and returns, leaving the JVM running. This is what {@link TestRunnerWorker}
+   * uses, since its JVM goes on to run the tests of other rules.
+   */
+  protected void runWithoutExit() {
     try {
       run();
     } catch (Throwable e){
       e.printStackTrace();
+    }
+  }
+
+  protected void runAndExit() throws Throwable {
+    // Run the tests.
+    try {
+      runWithoutExit();
     } finally {
       // Explicitly exit to force the test runner to complete even if tests have sloppily left
       // behind non-daemon threads that would have otherwise forced the process to wait and
@@ -38,12 +38,24 @@ public class JUnitMain {
   }
 
   public static void main(String[] args) throws Throwable {
+    createRunner(args).runAndExit();
+  }
+
+  /**
+   * Runs the tests like {@link #main(String[])}, but returns afterwards instead of exiting. Called
+   * reflectively by {@link TestRunnerWorker}.
+   */
+  public static void runWithoutExit(String[] args) throws Throwable {
+    createRunner(args).runWithoutExit();
+  }
+
+  private static JUnitRunner createRunner(String[] args) throws Throwable {
     // Ensure that both junit and hamcrest are on the classpath
     CheckDependency.isPresent("junit", "org.junit.Test");
     CheckDependency.isPresent("hamcrest", "org.hamcrest.Description");
 
     JUnitRunner runner = new JUnitRunner();
     runner.parseArgs(args);
-    runner.runAndExit();
+    return runner;
   }
 }
@@ -38,12 +38,24 @@ public class TestNGMain {
   }
 
   public static void main(String[] args) throws Throwable {
+    createRunner(args).runAndExit();
+  }
+
+  /**
+   * Runs the tests like {@link #main(String[])}, but returns afterwards instead of exiting. Called
+   * reflectively by {@link TestRunnerWorker}.
+   */
+  public static void runWithoutExit(String[] args) throws Throwable {
+    createRunner(args).runWithoutExit();
+  }
+
+  private static TestNGRunner createRunner(String[] args) throws Throwable {
     // Ensure that both testng and hamcrest are on the classpath
     CheckDependency.isPresent("testng", "org.testng.TestNG");
     CheckDependency.isPresent("hamcrest", "org.hamcrest.Description");
 
     TestNGRunner runner = new TestNGRunner();
     runner.parseArgs(args);
-    runner.runAndExit();
+    return runner;
   }
 }
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.junit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Properties;
+import java.util.logging.LogManager;
+
+/**
+ * Runs the tests of many {@code java_test()} rules, one after the other, in the same JVM, so that
+ * they only pay for starting a JVM once. Buck's {@code TestJvmPool} starts it with:
+ * <pre>
+ * java -Djava.io.tmpdir=tmp-directory -classpath path/to/testrunner/classes \
+ *     com.facebook.buck.junit.TestRunnerWorker max-runs max-heap-growth-bytes tmp-directory
+ * </pre>
+ * The worker listens on an ephemeral loopback port, which it prints as the only line of its
+ * stdout, and serves the first connection made to it. Each request names the classpath of the
+ * tests, the launcher to run ({@code JUnitMain} or {@code TestNGMain}), its arguments and the
+ * system properties that a forked JVM would have been given with {@code -D}. The tests are loaded
+ * by a new {@link URLClassLoader} whose parent is the JDK's, so no two requests share classes, and
+ * the system properties, standard streams and logging configuration are restored after each run.
+ * <p>
+ * The temporary directory of the JVM can't be changed once it is running, as the JDK caches it
+ * the first time it is used, so each worker is given one of its own when it is started, which it
+ * empties before each run. A request must not set {@code java.io.tmpdir}.
+ * <p>
+ * The worker exits when the connection is closed. It retires, telling the pool so in its last
+ * response, after {@code max-runs} requests or once its heap after a collection has grown by
+ * more than {@code max-heap-growth-bytes} since its first run, since classes and threads leaked
+ * by tests can't be reclaimed any other way.
+ * <p>
+ * Each message is a sequence of ints, booleans and strings, written with {@link DataOutputStream}.
+ * Strings are UTF-8 bytes preceded by their length, and lists of strings are preceded by their
+ * size. A request is the classpath, the name of the launcher class, its arguments and the system
+ * properties as a list of alternating keys and values. A response is the exit code, the stdout and
+ * stderr of the run, and whether the worker is retiring.
+ * <p>
+ * Like {@code FileClassPathRunner}, this class only depends on the JRE, so that nothing it uses can
+ * clash with the classes of the tests.
+ */
+public class TestRunnerWorker {
+
+  private static final String ENCODING = "UTF-8";
+
+  /**
+   * The static method of the launcher that runs the tests without exiting the JVM afterwards.
+   */
+  private static final String LAUNCHER_METHOD_NAME = "runWithoutExit";
+
+  private final int maxRuns;
+  private final long maxHeapGrowthBytes;
+  private final Path tmpDirectory;
+  private int runs = 0;
+  private long initialHeapBytes = -1;
+
+  private TestRunnerWorker(int maxRuns, long maxHeapGrowthBytes, Path tmpDirectory) {
+    this.maxRuns = maxRuns;
+    this.maxHeapGrowthBytes = maxHeapGrowthBytes;
+    this.tmpDirectory = tmpDirectory;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 3) {
+      System.err.println("Usage: TestRunnerWorker max-runs max-heap-growth-bytes tmp-directory");
+      System.exit(1);
+    }
+    TestRunnerWorker worker = new TestRunnerWorker(
+        Integer.parseInt(args[0]),
+        Long.parseLong(args[1]),
+        Paths.get(args[2]));
+
+    // The pool reads the port from stdout, so keep anything else from being written to it.
+    PrintStream stdout = System.out;
+    System.setOut(System.err);
+
+    try (ServerSocket serverSocket =
+             new ServerSocket(0, /* backlog */ 1, InetAddress.getLoopbackAddress())) {
+      stdout.println(serverSocket.getLocalPort());
+      stdout.close();
+      try (Socket socket = serverSocket.accept()) {
+        serverSocket.close();
+        socket.setTcpNoDelay(true);
+        worker.serve(
+            new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+            new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+      }
+    } finally {
+      // Tests may have left non-daemon threads behind, which would keep the JVM running.
+      System.exit(0);
+    }
+  }
+
+  private void serve(DataInputStream in, DataOutputStream out) throws IOException {
+    while (true) {
+      String[] classpath;
+      try {
+        classpath = readStrings(in);
+      } catch (EOFException e) {
+        // The pool has closed the connection.
+        return;
+      }
+      String launcherClassName = readString(in);
+      String[] launcherArgs = readStrings(in);
+      String[] properties = readStrings(in);
+
+      emptyTmpDirectory();
+      ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+      ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+      int exitCode = run(
+          classpath,
+          launcherClassName,
+          launcherArgs,
+          properties,
+          new PrintStream(stdout, /* autoFlush */ true, ENCODING),
+          new PrintStream(stderr, /* autoFlush */ true, ENCODING));
+      boolean isRetiring = shouldRetire();
+
+      out.writeInt(exitCode);
+      writeString(out, stdout.toString(ENCODING));
+      writeString(out, stderr.toString(ENCODING));
+      out.writeBoolean(isRetiring);
+      out.flush();
+      if (isRetiring) {
+        return;
+      }
+    }
+  }
+
+  private int run(
+      String[] classpath,
+      String launcherClassName,
+      String[] launcherArgs,
+      String[] properties,
+      PrintStream stdout,
+      PrintStream stderr) throws IOException {
+    URL[] urls = new URL[classpath.length];
+    StringBuilder javaClassPath = new StringBuilder();
+    for (int i = 0; i < classpath.length; i++) {
+      urls[i] = new File(classpath[i]).toURI().toURL();
+      if (i > 0) {
+        javaClassPath.append(File.pathSeparatorChar);
+      }
+      javaClassPath.append(classpath[i]);
+    }
+
+    Properties originalProperties = System.getProperties();
+    Properties runProperties = new Properties();
+    runProperties.putAll(originalProperties);
+    runProperties.setProperty("java.class.path", javaClassPath.toString());
+    for (int i = 0; i + 1 < properties.length; i += 2) {
+      runProperties.setProperty(properties[i], properties[i + 1]);
+    }
+
+    PrintStream originalOut = System.out;
+    PrintStream originalErr = System.err;
+    Thread thread = Thread.currentThread();
+    ClassLoader originalContextClassLoader = thread.getContextClassLoader();
+    URLClassLoader classLoader =
+        new URLClassLoader(urls, ClassLoader.getSystemClassLoader().getParent());
+    try {
+      System.setProperties(runProperties);
+      System.setOut(stdout);
+      System.setErr(stderr);
+      thread.setContextClassLoader(classLoader);
+
+      Class<?> launcherClass = Class.forName(launcherClassName, true, classLoader);
+      Method launcher = launcherClass.getMethod(LAUNCHER_METHOD_NAME, String[].class);
+      launcher.invoke(null, new Object[] {launcherArgs});
+      return 0;
+    } catch (InvocationTargetException e) {
+      // What an uncaught exception thrown by the launcher's main() would have done.
+      e.getCause().printStackTrace(stderr);
+      return 1;
+    } catch (ReflectiveOperationException e) {
+      e.printStackTrace(stderr);
+      return 1;
+    } finally {
+      thread.setContextClassLoader(originalContextClassLoader);
+      System.setOut(originalOut);
+      System.setErr(originalErr);
+      System.setProperties(originalProperties);
+      classLoader.close();
+      try {
+        // Drops any handlers and levels that the tests configured.
+        LogManager.getLogManager().readConfiguration();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Deletes whatever earlier runs, or an earlier worker that was given the same directory, left in
+   * the temporary directory.
+   */
+  private void emptyTmpDirectory() throws IOException {
+    Files.createDirectories(tmpDirectory);
+    Files.walkFileTree(
+        tmpDirectory,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            Files.delete(file);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+            if (e != null) {
+              throw e;
+            }
+            if (!dir.equals(tmpDirectory)) {
+              Files.delete(dir);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private boolean shouldRetire() {
+    runs++;
+    if (runs >= maxRuns) {
+      return true;
+    }
+    long heapBytes = getHeapBytesAfterLastCollection();
+    if (initialHeapBytes < 0) {
+      initialHeapBytes = heapBytes;
+      return false;
+    }
+    return heapBytes - initialHeapBytes > maxHeapGrowthBytes;
+  }
+
+  /**
+   * Sums what the last collection of each heap pool left behind, which, unlike the current usage,
+   * doesn't count garbage and doesn't need a collection to be forced.
+   */
+  private static long getHeapBytesAfterLastCollection() {
+    long bytes = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() != MemoryType.HEAP) {
+        continue;
+      }
+      MemoryUsage usage = pool.getCollectionUsage();
+      if (usage != null) {
+        bytes += usage.getUsed();
+      }
+    }
+    return bytes;
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, ENCODING);
+  }
+
+  private static String[] readStrings(DataInputStream in) throws IOException {
+    String[] strings = new String[in.readInt()];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = readString(in);
+    }
+    return strings;
+  }
+
+  private static void writeString(DataOutputStream out, String string) throws IOException {
+    byte[] bytes = string.getBytes(ENCODING);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+}
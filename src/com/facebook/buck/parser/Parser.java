@@ -29,6 +29,7 @@ import com.facebook.buck.graph.MutableDirectedGraph;
 import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.json.BuildFileParseException;
+import com.facebook.buck.json.CachingGlobber;
 import com.facebook.buck.json.JsonObjectHashing;
 import com.facebook.buck.json.ProjectBuildFileParser;
 import com.facebook.buck.log.Logger;
@@ -52,6 +53,7 @@ import com.facebook.buck.rules.Description;
 import com.facebook.buck.rules.Repository;
 import com.facebook.buck.rules.TargetGraph;
 import com.facebook.buck.rules.TargetNode;
+import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.environment.EnvironmentFilter;
@@ -67,6 +69,7 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -75,6 +78,7 @@ import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.hash.HashCode;
@@ -110,6 +114,33 @@ public class Parser {
   private final Repository repository;
   private final boolean useWatchmanGlob;
 
+  /**
+   * Evaluates globs for buck.py if the glob handler is {@link ParserConfig.GlobHandler#DAEMON}.
+   * Like the cached rules, it is kept up to date by {@link #onFileSystemChange}.
+   */
+  private final Optional<CachingGlobber> globber;
+
+  /**
+   * Keeps the raw rules of build files across daemon restarts.  Only used with the globber, since
+   * the cache needs to know which globs each build file evaluated.
+   */
+  private final Optional<PersistentRawRuleCache> rawRuleCache;
+
+  /**
+   * Hash of the buck.py that build files are executed with, which the entries of the
+   * {@link #rawRuleCache} are keyed on, computed the first time it is needed.
+   */
+  @Nullable
+  private HashCode buckPyHash;
+
+  /**
+   * Owners and reverse dependencies of the target nodes in {@link #state}, kept in sync with it.
+   */
+  private final TargetNodeInputIndex inputIndex;
+
+  private static final Path RAW_RULE_CACHE_PATH =
+      BuckConstant.BUCK_OUTPUT_PATH.resolve("parse_cache");
+
   /**
    * Key of the meta-rule that lists the build files executed while reading rules.
    * The value is a list of strings with the root build file as the head and included
@@ -213,7 +244,19 @@ public class Parser {
       throws IOException, InterruptedException {
     this.repository = repository;
     this.useWatchmanGlob = useWatchmanGlob;
+    this.globber =
+        new ParserConfig(repository.getBuckConfig()).getGlobHandler() ==
+            ParserConfig.GlobHandler.DAEMON ?
+            Optional.of(new CachingGlobber(repository.getFilesystem().getRootPath())) :
+            Optional.<CachingGlobber>absent();
+    this.rawRuleCache = globber.isPresent() ?
+        Optional.of(
+            new PersistentRawRuleCache(
+                repository.getFilesystem().resolve(RAW_RULE_CACHE_PATH),
+                globber.get())) :
+        Optional.<PersistentRawRuleCache>absent();
     this.buildFileTreeCache = new BuildFileTreeCache(buildFileTreeSupplier);
+    this.inputIndex = new TargetNodeInputIndex(repository.getBuildFileName());
     this.state = new CachedState(repository.getBuildFileName());
   }
 
@@ -388,7 +431,7 @@ public class Parser {
       ImmutableMap<String, String> environment,
       BuckEventBus eventBus) {
     return repository
-        .createBuildFileParserFactory(useWatchmanGlob)
+        .createBuildFileParserFactory(useWatchmanGlob, globber)
         .createParser(console, environment, eventBus);
   }
 
@@ -442,11 +485,24 @@ public class Parser {
           environment,
           eventBus);
       buildFileParser.setEnableProfiling(enableProfiling);
-      parseRawRulesInternal(buildFileParser.getAllRulesAndMetaRules(buildFilePath));
+      parseRawRulesInternal(
+          getAllRulesAndMetaRules(
+              buildFilePath,
+              new ParserConfig(repository.getBuckConfig()),
+              buildFileParser,
+              environment));
     }
     return Preconditions.checkNotNull(getTargetNode(buildTarget));
   }
 
+  /**
+   * @return an index of the owners and reverse dependencies of the target nodes loaded so far,
+   *     which is kept up to date as build files change.
+   */
+  public TargetNodeInputIndex getTargetNodeInputIndex() {
+    return inputIndex;
+  }
+
   @Nullable
   public synchronized TargetNode<?> getTargetNode(BuildTarget buildTarget)
       throws IOException, InterruptedException {
@@ -640,13 +696,75 @@ public class Parser {
 
     if (!isCached(buildFile, parserConfig.getDefaultIncludes(), environment)) {
       LOG.debug("Parsing %s file: %s", repository.getBuildFileName(), buildFile);
-      parseRawRulesInternal(buildFileParser.getAllRulesAndMetaRules(buildFile));
+      parseRawRulesInternal(
+          getAllRulesAndMetaRules(buildFile, parserConfig, buildFileParser, environment));
     } else {
       LOG.debug("Not parsing %s file (already in cache)", repository.getBuildFileName());
     }
     return state.getRawRules(buildFile);
   }
 
+  private synchronized Optional<HashCode> getBuckPyHash() {
+    if (buckPyHash == null) {
+      try {
+        buckPyHash = ProjectBuildFileParser.hashBuckPy(repository.getAllDescriptions());
+      } catch (IOException | IllegalArgumentException e) {
+        LOG.warn(e, "Could not hash buck.py; not using the parse cache.");
+        return Optional.absent();
+      }
+    }
+    return Optional.of(buckPyHash);
+  }
+
+  /**
+   * @return the raw rules and meta rules of {@code buildFile}, from the {@link #rawRuleCache} if
+   *     they are up to date there, or by executing it with {@code buildFileParser}.
+   */
+  private List<Map<String, Object>> getAllRulesAndMetaRules(
+      Path buildFile,
+      ParserConfig parserConfig,
+      ProjectBuildFileParser buildFileParser,
+      ImmutableMap<String, String> environment)
+      throws BuildFileParseException, InterruptedException {
+    if (!rawRuleCache.isPresent()) {
+      return buildFileParser.getAllRulesAndMetaRules(buildFile);
+    }
+    Optional<HashCode> buckPyHash = getBuckPyHash();
+    if (!buckPyHash.isPresent()) {
+      return buildFileParser.getAllRulesAndMetaRules(buildFile);
+    }
+
+    HashCode configKey = PersistentRawRuleCache.computeConfigKey(
+        buckPyHash.get(),
+        repository.getBuildFileName(),
+        parserConfig.getDefaultIncludes(),
+        parserConfig.getAllowEmptyGlobs(),
+        FluentIterable.from(repository.getAllDescriptions())
+            .transform(
+                new Function<Description<?>, String>() {
+                  @Override
+                  public String apply(Description<?> description) {
+                    return description.getBuildRuleType().getName();
+                  }
+                })
+            .toSortedSet(Ordering.natural()),
+        environment);
+    Optional<List<Map<String, Object>>> cachedRules =
+        rawRuleCache.get().lookup(buildFile, configKey);
+    if (cachedRules.isPresent()) {
+      LOG.debug("Read rules of %s from the parse cache", buildFile);
+      return cachedRules.get();
+    }
+
+    List<Map<String, Object>> rules = buildFileParser.getAllRulesAndMetaRules(buildFile);
+    Optional<ImmutableList<Map<String, Object>>> globs =
+        buildFileParser.getDaemonGlobsForLastBuildFile();
+    if (globs.isPresent()) {
+      rawRuleCache.get().store(buildFile, configKey, rules, globs.get());
+    }
+    return rules;
+  }
+
   /**
    * @param rules the raw rule objects to parse.
    */
@@ -764,6 +882,10 @@ public class Parser {
 
       if (isPathCreateOrDeleteEvent(event)) {
 
+        if (globber.isPresent()) {
+          globber.get().invalidate(path);
+        }
+
         if (path.endsWith(new ParserConfig(repository.getBuckConfig()).getBuildFileName())) {
 
           // If a build file has been added or removed, reconstruct the build file tree.
@@ -787,6 +909,9 @@ public class Parser {
       LOG.debug("Parser invalidating entire cache on overflow.");
       buildFileTreeCache.invalidateIfStale();
       invalidateCache();
+      if (globber.isPresent()) {
+        globber.get().invalidateAll();
+      }
     }
   }
 
@@ -1005,6 +1130,7 @@ public class Parser {
       symlinkExistenceCache.clear();
       buildInputPathsUnderSymlink.clear();
       memoizedTargetNodes.invalidateAll();
+      inputIndex.clear();
       targetsToFile.clear();
       pathsToBuildTargets.clear();
       buildTargetHashCodeCache.invalidateAll();
@@ -1128,6 +1254,7 @@ public class Parser {
       LOG.debug("Removing targets %s for path %s", targetsToRemove, path);
       for (BuildTarget target : targetsToRemove) {
         memoizedTargetNodes.invalidate(target);
+        inputIndex.remove(target);
       }
       buildTargetHashCodeCache.invalidateAll(targetsToRemove);
       pathsToBuildTargets.removeAll(path);
@@ -1304,6 +1431,7 @@ public class Parser {
           }
           memoizedTargetNodes.put(buildTarget, targetNode);
         }
+        inputIndex.add(targetNode);
 
         // PMD considers it bad form to return while in a loop.
       }
@@ -38,6 +38,11 @@ public class ParserConfig {
   public enum GlobHandler {
     PYTHON,
     WATCHMAN,
+    /**
+     * Globs are evaluated by buck itself, against an index of the project tree that a buck daemon
+     * keeps up to date between commands.
+     */
+    DAEMON,
     ;
   }
 
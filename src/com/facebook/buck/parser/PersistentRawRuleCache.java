@@ -0,0 +1,325 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.facebook.buck.bser.BserDeserializer;
+import com.facebook.buck.bser.BserSerializer;
+import com.facebook.buck.json.CachingGlobber;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuckVersion;
+import com.facebook.buck.util.environment.EnvironmentFilter;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An on-disk cache of the raw rules produced by executing each build file, so that a fresh buck
+ * daemon (after a {@code buck kill}, an upgrade, or on a new CI machine with a restored
+ * {@code buck-out}) doesn't have to run {@code buck.py} over every build file again.
+ * <p>
+ * Each entry is BSER-encoded and records everything the rules were derived from: the contents of
+ * the build file and every file it includes, the results of every {@code glob()} it called, and a
+ * key for buck itself, configuration and environment.  An entry is only used if all of these
+ * are unchanged.  Globs are re-evaluated through the {@link CachingGlobber}, which is why only
+ * build files whose globs were all evaluated by it can be cached.
+ * <p>
+ * Buck is identified by the contents of the buck.py it executes build files with and of the
+ * classes it was loaded from, rather than by {@code buck.version_uid} alone, as that is the same
+ * for every development build.
+ */
+class PersistentRawRuleCache {
+
+  private static final Logger LOG = Logger.get(PersistentRawRuleCache.class);
+
+  /** Bump this whenever the layout of an entry changes. */
+  private static final int FORMAT_VERSION = 1;
+
+  private static final String INCLUDES_META_RULE = "__includes";
+
+  private static final String VERSION_KEY = "version";
+  private static final String CONFIG_KEY = "config";
+  private static final String INPUTS_KEY = "inputs";
+  private static final String GLOBS_KEY = "globs";
+  private static final String RULES_KEY = "rules";
+
+  /**
+   * A hash of the classes buck was loaded from: the contents of its jar, or, when it runs from a
+   * directory of classes as in development, the path, size and modification time of each file.
+   */
+  private static final Supplier<HashCode> BUCK_CLASSES_HASH = Suppliers.memoize(
+      new Supplier<HashCode>() {
+        @Override
+        public HashCode get() {
+          Hasher hasher = Hashing.sha1().newHasher();
+          try {
+            URL location =
+                PersistentRawRuleCache.class.getProtectionDomain().getCodeSource().getLocation();
+            hashClasses(hasher, Paths.get(location.toURI()));
+          } catch (IOException | URISyntaxException | RuntimeException e) {
+            LOG.warn(e, "Could not hash the classes of buck; only its version identifies it.");
+          }
+          return hasher.hash();
+        }
+      });
+
+  private final Path cacheDirectory;
+  private final CachingGlobber globber;
+  private final BserDeserializer deserializer;
+
+  /**
+   * @param cacheDirectory absolute path of the directory holding the entries.
+   */
+  PersistentRawRuleCache(Path cacheDirectory, CachingGlobber globber) {
+    this.cacheDirectory = cacheDirectory;
+    this.globber = globber;
+    this.deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.SORTED);
+  }
+
+  private static void hashClasses(final Hasher hasher, final Path location) throws IOException {
+    if (!Files.isDirectory(location)) {
+      try (InputStream input = Files.newInputStream(location)) {
+        ByteStreams.copy(input, Funnels.asOutputStream(hasher));
+      }
+      return;
+    }
+    final SortedMap<String, String> files = new TreeMap<>();
+    Files.walkFileTree(
+        location,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            files.put(
+                location.relativize(file).toString(),
+                attrs.size() + " " + attrs.lastModifiedTime().toMillis());
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      hasher.putString(file.getKey(), UTF_8).putByte((byte) 0);
+      hasher.putString(file.getValue(), UTF_8).putByte((byte) 0);
+    }
+  }
+
+  /**
+   * @param buckPyHash hash of the buck.py that build files are executed with, as returned by
+   *     {@link com.facebook.buck.json.ProjectBuildFileParser#hashBuckPy}.
+   * @return a key for everything, other than the inputs recorded in each entry, that can change
+   *     the rules produced by a build file.
+   */
+  static HashCode computeConfigKey(
+      HashCode buckPyHash,
+      String buildFileName,
+      Iterable<String> defaultIncludes,
+      boolean allowEmptyGlobs,
+      Iterable<String> buildRuleTypes,
+      ImmutableMap<String, String> environment) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putInt(FORMAT_VERSION);
+    hasher.putString(BuckVersion.getVersion(), UTF_8);
+    hasher.putBytes(buckPyHash.asBytes());
+    hasher.putBytes(BUCK_CLASSES_HASH.get().asBytes());
+    hasher.putString(buildFileName, UTF_8);
+    hasher.putBoolean(allowEmptyGlobs);
+    for (String include : defaultIncludes) {
+      hasher.putString(include, UTF_8).putByte((byte) 0);
+    }
+    hasher.putByte((byte) 0);
+    for (String type : buildRuleTypes) {
+      hasher.putString(type, UTF_8).putByte((byte) 0);
+    }
+    hasher.putByte((byte) 0);
+    Map<String, String> relevantEnvironment = ImmutableSortedMap.copyOf(
+        Maps.filterKeys(environment, EnvironmentFilter.NOT_IGNORED_ENV_PREDICATE));
+    for (Map.Entry<String, String> entry : relevantEnvironment.entrySet()) {
+      hasher.putString(entry.getKey(), UTF_8).putByte((byte) 0);
+      hasher.putString(entry.getValue(), UTF_8).putByte((byte) 0);
+    }
+    return hasher.hash();
+  }
+
+  private Path getEntryPath(Path buildFile) {
+    return cacheDirectory.resolve(
+        Hashing.sha1().hashString(buildFile.toAbsolutePath().toString(), UTF_8).toString());
+  }
+
+  /**
+   * @param buildFile absolute path of the build file.
+   * @return the raw rules and meta rules of {@code buildFile}, or absent if there is no entry for
+   *     it or any of the inputs recorded in the entry have changed.
+   */
+  @SuppressWarnings("unchecked")
+  Optional<List<Map<String, Object>>> lookup(Path buildFile, HashCode configKey) {
+    Path entryPath = getEntryPath(buildFile);
+    Object value;
+    try (InputStream input = new BufferedInputStream(Files.newInputStream(entryPath))) {
+      value = deserializer.deserializeBserValue(input);
+    } catch (NoSuchFileException e) {
+      return Optional.absent();
+    } catch (IOException e) {
+      LOG.debug(e, "Ignoring unreadable parse cache entry %s", entryPath);
+      return Optional.absent();
+    }
+
+    try {
+      if (!(value instanceof Map<?, ?>)) {
+        LOG.debug("Ignoring malformed parse cache entry %s", entryPath);
+        return Optional.absent();
+      }
+      Map<String, Object> entry = (Map<String, Object>) value;
+      if (!Optional.of((long) FORMAT_VERSION).equals(toLong(entry.get(VERSION_KEY))) ||
+          !configKey.toString().equals(entry.get(CONFIG_KEY)) ||
+          !(entry.get(INPUTS_KEY) instanceof Map<?, ?>) ||
+          !(entry.get(GLOBS_KEY) instanceof List<?>) ||
+          !(entry.get(RULES_KEY) instanceof List<?>)) {
+        LOG.verbose("Parse cache entry for %s has a different configuration", buildFile);
+        return Optional.absent();
+      }
+
+      Map<String, Object> inputs = (Map<String, Object>) entry.get(INPUTS_KEY);
+      for (Map.Entry<String, Object> input : inputs.entrySet()) {
+        Optional<String> hash = hashFile(Paths.get(input.getKey()));
+        if (!hash.isPresent() || !hash.get().equals(input.getValue())) {
+          LOG.verbose("Parse cache entry for %s is stale: %s changed", buildFile, input.getKey());
+          return Optional.absent();
+        }
+      }
+
+      for (Map<String, Object> glob : (List<Map<String, Object>>) entry.get(GLOBS_KEY)) {
+        List<String> files = globber.glob(
+            Paths.get((String) glob.get("base_path")),
+            (List<String>) glob.get("includes"),
+            (List<String>) glob.get("excludes"),
+            Boolean.TRUE.equals(glob.get("include_dotfiles")));
+        if (!files.equals(glob.get("files"))) {
+          LOG.verbose("Parse cache entry for %s is stale: glob %s changed", buildFile, glob);
+          return Optional.absent();
+        }
+      }
+
+      return Optional.of((List<Map<String, Object>>) entry.get(RULES_KEY));
+    } catch (IOException | ClassCastException e) {
+      LOG.debug(e, "Ignoring malformed parse cache entry %s", entryPath);
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * Records the rules produced by executing {@code buildFile}.  Failures are logged rather than
+   * thrown, since the cache is only an optimization.
+   *
+   * @param rules the raw rules and meta rules produced by {@code buck.py}.
+   * @param globs the globs evaluated by the {@link CachingGlobber} while executing the build file,
+   *     as returned by
+   *     {@link com.facebook.buck.json.ProjectBuildFileParser#getDaemonGlobsForLastBuildFile()}.
+   */
+  @SuppressWarnings("unchecked")
+  void store(
+      Path buildFile,
+      HashCode configKey,
+      List<Map<String, Object>> rules,
+      List<Map<String, Object>> globs) {
+    Path entryPath = getEntryPath(buildFile);
+    try {
+      ImmutableSortedMap.Builder<String, Object> inputs = ImmutableSortedMap.naturalOrder();
+      for (Map<String, Object> rule : rules) {
+        if (rule.containsKey(INCLUDES_META_RULE)) {
+          for (String input : (List<String>) rule.get(INCLUDES_META_RULE)) {
+            Optional<String> hash = hashFile(Paths.get(input));
+            if (!hash.isPresent()) {
+              // The file went away while we were parsing, so the rules are already stale.
+              return;
+            }
+            inputs.put(input, hash.get());
+          }
+        }
+      }
+
+      Map<String, Object> entry = ImmutableMap.<String, Object>of(
+          VERSION_KEY, FORMAT_VERSION,
+          CONFIG_KEY, configKey.toString(),
+          INPUTS_KEY, inputs.build(),
+          GLOBS_KEY, ImmutableList.copyOf(globs),
+          RULES_KEY, rules);
+
+      Files.createDirectories(cacheDirectory);
+      Path tempPath = Files.createTempFile(
+          cacheDirectory,
+          entryPath.getFileName().toString(),
+          ".tmp");
+      try {
+        try (OutputStream output =
+                 new BufferedOutputStream(Files.newOutputStream(tempPath))) {
+          new BserSerializer().serializeToStream(entry, output);
+        }
+        Files.move(
+            tempPath,
+            entryPath,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tempPath);
+      }
+    } catch (IOException | ClassCastException e) {
+      LOG.warn(e, "Failed to write parse cache entry for %s", buildFile);
+    }
+  }
+
+  private static Optional<String> hashFile(Path path) throws IOException {
+    try {
+      return Optional.of(Hashing.sha1().hashBytes(Files.readAllBytes(path)).toString());
+    } catch (NoSuchFileException e) {
+      return Optional.absent();
+    }
+  }
+
+  private static Optional<Long> toLong(Object value) {
+    return value instanceof Number ?
+        Optional.of(((Number) value).longValue()) :
+        Optional.<Long>absent();
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.rules.TargetNode;
+import com.facebook.buck.rules.TargetNodes;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of the {@link TargetNode}s loaded by the {@link Parser}, from each input path to the
+ * targets that own it, and from each target to the targets that depend on it.
+ * <p>
+ * The parser keeps the index up to date as target nodes are created and invalidated, so a buck
+ * daemon can answer "which targets own, or are affected by, these files" without scanning every
+ * node.  Only loaded nodes are indexed: callers must load the build files whose targets they want
+ * to be considered first.
+ */
+public class TargetNodeInputIndex {
+
+  private final String buildFileName;
+
+  /** Input paths, relative to the project root, to the targets that own them. */
+  private final SetMultimap<Path, BuildTarget> owners;
+
+  /** Each indexed target to its inputs, so it can be removed again. */
+  private final Map<BuildTarget, ImmutableSet<Path>> inputs;
+
+  /** Build files, relative to the project root, to the targets defined in them. */
+  private final SetMultimap<Path, BuildTarget> definedTargets;
+
+  /** Each indexed target to its dependencies, so it can be removed again. */
+  private final Map<BuildTarget, ImmutableSet<BuildTarget>> deps;
+
+  private final SetMultimap<BuildTarget, BuildTarget> reverseDeps;
+
+  /** Targets to the tests declared in their {@code tests} argument. */
+  private final SetMultimap<BuildTarget, BuildTarget> tests;
+
+  public TargetNodeInputIndex(String buildFileName) {
+    this.buildFileName = buildFileName;
+    this.owners = HashMultimap.create();
+    this.inputs = Maps.newHashMap();
+    this.definedTargets = HashMultimap.create();
+    this.deps = Maps.newHashMap();
+    this.reverseDeps = HashMultimap.create();
+    this.tests = HashMultimap.create();
+  }
+
+  public synchronized void add(TargetNode<?> node) {
+    BuildTarget target = node.getBuildTarget();
+    remove(target);
+
+    ImmutableSet<Path> nodeInputs = node.getInputs();
+    for (Path input : nodeInputs) {
+      owners.put(input, target);
+    }
+    inputs.put(target, nodeInputs);
+    definedTargets.put(getBuildFile(target), target);
+
+    ImmutableSet<BuildTarget> nodeDeps = node.getDeps();
+    for (BuildTarget dep : nodeDeps) {
+      reverseDeps.put(dep, target);
+    }
+    deps.put(target, nodeDeps);
+
+    tests.putAll(target, TargetNodes.getTestTargetsForNode(node));
+  }
+
+  public synchronized void remove(BuildTarget target) {
+    ImmutableSet<Path> targetInputs = inputs.remove(target);
+    if (targetInputs != null) {
+      for (Path input : targetInputs) {
+        owners.remove(input, target);
+      }
+      definedTargets.remove(getBuildFile(target), target);
+    }
+    ImmutableSet<BuildTarget> targetDeps = deps.remove(target);
+    if (targetDeps != null) {
+      for (BuildTarget dep : targetDeps) {
+        reverseDeps.remove(dep, target);
+      }
+    }
+    tests.removeAll(target);
+  }
+
+  public synchronized void clear() {
+    owners.clear();
+    inputs.clear();
+    definedTargets.clear();
+    deps.clear();
+    reverseDeps.clear();
+    tests.clear();
+  }
+
+  private Path getBuildFile(BuildTarget target) {
+    return target.getBasePath().resolve(buildFileName);
+  }
+
+  /**
+   * @param path relative to the project root.
+   * @return the loaded targets that have {@code path}, or a directory containing it, as an input.
+   */
+  public synchronized ImmutableSortedSet<BuildTarget> getOwners(Path path) {
+    ImmutableSortedSet.Builder<BuildTarget> result = ImmutableSortedSet.naturalOrder();
+    for (Path current = path; current != null; current = current.getParent()) {
+      result.addAll(owners.get(current));
+    }
+    return result.build();
+  }
+
+  /**
+   * @param buildFile relative to the project root.
+   * @return the loaded targets defined in {@code buildFile}.
+   */
+  public synchronized ImmutableSortedSet<BuildTarget> getTargetsDefinedIn(Path buildFile) {
+    return ImmutableSortedSet.copyOf(definedTargets.get(buildFile));
+  }
+
+  /**
+   * @return {@code targets} and every loaded target that transitively depends on any of them.  If
+   *     {@code includeTests} is set, the tests of every such target are included too, along with
+   *     everything that depends on those tests.
+   */
+  public synchronized ImmutableSortedSet<BuildTarget> getReverseTransitiveClosure(
+      Iterable<BuildTarget> targets,
+      boolean includeTests) {
+    Set<BuildTarget> visited = Sets.newHashSet();
+    Deque<BuildTarget> toVisit = new ArrayDeque<>();
+    for (BuildTarget target : targets) {
+      if (visited.add(target)) {
+        toVisit.add(target);
+      }
+    }
+    while (!toVisit.isEmpty()) {
+      BuildTarget target = toVisit.remove();
+      Iterable<BuildTarget> next = includeTests ?
+          Sets.union(reverseDeps.get(target), tests.get(target)) :
+          reverseDeps.get(target);
+      for (BuildTarget dependent : next) {
+        if (visited.add(dependent)) {
+          toVisit.add(dependent);
+        }
+      }
+    }
+    return ImmutableSortedSet.copyOf(visited);
+  }
+}
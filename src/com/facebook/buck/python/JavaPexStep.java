@@ -0,0 +1,348 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.python;
+
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
+
+import com.facebook.buck.io.MoreFiles;
+import com.facebook.buck.io.MorePaths;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.timing.DefaultClock;
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.facebook.buck.zip.PrecompressedEntry;
+import com.facebook.buck.zip.PrecompressedZipFile;
+import com.facebook.buck.zip.PrecompressedZipOutputStream;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+/**
+ * Packages a PEX in-process, writing the same layout as {@code pex.py}'s {@code PEXBuilder}:
+ * modules and resources, an {@code __init__.py} declaring a namespace package for each package
+ * without one, {@code PEX-INFO}, the {@code .bootstrap} libraries and {@code __main__.py}, zipped
+ * after a shebang line.
+ * <p>
+ * Entries are compressed in parallel and written in sorted order with fixed modification times,
+ * so the same inputs always produce the same PEX. The SHA-1 of each entry's contents is kept as its
+ * comment in the zip's central directory, so that entries whose contents haven't changed since the
+ * previous PEX was written are copied from it without being compressed again.
+ * <p>
+ * Unlike {@code pex.py}, no {@code .pyc} files are added, as they can only be compiled by the
+ * interpreter that runs the PEX, which compiles the modules as it imports them instead.
+ */
+public class JavaPexStep implements Step {
+
+  private static final Logger LOG = Logger.get(JavaPexStep.class);
+
+  private static final Pattern PYTHON_VERSION_PATTERN = Pattern.compile("Python (\\d+)\\.(\\d+)");
+
+  private static final String NAMESPACE_PACKAGE_INIT =
+      "__import__('pkg_resources').declare_namespace(__name__)";
+
+  /** The same as {@code BOOTSTRAP_ENVIRONMENT} in {@code pex_builder.py}. */
+  private static final String BOOTSTRAP_ENVIRONMENT = Joiner.on('\n').join(
+      "",
+      "import os",
+      "import sys",
+      "",
+      "__entry_point__ = None",
+      "if '__file__' in locals() and __file__ is not None:",
+      "  __entry_point__ = os.path.dirname(__file__)",
+      "elif '__loader__' in locals():",
+      "  from zipimport import zipimporter",
+      "  from pkgutil import ImpLoader",
+      "  if hasattr(__loader__, 'archive'):",
+      "    __entry_point__ = __loader__.archive",
+      "  elif isinstance(__loader__, ImpLoader):",
+      "    __entry_point__ = os.path.dirname(__loader__.get_filename())",
+      "",
+      "if __entry_point__ is None:",
+      "  sys.stderr.write('Could not launch python executable!\\n')",
+      "  sys.exit(2)",
+      "",
+      "sys.path[0] = os.path.abspath(sys.path[0])",
+      "sys.path.insert(0, os.path.abspath(os.path.join(__entry_point__, '.bootstrap')))",
+      "",
+      "from _twitter_common_python.pex_bootstrapper import bootstrap_pex",
+      "bootstrap_pex(__entry_point__)",
+      "");
+
+  private final ProjectFilesystem filesystem;
+  private final Path tempDir;
+  private final Path destination;
+  private final String hashbang;
+  private final String entry;
+  private final ImmutableMap<Path, Path> modules;
+  private final ImmutableMap<Path, Path> resources;
+  private final ImmutableSortedMap<String, Path> bootstrapSources;
+  private final boolean zipSafe;
+
+  /**
+   * @param hashbang the first line of the PEX, from {@link #getHashbang(PythonVersion)}.
+   * @param bootstrapSources the libraries that {@code __main__.py} bootstraps the PEX with, by
+   *     their paths in the PEX.
+   */
+  public JavaPexStep(
+      ProjectFilesystem filesystem,
+      Path tempDir,
+      Path destination,
+      String hashbang,
+      String entry,
+      ImmutableMap<Path, Path> modules,
+      ImmutableMap<Path, Path> resources,
+      ImmutableSortedMap<String, Path> bootstrapSources,
+      boolean zipSafe) {
+    this.filesystem = filesystem;
+    this.tempDir = tempDir;
+    this.destination = destination;
+    this.hashbang = hashbang;
+    this.entry = entry;
+    this.modules = modules;
+    this.resources = resources;
+    this.bootstrapSources = bootstrapSources;
+    this.zipSafe = zipSafe;
+  }
+
+  /**
+   * @return the line that {@code pex.py} starts a PEX for {@code pythonVersion} with, or absent if
+   *     the version isn't one of CPython's.
+   */
+  public static Optional<String> getHashbang(PythonVersion pythonVersion) {
+    Matcher matcher = PYTHON_VERSION_PATTERN.matcher(pythonVersion.getVersionString());
+    if (!matcher.matches()) {
+      return Optional.absent();
+    }
+    return Optional.of(
+        String.format("#!/usr/bin/env python%s.%s", matcher.group(1), matcher.group(2)));
+  }
+
+  @Override
+  public int execute(ExecutionContext context) throws IOException, InterruptedException {
+    ListeningExecutorService executorService =
+        listeningDecorator(
+            MoreExecutors.newMultiThreadExecutor(
+                getClass().getSimpleName(),
+                context.getConcurrencyLimit().threadLimit));
+    try {
+      writePex(executorService, context.getObjectMapper());
+    } finally {
+      executorService.shutdownNow();
+    }
+    return 0;
+  }
+
+  @VisibleForTesting
+  void writePex(ListeningExecutorService executorService, ObjectMapper objectMapper)
+      throws IOException, InterruptedException {
+    // The contents of the PEX that come from files, and those that are generated, by name.
+    SortedMap<String, Path> files = new TreeMap<>();
+    SortedMap<String, byte[]> generated = new TreeMap<>();
+
+    for (Map.Entry<Path, Path> module :
+         PexStep.getExpandedSourcePaths(filesystem, tempDir, modules).entrySet()) {
+      files.put(
+          MorePaths.pathWithUnixSeparators(module.getKey()),
+          filesystem.resolve(module.getValue()));
+    }
+    for (String name : ImmutableList.copyOf(files.keySet())) {
+      List<String> components = ImmutableList.copyOf(name.split("/"));
+      for (int i = 1; i < components.size(); i++) {
+        String init = Joiner.on('/').join(components.subList(0, i)) + "/__init__.py";
+        if (!files.containsKey(init)) {
+          generated.put(init, NAMESPACE_PACKAGE_INIT.getBytes(Charsets.UTF_8));
+        }
+      }
+    }
+    for (Map.Entry<Path, Path> resource : resources.entrySet()) {
+      files.put(
+          MorePaths.pathWithUnixSeparators(resource.getKey()),
+          filesystem.resolve(resource.getValue()));
+    }
+
+    Path previousPex = filesystem.resolve(destination);
+    Optional<PrecompressedZipFile> previous = Optional.absent();
+    if (Files.isRegularFile(previousPex)) {
+      try {
+        previous = Optional.of(new PrecompressedZipFile(previousPex));
+      } catch (IOException e) {
+        LOG.debug(e, "Not reusing entries of %s.", previousPex);
+      }
+    }
+
+    SortedMap<String, PrecompressedEntry> entries;
+    try {
+      entries = compressEntries(executorService, files, generated, previous);
+    } finally {
+      if (previous.isPresent()) {
+        previous.get().close();
+      }
+    }
+
+    // As in pex.py, the code hash covers the names and contents of everything but the bootstrap.
+    Hasher codeHash = Hashing.sha1().newHasher();
+    codeHash.putString(Joiner.on("").join(entries.keySet()), Charsets.UTF_8);
+    for (PrecompressedEntry entry : entries.values()) {
+      codeHash.putString(entry.getComment(), Charsets.UTF_8);
+    }
+
+    ImmutableSortedMap.Builder<String, Object> pexInfo = ImmutableSortedMap.naturalOrder();
+    pexInfo.put("always_write_cache", false);
+    pexInfo.put("code_hash", codeHash.hash().toString());
+    pexInfo.put("distributions", ImmutableMap.of());
+    pexInfo.put("entry_point", entry);
+    pexInfo.put("requirements", ImmutableList.of());
+    pexInfo.put("zip_safe", zipSafe);
+    SortedMap<String, byte[]> trailer = new TreeMap<>();
+    trailer.put(
+        "PEX-INFO",
+        objectMapper.writeValueAsBytes(pexInfo.build()));
+    trailer.put("__main__.py", BOOTSTRAP_ENVIRONMENT.getBytes(Charsets.UTF_8));
+    SortedMap<String, PrecompressedEntry> trailerEntries = compressEntries(
+        executorService,
+        bootstrapSources,
+        trailer,
+        Optional.<PrecompressedZipFile>absent());
+
+    // Write next to the destination and move the PEX into place, as pex.py does.
+    Path temp = previousPex.resolveSibling(previousPex.getFileName() + "~");
+    byte[] header = (hashbang + "\n").getBytes(Charsets.UTF_8);
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+      out.write(header);
+      try (PrecompressedZipOutputStream zip =
+               new PrecompressedZipOutputStream(new DefaultClock(), out, header.length)) {
+        for (PrecompressedEntry entry : entries.values()) {
+          zip.putEntry(entry);
+        }
+        for (PrecompressedEntry entry : trailerEntries.values()) {
+          zip.putEntry(entry);
+        }
+      }
+    }
+    Files.move(temp, previousPex, StandardCopyOption.REPLACE_EXISTING);
+    MoreFiles.makeExecutable(previousPex);
+  }
+
+  /**
+   * Compresses {@code files} and {@code generated} on {@code executorService}, reusing the entries
+   * of {@code previous} whose contents haven't changed.
+   *
+   * @return the compressed entries, by name, each with the SHA-1 of its contents as its comment.
+   */
+  private static SortedMap<String, PrecompressedEntry> compressEntries(
+      ListeningExecutorService executorService,
+      SortedMap<String, Path> files,
+      SortedMap<String, byte[]> generated,
+      final Optional<PrecompressedZipFile> previous) throws IOException, InterruptedException {
+    SortedMap<String, ListenableFuture<PrecompressedEntry>> futures = new TreeMap<>();
+    for (final Map.Entry<String, Path> file : files.entrySet()) {
+      futures.put(
+          file.getKey(),
+          executorService.submit(
+              new Callable<PrecompressedEntry>() {
+                @Override
+                public PrecompressedEntry call() throws IOException {
+                  return compressEntry(
+                      file.getKey(),
+                      Files.readAllBytes(file.getValue()),
+                      previous);
+                }
+              }));
+    }
+    for (final Map.Entry<String, byte[]> contents : generated.entrySet()) {
+      futures.put(
+          contents.getKey(),
+          executorService.submit(
+              new Callable<PrecompressedEntry>() {
+                @Override
+                public PrecompressedEntry call() throws IOException {
+                  return compressEntry(contents.getKey(), contents.getValue(), previous);
+                }
+              }));
+    }
+
+    try {
+      Futures.allAsList(futures.values()).get();
+      SortedMap<String, PrecompressedEntry> entries = new TreeMap<>();
+      for (Map.Entry<String, ListenableFuture<PrecompressedEntry>> future : futures.entrySet()) {
+        entries.put(future.getKey(), future.getValue().get());
+      }
+      return entries;
+    } catch (ExecutionException e) {
+      for (ListenableFuture<PrecompressedEntry> future : futures.values()) {
+        future.cancel(true);
+      }
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private static PrecompressedEntry compressEntry(
+      String name,
+      byte[] contents,
+      Optional<PrecompressedZipFile> previous) throws IOException {
+    String hash = Hashing.sha1().hashBytes(contents).toString();
+    if (previous.isPresent() && previous.get().getComment(name).equals(Optional.of(hash))) {
+      Optional<PrecompressedEntry> entry = previous.get().getEntry(name);
+      if (entry.isPresent()) {
+        return entry.get();
+      }
+    }
+    return PrecompressedEntry.compress(name, contents, Deflater.DEFAULT_COMPRESSION, hash);
+  }
+
+  @Override
+  public String getShortName() {
+    return "pex";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format("pex %s %s", entry, destination);
+  }
+}
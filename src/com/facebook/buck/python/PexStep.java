@@ -104,7 +104,7 @@ public class PexStep extends ShellStep {
     // Convert the map of paths to a map of strings before converting to JSON.
     ImmutableMap<Path, Path> resolvedModules;
     try {
-      resolvedModules = getExpandedSourcePaths(modules);
+      resolvedModules = getExpandedSourcePaths(filesystem, tempDir, modules);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -154,8 +154,14 @@ public class PexStep extends ShellStep {
     return builder.build();
   }
 
-  private ImmutableMap<Path, Path> getExpandedSourcePaths(ImmutableMap<Path, Path> paths)
-      throws IOException {
+  /**
+   * Replaces each {@code .src.zip} in {@code paths} with the sources it contains, extracted into
+   * {@code tempDir}.
+   */
+  static ImmutableMap<Path, Path> getExpandedSourcePaths(
+      ProjectFilesystem filesystem,
+      Path tempDir,
+      ImmutableMap<Path, Path> paths) throws IOException {
     ImmutableMap.Builder<Path, Path> sources = ImmutableMap.builder();
 
     for (ImmutableMap.Entry<Path, Path> ent : paths.entrySet()) {
@@ -269,6 +269,7 @@ public class PythonBinaryDescription implements Description<PythonBinaryDescript
             pythonBuckConfig.getPexTool(resolver),
             buildArgs,
             pythonBuckConfig.getPathToPexExecuter(),
+            pythonBuckConfig.getNativePexBootstrapSources(),
             pythonBuckConfig.getPexExtension(),
             pythonEnvironment,
             mainModule,
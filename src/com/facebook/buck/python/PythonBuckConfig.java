@@ -19,6 +19,7 @@ package com.facebook.buck.python;
 import com.facebook.buck.cli.BuckConfig;
 import com.facebook.buck.cxx.VersionedTool;
 import com.facebook.buck.io.ExecutableFinder;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuckVersion;
 import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.Tool;
@@ -30,9 +31,12 @@ import com.google.common.base.CharMatcher;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.EnumSet;
@@ -41,6 +45,8 @@ import java.util.regex.Pattern;
 
 public class PythonBuckConfig {
 
+  private static final Logger LOG = Logger.get(PythonBuckConfig.class);
+
   private static final String SECTION = "python";
 
   private static final Pattern PYTHON_VERSION_REGEX =
@@ -64,6 +70,15 @@ public class PythonBuckConfig {
               "src/com/facebook/buck/python/__test_main__.py"))
           .toAbsolutePath();
 
+  /**
+   * Where the libraries that {@code pex.py} bootstraps a PEX with are found, relative to the root
+   * of the buck checkout that {@link #DEFAULT_PATH_TO_PEX} is in.
+   */
+  private static final Path PATH_TO_PKG_RESOURCES =
+      Paths.get("third-party/py/setuptools/pkg_resources.py");
+  private static final Path PATH_TO_TWITTER_COMMON_PYTHON =
+      Paths.get("third-party/py/twitter-commons/src/python/twitter/common/python");
+
   private final BuckConfig delegate;
   private final ExecutableFinder exeFinder;
 
@@ -138,6 +153,49 @@ public class PythonBuckConfig {
         BuckVersion.getVersion());
   }
 
+  /**
+   * @return the libraries that {@link JavaPexStep} adds to the {@code .bootstrap} directory of a
+   *     PEX, by their paths in the PEX, if PEXs should be packaged by buck itself rather than by
+   *     {@code pex.py}. That's only possible when the default {@code pex.py} is used from a buck
+   *     checkout, as that's where the libraries come from.
+   */
+  public Optional<ImmutableSortedMap<String, Path>> getNativePexBootstrapSources() {
+    if (!delegate.getBooleanValue(SECTION, "native_pex_builder", false) ||
+        delegate.getValue(SECTION, "path_to_pex").isPresent()) {
+      return Optional.absent();
+    }
+
+    // pex.py is at src/com/facebook/buck/python/pex.py in a buck checkout.
+    Path buckRoot = DEFAULT_PATH_TO_PEX;
+    for (int i = 0; i < 6 && buckRoot != null; i++) {
+      buckRoot = buckRoot.getParent();
+    }
+    if (buckRoot == null || !Files.isRegularFile(buckRoot.resolve(PATH_TO_PKG_RESOURCES))) {
+      LOG.debug(
+          "Not building PEXs natively, as %s is not in a buck checkout.",
+          DEFAULT_PATH_TO_PEX);
+      return Optional.absent();
+    }
+
+    ImmutableSortedMap.Builder<String, Path> sources = ImmutableSortedMap.naturalOrder();
+    sources.put(".bootstrap/pkg_resources.py", buckRoot.resolve(PATH_TO_PKG_RESOURCES));
+    Path twitterCommonPython = buckRoot.resolve(PATH_TO_TWITTER_COMMON_PYTHON);
+    for (String packageDir : ImmutableList.of("", "http/")) {
+      try (DirectoryStream<Path> files =
+               Files.newDirectoryStream(twitterCommonPython.resolve(packageDir), "*.py")) {
+        for (Path file : files) {
+          sources.put(
+              ".bootstrap/_twitter_common_python/" + packageDir + file.getFileName(),
+              file);
+        }
+      } catch (IOException e) {
+        LOG.debug(e, "Not building PEXs natively, as the PEX bootstrap can't be listed.");
+        return Optional.absent();
+      }
+    }
+    return Optional.of(sources.build());
+  }
+
   public Path getPathToPexExecuter() {
     Optional<Path> path = delegate.getPath(SECTION, "path_to_pex_executer");
     if (!path.isPresent()) {
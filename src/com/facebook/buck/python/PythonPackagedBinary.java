@@ -34,8 +34,10 @@ import com.facebook.buck.rules.Tool;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.MkdirStep;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 
 import java.nio.file.Path;
@@ -49,6 +51,9 @@ public class PythonPackagedBinary extends PythonBinary implements HasRuntimeDeps
   @AddToRuleKey
   private final ImmutableList<String> buildArgs;
   private final Path pathToPexExecuter;
+  private final Optional<ImmutableSortedMap<String, Path>> nativePexBootstrapSources;
+  @AddToRuleKey
+  private final boolean useNativePexBuilder;
   @AddToRuleKey
   private final String pexExtension;
   @AddToRuleKey
@@ -65,6 +70,7 @@ public class PythonPackagedBinary extends PythonBinary implements HasRuntimeDeps
       Tool builder,
       ImmutableList<String> buildArgs,
       Path pathToPexExecuter,
+      Optional<ImmutableSortedMap<String, Path>> nativePexBootstrapSources,
       String pexExtension,
       PythonEnvironment pythonEnvironment,
       String mainModule,
@@ -74,6 +80,8 @@ public class PythonPackagedBinary extends PythonBinary implements HasRuntimeDeps
     this.builder = builder;
     this.buildArgs = buildArgs;
     this.pathToPexExecuter = pathToPexExecuter;
+    this.nativePexBootstrapSources = nativePexBootstrapSources;
+    this.useNativePexBuilder = nativePexBootstrapSources.isPresent();
     this.pexExtension = pexExtension;
     this.pythonEnvironment = pythonEnvironment;
     this.mainModule = mainModule;
@@ -118,23 +126,41 @@ public class PythonPackagedBinary extends PythonBinary implements HasRuntimeDeps
         getBuildTarget(), "__%s__working_directory");
     steps.add(new MakeCleanDirectoryStep(getProjectFilesystem(), workingDirectory));
 
-    // Generate and return the PEX build step.
-    steps.add(
-        new PexStep(
-            getProjectFilesystem(),
-            ImmutableList.<String>builder()
-                .addAll(builder.getCommandPrefix(getResolver()))
-                .addAll(buildArgs)
-                .build(),
-            pythonEnvironment.getPythonPath(),
-            workingDirectory,
-            binPath,
-            mainModule,
-            getResolver().getMappedPaths(components.getModules()),
-            getResolver().getMappedPaths(components.getResources()),
-            getResolver().getMappedPaths(components.getNativeLibraries()),
-            ImmutableSet.copyOf(getResolver().getAllPaths(components.getPrebuiltLibraries())),
-            components.isZipSafe().or(true)));
+    // Generate and return the PEX build step. Buck packages the PEX itself when it can, which it
+    // can't for prebuilt libraries, as pex.py needs to read their metadata.
+    Optional<String> hashbang = JavaPexStep.getHashbang(pythonEnvironment.getPythonVersion());
+    if (nativePexBootstrapSources.isPresent() &&
+        hashbang.isPresent() &&
+        components.getPrebuiltLibraries().isEmpty()) {
+      steps.add(
+          new JavaPexStep(
+              getProjectFilesystem(),
+              workingDirectory,
+              binPath,
+              hashbang.get(),
+              mainModule,
+              getResolver().getMappedPaths(components.getModules()),
+              getResolver().getMappedPaths(components.getResources()),
+              nativePexBootstrapSources.get(),
+              components.isZipSafe().or(true)));
+    } else {
+      steps.add(
+          new PexStep(
+              getProjectFilesystem(),
+              ImmutableList.<String>builder()
+                  .addAll(builder.getCommandPrefix(getResolver()))
+                  .addAll(buildArgs)
+                  .build(),
+              pythonEnvironment.getPythonPath(),
+              workingDirectory,
+              binPath,
+              mainModule,
+              getResolver().getMappedPaths(components.getModules()),
+              getResolver().getMappedPaths(components.getResources()),
+              getResolver().getMappedPaths(components.getNativeLibraries()),
+              ImmutableSet.copyOf(getResolver().getAllPaths(components.getPrebuiltLibraries())),
+              components.isZipSafe().or(true)));
+    }
 
     // Record the executable package for caching.
     buildableContext.recordArtifact(getBinPath());
@@ -33,9 +33,7 @@ package com.facebook.buck.query;
 import com.facebook.buck.query.QueryEnvironment.Argument;
 import com.facebook.buck.query.QueryEnvironment.ArgumentType;
 import com.facebook.buck.query.QueryEnvironment.QueryFunction;
-import com.facebook.buck.util.MoreSets;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 
 import java.util.Collection;
 import java.util.Set;
@@ -88,16 +86,17 @@ public class AllPathsFunction implements QueryFunction {
     env.buildTransitiveClosure(fromSet, Integer.MAX_VALUE);
 
     Set<T> reachableFromX = env.getTransitiveClosure(fromSet);
-    Set<T> result = MoreSets.intersection(reachableFromX, toSet);
+    Set<T> result = env.newTargetSet();
+    result.addAll(toSet);
+    result.retainAll(reachableFromX);
     Collection<T> worklist = result;
     while (!worklist.isEmpty()) {
-      Collection<T> reverseDeps = env.getReverseDeps(worklist);
-      worklist = Lists.newArrayList();
-      for (T target : reverseDeps) {
-        if (reachableFromX.contains(target) && result.add(target)) {
-          worklist.add(target);
-        }
-      }
+      Set<T> next = env.newTargetSet();
+      next.addAll(env.getReverseDeps(worklist));
+      next.retainAll(reachableFromX);
+      next.removeAll(result);
+      result.addAll(next);
+      worklist = next;
     }
     return result;
   }
@@ -24,7 +24,6 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
-import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
@@ -70,7 +69,7 @@ public class AttrFilterFunction implements QueryFunction {
       }
     };
 
-    Set<T> result = new LinkedHashSet<>();
+    Set<T> result = env.newTargetSet();
     for (T target : argument.eval(env)) {
       ImmutableSet<Object> matchingObjects = env.filterAttributeContents(target, attr, predicate);
       if (!matchingObjects.isEmpty()) {
@@ -35,7 +35,6 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
 import java.util.Collection;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -64,7 +63,8 @@ class BinaryOperatorExpression extends QueryExpression {
 
   @Override
   public <T> Set<T> eval(QueryEnvironment<T> env) throws QueryException, InterruptedException {
-    Set<T> lhsValue = new LinkedHashSet<>(operands.get(0).eval(env));
+    Set<T> lhsValue = env.newTargetSet();
+    lhsValue.addAll(operands.get(0).eval(env));
 
     for (int i = 1; i < operands.size(); i++) {
       Set<T> rhsValue = operands.get(i).eval(env);
@@ -33,12 +33,9 @@ package com.facebook.buck.query;
 import com.facebook.buck.query.QueryEnvironment.Argument;
 import com.facebook.buck.query.QueryEnvironment.ArgumentType;
 import com.facebook.buck.query.QueryEnvironment.QueryFunction;
-import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
 
 import java.util.Collection;
-import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
@@ -84,17 +81,20 @@ public class DepsFunction implements QueryFunction {
     int depthBound = args.size() > 1 ? args.get(1).getInteger() : Integer.MAX_VALUE;
     env.buildTransitiveClosure(argumentSet, depthBound);
 
-    // LinkedHashSet preserves the order of insertion when iterating over the values.
+    // Target sets preserve the order of insertion when iterating over the values.
     // The order by which we traverse the result is meaningful because the dependencies are
     // traversed level-by-level.
-    Set<T> result = new LinkedHashSet<>();
+    Set<T> result = env.newTargetSet();
     Collection<T> current = argumentSet;
 
     // Iterating depthBound+1 times because the first one processes the given argument set.
     for (int i = 0; i <= depthBound; i++) {
-      Collection<T> next = env.getFwdDeps(
-          Iterables.filter(current, Predicates.not(Predicates.in(result))));
-      result.addAll(current);
+      // Filter nodes visited before.
+      Set<T> unvisited = env.newTargetSet();
+      unvisited.addAll(current);
+      unvisited.removeAll(result);
+      Collection<T> next = env.getFwdDeps(unvisited);
+      result.addAll(unvisited);
       if (next.isEmpty()) {
         break;
       }
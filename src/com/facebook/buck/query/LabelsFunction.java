@@ -37,7 +37,6 @@ import com.facebook.buck.query.QueryEnvironment.QueryFunction;
 import com.google.common.base.CaseFormat;
 import com.google.common.collect.ImmutableList;
 
-import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
@@ -74,7 +73,7 @@ public class LabelsFunction implements QueryFunction {
       throws QueryException, InterruptedException {
     String label = CaseFormat.LOWER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, args.get(0).getWord());
     Set<T> inputs = args.get(1).getExpression().eval(env);
-    Set<T> result = new LinkedHashSet<>();
+    Set<T> result = env.newTargetSet();
     for (T input : inputs) {
       result.addAll(env.getTargetsInAttribute(input, label));
     }
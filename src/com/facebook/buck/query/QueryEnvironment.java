@@ -181,6 +181,13 @@ public interface QueryEnvironment<T> {
    */
   Set<T> getTargetsMatchingPattern(String pattern) throws QueryException, InterruptedException;
 
+  /**
+   * Returns a new, empty and mutable set of targets that iterates in insertion order.  Expressions
+   * accumulate their results in these, so environments that can number their targets densely
+   * should return sets whose bulk operations are bit operations.
+   */
+  Set<T> newTargetSet();
+
   /** Returns the direct forward dependencies of the specified targets. */
   Collection<T> getFwdDeps(Iterable<T> targets) throws QueryException, InterruptedException;
 
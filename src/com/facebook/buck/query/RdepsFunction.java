@@ -33,13 +33,9 @@ package com.facebook.buck.query;
 import com.facebook.buck.query.QueryEnvironment.Argument;
 import com.facebook.buck.query.QueryEnvironment.ArgumentType;
 import com.facebook.buck.query.QueryEnvironment.QueryFunction;
-import com.google.common.base.Predicate;
-import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
 
 import java.util.Collection;
-import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
@@ -84,12 +80,12 @@ public class RdepsFunction implements QueryFunction {
       throws QueryException, InterruptedException {
     Set<T> universeSet = args.get(0).getExpression().eval(env);
     env.buildTransitiveClosure(universeSet, Integer.MAX_VALUE);
-    final Predicate<T> inUniversePredicate = Predicates.in(env.getTransitiveClosure(universeSet));
+    Set<T> universe = env.getTransitiveClosure(universeSet);
 
-    // LinkedHashSet preserves the order of insertion when iterating over the values.
+    // Target sets preserve the order of insertion when iterating over the values.
     // The order by which we traverse the result is meaningful because the dependencies are
     // traversed level-by-level.
-    Set<T> visited = new LinkedHashSet<>();
+    Set<T> visited = env.newTargetSet();
     Set<T> argumentSet = args.get(1).getExpression().eval(env);
     Collection<T> current = argumentSet;
 
@@ -97,12 +93,14 @@ public class RdepsFunction implements QueryFunction {
     // Iterating depthBound+1 times because the first one processes the given argument set.
     for (int i = 0; i <= depthBound; i++) {
       // Restrict the search to nodes in the transitive closure of the universe set.
-      Iterable<T> currentInUniverse = Iterables.filter(current, inUniversePredicate);
+      Set<T> currentInUniverse = env.newTargetSet();
+      currentInUniverse.addAll(current);
+      currentInUniverse.retainAll(universe);
 
       // Filter nodes visited before.
-      Collection<T> next = env.getReverseDeps(
-          Iterables.filter(currentInUniverse, Predicates.not(Predicates.in(visited))));
-      Iterables.addAll(visited, currentInUniverse);
+      currentInUniverse.removeAll(visited);
+      Collection<T> next = env.getReverseDeps(currentInUniverse);
+      visited.addAll(currentInUniverse);
       if (next.isEmpty()) {
         break;
       }
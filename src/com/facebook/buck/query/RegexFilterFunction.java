@@ -20,7 +20,6 @@ import com.facebook.buck.query.QueryEnvironment.Argument;
 import com.facebook.buck.query.QueryEnvironment.QueryFunction;
 import com.google.common.collect.ImmutableList;
 
-import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -53,7 +52,7 @@ abstract class RegexFilterFunction implements QueryFunction {
 
     Set<T> targets = getExpressionToEval(args).eval(env);
     env.buildTransitiveClosure(targets, Integer.MAX_VALUE);
-    Set<T> result = new LinkedHashSet<>();
+    Set<T> result = env.newTargetSet();
     for (T target : targets) {
       String attributeValue = getStringToFilter(env, args, target);
       if (compiledPattern.matcher(attributeValue).find()) {
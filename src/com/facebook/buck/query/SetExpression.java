@@ -34,7 +34,6 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 
 import java.util.Collection;
-import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
@@ -66,7 +65,7 @@ class SetExpression extends QueryExpression {
 
   @Override
   public <T> Set<T> eval(QueryEnvironment<T> env) throws QueryException, InterruptedException {
-    Set<T> result = new LinkedHashSet<>();
+    Set<T> result = env.newTargetSet();
     for (TargetLiteral expr : words) {
       result.addAll(expr.eval(env));
     }
@@ -20,7 +20,6 @@ import com.facebook.buck.query.QueryEnvironment.ArgumentType;
 import com.facebook.buck.query.QueryEnvironment.QueryFunction;
 import com.google.common.collect.ImmutableList;
 
-import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
@@ -57,7 +56,7 @@ public class TestsOfFunction implements QueryFunction {
   public <T> Set<T> eval(QueryEnvironment<T> env, ImmutableList<Argument> args)
       throws QueryException, InterruptedException {
     Set<T> targets = args.get(0).getExpression().eval(env);
-    Set<T> tests = new LinkedHashSet<>();
+    Set<T> tests = env.newTargetSet();
     for (T target : targets) {
       tests.addAll(env.getTestsForTarget(target));
     }
@@ -89,6 +89,39 @@ public abstract class BuildContext {
     return false;
   }
 
+  /**
+   * Where build metadata is kept instead of the metadata directory of each rule, if anywhere.
+   */
+  @Value.Default
+  public BuildMetadataStores getBuildMetadataStores() {
+    return BuildMetadataStores.disabled();
+  }
+
+  /**
+   * What the steps of each rule are expected to use, and what they wait on before running.
+   */
+  @Value.Default
+  public BuildRuleResources getBuildRuleResources() {
+    return BuildRuleResources.unlimited();
+  }
+
+  /**
+   * How long each rule has taken to build before, which rules built locally add to.
+   */
+  @Value.Default
+  public BuildRuleDurationHistory getBuildRuleDurationHistory() {
+    return BuildRuleDurationHistory.inMemory();
+  }
+
+  /**
+   * How long the build is expected to take from when each rule starts, which orders the rules
+   * that are ready to build.
+   */
+  @Value.Default
+  public BuildRuleCriticalPaths getBuildRuleCriticalPaths() {
+    return BuildRuleCriticalPaths.empty();
+  }
+
   /**
    * Creates an {@link OnDiskBuildInfo}.
    * <p>
@@ -96,7 +129,10 @@ public abstract class BuildContext {
    * in general.
    */
   OnDiskBuildInfo createOnDiskBuildInfoFor(BuildTarget target, ProjectFilesystem filesystem) {
-    return new DefaultOnDiskBuildInfo(target, filesystem);
+    return new DefaultOnDiskBuildInfo(
+        target,
+        filesystem,
+        getBuildMetadataStores().get(filesystem));
   }
 
   /**
@@ -111,7 +147,8 @@ public abstract class BuildContext {
         filesystem,
         getClock(),
         getBuildId(),
-        ImmutableMap.copyOf(getEnvironment()));
+        ImmutableMap.copyOf(getEnvironment()),
+        getBuildMetadataStores().get(filesystem));
   }
 
   public void logBuildInfo(String format, Object... args) {
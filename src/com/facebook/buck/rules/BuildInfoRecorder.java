@@ -37,7 +37,6 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Ordering;
@@ -84,6 +83,7 @@ public class BuildInfoRecorder {
   private final ImmutableMap<String, String> artifactExtraData;
   private final Map<String, String> metadataToWrite;
   private final Map<String, String> buildMetadata;
+  private final Optional<BuildMetadataStore> store;
 
   /**
    * Every value in this set is a path relative to the project root.
@@ -95,6 +95,21 @@ public class BuildInfoRecorder {
       Clock clock,
       BuildId buildId,
       ImmutableMap<String, String> environment) {
+    this(
+        buildTarget,
+        projectFilesystem,
+        clock,
+        buildId,
+        environment,
+        Optional.<BuildMetadataStore>absent());
+  }
+
+  BuildInfoRecorder(BuildTarget buildTarget,
+      ProjectFilesystem projectFilesystem,
+      Clock clock,
+      BuildId buildId,
+      ImmutableMap<String, String> environment,
+      Optional<BuildMetadataStore> store) {
     this.buildTarget = buildTarget;
     this.pathToMetadataDirectory = BuildInfo.getPathToMetadataDirectory(buildTarget);
     this.projectFilesystem = projectFilesystem;
@@ -111,6 +126,7 @@ public class BuildInfoRecorder {
     this.metadataToWrite = Maps.newLinkedHashMap();
     this.buildMetadata = Maps.newLinkedHashMap();
     this.pathsToOutputs = Sets.newHashSet();
+    this.store = store;
   }
 
   private String toJson(Iterable<String> values) {
@@ -163,7 +179,10 @@ public class BuildInfoRecorder {
 
   /**
    * Writes the metadata currently stored in memory to the directory returned by
-   * {@link BuildInfo#getPathToMetadataDirectory(BuildTarget)}.
+   * {@link BuildInfo#getPathToMetadataDirectory(BuildTarget)}. If there is a
+   * {@link BuildMetadataStore}, the build metadata is only written to the store instead, along with
+   * the rest of the metadata, which is still written to files as it is uploaded with the outputs of
+   * the rule.
    */
   public void writeMetadataToDisk(boolean clearExistingMetadata) throws IOException {
     if (clearExistingMetadata) {
@@ -171,12 +190,23 @@ public class BuildInfoRecorder {
     }
     projectFilesystem.mkdirs(pathToMetadataDirectory);
 
-    for (Map.Entry<String, String> entry :
-         Iterables.concat(metadataToWrite.entrySet(), getBuildMetadata().entrySet())) {
+    Map<String, String> values = Maps.newLinkedHashMap(metadataToWrite);
+    values.putAll(getBuildMetadata());
+    Map<String, String> filesToWrite = store.isPresent() ? metadataToWrite : values;
+    for (Map.Entry<String, String> entry : filesToWrite.entrySet()) {
       projectFilesystem.writeContentsToPath(
           entry.getValue(),
           pathToMetadataDirectory.resolve(entry.getKey()));
     }
+
+    if (!store.isPresent()) {
+      return;
+    }
+    if (clearExistingMetadata) {
+      store.get().put(buildTarget, values);
+    } else {
+      store.get().merge(buildTarget, values);
+    }
   }
 
   /**
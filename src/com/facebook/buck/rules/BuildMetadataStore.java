@@ -0,0 +1,369 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+/**
+ * The build metadata of every rule of a project, such as its rule keys and dep file, kept in a
+ * single append-only log, so that it can be read without reading a file per key from the metadata
+ * directory of each rule. The log is memory-mapped and read once when the store is opened, after
+ * which lookups are served from memory and each update appends one record.
+ * <p>
+ * Each record is framed by its length and a CRC32 of its contents, so a record torn by a crash is
+ * detected and the log is truncated to the last complete record when it is next opened. Once most
+ * of the records of the log are superseded, opening the store compacts it by writing the live
+ * entries to a new file and atomically renaming it over the old one.
+ * <p>
+ * The store holds a lock on a file next to the log for as long as it is open, so only one process
+ * appends to it at a time.
+ * <p>
+ * The store is the only record of the build metadata of the rules it has entries for, so it must
+ * not be trusted after a build wrote metadata files without it. Such builds
+ * delete the marker file next to the log (see {@link #getValidityMarker}), and the log is only read
+ * when the store is opened if the marker is still there. Otherwise it is discarded, and the
+ * metadata of each rule is read from its files until the rule is built again.
+ */
+public class BuildMetadataStore implements Closeable {
+
+  private static final Logger LOG = Logger.get(BuildMetadataStore.class);
+
+  private static final byte PUT = 0;
+  private static final byte MERGE = 1;
+  private static final byte DELETE = 2;
+
+  /** Length and checksum of a record. */
+  private static final int RECORD_HEADER_SIZE = 8;
+
+  @VisibleForTesting
+  static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+  private final Path logFile;
+  private final FileChannel lockChannel;
+  private final FileLock lock;
+  private final FileChannel log;
+  private final ConcurrentMap<String, ImmutableMap<String, String>> entries;
+
+  private BuildMetadataStore(
+      Path logFile,
+      FileChannel lockChannel,
+      FileLock lock,
+      FileChannel log,
+      ConcurrentMap<String, ImmutableMap<String, String>> entries) {
+    this.logFile = logFile;
+    this.lockChannel = lockChannel;
+    this.lock = lock;
+    this.log = log;
+    this.entries = entries;
+  }
+
+  /**
+   * Opens the store whose log is {@code logFile}, creating it if it doesn't exist, and waits for
+   * any other process that has it open to close it.
+   */
+  public static BuildMetadataStore open(Path logFile) throws IOException {
+    Files.createDirectories(logFile.getParent());
+    Path lockFile = logFile.resolveSibling(logFile.getFileName() + ".lock");
+    FileChannel lockChannel = FileChannel.open(
+        lockFile,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE);
+    try {
+      FileLock lock = lockChannel.tryLock();
+      if (lock == null) {
+        LOG.info("Waiting for another process to close %s.", logFile);
+        lock = lockChannel.lock();
+      }
+
+      Path validityMarker = getValidityMarker(logFile);
+      if (!Files.exists(validityMarker) && Files.deleteIfExists(logFile)) {
+        LOG.info("Discarding %s, as metadata files were written without it.", logFile);
+      }
+
+      ConcurrentMap<String, ImmutableMap<String, String>> entries = new ConcurrentHashMap<>();
+      long records = 0;
+      long validSize = 0;
+      long size = 0;
+      if (Files.exists(logFile)) {
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+          size = channel.size();
+          if (size > 0) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            while (readRecord(buffer, entries)) {
+              records++;
+              validSize = buffer.position();
+            }
+          }
+        }
+      }
+
+      if (size >= MIN_COMPACTION_SIZE && records > 2 * entries.size()) {
+        compact(logFile, entries);
+      } else if (validSize < size) {
+        LOG.warn(
+            "Discarding %d bytes of torn records at the end of %s.",
+            size - validSize,
+            logFile);
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+          channel.truncate(validSize);
+        }
+      }
+
+      FileChannel log = FileChannel.open(
+          logFile,
+          StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE,
+          StandardOpenOption.APPEND);
+      if (!Files.exists(validityMarker)) {
+        Files.createFile(validityMarker);
+      }
+      return new BuildMetadataStore(logFile, lockChannel, lock, log, entries);
+    } catch (IOException | RuntimeException e) {
+      lockChannel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the marker file that has to exist next to {@code logFile} for the log to be read when
+   *     the store is opened.
+   */
+  public static Path getValidityMarker(Path logFile) {
+    return logFile.resolveSibling(logFile.getFileName() + ".valid");
+  }
+
+  /**
+   * Reads the record at the position of {@code buffer} into {@code entries}, leaving the buffer
+   * after it.
+   *
+   * @return false if there are no more complete records, in which case the position of the buffer
+   *     is unspecified.
+   */
+  private static boolean readRecord(
+      ByteBuffer buffer,
+      Map<String, ImmutableMap<String, String>> entries) {
+    if (buffer.remaining() < RECORD_HEADER_SIZE) {
+      return false;
+    }
+    int length = buffer.getInt();
+    int checksum = buffer.getInt();
+    if (length < 0 || length > buffer.remaining()) {
+      return false;
+    }
+    byte[] payload = new byte[length];
+    buffer.get(payload);
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    if ((int) crc.getValue() != checksum) {
+      return false;
+    }
+
+    ByteBuffer record = ByteBuffer.wrap(payload);
+    try {
+      byte operation = record.get();
+      String target = readString(record);
+      int size = record.getInt();
+      ImmutableMap.Builder<String, String> values = ImmutableMap.builder();
+      for (int i = 0; i < size; i++) {
+        values.put(readString(record), readString(record));
+      }
+      apply(entries, operation, target, values.build());
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      return false;
+    }
+    return true;
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  private static void apply(
+      Map<String, ImmutableMap<String, String>> entries,
+      byte operation,
+      String target,
+      ImmutableMap<String, String> values) {
+    switch (operation) {
+      case PUT:
+        entries.put(target, values);
+        break;
+      case MERGE:
+        ImmutableMap<String, String> existing = entries.get(target);
+        if (existing == null) {
+          entries.put(target, values);
+        } else {
+          Map<String, String> merged = new LinkedHashMap<>(existing);
+          merged.putAll(values);
+          entries.put(target, ImmutableMap.copyOf(merged));
+        }
+        break;
+      case DELETE:
+        entries.remove(target);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown operation: " + operation);
+    }
+  }
+
+  /**
+   * Replaces {@code logFile} with one that holds only a record for each of {@code entries}. The
+   * new log is written to a temporary file and renamed over the old one, so a crash leaves one or
+   * the other intact.
+   */
+  private static void compact(
+      Path logFile,
+      Map<String, ImmutableMap<String, String>> entries) throws IOException {
+    Path tempFile = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(
+        tempFile,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      for (Map.Entry<String, ImmutableMap<String, String>> entry : entries.entrySet()) {
+        ByteBuffer record = ByteBuffer.wrap(encode(PUT, entry.getKey(), entry.getValue()));
+        while (record.hasRemaining()) {
+          channel.write(record);
+        }
+      }
+      channel.force(true);
+    }
+    Files.move(
+        tempFile,
+        logFile,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    LOG.debug("Compacted %s to %d entries.", logFile, entries.size());
+  }
+
+  private static byte[] encode(byte operation, String target, Map<String, String> values) {
+    try {
+      ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+      DataOutputStream payload = new DataOutputStream(payloadBytes);
+      payload.writeByte(operation);
+      writeString(payload, target);
+      payload.writeInt(values.size());
+      for (Map.Entry<String, String> entry : values.entrySet()) {
+        writeString(payload, entry.getKey());
+        writeString(payload, entry.getValue());
+      }
+      payload.flush();
+
+      CRC32 crc = new CRC32();
+      crc.update(payloadBytes.toByteArray());
+      ByteArrayOutputStream recordBytes =
+          new ByteArrayOutputStream(RECORD_HEADER_SIZE + payloadBytes.size());
+      DataOutputStream record = new DataOutputStream(recordBytes);
+      record.writeInt(payloadBytes.size());
+      record.writeInt((int) crc.getValue());
+      payloadBytes.writeTo(record);
+      record.flush();
+      return recordBytes.toByteArray();
+    } catch (IOException e) {
+      // Writing to a byte array doesn't throw.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String string) throws IOException {
+    byte[] bytes = string.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private synchronized void append(
+      byte operation,
+      BuildTarget target,
+      Map<String, String> values) throws IOException {
+    String key = target.getFullyQualifiedName();
+    ByteBuffer record = ByteBuffer.wrap(encode(operation, key, values));
+    while (record.hasRemaining()) {
+      log.write(record);
+    }
+    apply(entries, operation, key, ImmutableMap.copyOf(values));
+  }
+
+  /**
+   * @return the metadata of {@code target}, or absent if there is none.
+   */
+  public Optional<ImmutableMap<String, String>> get(BuildTarget target) {
+    return Optional.fromNullable(entries.get(target.getFullyQualifiedName()));
+  }
+
+  /**
+   * Replaces the metadata of {@code target} with {@code values}.
+   */
+  public void put(BuildTarget target, Map<String, String> values) throws IOException {
+    append(PUT, target, values);
+  }
+
+  /**
+   * Adds {@code values} to the metadata of {@code target}, replacing those with the same keys.
+   */
+  public void merge(BuildTarget target, Map<String, String> values) throws IOException {
+    append(MERGE, target, values);
+  }
+
+  /**
+   * Removes all of the metadata of {@code target}.
+   */
+  public void delete(BuildTarget target) throws IOException {
+    if (entries.containsKey(target.getFullyQualifiedName())) {
+      append(DELETE, target, ImmutableMap.<String, String>of());
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      log.close();
+    } finally {
+      try {
+        lock.release();
+      } finally {
+        lockChannel.close();
+      }
+    }
+    LOG.debug("Closed %s with %d entries.", logFile, entries.size());
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.HumanReadableException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@link BuildMetadataStore}s of the projects that a build writes to, each opened the first
+ * time the build needs it and closed when the build is done.
+ */
+public class BuildMetadataStores implements Closeable {
+
+  private static final Logger LOG = Logger.get(BuildMetadataStores.class);
+
+  @VisibleForTesting
+  static final Path LOG_PATH = BuckConstant.SCRATCH_PATH.resolve(".build_metadata");
+
+  private final boolean isEnabled;
+  private final Map<Path, Optional<BuildMetadataStore>> stores = new HashMap<>();
+
+  private BuildMetadataStores(boolean isEnabled) {
+    this.isEnabled = isEnabled;
+  }
+
+  /**
+   * @return stores that are opened under {@code buck-out} of each project.
+   */
+  public static BuildMetadataStores create() {
+    return new BuildMetadataStores(true);
+  }
+
+  /**
+   * @return stores that are never opened, so that all build metadata is only kept as files in the
+   *     metadata directory of each rule, and that invalidate the store of each project they are
+   *     asked for.
+   */
+  public static BuildMetadataStores disabled() {
+    return new BuildMetadataStores(false);
+  }
+
+  /**
+   * @return the store of the project of {@code filesystem}, or absent if build metadata should be
+   *     kept as files instead, in which case the store of the project is invalidated so that it
+   *     doesn't shadow those files once it is used again.
+   */
+  public synchronized Optional<BuildMetadataStore> get(ProjectFilesystem filesystem) {
+    Path root = filesystem.getRootPath().toAbsolutePath().normalize();
+    Optional<BuildMetadataStore> store = stores.get(root);
+    if (store == null) {
+      store = isEnabled
+          ? open(filesystem.resolve(LOG_PATH))
+          : Optional.<BuildMetadataStore>absent();
+      if (!store.isPresent()) {
+        invalidate(filesystem);
+      }
+      stores.put(root, store);
+    }
+    return store;
+  }
+
+  private static Optional<BuildMetadataStore> open(Path logFile) {
+    try {
+      return Optional.of(BuildMetadataStore.open(logFile));
+    } catch (IOException | OverlappingFileLockException e) {
+      // The store is invalidated when it isn't used, so the build can go on with the files.
+      LOG.warn(e, "Could not open %s, keeping build metadata in files instead.", logFile);
+      return Optional.absent();
+    }
+  }
+
+  private static void invalidate(ProjectFilesystem filesystem) {
+    Path validityMarker = BuildMetadataStore.getValidityMarker(LOG_PATH);
+    try {
+      filesystem.deleteFileAtPathIfExists(validityMarker);
+    } catch (IOException e) {
+      throw new HumanReadableException(
+          e,
+          "Could not delete %s, which has to be deleted when build metadata is kept in files.",
+          filesystem.resolve(validityMarker));
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    IOException exception = null;
+    for (Optional<BuildMetadataStore> store : stores.values()) {
+      if (store.isPresent()) {
+        try {
+          store.get().close();
+        } catch (IOException e) {
+          exception = e;
+        }
+      }
+    }
+    stores.clear();
+    if (exception != null) {
+      throw exception;
+    }
+  }
+}
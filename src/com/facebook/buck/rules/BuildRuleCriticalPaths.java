@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.ListMultimap;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * How long a build is expected to take from the moment each of its rules starts until the build
+ * is done, if nothing had to wait for a free thread: the estimated duration of the rule plus the
+ * longest such estimate of the rules that depend on it. The rules with the longest of these are on
+ * the critical path of the build, and the build engine starts them before the others so that long
+ * chains of rules, such as those that dex and package an APK, don't become the tail of the build.
+ */
+public class BuildRuleCriticalPaths {
+
+  private static final BuildRuleCriticalPaths EMPTY = new BuildRuleCriticalPaths(
+      ImmutableMap.<BuildRule, Long>of(),
+      ImmutableList.<BuildRule>of());
+
+  private final ImmutableMap<BuildRule, Long> remainingMillis;
+  private final ImmutableList<BuildRule> criticalPath;
+
+  private BuildRuleCriticalPaths(
+      ImmutableMap<BuildRule, Long> remainingMillis,
+      ImmutableList<BuildRule> criticalPath) {
+    this.remainingMillis = remainingMillis;
+    this.criticalPath = criticalPath;
+  }
+
+  /**
+   * @return estimates that treat every rule alike.
+   */
+  public static BuildRuleCriticalPaths empty() {
+    return EMPTY;
+  }
+
+  /**
+   * @return the rules that {@code rule} needs built before it can be used, at build time and at
+   *     run time.
+   */
+  public static ImmutableSortedSet<BuildRule> getAllDeps(BuildRule rule) {
+    if (!(rule instanceof HasRuntimeDeps)) {
+      return rule.getDeps();
+    }
+    return ImmutableSortedSet.<BuildRule>naturalOrder()
+        .addAll(rule.getDeps())
+        .addAll(((HasRuntimeDeps) rule).getRuntimeDeps())
+        .build();
+  }
+
+  /**
+   * Estimates how long each of the rules needed to build {@code rulesToBuild} leaves the build to
+   * take, from the durations in {@code history}.
+   */
+  public static BuildRuleCriticalPaths compute(
+      Iterable<BuildRule> rulesToBuild,
+      BuildRuleDurationHistory history) {
+    // Find every rule of the build, and the rules of the build that depend on each.
+    Set<BuildRule> rules = new LinkedHashSet<>();
+    ListMultimap<BuildRule, BuildRule> dependents = ArrayListMultimap.create();
+    Deque<BuildRule> toVisit = new ArrayDeque<>();
+    for (BuildRule rule : rulesToBuild) {
+      if (rules.add(rule)) {
+        toVisit.add(rule);
+      }
+    }
+    while (!toVisit.isEmpty()) {
+      BuildRule rule = toVisit.remove();
+      for (BuildRule dep : getAllDeps(rule)) {
+        dependents.put(dep, rule);
+        if (rules.add(dep)) {
+          toVisit.add(dep);
+        }
+      }
+    }
+
+    // Visit the rules from the top of the build down, each once all of its dependents have been,
+    // which is possible because the graph is acyclic.
+    Map<BuildRule, Integer> unvisitedDependents = new HashMap<>();
+    Map<BuildRule, Long> remaining = new HashMap<>();
+    for (BuildRule rule : rules) {
+      int count = dependents.get(rule).size();
+      unvisitedDependents.put(rule, count);
+      if (count == 0) {
+        toVisit.add(rule);
+      }
+    }
+    while (!toVisit.isEmpty()) {
+      BuildRule rule = toVisit.remove();
+      long longestDependent = 0;
+      for (BuildRule dependent : dependents.get(rule)) {
+        longestDependent = Math.max(longestDependent, remaining.get(dependent));
+      }
+      remaining.put(rule, history.getEstimatedDurationMillis(rule) + longestDependent);
+      for (BuildRule dep : getAllDeps(rule)) {
+        int count = unvisitedDependents.get(dep) - 1;
+        unvisitedDependents.put(dep, count);
+        if (count == 0) {
+          toVisit.add(dep);
+        }
+      }
+    }
+
+    // Runtime deps may form cycles, whose rules the walk above never gets to.
+    for (BuildRule rule : rules) {
+      if (!remaining.containsKey(rule)) {
+        remaining.put(rule, history.getEstimatedDurationMillis(rule));
+      }
+    }
+
+    // Follow the longest estimates from the rule that starts the longest chain to the top.
+    ImmutableList.Builder<BuildRule> criticalPath = ImmutableList.builder();
+    BuildRule next = null;
+    for (BuildRule rule : rules) {
+      if (next == null || remaining.get(rule) > remaining.get(next)) {
+        next = rule;
+      }
+    }
+    Set<BuildRule> onCriticalPath = new HashSet<>();
+    while (next != null && onCriticalPath.add(next)) {
+      criticalPath.add(next);
+      BuildRule longest = null;
+      for (BuildRule dependent : dependents.get(next)) {
+        if (longest == null || remaining.get(dependent) > remaining.get(longest)) {
+          longest = dependent;
+        }
+      }
+      next = longest;
+    }
+
+    return new BuildRuleCriticalPaths(ImmutableMap.copyOf(remaining), criticalPath.build());
+  }
+
+  /**
+   * @return how long the build is expected to take from when {@code rule} starts, or zero for rules
+   *     that aren't part of it.
+   */
+  public long getRemainingMillis(BuildRule rule) {
+    Long millis = remainingMillis.get(rule);
+    return millis == null ? 0 : millis;
+  }
+
+  /**
+   * @return the rules on the longest chain of the build, in the order they have to be built.
+   */
+  public ImmutableList<BuildRule> getCriticalPath() {
+    return criticalPath;
+  }
+
+  /**
+   * @return how long the build is expected to take at least.
+   */
+  public long getCriticalPathMillis() {
+    return criticalPath.isEmpty() ? 0 : getRemainingMillis(criticalPath.get(0));
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.BuckConstant;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * How long the steps of each rule took the last times they ran, and what the rule depended on then,
+ * kept across builds so that the build engine can estimate how long the rest of a build will take
+ * from each rule and start the rules on the longest paths first.
+ * <p>
+ * Only the {@link #MAX_ENTRIES} most recently built rules are kept. Saving merges the rules built
+ * by this build into what is on disk then, so that concurrent builds mostly keep each other's
+ * entries, and moves the result into place atomically, so readers never see a partial history.
+ * <p>
+ * A rule that isn't in the history, say because it fell out of it, may still be in the per-build
+ * timing history that {@code buck audit timings} reads, which is given to {@link #load} as a
+ * fallback, so that no separate estimates are kept for such rules.
+ */
+public class BuildRuleDurationHistory {
+
+  private static final Logger LOG = Logger.get(BuildRuleDurationHistory.class);
+
+  @VisibleForTesting
+  static final Path PATH = BuckConstant.BUCK_OUTPUT_PATH.resolve("rule_durations.json");
+
+  private static final TypeReference<Map<String, Entry>> TYPE =
+      new TypeReference<Map<String, Entry>>() {};
+
+  /** How many rules to remember, those built most recently first. */
+  @VisibleForTesting
+  static final int MAX_ENTRIES = 20000;
+
+  /** How long a rule is expected to take if neither it nor its type says otherwise. */
+  @VisibleForTesting
+  static final long DEFAULT_DURATION_MILLIS = 1000;
+
+  /** Rough durations of the types of rules that usually take much longer or shorter. */
+  private static final ImmutableMap<String, Long> DEFAULT_DURATIONS_BY_TYPE = ImmutableMap.of(
+      "aapt_package_resources", 5000L,
+      "android_binary", 30000L,
+      "cxx_link", 5000L,
+      "default_java_library", 3000L,
+      "pre_dex_merge", 10000L);
+
+  @Nullable
+  private final ProjectFilesystem filesystem;
+  private final ObjectMapper objectMapper;
+  private final ConcurrentMap<String, Entry> entries;
+  /** Estimated durations of rules that have no entry, by fully qualified build target. */
+  private final Supplier<? extends Map<String, Long>> fallbackDurations;
+  /** The entries recorded by this build, which are the only ones it has anything new about. */
+  private final ConcurrentMap<String, Entry> recordedEntries = new ConcurrentHashMap<>();
+
+  @VisibleForTesting
+  BuildRuleDurationHistory(
+      @Nullable ProjectFilesystem filesystem,
+      ObjectMapper objectMapper,
+      Map<String, Entry> entries) {
+    this(filesystem, objectMapper, entries, Suppliers.ofInstance(ImmutableMap.<String, Long>of()));
+  }
+
+  private BuildRuleDurationHistory(
+      @Nullable ProjectFilesystem filesystem,
+      ObjectMapper objectMapper,
+      Map<String, Entry> entries,
+      Supplier<? extends Map<String, Long>> fallbackDurations) {
+    this.filesystem = filesystem;
+    this.objectMapper = objectMapper;
+    this.entries = new ConcurrentHashMap<>(entries);
+    this.fallbackDurations = fallbackDurations;
+  }
+
+  /**
+   * @return the history saved under {@code buck-out} of {@code filesystem}, or an empty one if
+   *     there is none or it can't be read.
+   */
+  public static BuildRuleDurationHistory load(
+      ProjectFilesystem filesystem,
+      ObjectMapper objectMapper) {
+    return load(
+        filesystem,
+        objectMapper,
+        Suppliers.ofInstance(ImmutableMap.<String, Long>of()));
+  }
+
+  /**
+   * @param fallbackDurations how long the steps of rules that aren't in the history are expected
+   *     to take, by fully qualified build target. Only asked for once a rule isn't in the history.
+   * @return the history saved under {@code buck-out} of {@code filesystem}, or an empty one if
+   *     there is none or it can't be read.
+   */
+  public static BuildRuleDurationHistory load(
+      ProjectFilesystem filesystem,
+      ObjectMapper objectMapper,
+      Supplier<? extends Map<String, Long>> fallbackDurations) {
+    return new BuildRuleDurationHistory(
+        filesystem,
+        objectMapper,
+        read(filesystem, objectMapper),
+        Suppliers.memoize(fallbackDurations));
+  }
+
+  /**
+   * @return the saved entries, those built most recently first.
+   */
+  private static Map<String, Entry> read(ProjectFilesystem filesystem, ObjectMapper objectMapper) {
+    Optional<String> contents = filesystem.readFileIfItExists(PATH);
+    if (contents.isPresent()) {
+      try {
+        return objectMapper.readValue(contents.get(), TYPE);
+      } catch (IOException e) {
+        LOG.warn(e, "Ignoring unreadable rule durations in %s.", PATH);
+      }
+    }
+    return ImmutableMap.of();
+  }
+
+  /**
+   * @return an empty history that is never saved.
+   */
+  public static BuildRuleDurationHistory inMemory() {
+    return new BuildRuleDurationHistory(
+        null,
+        new ObjectMapper(),
+        ImmutableMap.<String, Entry>of());
+  }
+
+  /**
+   * Saves the entries recorded by this build ahead of those on disk, if it recorded any.
+   */
+  public void save() throws IOException {
+    if (filesystem == null || recordedEntries.isEmpty()) {
+      return;
+    }
+    Map<String, Entry> toSave = new LinkedHashMap<>(new TreeMap<>(recordedEntries));
+    for (Map.Entry<String, Entry> entry : read(filesystem, objectMapper).entrySet()) {
+      if (toSave.size() >= MAX_ENTRIES) {
+        break;
+      }
+      if (!toSave.containsKey(entry.getKey())) {
+        toSave.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    Path tempPath = PATH.resolveSibling(PATH.getFileName() + "." + UUID.randomUUID());
+    filesystem.createParentDirs(PATH);
+    filesystem.writeContentsToPath(objectMapper.writeValueAsString(toSave), tempPath);
+    filesystem.move(
+        tempPath,
+        PATH,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @return what is known about each rule, by fully qualified build target.
+   */
+  public ImmutableMap<String, Entry> getEntries() {
+    return ImmutableMap.copyOf(new TreeMap<>(entries));
+  }
+
+  /**
+   * @return how long the steps of {@code rule} are expected to take when it is built locally.
+   */
+  public long getEstimatedDurationMillis(BuildRule rule) {
+    Entry entry = entries.get(rule.getFullyQualifiedName());
+    if (entry != null) {
+      return entry.getDurationMillis();
+    }
+    Long duration = fallbackDurations.get().get(rule.getFullyQualifiedName());
+    if (duration != null) {
+      return duration;
+    }
+    duration = DEFAULT_DURATIONS_BY_TYPE.get(rule.getType());
+    return duration == null ? DEFAULT_DURATION_MILLIS : duration;
+  }
+
+  /**
+   * Records that the steps of {@code rule} just took {@code durationMillis}, averaging it with
+   * how long they took before so that one slow or fast build doesn't throw off the estimate.
+   */
+  public void record(BuildRule rule, long durationMillis) {
+    Entry previous = entries.get(rule.getFullyQualifiedName());
+    long duration = previous == null
+        ? durationMillis
+        : (previous.getDurationMillis() + durationMillis) / 2;
+    ImmutableSortedSet.Builder<String> deps = ImmutableSortedSet.naturalOrder();
+    for (BuildRule dep : BuildRuleCriticalPaths.getAllDeps(rule)) {
+      deps.add(dep.getFullyQualifiedName());
+    }
+    Entry entry = new Entry(duration, deps.build());
+    entries.put(rule.getFullyQualifiedName(), entry);
+    recordedEntries.put(rule.getFullyQualifiedName(), entry);
+  }
+
+  /**
+   * How long the steps of a rule take and what it depends on, at build time and at run time.
+   */
+  public static class Entry {
+    private final long durationMillis;
+    private final ImmutableSortedSet<String> deps;
+
+    @JsonCreator
+    public Entry(
+        @JsonProperty("durationMillis") long durationMillis,
+        @JsonProperty("deps") @Nullable Collection<String> deps) {
+      this.durationMillis = durationMillis;
+      this.deps = deps == null ? ImmutableSortedSet.<String>of() : ImmutableSortedSet.copyOf(deps);
+    }
+
+    @JsonProperty("durationMillis")
+    public long getDurationMillis() {
+      return durationMillis;
+    }
+
+    @JsonProperty("deps")
+    public ImmutableSortedSet<String> getDeps() {
+      return deps;
+    }
+  }
+}
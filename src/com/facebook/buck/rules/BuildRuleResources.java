@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.util.concurrent.ResourceAmounts;
+import com.facebook.buck.util.concurrent.ResourceLimiter;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How much of the machine each type of rule is expected to use while its steps run, and the
+ * {@link ResourceLimiter} that the build engine waits on before running them, so that a build
+ * doesn't run more memory-hungry steps, such as C++ links or ProGuard, than the machine can hold.
+ */
+public class BuildRuleResources {
+
+  /** What a rule is expected to use unless its type says otherwise: one core. */
+  public static final ResourceAmounts DEFAULT_AMOUNTS = new ResourceAmounts(1, 0);
+
+  /**
+   * What the rules known to need a lot of memory are expected to use, by {@link BuildRule#getType},
+   * before any that the user configures.
+   */
+  private static final ImmutableMap<String, ResourceAmounts> DEFAULT_AMOUNTS_BY_TYPE =
+      ImmutableMap.of(
+          // Runs ProGuard, which gets a gigabyte of heap by default, and dx.
+          "android_binary", new ResourceAmounts(1, 1024),
+          "android_instrumentation_apk", new ResourceAmounts(1, 1024),
+          "cxx_link", new ResourceAmounts(1, 1024),
+          "pre_dex_merge", new ResourceAmounts(1, 1024));
+
+  private final ResourceLimiter limiter;
+  private final ImmutableMap<String, ResourceAmounts> amountsByType;
+
+  /**
+   * @param configuredAmountsByType what rules are expected to use, by type, overriding the
+   *     defaults.
+   */
+  public BuildRuleResources(
+      ResourceLimiter limiter,
+      ImmutableMap<String, ResourceAmounts> configuredAmountsByType) {
+    this.limiter = limiter;
+    Map<String, ResourceAmounts> amountsByType = new HashMap<>(DEFAULT_AMOUNTS_BY_TYPE);
+    amountsByType.putAll(configuredAmountsByType);
+    this.amountsByType = ImmutableMap.copyOf(amountsByType);
+  }
+
+  /**
+   * @return resources that let every rule run as soon as a thread is free to run it.
+   */
+  public static BuildRuleResources unlimited() {
+    return new BuildRuleResources(
+        ResourceLimiter.unlimited(),
+        ImmutableMap.<String, ResourceAmounts>of());
+  }
+
+  public ResourceAmounts getAmounts(BuildRule rule) {
+    ResourceAmounts amounts = amountsByType.get(rule.getType());
+    return amounts == null ? DEFAULT_AMOUNTS : amounts;
+  }
+
+  /**
+   * Waits until the steps of {@code rule} can run.
+   *
+   * @return the permit to run them, which must be closed once they have finished.
+   */
+  public ResourceLimiter.Permit acquire(BuildRule rule) throws InterruptedException {
+    return limiter.acquire(getAmounts(rule));
+  }
+}
@@ -40,6 +40,8 @@ import com.facebook.buck.util.cache.DefaultFileHashCache;
 import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.cache.StackedFileHashCache;
 import com.facebook.buck.util.concurrent.MoreFutures;
+import com.facebook.buck.util.concurrent.PrioritizedExecutor;
+import com.facebook.buck.util.concurrent.ResourceLimiter;
 import com.facebook.buck.zip.Unzip;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
@@ -76,6 +78,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -106,6 +109,7 @@ public class CachingBuildEngine implements BuildEngine {
   private volatile Throwable firstFailure = null;
 
   private final ListeningExecutorService service;
+  private final PrioritizedExecutor prioritizedService;
   private final FileHashCache fileHashCache;
   private final BuildMode buildMode;
   private final DepFiles depFiles;
@@ -119,6 +123,7 @@ public class CachingBuildEngine implements BuildEngine {
       DepFiles depFiles,
       ImmutableMap<ProjectFilesystem, BuildRuleResolver> pathResolver) {
     this.service = service;
+    this.prioritizedService = new PrioritizedExecutor(service);
     this.fileHashCache = fileHashCache;
     this.buildMode = buildMode;
     this.depFiles = depFiles;
@@ -143,6 +148,7 @@ public class CachingBuildEngine implements BuildEngine {
       RuleKeyBuilderFactory abiRuleKeyBuilderFactory,
       RuleKeyBuilderFactory depFileRuleKeyBuilderFactory) {
     this.service = service;
+    this.prioritizedService = new PrioritizedExecutor(service);
     this.fileHashCache = fileHashCache;
     this.buildMode = buildMode;
     this.depFiles = depFiles;
@@ -370,7 +376,9 @@ public class CachingBuildEngine implements BuildEngine {
                 BuildResult.success(rule, BuildRuleSuccessType.BUILT_LOCALLY, cacheResult));
           }
         },
-        service);
+        // Of the rules whose deps are built, start those on the longest paths first.
+        prioritizedService.withPriority(
+            context.getBuildRuleCriticalPaths().getRemainingMillis(rule)));
   }
 
   private ListenableFuture<BuildResult> processBuildRule(
@@ -907,11 +915,17 @@ public class CachingBuildEngine implements BuildEngine {
       if (cacheResult.getType() == CacheResultType.HIT) {
 
         // If we have a hit, also write out the build metadata.
-        Path metadataDir = BuildInfo.getPathToMetadataDirectory(rule.getBuildTarget());
-        for (Map.Entry<String, String> ent : cacheResult.getMetadata().entrySet()) {
-          Path dest = metadataDir.resolve(ent.getKey());
-          filesystem.createParentDirs(dest);
-          filesystem.writeContentsToPath(ent.getValue(), dest);
+        Optional<BuildMetadataStore> store =
+            buildContext.getBuildMetadataStores().get(filesystem);
+        if (store.isPresent()) {
+          store.get().put(rule.getBuildTarget(), cacheResult.getMetadata());
+        } else {
+          Path metadataDir = BuildInfo.getPathToMetadataDirectory(rule.getBuildTarget());
+          for (Map.Entry<String, String> ent : cacheResult.getMetadata().entrySet()) {
+            Path dest = metadataDir.resolve(ent.getKey());
+            filesystem.createParentDirs(dest);
+            filesystem.writeContentsToPath(ent.getValue(), dest);
+          }
         }
       }
 
@@ -954,14 +968,21 @@ public class CachingBuildEngine implements BuildEngine {
 
     StepRunner stepRunner = context.getStepRunner();
     Optional<BuildTarget> optionalTarget = Optional.of(rule.getBuildTarget());
-    for (Step step : steps) {
-      stepRunner.runStepForBuildTarget(step, optionalTarget);
-
-      // Check for interruptions that may have been ignored by step.
-      if (Thread.interrupted()) {
-        Thread.currentThread().interrupt();
-        throw new InterruptedException();
+    try (ResourceLimiter.Permit permit = context.getBuildRuleResources().acquire(rule)) {
+      // Don't count the time spent waiting for the resources towards how long the rule takes.
+      long stepsStart = System.nanoTime();
+      for (Step step : steps) {
+        stepRunner.runStepForBuildTarget(step, optionalTarget);
+
+        // Check for interruptions that may have been ignored by step.
+        if (Thread.interrupted()) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedException();
+        }
       }
+      context.getBuildRuleDurationHistory().record(
+          rule,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stepsStart));
     }
 
     long end = System.nanoTime();
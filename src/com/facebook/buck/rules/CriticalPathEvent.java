@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.EventKey;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Posted when a build has estimated its critical path, before any rule starts.
+ */
+public class CriticalPathEvent extends AbstractBuckEvent {
+
+  private final ImmutableList<String> targets;
+  private final long estimatedMillis;
+
+  protected CriticalPathEvent(ImmutableList<String> targets, long estimatedMillis) {
+    super(EventKey.unique());
+    this.targets = targets;
+    this.estimatedMillis = estimatedMillis;
+  }
+
+  public static CriticalPathEvent estimated(BuildRuleCriticalPaths criticalPaths) {
+    ImmutableList.Builder<String> targets = ImmutableList.builder();
+    for (BuildRule rule : criticalPaths.getCriticalPath()) {
+      targets.add(rule.getFullyQualifiedName());
+    }
+    return new CriticalPathEvent(targets.build(), criticalPaths.getCriticalPathMillis());
+  }
+
+  /**
+   * @return the fully qualified names of the rules on the critical path, in the order they have to
+   *     be built.
+   */
+  public ImmutableList<String> getTargets() {
+    return targets;
+  }
+
+  public long getEstimatedMillis() {
+    return estimatedMillis;
+  }
+
+  @Override
+  protected String getValueString() {
+    return Joiner.on(" -> ").join(targets);
+  }
+
+  @Override
+  public String getEventName() {
+    return "CriticalPathEstimated";
+  }
+}
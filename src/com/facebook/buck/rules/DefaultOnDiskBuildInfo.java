@@ -23,6 +23,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -39,7 +40,9 @@ import java.util.Map;
  * Utility for reading the metadata associated with a build rule's output. This is metadata that
  * would have been written by a {@link BuildInfoRecorder} when the rule was built initially.
  * <p>
- * Such metadata is stored as key/value pairs.
+ * Such metadata is stored as key/value pairs, as a file per key in the metadata directory of the
+ * rule or, when there is one, in a {@link BuildMetadataStore}. Values are read from the store if it
+ * has them, and from the files otherwise, such as for rules last built without the store.
  */
 public class DefaultOnDiskBuildInfo implements OnDiskBuildInfo {
 
@@ -91,15 +94,32 @@ public class DefaultOnDiskBuildInfo implements OnDiskBuildInfo {
       };
 
   private final ProjectFilesystem projectFilesystem;
+  private final BuildTarget target;
   private final Path metadataDirectory;
+  private final Optional<BuildMetadataStore> store;
 
   public DefaultOnDiskBuildInfo(BuildTarget target, ProjectFilesystem projectFilesystem) {
+    this(target, projectFilesystem, Optional.<BuildMetadataStore>absent());
+  }
+
+  public DefaultOnDiskBuildInfo(
+      BuildTarget target,
+      ProjectFilesystem projectFilesystem,
+      Optional<BuildMetadataStore> store) {
     this.projectFilesystem = projectFilesystem;
+    this.target = target;
     this.metadataDirectory = BuildInfo.getPathToMetadataDirectory(target);
+    this.store = store;
   }
 
   @Override
   public Optional<String> getValue(String key) {
+    if (store.isPresent()) {
+      Optional<ImmutableMap<String, String>> values = store.get().get(target);
+      if (values.isPresent() && values.get().containsKey(key)) {
+        return Optional.of(values.get().get(key));
+      }
+    }
     return projectFilesystem.readFileIfItExists(metadataDirectory.resolve(key));
   }
 
@@ -159,6 +179,9 @@ public class DefaultOnDiskBuildInfo implements OnDiskBuildInfo {
 
   @Override
   public void deleteExistingMetadata() throws IOException {
+    if (store.isPresent()) {
+      store.get().delete(target);
+    }
     projectFilesystem.deleteRecursivelyIfExists(metadataDirectory);
   }
 
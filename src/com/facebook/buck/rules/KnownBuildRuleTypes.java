@@ -28,6 +28,7 @@ import com.facebook.buck.android.AndroidManifestDescription;
 import com.facebook.buck.android.AndroidPrebuiltAarDescription;
 import com.facebook.buck.android.AndroidResourceDescription;
 import com.facebook.buck.android.ApkGenruleDescription;
+import com.facebook.buck.android.DxMemoryBudget;
 import com.facebook.buck.android.GenAidlDescription;
 import com.facebook.buck.android.ImmutableNdkCxxPlatforms;
 import com.facebook.buck.android.NdkCxxPlatform;
@@ -428,6 +429,9 @@ public class KnownBuildRuleTypes {
         new AppleBinaryDescription(cxxBinaryDescription);
     builder.register(appleBinaryDescription);
 
+    // The heap is shared by every in-process dx invocation, whichever rule runs it.
+    DxMemoryBudget.configureDefault(androidConfig.getDxInProcessMemoryBudgetMegabytes());
+
     // Create an executor service exclusively for the smart dexing step.
     ListeningExecutorService dxExecutorService =
         MoreExecutors.listeningDecorator(
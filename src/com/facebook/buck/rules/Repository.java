@@ -22,6 +22,7 @@ import com.facebook.buck.cli.Config;
 import com.facebook.buck.io.ExecutableFinder;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.io.Watchman;
+import com.facebook.buck.json.CachingGlobber;
 import com.facebook.buck.json.DefaultProjectBuildFileParserFactory;
 import com.facebook.buck.json.ProjectBuildFileParserFactory;
 import com.facebook.buck.json.ProjectBuildFileParserOptions;
@@ -202,6 +203,12 @@ public class Repository {
   }
 
   public ProjectBuildFileParserFactory createBuildFileParserFactory(boolean useWatchmanGlob) {
+    return createBuildFileParserFactory(useWatchmanGlob, Optional.<CachingGlobber>absent());
+  }
+
+  public ProjectBuildFileParserFactory createBuildFileParserFactory(
+      boolean useWatchmanGlob,
+      Optional<CachingGlobber> globber) {
     ParserConfig parserConfig = new ParserConfig(getBuckConfig());
 
     return new DefaultProjectBuildFileParserFactory(
@@ -215,6 +222,7 @@ public class Repository {
             .setUseWatchmanGlob(useWatchmanGlob)
             .setWatchman(watchman)
             .setWatchmanQueryTimeoutMs(parserConfig.getWatchmanQueryTimeoutMs())
+            .setGlobber(globber)
             .build());
   }
 
@@ -19,7 +19,6 @@ package com.facebook.buck.rules;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.rules.keys.SupportsInputBasedRuleKey;
 import com.facebook.buck.step.Step;
-import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.SymlinkTreeStep;
 import com.facebook.buck.util.HumanReadableException;
 import com.google.common.collect.ImmutableList;
@@ -106,12 +105,12 @@ public class SymlinkTree
   // We generate the symlinks using post-build steps to avoid the cache because:
   // 1) We don't currently support caching symlinks
   // 2) It's almost certainly always more expensive to cache them rather than just re-create them.
+  // The step updates any existing tree in place, so we don't clean the directory first.
   @Override
   public ImmutableList<Step> getPostBuildSteps(
       BuildContext context,
       BuildableContext buildableContext) {
-    return ImmutableList.of(
-        new MakeCleanDirectoryStep(getProjectFilesystem(), root),
+    return ImmutableList.<Step>of(
         new SymlinkTreeStep(getProjectFilesystem(), root, resolveLinks()));
   }
 
@@ -36,6 +36,7 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import org.immutables.value.Value;
 
@@ -102,6 +103,13 @@ public abstract class ExecutionContext implements Closeable {
   @Value.Parameter
   public abstract Optional<TargetDeviceOptions> getTargetDeviceOptions();
 
+  /**
+   * The pool the build runs its rules on, which steps may share for work of their own. Its threads
+   * may all be busy running steps, so a step must not wait on work it submits without also doing
+   * that work itself.
+   */
+  @Value.Parameter
+  public abstract Optional<ListeningExecutorService> getExecutorService();
 
   @Value.Derived
   public Verbosity getVerbosity() {
@@ -198,6 +206,7 @@ public abstract class ExecutionContext implements Closeable {
             /* loadLimit */ Double.POSITIVE_INFINITY);
     private Optional<AdbOptions> adbOptions = Optional.absent();
     private Optional<TargetDeviceOptions> targetDeviceOptions = Optional.absent();
+    private Optional<ListeningExecutorService> executorService = Optional.absent();
 
     private Builder() {}
 
@@ -218,7 +227,8 @@ public abstract class ExecutionContext implements Closeable {
           Preconditions.checkNotNull(classLoaderCache),
           Preconditions.checkNotNull(concurrencyLimit),
           adbOptions,
-          targetDeviceOptions);
+          targetDeviceOptions,
+          executorService);
     }
 
     public Builder setExecutionContext(ExecutionContext executionContext) {
@@ -236,6 +246,7 @@ public abstract class ExecutionContext implements Closeable {
       setConcurrencyLimit(executionContext.getConcurrencyLimit());
       setAdbOptions(executionContext.getAdbOptions());
       setTargetDeviceOptions(executionContext.getTargetDeviceOptions());
+      setExecutorService(executionContext.getExecutorService());
       return this;
     }
 
@@ -326,5 +337,10 @@ public abstract class ExecutionContext implements Closeable {
       this.targetDeviceOptions = targetDeviceOptions;
       return this;
     }
+
+    public Builder setExecutorService(Optional<ListeningExecutorService> executorService) {
+      this.executorService = executorService;
+      return this;
+    }
   }
 }
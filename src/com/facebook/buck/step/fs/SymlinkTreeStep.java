@@ -16,17 +16,54 @@
 
 package com.facebook.buck.step.fs;
 
+import com.facebook.buck.io.MoreFiles;
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 
+/**
+ * Materializes a tree of symlinks under {@code root}.
+ * <p>
+ * Rather than wiping and recreating the whole tree, the existing contents of {@code root} are
+ * diffed against the desired link map: links which already point at the right place are left
+ * untouched, stale links and stray files are removed, and only the missing links are created
+ * (in parallel on the build's pool, for large trees).  This keeps unchanged links' mtimes stable
+ * for downstream tools.
+ */
 public class SymlinkTreeStep implements Step {
 
+  private static final Logger LOG = Logger.get(SymlinkTreeStep.class);
+
+  /**
+   * Below this many links to create, the overhead of handing them to other threads isn't worth it.
+   */
+  @VisibleForTesting
+  static final int PARALLEL_LINK_THRESHOLD = 256;
+
   private final ProjectFilesystem filesystem;
   private final Path root;
   private final ImmutableMap<Path, Path> links;
@@ -48,23 +85,163 @@ public class SymlinkTreeStep implements Step {
   }
 
   @Override
-  public int execute(ExecutionContext context) {
+  public int execute(ExecutionContext context) throws InterruptedException {
+    // Build up the absolute link -> target map we want to end up with.
+    final Path absoluteRoot = filesystem.resolve(root);
+    final Map<Path, Path> missing = Maps.newLinkedHashMap();
+    final Set<Path> requiredDirectories = Sets.newHashSet();
+    requiredDirectories.add(absoluteRoot);
     for (ImmutableMap.Entry<Path, Path> ent : links.entrySet()) {
-      Path target = filesystem.resolve(ent.getValue());
-      Path link = filesystem.resolve(root.resolve(ent.getKey()));
-      try {
-        filesystem.mkdirs(link.getParent());
-        filesystem.createSymLink(link, target, true /* force */);
-      } catch (IOException e) {
-        String msg = String.format("failed creating linking \"%s\" -> \"%s\"", link, target);
-        context.logError(e, msg);
-        e.printStackTrace(context.getStdErr());
-        return 1;
+      Path link = absoluteRoot.resolve(ent.getKey());
+      missing.put(link, filesystem.resolve(ent.getValue()));
+      Path parent = link.getParent();
+      while (parent.startsWith(absoluteRoot) && requiredDirectories.add(parent)) {
+        parent = parent.getParent();
       }
     }
+
+    try {
+      int removed = removeStaleEntries(absoluteRoot, missing, requiredDirectories);
+      LOG.verbose(
+          "%s: keeping %d links, removed %d stale entries, creating %d links",
+          root,
+          links.size() - missing.size(),
+          removed,
+          missing.size());
+      createLinks(context, missing);
+    } catch (IOException e) {
+      context.logError(e, "failed updating link tree \"%s\"", root);
+      e.printStackTrace(context.getStdErr());
+      return 1;
+    }
     return 0;
   }
 
+  /**
+   * Walks the existing tree under {@code absoluteRoot}, deleting everything which isn't part of the
+   * desired tree, and removes links which are already correct from {@code missing}.
+   *
+   * @return the number of entries deleted.
+   */
+  private int removeStaleEntries(
+      final Path absoluteRoot,
+      final Map<Path, Path> missing,
+      final Set<Path> requiredDirectories) throws IOException {
+    if (!Files.isDirectory(absoluteRoot)) {
+      if (Files.exists(absoluteRoot) || Files.isSymbolicLink(absoluteRoot)) {
+        Files.delete(absoluteRoot);
+      }
+      return 0;
+    }
+
+    final int[] removed = {0};
+    Files.walkFileTree(
+        absoluteRoot,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            if (requiredDirectories.contains(dir)) {
+              return FileVisitResult.CONTINUE;
+            }
+            MoreFiles.deleteRecursively(dir);
+            removed[0]++;
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            Path target = missing.get(file);
+            if (target != null &&
+                attrs.isSymbolicLink() &&
+                Files.readSymbolicLink(file).equals(target)) {
+              missing.remove(file);
+            } else {
+              Files.delete(file);
+              removed[0]++;
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return removed[0];
+  }
+
+  private void createLinks(ExecutionContext context, Map<Path, Path> missing)
+      throws IOException, InterruptedException {
+    // Create parent directories up front and serially, so that link creation can be done in any
+    // order.
+    Set<Path> parents = Sets.newHashSet();
+    for (Path link : missing.keySet()) {
+      if (parents.add(link.getParent())) {
+        filesystem.mkdirs(link.getParent());
+      }
+    }
+
+    final Queue<Map.Entry<Path, Path>> queue = new ConcurrentLinkedQueue<>(missing.entrySet());
+    int helpers = context.getConcurrencyLimit().threadLimit - 1;
+    if (missing.size() < PARALLEL_LINK_THRESHOLD ||
+        helpers < 1 ||
+        !context.getExecutorService().isPresent()) {
+      createLinksFrom(queue);
+      return;
+    }
+
+    // Share the build's pool rather than spinning up one of our own. Its threads may all be busy
+    // running steps like this one, so this thread creates links too rather than just waiting, and
+    // helpers which haven't started by the time it runs out are cancelled.
+    ListeningExecutorService service = context.getExecutorService().get();
+    List<ListenableFuture<Void>> futures = Lists.newArrayList();
+    try {
+      for (int i = 0; i < helpers; i++) {
+        futures.add(
+            service.submit(
+                new Callable<Void>() {
+                  @Override
+                  public Void call() throws IOException {
+                    createLinksFrom(queue);
+                    return null;
+                  }
+                }));
+      }
+      createLinksFrom(queue);
+    } finally {
+      // If this thread failed, leave the helpers nothing more to do.
+      queue.clear();
+      for (ListenableFuture<Void> future : futures) {
+        future.cancel(false);
+      }
+    }
+    for (ListenableFuture<Void> future : futures) {
+      if (future.isCancelled()) {
+        continue;
+      }
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+  }
+
+  private void createLinksFrom(Queue<Map.Entry<Path, Path>> queue) throws IOException {
+    Map.Entry<Path, Path> ent;
+    while ((ent = queue.poll()) != null) {
+      createLink(ent.getKey(), ent.getValue());
+    }
+  }
+
+  private void createLink(Path link, Path target) throws IOException {
+    try {
+      filesystem.createSymLink(link, target, true /* force */);
+    } catch (IOException e) {
+      throw new IOException(
+          String.format("failed creating linking \"%s\" -> \"%s\"", link, target),
+          e);
+    }
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (!(obj instanceof SymlinkTreeStep)) {
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.test;
 
+import com.facebook.buck.java.TestJvmPool;
 import com.facebook.buck.test.selectors.TestSelectorList;
 import com.facebook.buck.util.immutables.BuckStyleImmutable;
 import com.google.common.base.Optional;
@@ -71,10 +72,33 @@ abstract class AbstractTestRunningOptions {
     return false;
   }
 
+  /**
+   * The most shards that the test classes of a single Java test are split into, so that they can
+   * run concurrently.
+   */
+  @Value.Default
+  public int getMaxShardsPerJavaTest() {
+    return 1;
+  }
+
+  /**
+   * How long, judging by earlier runs, each shard of a Java test should take at least, so that a
+   * shard does enough work to pay for the JVM it starts.
+   */
+  @Value.Default
+  public long getMinShardDurationMillis() {
+    return 30000;
+  }
+
   public abstract Optional<String> getPathToXmlTestOutput();
 
   public abstract Optional<String> getPathToJavaAgent();
 
+  /**
+   * If present, Java tests are run in the warm JVMs of this pool rather than in a JVM each.
+   */
+  public abstract Optional<TestJvmPool> getTestJvmPool();
+
   @Value.Default
   public CoverageReportFormat getCoverageReportFormat() {
     return CoverageReportFormat.HTML;
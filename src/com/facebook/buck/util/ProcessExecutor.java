@@ -23,16 +23,28 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.zaxxer.nuprocess.NuAbstractProcessHandler;
+import com.zaxxer.nuprocess.NuProcess;
+import com.zaxxer.nuprocess.NuProcessBuilder;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Executes a {@link Process} and blocks until it is finished.
@@ -98,18 +110,35 @@ public class ProcessExecutor {
     }
   }
 
+  /**
+   * Set once NuProcess has failed to initialize, for example because the JVM doesn't allow it
+   * access to the internals it needs, so that we stop trying.
+   */
+  private static volatile boolean isNuProcessUnavailable = false;
+
   private final PrintStream stdOutStream;
   private final PrintStream stdErrStream;
   private final Ansi ansi;
+  private final boolean useNuProcess;
 
   /**
    * Creates a new {@link ProcessExecutor} with the specified parameters used for writing the output
    * of the process.
    */
   public ProcessExecutor(Console console) {
+    this(console, /* useNuProcess */ true);
+  }
+
+  /**
+   * @param useNuProcess whether {@link #launchAndExecute} may run processes on NuProcess's shared
+   *     event loop rather than with a {@link Process} and a thread per output stream.
+   */
+  @VisibleForTesting
+  ProcessExecutor(Console console, boolean useNuProcess) {
     this.stdOutStream = console.getStdOut();
     this.stdErrStream = console.getStdErr();
     this.ansi = console.getAnsi();
+    this.useNuProcess = useNuProcess;
   }
 
   /**
@@ -137,6 +166,9 @@ public class ProcessExecutor {
    * If {@code options} contains {@link Option#PRINT_STD_ERR}, then the stderr of the process will
    * be written directly to the stderr passed to the constructor of this executor. Otherwise,
    * the stderr of the process will be made available via {@link Result#getStderr()}.
+   * <p>
+   * Where possible, the process is run with NuProcess, whose few event loop threads service the
+   * output of every running process, instead of with two threads of its own.
    */
   public Result launchAndExecute(
       ProcessExecutorParams params,
@@ -145,9 +177,188 @@ public class ProcessExecutor {
       Optional<Long> timeOutMs,
       Optional<Function<Process, Void>> timeOutHandler)
       throws InterruptedException, IOException {
+    if (canLaunchWithNuProcess(params, timeOutHandler)) {
+      Optional<Result> result = launchAndExecuteWithNuProcess(params, options, stdin, timeOutMs);
+      if (result.isPresent()) {
+        return result.get();
+      }
+    }
     return execute(launchProcessInternal(params), options, stdin, timeOutMs, timeOutHandler);
   }
 
+  private boolean canLaunchWithNuProcess(
+      ProcessExecutorParams params,
+      Optional<Function<Process, Void>> timeOutHandler) {
+    Platform platform = Platform.detect();
+    return useNuProcess &&
+        !isNuProcessUnavailable &&
+        // NuProcess has no equivalent of a java.lang.Process to hand to the handler.
+        !timeOutHandler.isPresent() &&
+        // Nor does it support redirecting the streams of the process.
+        !params.getRedirectInput().isPresent() &&
+        !params.getRedirectOutput().isPresent() &&
+        !params.getRedirectError().isPresent() &&
+        (platform == Platform.LINUX || platform == Platform.MACOS) &&
+        canFindExecutable(params);
+  }
+
+  /**
+   * NuProcess reports that a process exited successfully when its executable couldn't be run,
+   * rather than failing to launch it, so we only give it commands whose executable exists.  The
+   * rest are left to {@link ProcessBuilder}, which fails as callers expect.
+   */
+  private static boolean canFindExecutable(ProcessExecutorParams params) {
+    String executable = params.getCommand().get(0);
+    if (executable.contains("/")) {
+      Path path = Paths.get(executable);
+      if (params.getDirectory().isPresent()) {
+        path = params.getDirectory().get().toPath().resolve(path);
+      }
+      return isExecutableFile(path);
+    }
+    // Like ProcessBuilder, search the PATH of this process rather than that of the child.
+    String searchPath = System.getenv("PATH");
+    if (searchPath == null) {
+      return false;
+    }
+    for (String directory : Splitter.on(File.pathSeparatorChar).split(searchPath)) {
+      if (isExecutableFile(Paths.get(directory.isEmpty() ? "." : directory, executable))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isExecutableFile(Path path) {
+    return Files.isRegularFile(path) && Files.isExecutable(path);
+  }
+
+  /**
+   * The NuProcess counterpart of {@link #execute(Process, Set, Optional, Optional, Optional)}.
+   *
+   * @return the result, or absent if NuProcess can't be used in this JVM.
+   */
+  private Optional<Result> launchAndExecuteWithNuProcess(
+      ProcessExecutorParams params,
+      Set<Option> options,
+      Optional<String> stdin,
+      Optional<Long> timeOutMs)
+      throws InterruptedException, IOException {
+    boolean shouldPrintStdOut = options.contains(Option.PRINT_STD_OUT);
+    boolean expectingStdOut = options.contains(Option.EXPECTING_STD_OUT);
+    PrintStream stdOutToWriteTo = shouldPrintStdOut ?
+        stdOutStream : new CapturingPrintStream();
+    boolean shouldPrintStdErr = options.contains(Option.PRINT_STD_ERR);
+    boolean expectingStdErr = options.contains(Option.EXPECTING_STD_ERR);
+    PrintStream stdErrToWriteTo = shouldPrintStdErr ?
+        stdErrStream : new CapturingPrintStream();
+    ConsumingProcessHandler handler = new ConsumingProcessHandler(
+        new ProcessOutputConsumer(
+            stdOutToWriteTo,
+            ansi,
+            /* flagOutputWrittenToStream */ !shouldPrintStdOut && !expectingStdOut),
+        new ProcessOutputConsumer(
+            stdErrToWriteTo,
+            ansi,
+            /* flagOutputWrittenToStream */ !shouldPrintStdErr && !expectingStdErr));
+
+    NuProcessBuilder processBuilder = new NuProcessBuilder(handler, params.getCommand());
+    if (params.getDirectory().isPresent()) {
+      processBuilder.setCwd(params.getDirectory().get().toPath());
+    }
+    if (params.getEnvironment().isPresent()) {
+      processBuilder.environment().clear();
+      processBuilder.environment().putAll(params.getEnvironment().get());
+    }
+
+    NuProcess process;
+    try {
+      process = processBuilder.start();
+    } catch (ExceptionInInitializerError | NoClassDefFoundError | UnsatisfiedLinkError e) {
+      LOG.warn(e, "Unable to use NuProcess, falling back to java.lang.Process.");
+      isNuProcessUnavailable = true;
+      return Optional.absent();
+    }
+    if (process == null) {
+      throw new IOException(String.format("Could not start process with params %s", params));
+    }
+
+    boolean timedOut = false;
+    try {
+      if (stdin.isPresent()) {
+        byte[] bytes = stdin.get().getBytes(Charset.defaultCharset());
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        process.writeStdin(buffer);
+        process.closeStdin(/* force */ false);
+      }
+
+      // Wait for the process to complete.  If a timeout was given, we wait up to the timeout
+      // for it to finish then kill it.
+      if (timeOutMs.isPresent() && !handler.awaitExit(timeOutMs.get())) {
+        timedOut = true;
+        process.destroy(/* force */ false);
+      }
+      handler.awaitExit();
+    } catch (InterruptedException e) {
+      process.destroy(/* force */ false);
+      throw e;
+    }
+
+    Optional<String> stdoutText = getDataIfNotPrinted(stdOutToWriteTo, shouldPrintStdOut);
+    Optional<String> stderrText = getDataIfNotPrinted(stdErrToWriteTo, shouldPrintStdErr);
+    return Optional.of(
+        createResult(options, handler.getExitCode(), timedOut, stdoutText, stderrText));
+  }
+
+  /**
+   * Feeds the output of a process launched with NuProcess to {@link ProcessOutputConsumer}s on
+   * NuProcess's event loop, and lets the launching thread wait for it to exit.
+   */
+  private static class ConsumingProcessHandler extends NuAbstractProcessHandler {
+    private final ProcessOutputConsumer stdOut;
+    private final ProcessOutputConsumer stdErr;
+    private final CountDownLatch exited = new CountDownLatch(1);
+    private volatile int exitCode;
+
+    public ConsumingProcessHandler(ProcessOutputConsumer stdOut, ProcessOutputConsumer stdErr) {
+      this.stdOut = stdOut;
+      this.stdErr = stdErr;
+    }
+
+    @Override
+    public void onStdout(ByteBuffer buffer, boolean closed) {
+      stdOut.consume(buffer, closed);
+    }
+
+    @Override
+    public void onStderr(ByteBuffer buffer, boolean closed) {
+      stdErr.consume(buffer, closed);
+    }
+
+    @Override
+    public void onExit(int exitCode) {
+      // NuProcess delivers the last of the output before this, but make sure it's flushed.
+      stdOut.close();
+      stdErr.close();
+      this.exitCode = exitCode;
+      exited.countDown();
+    }
+
+    public boolean awaitExit(long timeOutMs) throws InterruptedException {
+      return exited.await(timeOutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void awaitExit() throws InterruptedException {
+      exited.await();
+    }
+
+    public int getExitCode() {
+      return exitCode;
+    }
+  }
+
   /**
    * Launches a {@link java.lang.Process} given {@link ProcessExecutorParams}.
    */
@@ -358,6 +569,18 @@ public class ProcessExecutor {
     // Report the exit code of the Process.
     int exitCode = process.exitValue();
 
+    return createResult(options, exitCode, timedOut, stdoutText, stderrText);
+  }
+
+  private Result createResult(
+      Set<Option> options,
+      int exitCode,
+      boolean timedOut,
+      Optional<String> stdoutText,
+      Optional<String> stderrText) {
+    boolean shouldPrintStdOut = options.contains(Option.PRINT_STD_OUT);
+    boolean shouldPrintStdErr = options.contains(Option.PRINT_STD_ERR);
+
     // If the command has failed and we're not being explicitly quiet, ensure everything gets
     // printed.
     if (exitCode != 0 && !options.contains(Option.IS_SILENT)) {
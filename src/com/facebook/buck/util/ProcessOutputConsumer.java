@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The push-based counterpart of {@link InputStreamConsumer}: decodes the bytes a process writes to
+ * one of its output streams as they are handed to a
+ * {@link com.zaxxer.nuprocess.NuProcessHandler}, and prints them to a {@link PrintStream} line by
+ * line, exactly as {@link InputStreamConsumer} would.
+ * <p>
+ * Calls must not overlap, which holds for the callbacks of a single process.
+ */
+final class ProcessOutputConsumer {
+
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+  private static final int DECODE_BUFFER_CAPACITY = 8 * 1024;
+
+  /**
+   * Decode buffers are only needed while a callback runs, so they are shared by all processes
+   * rather than allocated for each of their streams.  The pool is bounded so that a burst of
+   * parallel output doesn't pin its buffers forever.
+   */
+  private static final BlockingQueue<CharBuffer> DECODE_BUFFER_POOL =
+      new ArrayBlockingQueue<>(64);
+
+  private final PrintStream printStream;
+  private final Ansi ansi;
+  private final boolean flagOutputWrittenToStream;
+  private final CharsetDecoder decoder;
+  private final StringBuilder line = new StringBuilder();
+  private boolean hasWrittenOutputToPrintStream = false;
+  private boolean lastCharWasCarriageReturn = false;
+  private boolean closed = false;
+
+  /**
+   * @param flagOutputWrittenToStream If {@code true}, any output in this stream will be
+   *     flagged in the console using ANSI escape codes, if appropriate.
+   */
+  ProcessOutputConsumer(PrintStream printStream, Ansi ansi, boolean flagOutputWrittenToStream) {
+    this.printStream = printStream;
+    this.ansi = ansi;
+    this.flagOutputWrittenToStream = flagOutputWrittenToStream;
+    // Match the InputStreamReader used by InputStreamConsumer.
+    this.decoder = Charset.defaultCharset().newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  /**
+   * Consumes as many bytes of {@code buffer} as can be decoded, leaving the position after them.
+   * Any bytes left over are the start of a character that the next call should complete.
+   *
+   * @param endOfInput whether the stream has been closed, in which case any incomplete last line
+   *     is printed as well.
+   */
+  void consume(ByteBuffer buffer, boolean endOfInput) {
+    if (closed) {
+      return;
+    }
+    if (buffer.hasRemaining() || endOfInput) {
+      CharBuffer chars = acquireDecodeBuffer();
+      try {
+        CoderResult result;
+        do {
+          result = decoder.decode(buffer, chars, endOfInput);
+          processChars(chars);
+        } while (result.isOverflow());
+        if (endOfInput) {
+          while (decoder.flush(chars).isOverflow()) {
+            processChars(chars);
+          }
+          processChars(chars);
+        }
+      } finally {
+        releaseDecodeBuffer(chars);
+      }
+    }
+    if (endOfInput) {
+      close();
+    }
+  }
+
+  /**
+   * Prints any incomplete last line and resets the console highlighting, if it was used.  Safe to
+   * call more than once, for example if the process exits without closing its streams cleanly.
+   */
+  void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (line.length() > 0) {
+      printLine();
+    }
+    if (hasWrittenOutputToPrintStream) {
+      printStream.print(ansi.getHighlightedResetSequence());
+    }
+  }
+
+  private void processChars(CharBuffer chars) {
+    chars.flip();
+    while (chars.hasRemaining()) {
+      char c = chars.get();
+      if (lastCharWasCarriageReturn) {
+        lastCharWasCarriageReturn = false;
+        if (c == '\n') {
+          continue;
+        }
+      }
+      if (c == '\r' || c == '\n') {
+        lastCharWasCarriageReturn = c == '\r';
+        printLine();
+      } else {
+        line.append(c);
+      }
+    }
+    chars.clear();
+  }
+
+  private void printLine() {
+    if (!hasWrittenOutputToPrintStream && flagOutputWrittenToStream) {
+      printStream.print(ansi.getHighlightedWarningSequence());
+      hasWrittenOutputToPrintStream = true;
+    }
+    // As in InputStreamConsumer, print the line and the separator together so that they can't be
+    // interleaved with the other stream of the process.
+    line.append(LINE_SEPARATOR);
+    printStream.print(line.toString());
+    line.setLength(0);
+  }
+
+  private static CharBuffer acquireDecodeBuffer() {
+    CharBuffer buffer = DECODE_BUFFER_POOL.poll();
+    return buffer == null ? CharBuffer.allocate(DECODE_BUFFER_CAPACITY) : buffer;
+  }
+
+  private static void releaseDecodeBuffer(CharBuffer buffer) {
+    buffer.clear();
+    DECODE_BUFFER_POOL.offer(buffer);
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import com.facebook.buck.util.immutables.BuckStyleImmutable;
+
+import org.immutables.value.Value;
+
+/**
+ * How many paths a {@link FileHashPrefetcher} hashed, not counting any that were already cached,
+ * the size of those that are files, and how long it took.
+ */
+@Value.Immutable
+@BuckStyleImmutable
+abstract class AbstractFileHashPrefetchStats {
+
+  @Value.Parameter
+  public abstract int getPaths();
+
+  @Value.Parameter
+  public abstract long getBytes();
+
+  @Value.Parameter
+  public abstract long getElapsedMillis();
+
+  public long getBytesPerSecond() {
+    return getElapsedMillis() == 0 ? getBytes() * 1000 : getBytes() * 1000 / getElapsedMillis();
+  }
+}
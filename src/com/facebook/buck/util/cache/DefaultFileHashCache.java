@@ -16,17 +16,20 @@
 
 package com.facebook.buck.util.cache;
 
-import com.facebook.buck.hashing.PathHashing;
+import com.facebook.buck.hashing.StringHashing;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.util.HashCodeAndFileType;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
@@ -34,19 +37,64 @@ import com.google.common.io.ByteSource;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemLoopException;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 
 import javax.annotation.Nonnull;
 
+/**
+ * Caches the hashes of files and directories of a {@link ProjectFilesystem}. The hash of a
+ * directory is that of a Merkle tree: it is computed from the names, types and cached hashes of its
+ * children, so that a change to one file only costs rehashing that file and the directories above
+ * it, rather than every file under them.
+ */
 public class DefaultFileHashCache implements ProjectFileHashCache {
 
+  /**
+   * Files at least this large are hashed by mapping them into memory rather than reading them
+   * through a stream.
+   */
+  private static final long MIN_MAPPED_FILE_SIZE = 1024 * 1024;
+
+  /** Map large files a region at a time, so that files over 2GB can be mapped too. */
+  private static final long MAPPED_REGION_SIZE = 64 * 1024 * 1024;
+
+  private static final int MAPPED_COPY_BUFFER_SIZE = 64 * 1024;
+
   private final ProjectFilesystem projectFilesystem;
 
   @VisibleForTesting
   final LoadingCache<Path, HashCodeAndFileType> loadingCache;
 
+  /**
+   * The children of each directory in {@link #loadingCache}, so that invalidating a directory can
+   * invalidate the entries its hash was computed from.
+   */
+  @VisibleForTesting
+  final ConcurrentMap<Path, ImmutableList<Path>> directoryChildren =
+      new ConcurrentHashMap<>();
+
+  /**
+   * The directories whose hashes this thread is computing, so that a symlink back to one of them
+   * fails the walk instead of recursing forever.
+   */
+  private final ThreadLocal<Set<Path>> directoriesBeingHashed =
+      new ThreadLocal<Set<Path>>() {
+        @Override
+        protected Set<Path> initialValue() {
+          return new HashSet<>();
+        }
+      };
+
   public DefaultFileHashCache(ProjectFilesystem projectFilesystem) {
     this.projectFilesystem = projectFilesystem;
 
@@ -72,6 +120,14 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   }
 
   private HashCode getFileHashCode(final Path path) throws IOException {
+    // Check first, so that a missing file fails the same way whichever way it would be hashed.
+    if (!projectFilesystem.exists(path)) {
+      throw new NoSuchFileException(path.toString());
+    }
+    long size = projectFilesystem.getFileSize(path);
+    if (size >= MIN_MAPPED_FILE_SIZE) {
+      return getMappedFileHashCode(path, size);
+    }
     ByteSource source =
         new ByteSource() {
           @Override
@@ -82,9 +138,72 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
     return source.hash(Hashing.sha1());
   }
 
+  private HashCode getMappedFileHashCode(Path path, long size) throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    byte[] buffer = new byte[MAPPED_COPY_BUFFER_SIZE];
+    try (FileChannel channel =
+             FileChannel.open(projectFilesystem.resolve(path), StandardOpenOption.READ)) {
+      for (long position = 0; position < size; position += MAPPED_REGION_SIZE) {
+        MappedByteBuffer region = channel.map(
+            FileChannel.MapMode.READ_ONLY,
+            position,
+            Math.min(MAPPED_REGION_SIZE, size - position));
+        while (region.hasRemaining()) {
+          int length = Math.min(buffer.length, region.remaining());
+          region.get(buffer, 0, length);
+          hasher.putBytes(buffer, 0, length);
+        }
+      }
+    }
+    return hasher.hash();
+  }
+
   private HashCode getDirHashCode(Path path) throws IOException {
+    Set<Path> ancestors = directoriesBeingHashed.get();
+    // Only a symlink can lead back to a directory above it, so only pay for resolving real paths
+    // when one is found.
+    if (projectFilesystem.isSymLink(path)) {
+      Path realPath = projectFilesystem.getPathForRelativePath(path).toRealPath();
+      for (Path ancestor : ancestors) {
+        if (projectFilesystem.getPathForRelativePath(ancestor).toRealPath().equals(realPath)) {
+          throw new FileSystemLoopException(path.toString());
+        }
+      }
+    }
+    ancestors.add(path);
+    try {
+      return getDirHashCodeOfChildren(path);
+    } finally {
+      ancestors.remove(path);
+    }
+  }
+
+  private HashCode getDirHashCodeOfChildren(Path path) throws IOException {
+    ImmutableList<Path> children = FluentIterable
+        .from(projectFilesystem.getDirectoryContents(path))
+        .toSortedList(
+            Ordering.natural().onResultOf(
+                new Function<Path, String>() {
+                  @Override
+                  public String apply(Path child) {
+                    return child.getFileName().toString();
+                  }
+                }));
+    directoryChildren.put(path, children);
+
     Hasher hasher = Hashing.sha1().newHasher();
-    PathHashing.hashPaths(hasher, projectFilesystem, ImmutableSet.of(path));
+    for (Path child : children) {
+      HashCodeAndFileType childHash;
+      try {
+        childHash = loadingCache.get(child);
+      } catch (ExecutionException e) {
+        Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+        throw Throwables.propagate(e.getCause());
+      }
+      StringHashing.hashStringAndLength(hasher, child.getFileName().toString());
+      hasher.putInt(childHash.getType().ordinal());
+      hasher.putBytes(childHash.getHashCode().asBytes());
+    }
     return hasher.hash();
   }
 
@@ -99,14 +218,40 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
         !projectFilesystem.isIgnored(relativePath.get()));
   }
 
+  @Override
+  public boolean isCached(Path path) {
+    Optional<Path> relativePath = projectFilesystem.getPathRelativeToProjectRoot(path);
+    return relativePath.isPresent() &&
+        loadingCache.getIfPresent(relativePath.get().normalize()) != null;
+  }
+
+  /**
+   * Invalidates {@code path}, the entries its hash was computed from if it is a directory, and
+   * the directories above it, whose hashes were computed from it.
+   */
   @Override
   public void invalidate(Path path) {
+    invalidateWithChildren(path);
+    for (Path parent = path.getParent(); parent != null; parent = parent.getParent()) {
+      loadingCache.invalidate(parent);
+      directoryChildren.remove(parent);
+    }
+  }
+
+  private void invalidateWithChildren(Path path) {
     loadingCache.invalidate(path);
+    ImmutableList<Path> children = directoryChildren.remove(path);
+    if (children != null) {
+      for (Path child : children) {
+        invalidateWithChildren(child);
+      }
+    }
   }
 
   @Override
   public void invalidateAll() {
     loadingCache.invalidateAll();
+    directoryChildren.clear();
   }
 
   /**
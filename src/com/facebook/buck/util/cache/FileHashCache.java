@@ -29,6 +29,11 @@ public interface FileHashCache {
 
   boolean willGet(Path path);
 
+  /**
+   * @return whether the hash of {@code path} is already known, so that getting it reads nothing.
+   */
+  boolean isCached(Path path);
+
   void invalidate(Path path);
 
   void invalidateAll();
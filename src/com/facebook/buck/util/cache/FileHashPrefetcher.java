@@ -0,0 +1,186 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import com.facebook.buck.io.MorePaths;
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashes the inputs of a build on a pool of its own before its rule keys are computed, so that the
+ * rule key computations find them in the {@link FileHashCache} rather than each reading the files
+ * it needs one at a time.
+ * <p>
+ * Files are hashed in the order of the directories they are in, so that the files of a directory
+ * are read together, and at most {@code readAheadWindow} of them are read at once.
+ */
+public class FileHashPrefetcher {
+
+  private static final Logger LOG = Logger.get(FileHashPrefetcher.class);
+
+  /** Orders absolute paths by their directory first, and then by their name. */
+  private static final Ordering<Path> BY_DIRECTORY =
+      Ordering.natural()
+          .onResultOf(
+              new Function<Path, String>() {
+                @Override
+                public String apply(Path path) {
+                  return MorePaths.getParentOrEmpty(path).toString();
+                }
+              })
+          .compound(Ordering.<Path>natural());
+
+  private final ListeningExecutorService executorService;
+  private final int readAheadWindow;
+
+  public FileHashPrefetcher(ListeningExecutorService executorService, int readAheadWindow) {
+    Preconditions.checkArgument(readAheadWindow > 0);
+    this.executorService = executorService;
+    this.readAheadWindow = readAheadWindow;
+  }
+
+  /**
+   * Hashes {@code paths} with {@code fileHashCache}, waiting for all of them to be hashed. Paths
+   * that are already cached are skipped, as are paths that can't be hashed, leaving it to whatever
+   * needs them to report the error.
+   *
+   * @param paths absolute paths to files or directories.
+   */
+  public FileHashPrefetchStats prefetch(FileHashCache fileHashCache, Iterable<Path> paths)
+      throws InterruptedException {
+    ImmutableSortedSet<Path> sortedPaths = ImmutableSortedSet.copyOf(BY_DIRECTORY, paths);
+    Semaphore window = new Semaphore(readAheadWindow);
+    AtomicInteger hashedPaths = new AtomicInteger();
+    AtomicLong bytes = new AtomicLong();
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    try {
+      for (Path path : sortedPaths) {
+        Preconditions.checkArgument(path.isAbsolute(), "Expected absolute path: %s", path);
+        // Skip paths whose hashes are already known, so that only what is read gets counted.
+        if (!fileHashCache.willGet(path) || fileHashCache.isCached(path)) {
+          continue;
+        }
+        window.acquire();
+        try {
+          executorService.submit(new HashTask(fileHashCache, path, window, hashedPaths, bytes));
+        } catch (RuntimeException e) {
+          window.release();
+          throw e;
+        }
+      }
+    } finally {
+      // Wait for the files being hashed before returning, even if interrupted, so that the
+      // caller can shut the pool down.
+      window.acquireUninterruptibly(readAheadWindow);
+    }
+    FileHashPrefetchStats stats = FileHashPrefetchStats.of(
+        hashedPaths.get(),
+        bytes.get(),
+        stopwatch.elapsed(TimeUnit.MILLISECONDS));
+    LOG.debug(
+        "Hashed %d paths, %d bytes in %d ms (%d bytes/s).",
+        stats.getPaths(),
+        stats.getBytes(),
+        stats.getElapsedMillis(),
+        stats.getBytesPerSecond());
+    return stats;
+  }
+
+  /**
+   * Like {@link #prefetch}, but returns at once, feeding {@code paths} to the pool from a thread of
+   * its own so that the caller can get on with something else meanwhile. Cancelling the returned
+   * future stops the feeding; paths already being hashed are still hashed.
+   */
+  public ListenableFuture<FileHashPrefetchStats> prefetchInBackground(
+      final FileHashCache fileHashCache,
+      Iterable<Path> paths) {
+    final ImmutableList<Path> pathsCopy = ImmutableList.copyOf(paths);
+    ListeningExecutorService feeder = MoreExecutors.listeningDecorator(
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat(getClass().getSimpleName() + "-%d")
+                .setDaemon(true)
+                .build()));
+    try {
+      return feeder.submit(
+          new Callable<FileHashPrefetchStats>() {
+            @Override
+            public FileHashPrefetchStats call() throws InterruptedException {
+              return prefetch(fileHashCache, pathsCopy);
+            }
+          });
+    } finally {
+      // Lets the thread exit once the prefetch is done.
+      feeder.shutdown();
+    }
+  }
+
+  private static class HashTask implements Runnable {
+    private final FileHashCache fileHashCache;
+    private final Path path;
+    private final Semaphore window;
+    private final AtomicInteger paths;
+    private final AtomicLong bytes;
+
+    public HashTask(
+        FileHashCache fileHashCache,
+        Path path,
+        Semaphore window,
+        AtomicInteger paths,
+        AtomicLong bytes) {
+      this.fileHashCache = fileHashCache;
+      this.path = path;
+      this.window = window;
+      this.paths = paths;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public void run() {
+      try {
+        fileHashCache.get(path);
+        paths.incrementAndGet();
+        if (Files.isRegularFile(path)) {
+          bytes.addAndGet(Files.size(path));
+        }
+      } catch (IOException | RuntimeException e) {
+        LOG.debug(e, "Could not hash %s ahead of time.", path);
+      } finally {
+        window.release();
+      }
+    }
+  }
+}
@@ -30,6 +30,11 @@ public class NullFileHashCache implements FileHashCache {
     return false;
   }
 
+  @Override
+  public boolean isCached(Path path) {
+    return false;
+  }
+
   @Override
   public void invalidate(Path path) {
   }
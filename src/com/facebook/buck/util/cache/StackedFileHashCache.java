@@ -51,6 +51,12 @@ public class StackedFileHashCache implements FileHashCache {
     return lookup(path).isPresent();
   }
 
+  @Override
+  public boolean isCached(Path path) {
+    Optional<Pair<FileHashCache, Path>> found = lookup(path);
+    return found.isPresent() && found.get().getFirst().isCached(found.get().getSecond());
+  }
+
   @Override
   public void invalidate(Path path) {
     Optional<Pair<FileHashCache, Path>> found = lookup(path);
@@ -18,15 +18,14 @@ package com.facebook.buck.util.cache;
 
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
-import com.facebook.buck.util.HashCodeAndFileType;
 import com.google.common.base.Predicate;
-import com.google.common.collect.Maps;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.Subscribe;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.WatchEvent;
-import java.util.Map;
 
 public class WatchedFileHashCache extends DefaultFileHashCache {
 
@@ -47,28 +46,26 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
       // Path event, remove the path from the cache as it has been changed, added or deleted.
       final Path path = ((Path) event.context()).normalize();
       LOG.verbose("Invalidating %s", path);
-      Iterable<Path> pathsToInvalidate =
-          Maps.filterEntries(
-              loadingCache.asMap(),
-              new Predicate<Map.Entry<Path, HashCodeAndFileType>>() {
-                  @Override
-                  public boolean apply(Map.Entry<Path, HashCodeAndFileType> entry) {
-                    switch (entry.getValue().getType()) {
-                      case FILE:
-                        return path.equals(entry.getKey());
-                      case DIRECTORY:
-                        return path.startsWith(entry.getKey());
-                    }
-                    return false;
-                  }
-              }
-          ).keySet();
+      // Entries under the path may have been moved or deleted along with it. Invalidating each
+      // also invalidates the directories above it, whose hashes were computed from it.
+      ImmutableList<Path> pathsToInvalidate = FluentIterable.from(loadingCache.asMap().keySet())
+          .filter(
+              new Predicate<Path>() {
+                @Override
+                public boolean apply(Path cachedPath) {
+                  return cachedPath.startsWith(path);
+                }
+              })
+          .toList();
       LOG.verbose("Paths to invalidate: %s", pathsToInvalidate);
-      loadingCache.invalidateAll(pathsToInvalidate);
+      invalidate(path);
+      for (Path pathToInvalidate : pathsToInvalidate) {
+        invalidate(pathToInvalidate);
+      }
     } else {
       // Non-path change event, likely an overflow due to many change events: invalidate everything.
       LOG.debug("Invalidating all");
-      loadingCache.invalidateAll();
+      invalidateAll();
     }
   }
 
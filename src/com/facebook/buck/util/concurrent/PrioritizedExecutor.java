@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.util.concurrent;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks on another {@link Executor}, such as a {@link LimitedThreadPoolExecutor}, so that
+ * whenever one of its threads is free it runs the task with the highest priority of those waiting,
+ * rather than the one that was submitted first. Tasks of equal priority run in the order they were
+ * submitted.
+ * <p>
+ * Each task is queued here and matched by a runner submitted to the other executor, which takes
+ * whichever task is at the head of the queue once the executor gets around to running it.
+ */
+public class PrioritizedExecutor {
+
+  private final Executor delegate;
+  private final PriorityBlockingQueue<Task> tasks = new PriorityBlockingQueue<>();
+  private final AtomicLong sequence = new AtomicLong();
+
+  private final Runnable runner = new Runnable() {
+    @Override
+    public void run() {
+      Task task = tasks.poll();
+      if (task != null) {
+        task.runnable.run();
+      }
+    }
+  };
+
+  public PrioritizedExecutor(Executor delegate) {
+    this.delegate = delegate;
+  }
+
+  public void execute(Runnable runnable, long priority) {
+    Task task = new Task(runnable, priority, sequence.getAndIncrement());
+    tasks.add(task);
+    try {
+      delegate.execute(runner);
+    } catch (RejectedExecutionException e) {
+      tasks.remove(task);
+      throw e;
+    }
+  }
+
+  /**
+   * @return an executor that runs tasks here with {@code priority}, for APIs that take an
+   *     {@link Executor}.
+   */
+  public Executor withPriority(final long priority) {
+    return new Executor() {
+      @Override
+      public void execute(Runnable runnable) {
+        PrioritizedExecutor.this.execute(runnable, priority);
+      }
+    };
+  }
+
+  private static class Task implements Comparable<Task> {
+    private final Runnable runnable;
+    private final long priority;
+    private final long sequence;
+
+    public Task(Runnable runnable, long priority, long sequence) {
+      this.runnable = runnable;
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Task that) {
+      // Higher priorities first, then earlier submissions.
+      if (priority != that.priority) {
+        return priority > that.priority ? -1 : 1;
+      }
+      return Long.compare(sequence, that.sequence);
+    }
+  }
+}
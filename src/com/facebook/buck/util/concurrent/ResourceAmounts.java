@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.util.concurrent;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * How much of the machine a job is expected to use while it runs: how many cores it keeps busy,
+ * and how much memory it needs on top of what Buck itself uses.
+ */
+public class ResourceAmounts {
+
+  public final int cpu;
+  public final long memoryMegabytes;
+
+  public ResourceAmounts(int cpu, long memoryMegabytes) {
+    Preconditions.checkArgument(cpu >= 0);
+    Preconditions.checkArgument(memoryMegabytes >= 0);
+    this.cpu = cpu;
+    this.memoryMegabytes = memoryMegabytes;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof ResourceAmounts)) {
+      return false;
+    }
+    ResourceAmounts that = (ResourceAmounts) other;
+    return cpu == that.cpu && memoryMegabytes == that.memoryMegabytes;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * cpu + (int) (memoryMegabytes ^ (memoryMegabytes >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d cpu, %d MB", cpu, memoryMegabytes);
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.util.concurrent;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Admits jobs that declare the {@link ResourceAmounts} they use so that, together, the jobs that
+ * are running stay within a capacity, the system load average stays below a limit, and no job
+ * starts that needs more memory than the machine has available. Like
+ * {@link LimitedThreadPoolExecutor}, it always admits a job when no other is running, so that we
+ * can continue to make progress.
+ * <p>
+ * A job that fits may start ahead of jobs that asked earlier but don't fit yet, so that one
+ * needing a lot of memory doesn't hold up the small ones behind it. Each waiting job may be
+ * overtaken only so many times, though, after which the jobs behind it wait for it to start, so
+ * that it isn't starved by a stream of small ones.
+ */
+public class ResourceLimiter {
+
+  private static final OperatingSystemMXBean mbean =
+      ManagementFactory.getOperatingSystemMXBean();
+
+  private static final Path PROC_MEMINFO = Paths.get("/proc/meminfo");
+  private static final Pattern MEM_AVAILABLE_PATTERN =
+      Pattern.compile("^MemAvailable:\\s+(\\d+) kB$", Pattern.MULTILINE);
+
+  /**
+   * How often to look at the load average and available memory again while a job is waiting for
+   * them, rather than for another job to finish.
+   */
+  private static final long POLL_INTERVAL_MILLIS = 100;
+
+  /** How many jobs may start ahead of a waiting job before the jobs behind it have to wait. */
+  private static final int DEFAULT_MAX_OVERTAKES = 32;
+
+  private final ResourceAmounts capacity;
+  private final double loadLimit;
+  private final Supplier<Double> loadAverage;
+  private final Supplier<Optional<Long>> availableMemoryMegabytes;
+  private final int maxOvertakes;
+
+  /** The jobs waiting to be admitted, in the order they asked to be. */
+  private final Queue<Ticket> waiting = new ArrayDeque<>();
+
+  private int running = 0;
+  private int cpuInUse = 0;
+  private long memoryMegabytesInUse = 0;
+
+  public ResourceLimiter(ResourceAmounts capacity, double loadLimit) {
+    this(
+        capacity,
+        loadLimit,
+        new Supplier<Double>() {
+          @Override
+          public Double get() {
+            return mbean.getSystemLoadAverage();
+          }
+        },
+        new Supplier<Optional<Long>>() {
+          @Override
+          public Optional<Long> get() {
+            return readAvailableMemoryMegabytes();
+          }
+        },
+        DEFAULT_MAX_OVERTAKES);
+  }
+
+  @VisibleForTesting
+  ResourceLimiter(
+      ResourceAmounts capacity,
+      double loadLimit,
+      Supplier<Double> loadAverage,
+      Supplier<Optional<Long>> availableMemoryMegabytes,
+      int maxOvertakes) {
+    this.capacity = capacity;
+    this.loadLimit = loadLimit;
+    this.loadAverage = loadAverage;
+    this.availableMemoryMegabytes = availableMemoryMegabytes;
+    this.maxOvertakes = maxOvertakes;
+  }
+
+  /**
+   * @return a limiter that admits every job straight away.
+   */
+  public static ResourceLimiter unlimited() {
+    return new ResourceLimiter(
+        new ResourceAmounts(Integer.MAX_VALUE, Long.MAX_VALUE),
+        Double.POSITIVE_INFINITY,
+        new Supplier<Double>() {
+          @Override
+          public Double get() {
+            return 0.0;
+          }
+        },
+        new Supplier<Optional<Long>>() {
+          @Override
+          public Optional<Long> get() {
+            return Optional.absent();
+          }
+        },
+        DEFAULT_MAX_OVERTAKES);
+  }
+
+  /**
+   * Waits until a job using {@code amounts} can run.
+   *
+   * @return the permit to run the job, which must be closed once it has finished.
+   */
+  public synchronized Permit acquire(ResourceAmounts amounts) throws InterruptedException {
+    Ticket ticket = new Ticket();
+    waiting.add(ticket);
+    try {
+      while (!mayOvertake(ticket) || !canAdmit(amounts)) {
+        wait(POLL_INTERVAL_MILLIS);
+      }
+      overtake(ticket);
+    } finally {
+      waiting.remove(ticket);
+      // Let the jobs still in line see whether they can run alongside this one.
+      notifyAll();
+    }
+    running++;
+    cpuInUse += amounts.cpu;
+    memoryMegabytesInUse += amounts.memoryMegabytes;
+    return new Permit(amounts);
+  }
+
+  private synchronized void release(ResourceAmounts amounts) {
+    running--;
+    cpuInUse -= amounts.cpu;
+    memoryMegabytesInUse -= amounts.memoryMegabytes;
+    notifyAll();
+  }
+
+  @VisibleForTesting
+  synchronized int getNumberOfWaitingJobs() {
+    return waiting.size();
+  }
+
+  /**
+   * @return whether none of the jobs ahead of {@code ticket} has been overtaken too often already.
+   */
+  private boolean mayOvertake(Ticket ticket) {
+    for (Ticket ahead : waiting) {
+      if (ahead == ticket) {
+        break;
+      }
+      if (ahead.overtakes >= maxOvertakes) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void overtake(Ticket ticket) {
+    for (Ticket ahead : waiting) {
+      if (ahead == ticket) {
+        break;
+      }
+      ahead.overtakes++;
+    }
+  }
+
+  private boolean canAdmit(ResourceAmounts amounts) {
+    if (running == 0) {
+      return true;
+    }
+    if ((long) cpuInUse + amounts.cpu > capacity.cpu ||
+        memoryMegabytesInUse + amounts.memoryMegabytes > capacity.memoryMegabytes) {
+      return false;
+    }
+    if (loadAverage.get() >= loadLimit) {
+      return false;
+    }
+    if (amounts.memoryMegabytes > 0) {
+      Optional<Long> available = availableMemoryMegabytes.get();
+      if (available.isPresent() && available.get() < amounts.memoryMegabytes) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return how much memory the machine can give to new processes without swapping, or absent if
+   *     the kernel doesn't say, as only Linux does.
+   */
+  @VisibleForTesting
+  static Optional<Long> readAvailableMemoryMegabytes() {
+    if (!Files.isReadable(PROC_MEMINFO)) {
+      return Optional.absent();
+    }
+    try {
+      return parseAvailableMemoryMegabytes(new String(Files.readAllBytes(PROC_MEMINFO), UTF_8));
+    } catch (IOException e) {
+      return Optional.absent();
+    }
+  }
+
+  @VisibleForTesting
+  static Optional<Long> parseAvailableMemoryMegabytes(String meminfo) {
+    Matcher matcher = MEM_AVAILABLE_PATTERN.matcher(meminfo);
+    if (!matcher.find()) {
+      return Optional.absent();
+    }
+    return Optional.of(Long.parseLong(matcher.group(1)) / 1024);
+  }
+
+  /**
+   * A job waiting to be admitted.
+   */
+  private static class Ticket {
+    /** How many jobs that asked later have started ahead of this one. */
+    private int overtakes = 0;
+  }
+
+  /**
+   * Held by a job while it runs.
+   */
+  public class Permit implements AutoCloseable {
+
+    private final ResourceAmounts amounts;
+    private boolean isClosed = false;
+
+    private Permit(ResourceAmounts amounts) {
+      this.amounts = amounts;
+    }
+
+    @Override
+    public void close() {
+      Preconditions.checkState(!isClosed);
+      isClosed = true;
+      release(amounts);
+    }
+  }
+}
@@ -42,6 +42,7 @@ class EntryAccounting {
 
   private final ZipEntry entry;
   private final Method method;
+  private final boolean isPrecompressed;
   private Hasher crc = Hashing.crc32().newHasher();
   private long offset;
   private long externalAttributes = 0;
@@ -69,9 +70,18 @@ class EntryAccounting {
   private final byte[] buffer = new byte[ARBITRARY_SIZE];
 
   public EntryAccounting(Clock clock, ZipEntry entry, long currentOffset) {
+    this(clock, entry, currentOffset, /* isPrecompressed */ false);
+  }
+
+  private EntryAccounting(
+      Clock clock,
+      ZipEntry entry,
+      long currentOffset,
+      boolean isPrecompressed) {
     this.entry = entry;
     this.method = Method.detect(entry.getMethod());
     this.offset = currentOffset;
+    this.isPrecompressed = isPrecompressed;
 
     if (entry.getTime() == -1) {
       entry.setTime(clock.currentTimeMillis());
@@ -83,6 +93,23 @@ class EntryAccounting {
     }
   }
 
+  /**
+   * Accounting for an entry whose data has already been compressed, so the CRC and sizes set on
+   * {@code entry} are written in its local file header rather than in a data descriptor.
+   */
+  public static EntryAccounting forPrecompressedEntry(
+      Clock clock,
+      ZipEntry entry,
+      long currentOffset) {
+    Preconditions.checkArgument(entry.getCrc() != -1, "CRC of %s is not set", entry.getName());
+    Preconditions.checkArgument(entry.getSize() != -1, "Size of %s is not set", entry.getName());
+    Preconditions.checkArgument(
+        entry.getCompressedSize() != -1,
+        "Compressed size of %s is not set",
+        entry.getName());
+    return new EntryAccounting(clock, entry, currentOffset, /* isPrecompressed */ true);
+  }
+
   public void updateCrc(byte[] b, int off, int len) {
     crc = crc.putBytes(b, off, len);
   }
@@ -161,8 +188,12 @@ class EntryAccounting {
     return externalAttributes;
   }
 
+  public String getComment() {
+    return entry.getComment() == null ? "" : entry.getComment();
+  }
+
   public long writeLocalFileHeader(OutputStream out) throws IOException {
-    if (method == Method.DEFLATE) {
+    if (method == Method.DEFLATE && !isPrecompressed) {
       flags |= DATA_DESCRIPTOR_FLAG;
 
       // See http://www.pkware.com/documents/casestudies/APPNOTE.TXT (section 4.4.4)
@@ -199,8 +230,12 @@ class EntryAccounting {
       ByteIo.writeShort(stream, getCompressionMethod());
       ByteIo.writeInt(stream, getTime());
 
-      // In deflate mode, we don't know the size or CRC of the data.
-      if (isDeflated()) {
+      // In deflate mode, we don't know the size or CRC of the data, unless it's already compressed.
+      if (isPrecompressed) {
+        ByteIo.writeInt(stream, entry.getCrc());
+        ByteIo.writeInt(stream, entry.getCompressedSize());
+        ByteIo.writeInt(stream, entry.getSize());
+      } else if (isDeflated()) {
         ByteIo.writeInt(stream, 0);
         ByteIo.writeInt(stream, 0);
         ByteIo.writeInt(stream, 0);
@@ -265,6 +300,20 @@ class EntryAccounting {
     return 0; // We calculate how many bytes we write when closing deflated entries.
   }
 
+  /**
+   * Writes the already compressed data of an entry created by
+   * {@link #forPrecompressedEntry(Clock, ZipEntry, long)}.
+   *
+   * @return the number of bytes written.
+   */
+  public long writePrecompressedData(OutputStream out, byte[] data) throws IOException {
+    Preconditions.checkState(isPrecompressed);
+    Preconditions.checkArgument(data.length == entry.getCompressedSize());
+    deflater.end();
+    out.write(data);
+    return data.length;
+  }
+
   public long close(OutputStream out) throws IOException {
     if (!isDeflated()) {
       // If we're not doing deflation, end the deflater to free native resources.
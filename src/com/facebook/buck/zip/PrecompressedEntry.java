@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.zip;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import javax.annotation.Nullable;
+
+/**
+ * A zip entry together with its data, already compressed, so that entries can be compressed in
+ * parallel, or copied from another zip by {@link PrecompressedZipFile}, and written out later by a
+ * {@link PrecompressedZipOutputStream}.
+ */
+public class PrecompressedEntry {
+
+  private final String name;
+  private final int method;
+  private final long crc;
+  private final long size;
+  private final byte[] data;
+  @Nullable private final String comment;
+
+  PrecompressedEntry(
+      String name,
+      int method,
+      long crc,
+      long size,
+      byte[] data,
+      @Nullable String comment) {
+    Preconditions.checkArgument(method == ZipEntry.DEFLATED || method == ZipEntry.STORED);
+    this.name = name;
+    this.method = method;
+    this.crc = crc;
+    this.size = size;
+    this.data = data;
+    this.comment = comment;
+  }
+
+  /**
+   * Compresses {@code contents} with a raw deflater at {@code compressionLevel}, or stores them as
+   * they are for {@link Deflater#NO_COMPRESSION}.
+   *
+   * @param comment the comment of the entry in the central directory, if any.
+   */
+  public static PrecompressedEntry compress(
+      String name,
+      byte[] contents,
+      int compressionLevel,
+      @Nullable String comment) {
+    long crc = Hashing.crc32().hashBytes(contents).padToLong();
+    if (compressionLevel == Deflater.NO_COMPRESSION) {
+      return new PrecompressedEntry(name, ZipEntry.STORED, crc, contents.length, contents, comment);
+    }
+
+    Deflater deflater = new Deflater(compressionLevel, /* nowrap */ true);
+    try {
+      deflater.setInput(contents);
+      deflater.finish();
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(contents.length / 2 + 64);
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        int written = deflater.deflate(buffer);
+        compressed.write(buffer, 0, written);
+      }
+      return new PrecompressedEntry(
+          name,
+          ZipEntry.DEFLATED,
+          crc,
+          contents.length,
+          compressed.toByteArray(),
+          comment);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return {@link ZipEntry#DEFLATED} or {@link ZipEntry#STORED}.
+   */
+  public int getMethod() {
+    return method;
+  }
+
+  public long getCrc() {
+    return crc;
+  }
+
+  /**
+   * @return the size of the entry once uncompressed.
+   */
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * @return the compressed data, which must not be modified.
+   */
+  byte[] getData() {
+    return data;
+  }
+
+  @Nullable
+  public String getComment() {
+    return comment;
+  }
+
+  /**
+   * @return a copy of this entry with {@code comment} as its comment.
+   */
+  public PrecompressedEntry withComment(@Nullable String comment) {
+    return new PrecompressedEntry(name, method, crc, size, data, comment);
+  }
+
+  /**
+   * @return a {@link ZipEntry} describing this one, with its modification time fixed so that the
+   *     zips it is written to are deterministic.
+   */
+  ZipEntry toZipEntry() {
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(method);
+    entry.setCrc(crc);
+    entry.setSize(size);
+    entry.setCompressedSize(data.length);
+    entry.setTime(0);  // We want deterministic zips, so avoid mtimes.
+    entry.setComment(comment);
+    return entry;
+  }
+}
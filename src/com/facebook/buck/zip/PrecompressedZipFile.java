@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.zip;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the entries of a zip without decompressing them, so that they can be copied into another
+ * zip by a {@link PrecompressedZipOutputStream}. The central directory is read when the file is
+ * opened, and the data of an entry only when it is asked for, which is safe to do from several
+ * threads at once.
+ * <p>
+ * Offsets are expected to count from the start of the file, which is the case for zips written by
+ * {@link PrecompressedZipOutputStream} and by Python's {@code zipfile}, even when they follow a
+ * shebang line. Zip64 archives aren't supported.
+ */
+public class PrecompressedZipFile implements Closeable {
+
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+  private static final int LOCAL_HEADER_SIZE = 30;
+
+  private final FileChannel channel;
+  private final ImmutableMap<String, CentralDirectoryEntry> entries;
+
+  public PrecompressedZipFile(Path path) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      this.entries = readCentralDirectory();
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the comment of the entry named {@code name}, or absent if there is no such entry.
+   */
+  public Optional<String> getComment(String name) {
+    CentralDirectoryEntry entry = entries.get(name);
+    return entry == null ? Optional.<String>absent() : Optional.of(entry.comment);
+  }
+
+  /**
+   * @return the entry named {@code name}, with its data as it is compressed in this zip, or absent
+   *     if there is no such entry.
+   */
+  public Optional<PrecompressedEntry> getEntry(String name) throws IOException {
+    CentralDirectoryEntry entry = entries.get(name);
+    if (entry == null) {
+      return Optional.absent();
+    }
+
+    ByteBuffer localHeader = read(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+    if (localHeader.getInt(0) != (int) ZipEntry.LOCSIG) {
+      throw new ZipException("Bad local header for " + name);
+    }
+    long dataOffset = entry.localHeaderOffset +
+        LOCAL_HEADER_SIZE +
+        (localHeader.getShort(26) & 0xffff) +
+        (localHeader.getShort(28) & 0xffff);
+    byte[] data = new byte[(int) entry.compressedSize];
+    read(dataOffset, data.length).get(data);
+    return Optional.of(
+        new PrecompressedEntry(
+            name,
+            entry.method,
+            entry.crc,
+            entry.size,
+            data,
+            entry.comment.isEmpty() ? null : entry.comment));
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private ImmutableMap<String, CentralDirectoryEntry> readCentralDirectory() throws IOException {
+    long fileSize = channel.size();
+    if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+      throw new ZipException("Not a zip file");
+    }
+
+    // The end of central directory record is followed by a comment of unknown length, so look for
+    // its signature backwards from the end.
+    int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+    ByteBuffer tail = read(fileSize - tailSize, tailSize);
+    int end = -1;
+    for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == (int) ZipEntry.ENDSIG) {
+        end = i;
+        break;
+      }
+    }
+    if (end == -1) {
+      throw new ZipException("Not a zip file");
+    }
+    int entryCount = tail.getShort(end + 10) & 0xffff;
+    long size = tail.getInt(end + 12) & 0xffffffffL;
+    long offset = tail.getInt(end + 16) & 0xffffffffL;
+
+    ByteBuffer directory = read(offset, (int) size);
+    // Later entries win over earlier ones of the same name, as they do when extracting.
+    Map<String, CentralDirectoryEntry> entries = new HashMap<>();
+    int position = 0;
+    for (int i = 0; i < entryCount; i++) {
+      if (directory.getInt(position) != (int) ZipEntry.CENSIG) {
+        throw new ZipException("Bad central directory header");
+      }
+      int method = directory.getShort(position + 10) & 0xffff;
+      long crc = directory.getInt(position + 16) & 0xffffffffL;
+      long compressedSize = directory.getInt(position + 20) & 0xffffffffL;
+      long uncompressedSize = directory.getInt(position + 24) & 0xffffffffL;
+      int nameLength = directory.getShort(position + 28) & 0xffff;
+      int extraLength = directory.getShort(position + 30) & 0xffff;
+      int commentLength = directory.getShort(position + 32) & 0xffff;
+      long localHeaderOffset = directory.getInt(position + 42) & 0xffffffffL;
+      String name = readString(directory, position + CENTRAL_DIRECTORY_HEADER_SIZE, nameLength);
+      String comment = readString(
+          directory,
+          position + CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength,
+          commentLength);
+      position += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+
+      if ((method != ZipEntry.DEFLATED && method != ZipEntry.STORED) || name.endsWith("/")) {
+        continue;
+      }
+      entries.put(
+          name,
+          new CentralDirectoryEntry(
+              method,
+              crc,
+              compressedSize,
+              uncompressedSize,
+              localHeaderOffset,
+              comment));
+    }
+    return ImmutableMap.copyOf(entries);
+  }
+
+  private ByteBuffer read(long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) == -1) {
+        throw new EOFException();
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static String readString(ByteBuffer buffer, int position, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(position + i);
+    }
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  private static class CentralDirectoryEntry {
+    private final int method;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+    private final String comment;
+
+    public CentralDirectoryEntry(
+        int method,
+        long crc,
+        long compressedSize,
+        long size,
+        long localHeaderOffset,
+        String comment) {
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+      this.comment = comment;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.zip;
+
+import com.facebook.buck.timing.Clock;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip of {@link PrecompressedEntry}s in the order they are put, which, unlike a
+ * {@link CustomZipOutputStream}, leaves compressing the entries to the caller.
+ */
+public class PrecompressedZipOutputStream implements Closeable {
+
+  private final Clock clock;
+  private final OutputStream delegate;
+  private final List<EntryAccounting> entries = Lists.newArrayList();
+  private final Set<String> seenNames = Sets.newHashSet();
+  private long currentOffset;
+  private boolean isClosed = false;
+
+  /**
+   * @param startOffset the number of bytes already written to {@code out} before the zip, such as
+   *     the shebang line of an executable zip. Offsets in the zip count from the start of the file,
+   *     as they do in zips that are appended to other files by Python's {@code zipfile}.
+   */
+  public PrecompressedZipOutputStream(Clock clock, OutputStream out, long startOffset) {
+    this.clock = clock;
+    this.delegate = out;
+    this.currentOffset = startOffset;
+  }
+
+  public void putEntry(PrecompressedEntry entry) throws IOException {
+    Preconditions.checkState(!isClosed, "Stream has been closed.");
+    if (!seenNames.add(entry.getName())) {
+      // Same exception as ZipOutputStream.
+      throw new ZipException("duplicate entry: " + entry.getName());
+    }
+
+    EntryAccounting accounting =
+        EntryAccounting.forPrecompressedEntry(clock, entry.toZipEntry(), currentOffset);
+    entries.add(accounting);
+    currentOffset += accounting.writeLocalFileHeader(delegate);
+    currentOffset += accounting.writePrecompressedData(delegate, entry.getData());
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (isClosed) {
+      return;
+    }
+    isClosed = true;
+    new CentralDirectory().writeCentralDirectory(delegate, currentOffset, entries);
+    delegate.close();
+  }
+}
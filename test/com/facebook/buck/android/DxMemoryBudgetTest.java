@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class DxMemoryBudgetTest {
+
+  @Test
+  public void requestsLargerThanTheBudgetAreRejected() throws InterruptedException {
+    DxMemoryBudget budget = new DxMemoryBudget(100);
+    assertFalse(budget.acquire(101));
+    assertEquals(0, budget.getReservedBytes());
+  }
+
+  @Test
+  public void zeroBudgetRejectsEverything() throws InterruptedException {
+    DxMemoryBudget budget = new DxMemoryBudget(0);
+    assertFalse(budget.acquire(1));
+  }
+
+  @Test
+  public void acquireWaitsForRelease() throws InterruptedException {
+    final DxMemoryBudget budget = new DxMemoryBudget(100);
+    assertTrue(budget.acquire(60));
+
+    final CountDownLatch acquired = new CountDownLatch(1);
+    Thread waiter = new Thread(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              if (budget.acquire(60)) {
+                acquired.countDown();
+              }
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+    waiter.start();
+
+    assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+    budget.release(60);
+    assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    waiter.join();
+    assertEquals(60, budget.getReservedBytes());
+  }
+
+  @Test
+  public void waitersGiveUpWhenTheBudgetShrinksBelowTheirRequest() throws InterruptedException {
+    final DxMemoryBudget budget = new DxMemoryBudget(100);
+    assertTrue(budget.acquire(60));
+
+    final CountDownLatch rejected = new CountDownLatch(1);
+    Thread waiter = new Thread(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              if (!budget.acquire(60)) {
+                rejected.countDown();
+              }
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+    waiter.start();
+
+    assertFalse(rejected.await(100, TimeUnit.MILLISECONDS));
+    budget.setCapacityBytes(50);
+    assertTrue(rejected.await(5, TimeUnit.SECONDS));
+    waiter.join();
+    assertEquals(60, budget.getReservedBytes());
+  }
+}
@@ -17,6 +17,7 @@
 package com.facebook.buck.android;
 
 import static com.facebook.buck.util.Verbosity.COMMANDS_AND_SPECIAL_OUTPUT;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.android.DxStep.Option;
@@ -40,7 +41,9 @@ import com.google.common.collect.Iterables;
 import org.easymock.EasyMock;
 import org.easymock.EasyMockSupport;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -60,6 +63,9 @@ public class DxStepTest extends EasyMockSupport {
       Paths.get("buck-out/gen/foo.dex.jar"),
       Paths.get("buck-out/gen/bar.dex.jar"));
 
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
   private AndroidPlatformTarget androidPlatformTarget;
 
   @Before
@@ -272,6 +278,70 @@ public class DxStepTest extends EasyMockSupport {
     }
   }
 
+  @Test
+  public void testHeapEstimateScalesWithInputSize() throws IOException {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path small = Paths.get("buck-out/gen/small.dex.jar");
+    Path large = Paths.get("buck-out/gen/large.dex.jar");
+    filesystem.writeBytesToPath(new byte[1024], small);
+    filesystem.writeBytesToPath(new byte[4 * 1024 * 1024], large);
+
+    DxStep smallDx = new DxStep(filesystem, SAMPLE_OUTPUT_PATH, ImmutableSet.of(small));
+    DxStep largeDx = new DxStep(filesystem, SAMPLE_OUTPUT_PATH, ImmutableSet.of(small, large));
+
+    assertEquals(16L * 1024 * 1024, smallDx.estimateHeapBytes());
+    assertEquals(8L * (1024 + 4 * 1024 * 1024), largeDx.estimateHeapBytes());
+  }
+
+  @Test
+  public void testCustomDxRunsOutOfProcessEvenIfAskedToRunInProcess() throws Exception {
+    androidPlatformTarget = EasyMock.createMock(AndroidPlatformTarget.class);
+    EasyMock.expect(androidPlatformTarget.getDxExecutable())
+        .andStubReturn(Paths.get("/usr/bin/dx"));
+    EasyMock.replay(androidPlatformTarget);
+    try (ExecutionContext context = createExecutionContext(0)) {
+      DxStep dx = new DxStep(
+          new ProjectFilesystem(tmp.getRoot().toPath()),
+          SAMPLE_OUTPUT_PATH,
+          SAMPLE_FILES_TO_DEX,
+          EnumSet.of(Option.USE_CUSTOM_DX_IF_AVAILABLE, Option.RUN_IN_PROCESS),
+          new Supplier<String>() {
+            @Override
+            public String get() {
+              return "/does/not/exist/custom-dexer";
+            }
+          });
+
+      // The dexer in this JVM would reject the custom dx, so the step forks it, which fails.
+      assertEquals(1, dx.execute(context));
+    }
+  }
+
+  @Test
+  public void testJobsOverTheBudgetFallBackToForkedDx() throws Exception {
+    androidPlatformTarget = EasyMock.createMock(AndroidPlatformTarget.class);
+    EasyMock.expect(androidPlatformTarget.getDxExecutable())
+        .andStubReturn(Paths.get("/does/not/exist/dx"));
+    EasyMock.replay(androidPlatformTarget);
+    try (ExecutionContext context = createExecutionContext(0)) {
+      DxStep dx = new DxStep(
+          new ProjectFilesystem(tmp.getRoot().toPath()),
+          SAMPLE_OUTPUT_PATH,
+          SAMPLE_FILES_TO_DEX,
+          EnumSet.of(Option.USE_CUSTOM_DX_IF_AVAILABLE, Option.RUN_IN_PROCESS),
+          new Supplier<String>() {
+            @Override
+            public String get() {
+              return null;
+            }
+          },
+          new DxMemoryBudget(/* capacityBytes */ 1));
+
+      assertEquals(1, dx.execute(context));
+      assertTrue(dx.getShellCommand(context).get(0).endsWith("/dx"));
+    }
+  }
+
   private ExecutionContext createExecutionContext(int verbosityLevel) throws IOException {
     Verbosity verbosity = VerbosityParser.getVerbosityForLevel(verbosityLevel);
     TestConsole console = new TestConsole(verbosity);
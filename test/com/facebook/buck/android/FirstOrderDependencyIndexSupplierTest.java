@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.dalvik.firstorder.FirstOrderDependencyIndex;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.Type;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipOutputStream;
+
+public class FirstOrderDependencyIndexSupplierTest {
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Test
+  public void testOneJar() throws IOException {
+    File jar = writeJar("primary.jar", FirstOrderDependencyIndexSupplierTest.class);
+
+    Supplier<FirstOrderDependencyIndex> supplier =
+        FirstOrderDependencyIndexSupplier.createMemoized(
+            ImmutableList.of(jar.toPath()),
+            /* threadCount */ 4);
+    FirstOrderDependencyIndex index = supplier.get();
+
+    assertEquals(1, index.getClassCount());
+    assertEquals(
+        ImmutableList.of(Type.getType(FirstOrderDependencyIndexSupplierTest.class).getInternalName()),
+        index.getClassNames());
+
+    // Memoized should always return the same object
+    assertSame(index, supplier.get());
+  }
+
+  @Test
+  public void testMultipleJars() throws IOException {
+    File first = writeJar("first.jar", FirstOrderDependencyIndexSupplierTest.class);
+    File second = writeJar("second.jar", FirstOrderDependencyIndexSupplier.class);
+
+    FirstOrderDependencyIndex index =
+        FirstOrderDependencyIndexSupplier.createMemoized(
+            ImmutableList.of(first.toPath(), second.toPath()),
+            /* threadCount */ 2)
+            .get();
+
+    assertEquals(
+        ImmutableSet.of(
+            Type.getType(FirstOrderDependencyIndexSupplierTest.class).getInternalName(),
+            Type.getType(FirstOrderDependencyIndexSupplier.class).getInternalName()),
+        ImmutableSet.copyOf(index.getClassNames()));
+  }
+
+  private File writeJar(String name, Class<?> type) throws IOException {
+    File jar = new File(tmpDir.getRoot(), name);
+    try (ZipOutputStream jarOut = new JarOutputStream(new FileOutputStream(jar))) {
+      jarOut.putNextEntry(new JarEntry(type.getName().replace('.', '/') + ".class"));
+      writeClassBytes(type, jarOut);
+    }
+    return jar;
+  }
+
+  private void writeClassBytes(Class<?> type, OutputStream outputStream) throws IOException {
+    String resourceName = type.getName().replace('.', '/') + ".class";
+    InputStream inputStream = ClassLoader.getSystemResourceAsStream(resourceName);
+    ByteStreams.copy(inputStream, outputStream);
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.rules.FakeBuildContext;
+import com.facebook.buck.rules.Sha1HashCode;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class PreDexedFilesSorterTest {
+
+  private static final long LINEAR_ALLOC_LIMIT = 100;
+
+  @Test
+  public void testPacksTightlyWithoutPreviousAssignments() {
+    PreDexedFilesSorter.Result result = sort(
+        ImmutableList.of(dex("a", 60), dex("b", 30), dex("c", 50)),
+        Optional.<ImmutableMap<Path, Integer>>absent());
+
+    assertEquals(
+        ImmutableMap.of(path("a"), 0, path("b"), 0, path("c"), 1),
+        result.secondaryDexAssignments);
+  }
+
+  @Test
+  public void testGrowingLibraryKeepsOtherSecondaryDexesStable() {
+    ImmutableMap<Path, Integer> previous =
+        ImmutableMap.of(path("a"), 0, path("b"), 0, path("c"), 1, path("d"), 1);
+
+    // "a" grows so that it no longer fits with "b".  From scratch, every library after "a" would
+    // shift to a different secondary dex.
+    PreDexedFilesSorter.Result result = sort(
+        ImmutableList.of(dex("a", 80), dex("b", 30), dex("c", 50), dex("d", 40)),
+        Optional.of(previous));
+
+    assertEquals(
+        ImmutableMap.of(path("a"), 0, path("b"), 2, path("c"), 1, path("d"), 1),
+        result.secondaryDexAssignments);
+  }
+
+  @Test
+  public void testNewLibraryGoesInChangedSecondaryDex() {
+    ImmutableMap<Path, Integer> previous =
+        ImmutableMap.of(path("a"), 0, path("b"), 0, path("c"), 1, path("d"), 1);
+
+    // "b" was removed, so the first secondary dex changes anyway and has room for "e".
+    PreDexedFilesSorter.Result result = sort(
+        ImmutableList.of(dex("a", 40), dex("c", 50), dex("d", 40), dex("e", 30)),
+        Optional.of(previous));
+
+    assertEquals(
+        ImmutableMap.of(path("a"), 0, path("e"), 0, path("c"), 1, path("d"), 1),
+        result.secondaryDexAssignments);
+  }
+
+  @Test
+  public void testRepacksWhenASecondaryDexWouldBeEmpty() {
+    ImmutableMap<Path, Integer> previous =
+        ImmutableMap.of(path("a"), 0, path("b"), 1, path("c"), 2);
+
+    PreDexedFilesSorter.Result result = sort(
+        ImmutableList.of(dex("a", 40), dex("c", 50)),
+        Optional.of(previous));
+
+    assertEquals(
+        ImmutableMap.of(path("a"), 0, path("c"), 0),
+        result.secondaryDexAssignments);
+  }
+
+  private static PreDexedFilesSorter.Result sort(
+      ImmutableList<DexWithClasses> dexFiles,
+      Optional<ImmutableMap<Path, Integer>> previousAssignments) {
+    PreDexedFilesSorter sorter = new PreDexedFilesSorter(
+        Optional.<DexWithClasses>absent(),
+        dexFiles,
+        /* primaryDexPatterns */ ImmutableSet.<String>of(),
+        Paths.get("scratch"),
+        LINEAR_ALLOC_LIMIT,
+        DexStore.JAR,
+        Paths.get("jarfiles"),
+        previousAssignments);
+    return sorter.sortIntoPrimaryAndSecondaryDexes(
+        FakeBuildContext.NOOP_CONTEXT,
+        new FakeProjectFilesystem(),
+        ImmutableList.<Step>builder());
+  }
+
+  private static Path path(String name) {
+    return Paths.get(name + ".dex.jar");
+  }
+
+  private static DexWithClasses dex(final String name, final int size) {
+    return new DexWithClasses() {
+      @Override
+      public Path getPathToDexFile() {
+        return path(name);
+      }
+
+      @Override
+      public ImmutableSet<String> getClassNames() {
+        return ImmutableSet.of("com/example/" + name);
+      }
+
+      @Override
+      public Sha1HashCode getClassesHash() {
+        return Sha1HashCode.of(Strings.repeat("0", 40));
+      }
+
+      @Override
+      public int getSizeEstimate() {
+        return size;
+      }
+    };
+  }
+}
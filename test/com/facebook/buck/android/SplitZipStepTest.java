@@ -21,6 +21,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.dalvik.ZipSplitter;
+import com.facebook.buck.dalvik.firstorder.FirstOrderDependencyIndex;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.TestSourcePath;
@@ -38,7 +39,6 @@ import org.easymock.EasyMock;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
-import org.objectweb.asm.tree.ClassNode;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
@@ -126,7 +126,8 @@ public class SplitZipStepTest {
             /* primaryDexScenarioFile */ Optional.<SourcePath>absent(),
             /* isPrimaryDexScenarioOverflowAllowed */ false,
             /* secondaryDexHeadClassesFile */ Optional.<SourcePath>absent(),
-            /* secondaryDexTailClassesFile */ Optional.<SourcePath>absent()),
+            /* secondaryDexTailClassesFile */ Optional.<SourcePath>absent(),
+            /* useStableSecondaryDexBuckets */ false),
         Optional.<Path>absent(),
         Optional.of(Paths.get("the/manifest.txt")),
         Optional.<Path>absent(),
@@ -139,7 +140,7 @@ public class SplitZipStepTest {
     Predicate<String> requiredInPrimaryZipPredicate = splitZipStep
         .createRequiredInPrimaryZipPredicate(
             ProguardTranslatorFactory.createForTest(Optional.<Map<String, String>>absent()),
-            Suppliers.ofInstance(ImmutableList.<ClassNode>of()));
+            Suppliers.ofInstance(FirstOrderDependencyIndex.of()));
     assertTrue(
         "All non-.class files should be accepted.",
         requiredInPrimaryZipPredicate.apply("apples.txt"));
@@ -218,7 +219,8 @@ public class SplitZipStepTest {
             /* primaryDexScenarioFile */ Optional.<SourcePath>absent(),
             /* isPrimaryDexScenarioOverflowAllowed */ false,
             /* secondaryDexHeadClassesFile */ Optional.<SourcePath>absent(),
-            /* secondaryDexTailClassesFile */ Optional.<SourcePath>absent()),
+            /* secondaryDexTailClassesFile */ Optional.<SourcePath>absent(),
+            /* useStableSecondaryDexBuckets */ false),
         Optional.<Path>absent(),
         Optional.of(Paths.get("the/manifest.txt")),
         Optional.<Path>absent(),
@@ -235,7 +237,7 @@ public class SplitZipStepTest {
     Predicate<String> requiredInPrimaryZipPredicate = splitZipStep
         .createRequiredInPrimaryZipPredicate(
             translatorFactory,
-            Suppliers.ofInstance(ImmutableList.<ClassNode>of()));
+            Suppliers.ofInstance(FirstOrderDependencyIndex.of()));
     assertTrue(
         "Mapped class from primary list should be in primary.",
         requiredInPrimaryZipPredicate.apply("foo/bar/a.class"));
@@ -290,7 +292,8 @@ public class SplitZipStepTest {
             /* primaryDexScenarioFile */ Optional.<SourcePath>absent(),
             /* isPrimaryDexScenarioOverflowAllowed */ false,
             /* secondaryDexHeadClassesFile */ Optional.<SourcePath>absent(),
-            /* secondaryDexTailClassesFile */ Optional.<SourcePath>absent()),
+            /* secondaryDexTailClassesFile */ Optional.<SourcePath>absent(),
+            /* useStableSecondaryDexBuckets */ false),
         Optional.<Path>absent(),
         Optional.<Path>absent(),
         Optional.<Path>absent(),
@@ -307,7 +310,7 @@ public class SplitZipStepTest {
     Predicate<String> requiredInPrimaryZipPredicate = splitZipStep
         .createRequiredInPrimaryZipPredicate(
             translatorFactory,
-            Suppliers.ofInstance(ImmutableList.<ClassNode>of()));
+            Suppliers.ofInstance(FirstOrderDependencyIndex.of()));
     assertTrue(
         "Primary class should be in primary.",
         requiredInPrimaryZipPredicate.apply("primary.class"));
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.apple;
+
+import com.facebook.buck.cli.BuildTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.cli.FakeBuckConfig;
+import com.facebook.buck.cxx.CxxPlatform;
+import com.facebook.buck.cxx.CxxPlatformUtils;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.io.AlwaysFoundExecutableFinder;
+import com.facebook.buck.io.MoreFiles;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.js.ReactNativeBuckConfig;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.Flavor;
+import com.facebook.buck.model.FlavorDomain;
+import com.facebook.buck.rules.ActionGraph;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.rules.TargetGraphToActionGraph;
+import com.facebook.buck.rules.TargetNode;
+import com.facebook.buck.testutil.TargetGraphFactory;
+import com.facebook.buck.util.cache.NullFileHashCache;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Measures how long {@link WorkspaceAndProjectGenerator} takes to generate a synthetic workspace
+ * of {@code apple_library()} targets spread over many directories, one project per directory, on
+ * one thread and on many, in a temporary directory. The second run of each rewrites nothing, since
+ * the projects on disk are already up to date. Run it with:
+ * <pre>
+ * java -cp ... com.facebook.buck.apple.WorkspaceAndProjectGeneratorBenchmark \
+ *     [targets] [targets-per-directory] [threads]
+ * </pre>
+ */
+public class WorkspaceAndProjectGeneratorBenchmark {
+
+  private static final FlavorDomain<CxxPlatform> PLATFORMS =
+      new FlavorDomain<>("C/C++ platform", ImmutableMap.<Flavor, CxxPlatform>of());
+
+  private WorkspaceAndProjectGeneratorBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    int targets = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int targetsPerDirectory = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    int threads = args.length > 2
+        ? Integer.parseInt(args[2])
+        : Runtime.getRuntime().availableProcessors();
+
+    TargetGraph targetGraph = createTargetGraph(targets, targetsPerDirectory);
+
+    ListeningExecutorService pool =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
+    Path root = Files.createTempDirectory("workspace-benchmark");
+    try {
+      // Warm up so that class loading and JIT compilation don't skew the first measurement.
+      generate(
+          targetGraph,
+          new ProjectFilesystem(Files.createDirectory(root.resolve("warmup"))),
+          pool);
+
+      for (ListeningExecutorService executorService :
+          ImmutableList.of(MoreExecutors.newDirectExecutorService(), pool)) {
+        int threadCount = executorService == pool ? threads : 1;
+        ProjectFilesystem filesystem = new ProjectFilesystem(
+            Files.createDirectory(root.resolve("threads-" + threadCount)));
+        long cleanMillis = generate(targetGraph, filesystem, executorService);
+        long upToDateMillis = generate(targetGraph, filesystem, executorService);
+        System.out.printf(
+            "%2d thread(s): %6d ms clean, %6d ms up to date%n",
+            threadCount,
+            cleanMillis,
+            upToDateMillis);
+      }
+    } finally {
+      pool.shutdown();
+      pool.awaitTermination(1, TimeUnit.MINUTES);
+      MoreFiles.deleteRecursively(root);
+    }
+  }
+
+  /**
+   * Creates {@code targets} libraries in directories of {@code targetsPerDirectory}, each depending
+   * on the library before it and on the first library of the directory before its own, and a
+   * workspace for a library that depends on the last library of every directory.
+   */
+  private static TargetGraph createTargetGraph(int targets, int targetsPerDirectory) {
+    List<TargetNode<?>> nodes = new ArrayList<>();
+    ImmutableSortedSet.Builder<BuildTarget> lastTargetsOfDirectories =
+        ImmutableSortedSet.naturalOrder();
+    BuildTarget previous = null;
+    BuildTarget firstOfPreviousDirectory = null;
+    BuildTarget firstOfDirectory = null;
+    for (int i = 0; i < targets; i++) {
+      int directory = i / targetsPerDirectory;
+      BuildTarget target = BuildTarget.builder("//dir" + directory, "lib" + i).build();
+      if (i % targetsPerDirectory == 0) {
+        firstOfPreviousDirectory = firstOfDirectory;
+        firstOfDirectory = target;
+        if (previous != null) {
+          lastTargetsOfDirectories.add(previous);
+        }
+      }
+      ImmutableSortedSet.Builder<BuildTarget> deps = ImmutableSortedSet.naturalOrder();
+      if (previous != null) {
+        deps.add(previous);
+      }
+      if (firstOfPreviousDirectory != null) {
+        deps.add(firstOfPreviousDirectory);
+      }
+      nodes.add(
+          AppleLibraryBuilder.createBuilder(target)
+              .setDeps(Optional.of(deps.build()))
+              .build());
+      previous = target;
+    }
+    if (previous != null) {
+      lastTargetsOfDirectories.add(previous);
+    }
+
+    BuildTarget appTarget = BuildTarget.builder("//app", "lib").build();
+    nodes.add(
+        AppleLibraryBuilder.createBuilder(appTarget)
+            .setDeps(Optional.of(lastTargetsOfDirectories.build()))
+            .build());
+    nodes.add(
+        XcodeWorkspaceConfigBuilder.createBuilder(BuildTarget.builder("//app", "workspace").build())
+            .setWorkspaceName(Optional.of("workspace"))
+            .setSrcTarget(Optional.of(appTarget))
+            .build());
+    return TargetGraphFactory.newInstance(ImmutableSet.copyOf(nodes));
+  }
+
+  private static long generate(
+      final TargetGraph targetGraph,
+      ProjectFilesystem filesystem,
+      ListeningExecutorService executorService) throws Exception {
+    @SuppressWarnings("unchecked")
+    TargetNode<XcodeWorkspaceConfigDescription.Arg> workspaceNode =
+        (TargetNode<XcodeWorkspaceConfigDescription.Arg>) Preconditions.checkNotNull(
+            targetGraph.get(BuildTarget.builder("//app", "workspace").build()));
+    WorkspaceAndProjectGenerator generator = new WorkspaceAndProjectGenerator(
+        filesystem,
+        new ReactNativeBuckConfig(new FakeBuckConfig(filesystem)),
+        targetGraph,
+        workspaceNode.getConstructorArg(),
+        workspaceNode.getBuildTarget(),
+        ImmutableSet.<ProjectGenerator.Option>of(),
+        false /* combinedProject */,
+        false /* buildWithBuck */,
+        ImmutableList.<String>of(),
+        false /* parallelizeBuild */,
+        new AlwaysFoundExecutableFinder(),
+        ImmutableMap.<String, String>of(),
+        PLATFORMS,
+        CxxPlatformUtils.DEFAULT_PLATFORM,
+        "BUCK",
+        new Function<TargetNode<?>, Path>() {
+          @Nullable
+          @Override
+          public Path apply(TargetNode<?> input) {
+            ActionGraph actionGraph = Preconditions.checkNotNull(
+                new TargetGraphToActionGraph(
+                    BuckEventBusFactory.newInstance(),
+                    new BuildTargetNodeToBuildRuleTransformer(),
+                    new NullFileHashCache())
+                    .apply(targetGraph.getSubgraph(ImmutableSet.of(input))));
+            BuildRule rule = Preconditions.checkNotNull(
+                actionGraph.findBuildRuleByTarget(input.getBuildTarget()));
+            return rule.getPathToOutput();
+          }
+        });
+    long start = System.nanoTime();
+    generator.generateWorkspaceAndDependentProjects(
+        new HashMap<Path, ProjectGenerator>(),
+        executorService);
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+}
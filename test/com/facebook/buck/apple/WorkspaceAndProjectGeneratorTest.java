@@ -75,6 +75,8 @@ import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import org.hamcrest.FeatureMatcher;
 import org.hamcrest.Matcher;
@@ -83,13 +85,18 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executors;
 
 import javax.annotation.Nullable;
 
@@ -109,6 +116,9 @@ public class WorkspaceAndProjectGeneratorTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
   @Before
   public void setUp() throws IOException {
     projectFilesystem = new FakeProjectFilesystem(new SettableFakeClock(0, 0));
@@ -288,6 +298,31 @@ public class WorkspaceAndProjectGeneratorTest {
         "//baz:lib");
   }
 
+  @Test
+  public void projectsGeneratedOnAPoolAreThoseGeneratedOneAtATime() throws Exception {
+    ProjectFilesystem serialFilesystem = new ProjectFilesystem(tmp.newFolder("serial").toPath());
+    ProjectFilesystem pooledFilesystem = new ProjectFilesystem(tmp.newFolder("pooled").toPath());
+    createWorkspaceAndProjectGenerator(serialFilesystem)
+        .generateWorkspaceAndDependentProjects(new HashMap<Path, ProjectGenerator>());
+
+    ListeningExecutorService executorService =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+    Map<Path, ProjectGenerator> projectGenerators = new HashMap<>();
+    try {
+      createWorkspaceAndProjectGenerator(pooledFilesystem)
+          .generateWorkspaceAndDependentProjects(projectGenerators, executorService);
+    } finally {
+      executorService.shutdownNow();
+    }
+
+    assertEquals(
+        ImmutableSet.of(Paths.get("foo"), Paths.get("bar"), Paths.get("baz")),
+        projectGenerators.keySet());
+    ImmutableMap<Path, String> pooledFiles = readFiles(pooledFilesystem);
+    assertThat(pooledFiles.keySet(), hasItem(Paths.get("foo/foo.xcodeproj/project.pbxproj")));
+    assertEquals(readFiles(serialFilesystem), pooledFiles);
+  }
+
   @Test
   public void combinedProjectShouldDiscoverDependenciesAndTests() throws IOException {
     WorkspaceAndProjectGenerator generator = new WorkspaceAndProjectGenerator(
@@ -1339,6 +1374,51 @@ public class WorkspaceAndProjectGeneratorTest {
         });
   }
 
+  private WorkspaceAndProjectGenerator createWorkspaceAndProjectGenerator(
+      ProjectFilesystem filesystem) {
+    return new WorkspaceAndProjectGenerator(
+        filesystem,
+        reactNativeBuckConfig,
+        targetGraph,
+        workspaceNode.getConstructorArg(),
+        workspaceNode.getBuildTarget(),
+        ImmutableSet.of(ProjectGenerator.Option.INCLUDE_TESTS,
+            ProjectGenerator.Option.INCLUDE_DEPENDENCIES_TESTS),
+        false /* combinedProject */,
+        false /* buildWithBuck */,
+        ImmutableList.<String>of(),
+        false /* parallelizeBuild */,
+        new AlwaysFoundExecutableFinder(),
+        ImmutableMap.<String, String>of(),
+        PLATFORMS,
+        DEFAULT_PLATFORM,
+        "BUCK",
+        getOutputPathOfNodeFunction(targetGraph));
+  }
+
+  /**
+   * @return the contents of the files under the root of {@code filesystem}, by relative path, with
+   *     the root itself left out of them.
+   */
+  private static ImmutableMap<Path, String> readFiles(final ProjectFilesystem filesystem)
+      throws IOException {
+    final String root = filesystem.getRootPath().toString();
+    final ImmutableMap.Builder<Path, String> files = ImmutableMap.builder();
+    filesystem.walkRelativeFileTree(
+        Paths.get(""),
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            files.put(
+                file,
+                filesystem.readFileIfItExists(file).get().replace(root, "<root>"));
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return files.build();
+  }
+
   private Function<TargetNode<?>, Path> getOutputPathOfNodeFunction(final TargetGraph targetGraph) {
     return new Function<TargetNode<?>, Path>() {
       @Nullable
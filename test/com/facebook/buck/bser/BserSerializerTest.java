@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.bser;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class BserSerializerTest {
+
+  private static byte[] serialize(Object value) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new BserSerializer().serializeToStream(value, out);
+    return out.toByteArray();
+  }
+
+  private static Object roundTrip(Object value) throws IOException {
+    return new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED)
+        .deserializeBserValue(new ByteArrayInputStream(serialize(value)));
+  }
+
+  @Test
+  public void smallValuesUseCompactEncodings() throws IOException {
+    assertThat(
+        BaseEncoding.base16().encode(serialize(ImmutableList.of(true, 0x23))),
+        equalTo("00010306000302080323"));
+  }
+
+  @Test
+  public void roundTripsNestedValues() throws IOException {
+    Object value = ImmutableMap.of(
+        "name", "foo",
+        "deps", ImmutableList.of(":bar", "//baz:baz"),
+        "export", false,
+        "nothing", Arrays.asList((Object) null),
+        "version", ImmutableList.of(1.5, (byte) 7, (short) 300, 70000, 1L << 40));
+    assertThat(roundTrip(value), is((Object) value));
+  }
+
+  @Test
+  public void growsBufferForLargeValues() throws IOException {
+    String large = Strings.repeat("x", 100000);
+    Object value = ImmutableList.of(large, large);
+    assertThat(roundTrip(value), is(value));
+  }
+}
@@ -33,6 +33,7 @@ import com.facebook.buck.testutil.integration.ProjectWorkspace;
 import com.facebook.buck.testutil.integration.ProjectWorkspace.ProcessResult;
 import com.facebook.buck.testutil.integration.TestDataHelper;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
@@ -325,6 +326,30 @@ public class BuckConfigTest {
     assertEquals(42, config.getMaxTraces());
   }
 
+  @Test
+  public void testGetResourceAmountsByRuleType() throws IOException {
+    assertEquals(
+        ImmutableMap.<String, ResourceAmounts>of(),
+        new FakeBuckConfig().getResourceAmountsByRuleType());
+
+    BuckConfig config = createFromText(
+        "[rule_resources]",
+        "cxx_link = 1, 2048",
+        "genrule = 2,0");
+    assertEquals(
+        ImmutableMap.of(
+            "cxx_link", new ResourceAmounts(1, 2048),
+            "genrule", new ResourceAmounts(2, 0)),
+        config.getResourceAmountsByRuleType());
+  }
+
+  @Test(expected = HumanReadableException.class)
+  public void testGetResourceAmountsByRuleTypeRejectsMissingMemory() throws IOException {
+    createFromText(
+        "[rule_resources]",
+        "cxx_link = 1").getResourceAmountsByRuleType();
+  }
+
   @Test
   public void testGetAndroidTargetSdkWithSpaces() throws IOException {
     BuckConfig config = createFromText(
@@ -19,6 +19,8 @@ package com.facebook.buck.cli;
 import static com.facebook.buck.rules.BuildRuleSuccessType.BUILT_LOCALLY;
 import static com.facebook.buck.rules.BuildRuleSuccessType.FETCHED_FROM_CACHE;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.command.BuildReport;
 import com.facebook.buck.model.BuildTargetFactory;
@@ -31,6 +33,7 @@ import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.util.Ansi;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -124,4 +127,19 @@ public class BuildCommandTest {
     String observedReport = new BuildReport(ruleToResult).generateJsonBuildReport();
     assertEquals(expectedReport, observedReport);
   }
+
+  @Test
+  public void buildsWhoseBuildIsReadAfterwardsAreNeverSkipped() {
+    BuildCommand command = new BuildCommand();
+    command.setArguments(ImmutableList.of("//fake:rule1"));
+    assertTrue(command.isUnchangedBuildSkippable());
+
+    command = new BuildCommand(/* isBuildReadAfterwards */ true);
+    command.setArguments(ImmutableList.of("//fake:rule1"));
+    assertFalse(command.isUnchangedBuildSkippable());
+
+    command = new PublishCommand();
+    command.setArguments(ImmutableList.of("//fake:rule1"));
+    assertFalse(command.isUnchangedBuildSkippable());
+  }
 }
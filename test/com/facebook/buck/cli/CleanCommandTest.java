@@ -131,7 +131,8 @@ public class CleanCommandTest extends EasyMockSupport {
         Optional.<ProcessManager>absent(),
         Optional.<WebServer>absent(),
         new FakeBuckConfig(),
-        new NullFileHashCache());
+        new NullFileHashCache(),
+        Optional.<LastBuildState>absent());
   }
 
 }
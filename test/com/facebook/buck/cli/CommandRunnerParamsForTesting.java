@@ -79,7 +79,8 @@ public class CommandRunnerParamsForTesting {
         Optional.<ProcessManager>absent(),
         webServer,
         config,
-        new NullFileHashCache());
+        new NullFileHashCache(),
+        Optional.<LastBuildState>absent());
   }
 
   public static Builder builder() {
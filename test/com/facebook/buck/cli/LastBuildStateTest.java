@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.cli;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.testutil.WatchEvents;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+
+public class LastBuildStateTest {
+
+  private static final ImmutableList<Object> KEY =
+      ImmutableList.<Object>of(ImmutableList.of("//foo:bar"), ImmutableList.of());
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private Path output;
+  private LastBuildState state;
+
+  @Before
+  public void setUp() throws IOException {
+    output = tmp.newFile("bar.jar").toPath();
+    state = new LastBuildState(new ProjectFilesystem(tmp.getRoot().toPath()));
+    state.recordSuccessfulBuild(KEY, ImmutableSet.of(output));
+  }
+
+  @Test
+  public void sameBuildIsUnchanged() {
+    assertTrue(state.isUnchanged(KEY));
+    assertFalse(
+        state.isUnchanged(
+            ImmutableList.<Object>of(ImmutableList.of("//foo:baz"), ImmutableList.of())));
+  }
+
+  @Test
+  public void changesToBuckOutAreIgnored() {
+    state.onFileSystemChange(
+        WatchEvents.createPathEvent(
+            Paths.get("buck-out/bin/foo/bar.jar"),
+            StandardWatchEventKinds.ENTRY_MODIFY));
+    assertTrue(state.isUnchanged(KEY));
+  }
+
+  @Test
+  public void changedSourceInvalidatesBuild() {
+    state.onFileSystemChange(
+        WatchEvents.createPathEvent(
+            Paths.get("foo/Bar.java"),
+            StandardWatchEventKinds.ENTRY_MODIFY));
+    assertFalse(state.isUnchanged(KEY));
+  }
+
+  @Test
+  public void overflowInvalidatesBuild() {
+    state.onFileSystemChange(WatchEvents.createOverflowEvent());
+    assertFalse(state.isUnchanged(KEY));
+  }
+
+  @Test
+  public void deletedOutputInvalidatesBuild() throws IOException {
+    Files.delete(output);
+    assertFalse(state.isUnchanged(KEY));
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.java.JavaLibraryBuilder;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.query.QueryBuildTarget;
+import com.facebook.buck.query.QueryFileTarget;
+import com.facebook.buck.query.QueryTarget;
+import com.facebook.buck.rules.TargetNode;
+import com.facebook.buck.testutil.TargetGraphFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Set;
+
+public class QueryTargetSetTest {
+
+  private final QueryTargetIndex index = new QueryTargetIndex();
+
+  private final QueryTarget a = target("//:a");
+  private final QueryTarget b = target("//:b");
+  private final QueryTarget c = target("//:c");
+  private final QueryTarget d = target("//:d");
+  private final QueryTarget file = QueryFileTarget.of(Paths.get("foo/bar.txt"));
+
+  private static QueryTarget target(String name) {
+    return QueryBuildTarget.of(BuildTargetFactory.newInstance(name));
+  }
+
+  private QueryTargetSet setOf(QueryTarget... targets) {
+    QueryTargetSet set = new QueryTargetSet(index);
+    for (QueryTarget target : targets) {
+      set.add(target);
+    }
+    return set;
+  }
+
+  @Test
+  public void iteratesInInsertionOrder() {
+    QueryTargetSet set = setOf(c, file, a);
+    assertFalse(set.add(c));
+    assertEquals(ImmutableList.of(c, file, a), Lists.newArrayList(set));
+    assertTrue(set.contains(file));
+    assertFalse(set.contains(b));
+
+    assertTrue(set.remove(file));
+    set.add(b);
+    set.add(file);
+    assertEquals(ImmutableList.of(c, a, b, file), Lists.newArrayList(set));
+    assertEquals(4, set.size());
+  }
+
+  @Test
+  public void bulkOperationsMatchLinkedHashSet() {
+    QueryTargetSet set = setOf(d, b, a);
+    assertTrue(set.addAll(setOf(a, c, file)));
+    assertEquals(ImmutableList.of(d, b, a, c, file), Lists.newArrayList(set));
+
+    assertTrue(set.retainAll(setOf(file, b, c)));
+    assertEquals(ImmutableList.of(b, c, file), Lists.newArrayList(set));
+    assertFalse(set.retainAll(setOf(file, b, c)));
+
+    assertTrue(set.removeAll(ImmutableSet.of(c, a)));
+    assertEquals(ImmutableList.of(b, file), Lists.newArrayList(set));
+
+    assertTrue(set.retainAll(ImmutableSet.of(file)));
+    assertEquals(ImmutableSet.of(file), set);
+  }
+
+  @Test
+  public void iteratorRemoveKeepsPositions() {
+    Set<QueryTarget> set = setOf(a, b, c);
+    Iterator<QueryTarget> iterator = set.iterator();
+    iterator.next();
+    iterator.next();
+    iterator.remove();
+    assertEquals(c, iterator.next());
+    assertFalse(iterator.hasNext());
+    assertEquals(ImmutableList.of(a, c), Lists.newArrayList(set));
+  }
+
+  @Test
+  public void indexTraversesGraphEdges() {
+    BuildTarget targetA = BuildTargetFactory.newInstance("//:a");
+    BuildTarget targetB = BuildTargetFactory.newInstance("//:b");
+    BuildTarget targetC = BuildTargetFactory.newInstance("//:c");
+    BuildTarget targetD = BuildTargetFactory.newInstance("//:d");
+    ImmutableSet<TargetNode<?>> nodes = ImmutableSet.<TargetNode<?>>of(
+        JavaLibraryBuilder.createBuilder(targetA).addDep(targetC).addDep(targetB).build(),
+        JavaLibraryBuilder.createBuilder(targetB).addDep(targetD).build(),
+        JavaLibraryBuilder.createBuilder(targetC).addDep(targetD).build(),
+        JavaLibraryBuilder.createBuilder(targetD).build());
+    index.setGraph(TargetGraphFactory.newInstance(nodes));
+
+    int idA = index.getId(a);
+    assertEquals(ImmutableList.of(b, c), targetsOf(index.getDeps(idA)));
+    assertEquals(ImmutableList.of(b, c), targetsOf(index.getReverseDeps(index.getId(d))));
+    assertEquals(
+        ImmutableList.of(a, b, c, d),
+        targetsOf(index.getTransitiveClosure(new int[] {idA})));
+
+    int fileId = index.getOrCreateId(file);
+    assertFalse(index.isInGraph(fileId));
+    assertEquals(
+        ImmutableList.of(file),
+        targetsOf(index.getTransitiveClosure(new int[] {fileId})));
+  }
+
+  private ImmutableList<QueryTarget> targetsOf(int[] ids) {
+    ImmutableList.Builder<QueryTarget> builder = ImmutableList.builder();
+    for (int id : ids) {
+      builder.add(index.getTarget(id));
+    }
+    return builder.build();
+  }
+}
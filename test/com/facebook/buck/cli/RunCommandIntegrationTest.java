@@ -73,6 +73,27 @@ public class RunCommandIntegrationTest extends EasyMockSupport {
     workspace.verify();
   }
 
+  @Test
+  public void testRunCommandTwiceInTheDaemon() throws IOException {
+    ProjectWorkspace workspace = TestDataHelper.createProjectWorkspaceForScenario(
+        this,
+        "run-command",
+        temporaryFolder);
+    workspace.setUp();
+
+    // The second run finds nothing changed since the first, but still needs the rules of the build.
+    for (int i = 0; i < 2; i++) {
+      ProcessResult result = workspace.runBuckdCommand(
+          "run",
+          "//cmd:command",
+          "one_arg",
+          workspace.getPath("output").toAbsolutePath().toString());
+      result.assertSuccess("buck run should succeed");
+      assertEquals("SUCCESS\n", result.getStdout());
+    }
+    workspace.verify();
+  }
+
   @Test
   public void testRunCommandFailure() throws IOException {
     ProjectWorkspace workspace = TestDataHelper.createProjectWorkspaceForScenario(
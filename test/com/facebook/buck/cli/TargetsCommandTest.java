@@ -42,6 +42,7 @@ import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.model.Either;
 import com.facebook.buck.parser.ParserConfig;
+import com.facebook.buck.parser.TargetNodeInputIndex;
 import com.facebook.buck.rules.BuildRuleType;
 import com.facebook.buck.rules.PathSourcePath;
 import com.facebook.buck.rules.Repository;
@@ -71,6 +72,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -203,6 +205,32 @@ public class TargetsCommandTest {
         console.getTextWrittenToStdErr());
   }
 
+  @Test
+  public void testJsonLinesOutputPrintsEachTargetOnALineOfItsOwn()
+      throws IOException, BuildFileParseException, InterruptedException {
+    SortedMap<String, TargetNode<?>> nodes = buildTargetNodes("//", "test-library");
+    nodes.putAll(buildTargetNodes("//", "nonexistent"));
+    BuildTarget target = BuildTarget.builder("//", "test-library").build();
+
+    targetsCommand.printJsonLinesForTargets(
+        params,
+        nodes.values(),
+        new ParserConfig(new FakeBuckConfig()),
+        ImmutableMap.of(
+            target,
+            Futures.immediateFuture(ImmutableMap.of("buck.rule_key", "abc"))));
+
+    String[] lines = console.getTextWrittenToStdOut().split("\n");
+    assertEquals(1, lines.length);
+    JsonNode observed = objectMapper.readTree(lines[0]);
+    assertEquals("test-library", observed.get("name").asText());
+    assertEquals("abc", observed.get("buck.rule_key").asText());
+    assertTrue(observed.has("buck.direct_dependencies"));
+    assertEquals(
+        "unable to find rule for target //:nonexistent\n",
+        console.getTextWrittenToStdErr());
+  }
+
   @Test
   public void testPrintNullDelimitedTargets() throws UnsupportedEncodingException {
     Iterable<String> targets = ImmutableList.of("//foo:bar", "//foo:baz");
@@ -387,6 +415,81 @@ public class TargetsCommandTest {
 
   }
 
+  @Test
+  public void testGetAffectedNodes() throws IOException {
+    BuildTarget javaLibraryTarget = BuildTargetFactory.newInstance("//javasrc:java-library");
+    BuildTarget javaTestTarget = BuildTargetFactory.newInstance("//javatest:test-java-library");
+    BuildTarget otherTarget = BuildTargetFactory.newInstance("//othersrc:other-library");
+    TargetNode<?> javaLibraryNode = JavaLibraryBuilder
+        .createBuilder(javaLibraryTarget)
+        .addSrc(Paths.get("javasrc/JavaLibrary.java"))
+        .addTest(javaTestTarget)
+        .build();
+    TargetNode<?> javaTestNode = JavaTestBuilder
+        .createBuilder(javaTestTarget)
+        .addSrc(Paths.get("javatest/TestJavaLibrary.java"))
+        .build();
+    TargetNode<?> otherNode = JavaLibraryBuilder
+        .createBuilder(otherTarget)
+        .addSrc(Paths.get("othersrc/Other.java"))
+        .addDep(javaLibraryTarget)
+        .build();
+    ImmutableSet<TargetNode<?>> nodes = ImmutableSet.of(javaLibraryNode, javaTestNode, otherNode);
+    TargetGraph targetGraph = TargetGraphFactory.newInstance(nodes);
+    TargetNodeInputIndex index = new TargetNodeInputIndex("BUCK");
+    for (TargetNode<?> node : nodes) {
+      index.add(node);
+    }
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    filesystem.touch(Paths.get("javasrc/JavaLibrary.java"));
+    filesystem.touch(Paths.get("othersrc/Other.java"));
+
+    // Dependents and tests of the owner are affected.
+    assertEquals(
+        ImmutableSet.of(
+            "//javasrc:java-library",
+            "//javatest:test-java-library",
+            "//othersrc:other-library"),
+        TargetsCommand.getAffectedNodes(
+            targetGraph,
+            index,
+            ImmutableSet.of(Paths.get("javasrc/JavaLibrary.java")),
+            Optional.<ImmutableSet<BuildRuleType>>absent(),
+            filesystem,
+            "BUCK").keySet());
+
+    // Build files affect the targets they define, and types filter the result.
+    assertEquals(
+        ImmutableSet.of("//othersrc:other-library"),
+        TargetsCommand.getAffectedNodes(
+            targetGraph,
+            index,
+            ImmutableSet.of(Paths.get("othersrc/BUCK")),
+            Optional.of(ImmutableSet.of(JavaLibraryDescription.TYPE)),
+            filesystem,
+            "BUCK").keySet());
+
+    // Deleted files affect their whole package, but new files aren't owned by anything yet.
+    assertEquals(
+        ImmutableSet.of("//javatest:test-java-library"),
+        TargetsCommand.getAffectedNodes(
+            targetGraph,
+            index,
+            ImmutableSet.of(Paths.get("javatest/Deleted.java")),
+            Optional.<ImmutableSet<BuildRuleType>>absent(),
+            filesystem,
+            "BUCK").keySet());
+    filesystem.touch(Paths.get("javatest/New.java"));
+    assertTrue(
+        TargetsCommand.getAffectedNodes(
+            targetGraph,
+            index,
+            ImmutableSet.of(Paths.get("javatest/New.java")),
+            Optional.<ImmutableSet<BuildRuleType>>absent(),
+            filesystem,
+            "BUCK").isEmpty());
+  }
+
   @Test
   public void testGetMatchingAppleLibraryBuildTarget() throws CmdLineException, IOException {
     BuildTarget libraryTarget = BuildTarget.builder("//foo", "lib").build();
@@ -62,6 +62,7 @@ import com.facebook.buck.test.TestResults;
 import com.facebook.buck.test.TestRunningOptions;
 import com.facebook.buck.test.result.type.ResultType;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
@@ -84,6 +85,7 @@ import java.io.StringWriter;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
@@ -956,4 +958,61 @@ public class TestRunningTest {
 
     assertThat(ret, equalTo(TestRunning.TEST_FAILURES_EXIT_CODE));
   }
+
+  @Test
+  public void shardTestClassesBalancesTheirDurationsLongestFirst() {
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:test");
+    TestDurationHistory durationHistory = new TestDurationHistory(
+        ImmutableMap.<String, Map<String, Long>>of(
+            target.getFullyQualifiedName(),
+            ImmutableMap.of(
+                "A", 50000L,
+                "B", 40000L,
+                "C", 30000L,
+                "D", 20000L,
+                "E", 10000L)));
+
+    // 150s of tests fit in at most five 30s shards, but only three are allowed.
+    ImmutableList<ImmutableSet<String>> shards = TestRunning.shardTestClasses(
+        target,
+        ImmutableSet.of("A", "B", "C", "D", "E"),
+        durationHistory,
+        /* maxShards */ 3,
+        /* minShardDurationMillis */ 30000);
+    assertEquals(
+        ImmutableList.of(
+            ImmutableSet.of("A"),
+            ImmutableSet.of("B", "E"),
+            ImmutableSet.of("C", "D")),
+        shards);
+  }
+
+  @Test
+  public void shardTestClassesKeepsShortTestsTogether() {
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:test");
+    // Classes that haven't run before are assumed to be short.
+    ImmutableList<ImmutableSet<String>> shards = TestRunning.shardTestClasses(
+        target,
+        ImmutableSet.of("A", "B", "C"),
+        new TestDurationHistory(ImmutableMap.<String, Map<String, Long>>of()),
+        /* maxShards */ 4,
+        /* minShardDurationMillis */ 30000);
+    assertEquals(ImmutableList.of(ImmutableSet.of("A", "B", "C")), shards);
+  }
+
+  @Test
+  public void testDurationHistoryRoundTripsThroughItsFile() throws IOException {
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:test");
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    ObjectMapper objectMapper = new ObjectMapper();
+    new TestDurationHistory(
+        ImmutableMap.<String, Map<String, Long>>of(
+            target.getFullyQualifiedName(),
+            ImmutableMap.of("A", 50000L)))
+        .save(filesystem, objectMapper);
+
+    assertEquals(
+        Optional.of(50000L),
+        TestDurationHistory.load(filesystem, objectMapper).getDuration(target, "A"));
+  }
 }
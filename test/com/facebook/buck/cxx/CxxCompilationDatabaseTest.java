@@ -117,7 +117,8 @@ public class CxxCompilationDatabaseTest {
             ImmutableSet.<Path>of(),
             Optional.<SourcePath>absent(),
             ImmutableList.<CxxHeaders>of(),
-            CxxPlatforms.DEFAULT_DEBUG_PATH_SANITIZER);
+            CxxPlatforms.DEFAULT_DEBUG_PATH_SANITIZER,
+            /* cachePreprocessedOutput */ false);
         rules.add(preprocessRule);
         compileBuildRuleParams = new FakeBuildRuleParamsBuilder(compileTarget)
             .setProjectFilesystem(filesystem)
@@ -162,7 +163,8 @@ public class CxxCompilationDatabaseTest {
             ImmutableSet.<Path>of(),
             Optional.<SourcePath>absent(),
             ImmutableList.<CxxHeaders>of(),
-            CxxPlatforms.DEFAULT_DEBUG_PATH_SANITIZER));
+            CxxPlatforms.DEFAULT_DEBUG_PATH_SANITIZER,
+            /* cachePreprocessedOutput */ false));
 
     CxxCompilationDatabase compilationDatabase = CxxCompilationDatabase.createCompilationDatabase(
         testBuildRuleParams,
@@ -286,7 +288,8 @@ public class CxxCompilationDatabaseTest {
         ImmutableSet.<Path>of(),
         Optional.<SourcePath>absent(),
         ImmutableList.<CxxHeaders>of(),
-        CxxPlatforms.DEFAULT_DEBUG_PATH_SANITIZER);
+        CxxPlatforms.DEFAULT_DEBUG_PATH_SANITIZER,
+        /* cachePreprocessedOutput */ false);
 
     BuildTarget compileTarget = BuildTarget
         .builder(testBuildRuleParams.getBuildTarget().getUnflavoredBuildTarget())
@@ -316,7 +319,8 @@ public class CxxCompilationDatabaseTest {
         ImmutableSet.<Path>of(),
         Optional.<SourcePath>absent(),
         ImmutableList.<CxxHeaders>of(),
-        CxxPlatforms.DEFAULT_DEBUG_PATH_SANITIZER);
+        CxxPlatforms.DEFAULT_DEBUG_PATH_SANITIZER,
+        /* cachePreprocessedOutput */ false);
 
     CxxCompilationDatabase compilationDatabase = CxxCompilationDatabase.createCompilationDatabase(
         testBuildRuleParams,
@@ -16,13 +16,18 @@
 
 package com.facebook.buck.cxx;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThat;
 
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.InMemoryArtifactCache;
 import com.facebook.buck.cli.FakeBuckConfig;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.TestExecutionContext;
@@ -33,6 +38,7 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 import org.hamcrest.Matchers;
 import org.junit.Rule;
@@ -42,6 +48,7 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CxxCompileStepIntegrationTest {
 
@@ -86,7 +93,8 @@ public class CxxCompileStepIntegrationTest {
         Optional.of(compilerCommand.build()),
         ImmutableMap.<Path, Path>of(),
         sanitizer,
-        Optional.<Function<String, Iterable<String>>>absent());
+        Optional.<Function<String, Iterable<String>>>absent(),
+        Optional.<ArtifactCache>absent());
 
     // Execute the archive step and verify it ran successfully.
     ExecutionContext executionContext = TestExecutionContext.newInstance();
@@ -118,4 +126,61 @@ public class CxxCompileStepIntegrationTest {
     assertCompDir(Paths.get("blah"), Optional.<String>absent());
   }
 
+  @Test
+  public void pipedCachedCompileReusesObjectForIdenticalPreprocessedOutput() throws Exception {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    CxxPlatform platform = DefaultCxxPlatforms.build(new CxxBuckConfig(new FakeBuckConfig()));
+    ImmutableList<String> compiler = platform.getCc().getCommandPrefix(
+        new SourcePathResolver(new BuildRuleResolver()));
+    Path output = filesystem.resolve(Paths.get("output.o"));
+    Path depFile = filesystem.resolve(Paths.get("output.dep"));
+    Path relativeInput = Paths.get("input.c");
+    filesystem.writeContentsToPath("int main() { return 0; }", relativeInput);
+
+    final AtomicInteger stores = new AtomicInteger();
+    InMemoryArtifactCache cache = new InMemoryArtifactCache() {
+      @Override
+      public void store(
+          ImmutableSet<RuleKey> ruleKeys,
+          ImmutableMap<String, String> metadata,
+          Path output) {
+        stores.incrementAndGet();
+        super.store(ruleKeys, metadata, output);
+      }
+    };
+
+    CxxPreprocessAndCompileStep step = new CxxPreprocessAndCompileStep(
+        filesystem,
+        CxxPreprocessAndCompileStep.Operation.PIPED_PREPROCESS_AND_COMPILE,
+        output,
+        depFile,
+        relativeInput,
+        CxxSource.Type.C,
+        Optional.of(compiler),
+        Optional.of(compiler),
+        ImmutableMap.<Path, Path>of(),
+        CxxPlatforms.DEFAULT_DEBUG_PATH_SANITIZER,
+        Optional.<Function<String, Iterable<String>>>absent(),
+        Optional.<ArtifactCache>of(cache));
+
+    ExecutionContext executionContext = TestExecutionContext.newInstance();
+    TestConsole console = (TestConsole) executionContext.getConsole();
+    assertEquals(console.getTextWrittenToStdErr(), 0, step.execute(executionContext));
+    assertEquals(1, stores.get());
+    byte[] compiled = Files.readAllBytes(output);
+
+    // A comment doesn't change the preprocessed output, so the object should come from the cache.
+    filesystem.writeContentsToPath("int main() { return 0; } /* comment */", relativeInput);
+    Files.delete(output);
+    assertEquals(console.getTextWrittenToStdErr(), 0, step.execute(executionContext));
+    assertEquals(1, stores.get());
+    assertArrayEquals(compiled, Files.readAllBytes(output));
+
+    // A real change misses the cache and compiles again.
+    filesystem.writeContentsToPath("int main() { return 1; }", relativeInput);
+    assertEquals(console.getTextWrittenToStdErr(), 0, step.execute(executionContext));
+    assertEquals(2, stores.get());
+    assertFalse(Files.exists(filesystem.resolve(Paths.get("output.o.pp.tmp"))));
+  }
+
 }
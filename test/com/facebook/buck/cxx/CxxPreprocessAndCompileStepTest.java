@@ -18,23 +18,38 @@ package com.facebook.buck.cxx;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertTrue;
 
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.NoopArtifactCache;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
 import com.facebook.buck.util.Escaper;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
 
+import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
 public class CxxPreprocessAndCompileStepTest {
 
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
   @Test
   public void outputProcessor() {
     Path original = Paths.get("buck-out/foo#bar/world.h");
@@ -68,7 +83,8 @@ public class CxxPreprocessAndCompileStepTest {
             Optional.<ImmutableList<String>>absent(),
             replacementPaths,
             sanitizer,
-            Optional.<Function<String, Iterable<String>>>absent());
+            Optional.<Function<String, Iterable<String>>>absent(),
+            Optional.<ArtifactCache>absent());
 
     Function<String, Iterable<String>> processor =
         cxxPreprocessStep.createPreprocessOutputLineProcessor(compilationDirectory);
@@ -125,7 +141,8 @@ public class CxxPreprocessAndCompileStepTest {
             Optional.of(compiler),
             replacementPaths,
             sanitizer,
-            Optional.<Function<String, Iterable<String>>>absent());
+            Optional.<Function<String, Iterable<String>>>absent(),
+            Optional.<ArtifactCache>absent());
 
     Function<String, Iterable<String>> processor =
         cxxPreprocessStep.createErrorLineProcessor(compilationDirectory);
@@ -178,4 +195,37 @@ public class CxxPreprocessAndCompileStepTest {
         equalTo(processor.apply(" error message!")));
   }
 
+
+  @Test
+  public void preprocessedOutputCacheKeyIdentifiesCompilerFoundOnPath() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    Path bin = tmp.newFolder("bin").toPath();
+    Path compiler = bin.resolve("mycc");
+    Files.write(compiler, "v1".getBytes(StandardCharsets.UTF_8));
+    assertTrue(compiler.toFile().setExecutable(true));
+    ImmutableMap<String, String> environment = ImmutableMap.of("PATH", bin.toString());
+
+    CxxPreprocessAndCompileStep step =
+        new CxxPreprocessAndCompileStep(
+            filesystem,
+            CxxPreprocessAndCompileStep.Operation.PIPED_PREPROCESS_AND_COMPILE,
+            Paths.get("test.o"),
+            Paths.get("test.dep"),
+            Paths.get("test.cpp"),
+            CxxSource.Type.CXX,
+            Optional.of(ImmutableList.of("mycc", "-E")),
+            Optional.of(ImmutableList.of("mycc", "-c")),
+            ImmutableMap.<Path, Path>of(),
+            CxxPlatforms.DEFAULT_DEBUG_PATH_SANITIZER,
+            Optional.<Function<String, Iterable<String>>>absent(),
+            Optional.<ArtifactCache>of(new NoopArtifactCache()));
+    HashCode preprocessed = HashCode.fromInt(42);
+
+    RuleKey before = step.getPreprocessedOutputCacheKey(preprocessed, environment);
+    Files.write(compiler, "v2 is larger".getBytes(StandardCharsets.UTF_8));
+
+    assertThat(
+        step.getPreprocessedOutputCacheKey(preprocessed, environment),
+        not(equalTo(before)));
+  }
 }
@@ -136,7 +136,8 @@ public class CxxPreprocessAndCompileTest {
             DEFAULT_FRAMEWORK_ROOTS,
             Optional.<SourcePath>absent(),
             DEFAULT_INCLUDES,
-            DEFAULT_SANITIZER));
+            DEFAULT_SANITIZER,
+            /* cachePreprocessedOutput */ false));
 
     // Verify that changing the compiler causes a rulekey change.
     RuleKey compilerChange = generateRuleKey(
@@ -160,7 +161,8 @@ public class CxxPreprocessAndCompileTest {
             DEFAULT_FRAMEWORK_ROOTS,
             Optional.<SourcePath>absent(),
             DEFAULT_INCLUDES,
-            DEFAULT_SANITIZER));
+            DEFAULT_SANITIZER,
+            /* cachePreprocessedOutput */ false));
     assertNotEquals(defaultRuleKey, compilerChange);
 
     // Verify that changing the operation causes a rulekey change.
@@ -185,7 +187,8 @@ public class CxxPreprocessAndCompileTest {
             DEFAULT_FRAMEWORK_ROOTS,
             Optional.<SourcePath>absent(),
             DEFAULT_INCLUDES,
-            DEFAULT_SANITIZER));
+            DEFAULT_SANITIZER,
+            /* cachePreprocessedOutput */ false));
     assertNotEquals(defaultRuleKey, operationChange);
 
     // Verify that changing the platform flags causes a rulekey change.
@@ -210,7 +213,8 @@ public class CxxPreprocessAndCompileTest {
             DEFAULT_FRAMEWORK_ROOTS,
             Optional.<SourcePath>absent(),
             DEFAULT_INCLUDES,
-            DEFAULT_SANITIZER));
+            DEFAULT_SANITIZER,
+            /* cachePreprocessedOutput */ false));
     assertNotEquals(defaultRuleKey, platformFlagsChange);
 
     // Verify that changing the rule flags causes a rulekey change.
@@ -235,7 +239,8 @@ public class CxxPreprocessAndCompileTest {
             DEFAULT_FRAMEWORK_ROOTS,
             Optional.<SourcePath>absent(),
             DEFAULT_INCLUDES,
-            DEFAULT_SANITIZER));
+            DEFAULT_SANITIZER,
+            /* cachePreprocessedOutput */ false));
     assertNotEquals(defaultRuleKey, ruleFlagsChange);
 
     // Verify that changing the input causes a rulekey change.
@@ -260,7 +265,8 @@ public class CxxPreprocessAndCompileTest {
             DEFAULT_FRAMEWORK_ROOTS,
             Optional.<SourcePath>absent(),
             DEFAULT_INCLUDES,
-            DEFAULT_SANITIZER));
+            DEFAULT_SANITIZER,
+            /* cachePreprocessedOutput */ false));
     assertNotEquals(defaultRuleKey, inputChange);
 
     // Verify that changing the includes does *not* cause a rulekey change, since we use a
@@ -286,7 +292,8 @@ public class CxxPreprocessAndCompileTest {
             DEFAULT_FRAMEWORK_ROOTS,
             Optional.<SourcePath>absent(),
             DEFAULT_INCLUDES,
-            DEFAULT_SANITIZER));
+            DEFAULT_SANITIZER,
+            /* cachePreprocessedOutput */ false));
     assertEquals(defaultRuleKey, includesChange);
 
     // Verify that changing the system includes does *not* cause a rulekey change, since we use a
@@ -312,7 +319,8 @@ public class CxxPreprocessAndCompileTest {
             DEFAULT_FRAMEWORK_ROOTS,
             Optional.<SourcePath>absent(),
             DEFAULT_INCLUDES,
-            DEFAULT_SANITIZER));
+            DEFAULT_SANITIZER,
+            /* cachePreprocessedOutput */ false));
     assertEquals(defaultRuleKey, systemIncludesChange);
 
     // Verify that changing the header maps does *not* cause a rulekey change, since we use a
@@ -338,7 +346,8 @@ public class CxxPreprocessAndCompileTest {
             DEFAULT_FRAMEWORK_ROOTS,
             Optional.<SourcePath>absent(),
             DEFAULT_INCLUDES,
-            DEFAULT_SANITIZER));
+            DEFAULT_SANITIZER,
+            /* cachePreprocessedOutput */ false));
     assertEquals(defaultRuleKey, headerMapsIncludesChange);
 
     // Verify that changing the framework roots causes a rulekey change.
@@ -363,7 +372,8 @@ public class CxxPreprocessAndCompileTest {
             ImmutableSet.of(Paths.get("different")),
             Optional.<SourcePath>absent(),
             DEFAULT_INCLUDES,
-            DEFAULT_SANITIZER));
+            DEFAULT_SANITIZER,
+            /* cachePreprocessedOutput */ false));
     assertNotEquals(defaultRuleKey, frameworkRootsChange);
   }
 
@@ -424,7 +434,8 @@ public class CxxPreprocessAndCompileTest {
             DEFAULT_FRAMEWORK_ROOTS,
             Optional.<SourcePath>absent(),
             DEFAULT_INCLUDES,
-            sanitizer1));
+            sanitizer1,
+            /* cachePreprocessedOutput */ false));
 
     // Generate a rule key for the defaults.
     ImmutableList<String> platformFlags2 = ImmutableList.of("-Idifferent/foo");
@@ -450,7 +461,8 @@ public class CxxPreprocessAndCompileTest {
             DEFAULT_FRAMEWORK_ROOTS,
             Optional.<SourcePath>absent(),
             DEFAULT_INCLUDES,
-            sanitizer2));
+            sanitizer2,
+            /* cachePreprocessedOutput */ false));
 
     assertEquals(ruleKey1, ruleKey2);
   }
@@ -487,7 +499,8 @@ public class CxxPreprocessAndCompileTest {
         DEFAULT_FRAMEWORK_ROOTS,
         Optional.<SourcePath>absent(),
         ImmutableList.of(CxxHeaders.builder().build()),
-        DEFAULT_SANITIZER);
+        DEFAULT_SANITIZER,
+        /* cachePreprocessedOutput */ false);
 
     ImmutableList<String> expectedCompileCommand = ImmutableList.<String>builder()
         .add("compiler")
@@ -538,7 +551,8 @@ public class CxxPreprocessAndCompileTest {
         DEFAULT_FRAMEWORK_ROOTS,
         Optional.<SourcePath>of(new TestSourcePath(prefixHeader.toString())),
         ImmutableList.of(CxxHeaders.builder().build()),
-        DEFAULT_SANITIZER);
+        DEFAULT_SANITIZER,
+        /* cachePreprocessedOutput */ false);
 
     // Verify it uses the expected command.
     ImmutableList<String> expectedPreprocessCommand = ImmutableList.<String>builder()
@@ -599,7 +613,8 @@ public class CxxPreprocessAndCompileTest {
             DEFAULT_FRAMEWORK_ROOTS,
             Optional.<SourcePath>absent(),
             DEFAULT_INCLUDES,
-            DEFAULT_SANITIZER);
+            DEFAULT_SANITIZER,
+            /* cachePreprocessedOutput */ false);
     assertThat(
         cxxPreprocess.getInputsAfterBuildingLocally(),
         Matchers.hasItem(preprocessor));
@@ -624,7 +639,8 @@ public class CxxPreprocessAndCompileTest {
             DEFAULT_FRAMEWORK_ROOTS,
             Optional.<SourcePath>absent(),
             DEFAULT_INCLUDES,
-            DEFAULT_SANITIZER);
+            DEFAULT_SANITIZER,
+            /* cachePreprocessedOutput */ false);
     assertThat(
         cxxCompile.getInputsAfterBuildingLocally(),
         Matchers.hasItem(compiler));
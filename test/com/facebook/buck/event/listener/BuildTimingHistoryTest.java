@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BuildTimingHistoryTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static BuildTimingHistory.RuleRecord rule(String successType, long millis) {
+    return new BuildTimingHistory.RuleRecord(
+        "java_library",
+        millis,
+        successType,
+        "miss",
+        millis * 10,
+        ImmutableMap.of("javac", millis / 2));
+  }
+
+  private static BuildTimingHistory.BuildRecord build(
+      String buildId,
+      long startedMillis,
+      BuildTimingHistory.RuleRecord rule) {
+    return new BuildTimingHistory.BuildRecord(
+        buildId,
+        startedMillis,
+        "buck build //:lib",
+        ImmutableMap.of("//:lib", rule));
+  }
+
+  @Test
+  public void writtenBuildsAreReadBackLatestFirstAndOldOnesForgotten() throws Exception {
+    BuildTimingHistory history = new BuildTimingHistory(
+        new ProjectFilesystem(tmp.getRoot().toPath()),
+        new ObjectMapper());
+
+    history.write(build("first", 1000, rule("built_locally", 100)), /* buildsToKeep */ 2);
+    history.write(build("second", 2000, rule("built_locally", 200)), /* buildsToKeep */ 2);
+    history.write(build("third", 3000, rule("built_locally", 300)), /* buildsToKeep */ 2);
+
+    ImmutableList<BuildTimingHistory.BuildRecord> builds = history.read(10);
+    assertEquals(2, builds.size());
+    assertEquals("third", builds.get(0).getBuildId());
+    assertEquals("second", builds.get(1).getBuildId());
+    BuildTimingHistory.RuleRecord rule = builds.get(0).getRules().get("//:lib");
+    assertEquals(300, rule.getDurationMillis());
+    assertEquals(Long.valueOf(3000), rule.getOutputBytes());
+    assertEquals(ImmutableSortedMap.of("javac", 150L), rule.getStepMillis());
+  }
+
+  @Test
+  public void statisticsDescribeLocalBuildsOfEachRule() {
+    ImmutableSortedMap<String, BuildTimingHistory.RuleStatistics> statistics =
+        BuildTimingHistory.computeStatistics(
+            ImmutableList.of(
+                build("5", 5000, rule("fetched_from_cache", 10)),
+                build("4", 4000, rule("built_locally", 400)),
+                build("3", 3000, rule("failed", 50)),
+                build("2", 2000, rule("built_locally", 100)),
+                build("1", 1000, rule("built_locally", 200))));
+
+    BuildTimingHistory.RuleStatistics rule = statistics.get("//:lib");
+    assertEquals("java_library", rule.getType());
+    assertEquals(5, rule.getBuilds());
+    assertEquals(3, rule.getBuiltLocally());
+    assertEquals(1, rule.getFetchedFromCache());
+    assertEquals(1, rule.getFailed());
+    assertEquals(200, rule.getMedianMillis());
+    assertEquals(400, rule.getP90Millis());
+    assertEquals(400, rule.getMaxMillis());
+    assertEquals(400, rule.getLastMillis());
+    assertEquals(Long.valueOf(100), rule.getLastOutputBytes());
+    assertEquals(ImmutableSortedMap.of("javac", 100L), rule.getMedianStepMillis());
+  }
+
+  @Test
+  public void estimatedDurationsAreMediansOfTheLastLocalBuilds() throws Exception {
+    BuildTimingHistory history = new BuildTimingHistory(
+        new ProjectFilesystem(tmp.getRoot().toPath()),
+        new ObjectMapper());
+
+    history.write(build("first", 1000, rule("built_locally", 900)), /* buildsToKeep */ 10);
+    history.write(build("second", 2000, rule("built_locally", 100)), /* buildsToKeep */ 10);
+    history.write(build("third", 3000, rule("built_locally", 300)), /* buildsToKeep */ 10);
+    history.write(build("fourth", 4000, rule("fetched_from_cache", 10)), /* buildsToKeep */ 10);
+
+    assertEquals(
+        ImmutableMap.of("//:lib", 100L),
+        history.getEstimatedDurations(/* maxBuilds */ 3).get());
+    assertEquals(
+        ImmutableMap.of(),
+        history.getEstimatedDurations(/* maxBuilds */ 1).get());
+  }
+
+  @Test
+  public void nothingIsReadBeforeAnythingIsWritten() throws Exception {
+    BuildTimingHistory history = new BuildTimingHistory(
+        new ProjectFilesystem(tmp.getRoot().toPath()),
+        new ObjectMapper());
+
+    assertEquals(0, history.read(10).size());
+    assertNull(BuildTimingHistory.computeStatistics(history.read(10)).get("//:lib"));
+    assertEquals(ImmutableMap.of(), history.getEstimatedDurations(10).get());
+  }
+}
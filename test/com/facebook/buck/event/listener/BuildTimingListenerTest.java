@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.rules.BuildEvent;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.BuildRuleStatus;
+import com.facebook.buck.rules.BuildRuleSuccessType;
+import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.step.StepEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.UUID;
+
+public class BuildTimingListenerTest {
+
+  private static final BuildId BUILD_ID = new BuildId("BUILD_ID");
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static <T extends AbstractBuckEvent> T at(T event, long millis, long threadId) {
+    event.configure(millis, 0, threadId, BUILD_ID);
+    return event;
+  }
+
+  private static BuildRuleEvent.Finished finished(
+      BuildRule rule,
+      CacheResult cacheResult,
+      BuildRuleSuccessType successType) {
+    return BuildRuleEvent.finished(
+        rule,
+        BuildRuleStatus.SUCCESS,
+        cacheResult,
+        Optional.of(successType),
+        Optional.<HashCode>absent(),
+        Optional.of(1234L));
+  }
+
+  @Test
+  public void recordsTheTimeRulesAndTheirStepsKeptThreadsBusy() throws Exception {
+    BuildTimingHistory history = new BuildTimingHistory(
+        new ProjectFilesystem(tmp.getRoot().toPath()),
+        new ObjectMapper());
+    BuildTimingListener listener = new BuildTimingListener(history, /* buildsToKeep */ 10);
+    SourcePathResolver resolver = new SourcePathResolver(new BuildRuleResolver());
+    BuildRule built = new FakeBuildRule("//:built", resolver);
+    BuildRule upToDate = new FakeBuildRule("//:up_to_date", resolver);
+
+    BuildEvent.Started buildStarted = at(BuildEvent.started(ImmutableList.of("//:built")), 0, 1);
+    listener.buildStarted(buildStarted);
+
+    // Computing the rule key, then waiting for deps on another thread before building.
+    listener.ruleStarted(at(BuildRuleEvent.started(built), 10, 1));
+    listener.ruleSuspended(at(BuildRuleEvent.suspended(built), 15, 1));
+    listener.ruleResumed(at(BuildRuleEvent.resumed(built), 100, 2));
+    StepEvent.Started javac = StepEvent.started("javac", "javac", UUID.randomUUID());
+    listener.stepStarted(at(javac, 110, 2));
+    listener.stepFinished(at(StepEvent.finished(javac, 0), 150, 2));
+    StepEvent.Started jar = StepEvent.started("jar", "jar", UUID.randomUUID());
+    listener.stepStarted(at(jar, 150, 2));
+    listener.stepFinished(at(StepEvent.finished(jar, 0), 170, 2));
+    listener.ruleFinished(
+        at(finished(built, CacheResult.miss(), BuildRuleSuccessType.BUILT_LOCALLY), 175, 2));
+
+    listener.ruleStarted(at(BuildRuleEvent.started(upToDate), 10, 3));
+    listener.ruleFinished(
+        at(
+            finished(
+                upToDate,
+                CacheResult.localKeyUnchangedHit(),
+                BuildRuleSuccessType.MATCHING_RULE_KEY),
+            20,
+            3));
+
+    listener.buildFinished(at(BuildEvent.finished(buildStarted, 0), 200, 1));
+    listener.outputTrace(BUILD_ID);
+
+    ImmutableList<BuildTimingHistory.BuildRecord> builds = history.read(10);
+    assertEquals(1, builds.size());
+    assertEquals("BUILD_ID", builds.get(0).getBuildId());
+    assertEquals(0, builds.get(0).getStartedMillis());
+    assertEquals(ImmutableList.of("//:built"), builds.get(0).getRules().keySet().asList());
+    BuildTimingHistory.RuleRecord rule = builds.get(0).getRules().get("//:built");
+    assertEquals(80, rule.getDurationMillis());
+    assertEquals("built_locally", rule.getSuccessType());
+    assertEquals("miss", rule.getCacheResult());
+    assertEquals(Long.valueOf(1234), rule.getOutputBytes());
+    assertEquals(ImmutableSortedMap.of("jar", 20L, "javac", 40L), rule.getStepMillis());
+  }
+
+  @Test
+  public void recordsRulesFetchedFromTheCacheButNotRulesThatWereUpToDate() throws Exception {
+    BuildTimingHistory history = new BuildTimingHistory(
+        new ProjectFilesystem(tmp.getRoot().toPath()),
+        new ObjectMapper());
+    BuildTimingListener listener = new BuildTimingListener(history, /* buildsToKeep */ 10);
+    SourcePathResolver resolver = new SourcePathResolver(new BuildRuleResolver());
+    ImmutableList<BuildRuleSuccessType> successTypes = ImmutableList.of(
+        BuildRuleSuccessType.FETCHED_FROM_CACHE,
+        BuildRuleSuccessType.FETCHED_FROM_CACHE_INPUT_BASED,
+        BuildRuleSuccessType.MATCHING_INPUT_BASED_RULE_KEY,
+        BuildRuleSuccessType.MATCHING_ABI_RULE_KEY,
+        BuildRuleSuccessType.MATCHING_DEP_FILE_RULE_KEY);
+
+    BuildEvent.Started buildStarted = at(BuildEvent.started(ImmutableList.<String>of()), 0, 1);
+    listener.buildStarted(buildStarted);
+    for (BuildRuleSuccessType successType : successTypes) {
+      BuildRule rule = new FakeBuildRule("//:" + successType.name().toLowerCase(), resolver);
+      listener.ruleStarted(at(BuildRuleEvent.started(rule), 10, 1));
+      listener.ruleFinished(at(finished(rule, CacheResult.hit("dir"), successType), 20, 1));
+    }
+    listener.buildFinished(at(BuildEvent.finished(buildStarted, 0), 30, 1));
+    listener.outputTrace(BUILD_ID);
+
+    ImmutableList<BuildTimingHistory.BuildRecord> builds = history.read(10);
+    assertEquals(1, builds.size());
+    assertEquals(
+        ImmutableList.of("//:fetched_from_cache", "//:fetched_from_cache_input_based"),
+        builds.get(0).getRules().keySet().asList());
+    for (BuildTimingHistory.RuleRecord rule : builds.get(0).getRules().values()) {
+      assertTrue(rule.isFetchedFromCache());
+    }
+  }
+}
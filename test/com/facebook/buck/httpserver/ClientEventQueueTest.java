@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Optional;
+
+import org.junit.Test;
+
+public class ClientEventQueueTest {
+
+  private static final Optional<Object> NO_KEY = Optional.absent();
+
+  @Test
+  public void limitsMessagesInFlight() {
+    ClientEventQueue queue = new ClientEventQueue(/* maxInFlight */ 2, /* maxBacklog */ 10);
+    queue.offer("a", false, NO_KEY);
+    queue.offer("b", false, NO_KEY);
+    queue.offer("c", false, NO_KEY);
+
+    assertEquals("a", queue.poll());
+    assertEquals("b", queue.poll());
+    assertNull(queue.poll());
+
+    queue.messageWritten();
+    assertEquals("c", queue.poll());
+  }
+
+  @Test
+  public void dropsDroppableMessagesOnlyWhenBehind() {
+    ClientEventQueue queue = new ClientEventQueue(/* maxInFlight */ 1, /* maxBacklog */ 10);
+    queue.offer("step 1", true, NO_KEY);
+    assertEquals("step 1", queue.poll());
+
+    queue.offer("step 2", true, NO_KEY);
+    queue.offer("build finished", false, NO_KEY);
+    assertEquals(1, queue.takeDroppedCount());
+
+    queue.messageWritten();
+    assertEquals("build finished", queue.poll());
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void keepsOnlyLatestMessageOfCoalescingKey() {
+    ClientEventQueue queue = new ClientEventQueue(/* maxInFlight */ 1, /* maxBacklog */ 10);
+    queue.offer("first", false, NO_KEY);
+    assertEquals("first", queue.poll());
+
+    queue.offer("count 1", false, Optional.of("count"));
+    queue.offer("other", false, NO_KEY);
+    queue.offer("count 2", false, Optional.of("count"));
+
+    queue.messageWritten();
+    assertEquals("other", queue.poll());
+    queue.messageWritten();
+    assertEquals("count 2", queue.poll());
+    queue.messageWritten();
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void reportsClientTooFarBehind() {
+    ClientEventQueue queue = new ClientEventQueue(/* maxInFlight */ 1, /* maxBacklog */ 2);
+    assertTrue(queue.offer("a", false, NO_KEY));
+    assertTrue(queue.offer("b", false, NO_KEY));
+    assertFalse(queue.offer("c", false, NO_KEY));
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+public class PendingEventQueueTest {
+
+  private static final Optional<Object> NO_KEY = Optional.absent();
+
+  @Test
+  public void dropsOnlyDroppableEventsWhenFull() {
+    PendingEventQueue<String> queue = new PendingEventQueue<>(/* maxDroppable */ 2);
+    queue.offer("step 1", true, NO_KEY);
+    queue.offer("step 2", true, NO_KEY);
+    queue.offer("step 3", true, NO_KEY);
+    queue.offer("build finished", false, NO_KEY);
+
+    assertEquals(
+        ImmutableList.of("step 1", "step 2", "build finished"),
+        queue.drain());
+    assertEquals(1, queue.takeDroppedCount());
+    assertEquals(0, queue.takeDroppedCount());
+  }
+
+  @Test
+  public void keepsOnlyLatestEventOfCoalescingKey() {
+    PendingEventQueue<String> queue = new PendingEventQueue<>(/* maxDroppable */ 10);
+    queue.offer("count 1", false, Optional.of("count"));
+    queue.offer("other", false, NO_KEY);
+    queue.offer("count 2", false, Optional.of("count"));
+
+    assertEquals(ImmutableList.of("other", "count 2"), queue.drain());
+  }
+
+  @Test
+  public void drainEmptiesTheQueue() {
+    PendingEventQueue<String> queue = new PendingEventQueue<>(/* maxDroppable */ 1);
+    queue.offer("step 1", true, NO_KEY);
+    queue.drain();
+
+    assertTrue(queue.drain().isEmpty());
+    queue.offer("step 2", true, NO_KEY);
+    assertEquals(ImmutableList.of("step 2"), queue.drain());
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.util.BuckConstant;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class TraceCatalogTest {
+
+  @Test
+  public void recordedEntriesCanBeReadBackByAnotherCatalog() throws IOException {
+    FakeProjectFilesystem projectFilesystem = new FakeProjectFilesystem();
+    Path trace = BuckConstant.BUCK_TRACE_DIR.resolve("build.2015-01-01.00-00-00.a.trace");
+    projectFilesystem.writeContentsToPath("[]", trace);
+
+    new TraceCatalog(projectFilesystem).record(
+        trace,
+        new TraceCatalog.Entry("a", "buck build //foo:bar", 1000L, 500L, 2L));
+
+    TraceCatalog.Entry entry = new TraceCatalog(projectFilesystem).get(trace).get();
+    assertEquals("a", entry.getBuildId());
+    assertEquals("buck build //foo:bar", entry.getCommand());
+    assertEquals(1000L, entry.getStartedMillis());
+    assertEquals(500L, entry.getDurationMillis());
+    assertEquals(2L, entry.getSizeBytes());
+  }
+
+  @Test
+  public void recordingDropsEntriesOfDeletedTraces() throws IOException {
+    FakeProjectFilesystem projectFilesystem = new FakeProjectFilesystem();
+    Path first = BuckConstant.BUCK_TRACE_DIR.resolve("build.a.trace");
+    Path second = BuckConstant.BUCK_TRACE_DIR.resolve("build.b.trace.gz");
+    projectFilesystem.writeContentsToPath("[]", first);
+    projectFilesystem.writeContentsToPath("[]", second);
+
+    TraceCatalog catalog = new TraceCatalog(projectFilesystem);
+    catalog.record(first, new TraceCatalog.Entry("a", null, 0L, 0L, 2L));
+    projectFilesystem.deleteFileAtPath(first);
+    catalog.record(second, new TraceCatalog.Entry("b", null, 0L, 0L, 2L));
+
+    assertEquals(ImmutableSet.of("build.b.trace.gz"), catalog.read().keySet());
+    assertFalse(catalog.get(first).isPresent());
+    assertEquals("", catalog.get(second).get().getCommand());
+  }
+
+  @Test
+  public void unreadableIndexIsTreatedAsEmpty() throws IOException {
+    FakeProjectFilesystem projectFilesystem = new FakeProjectFilesystem();
+    projectFilesystem.writeContentsToPath("{not json", TraceCatalog.INDEX_PATH);
+
+    assertTrue(new TraceCatalog(projectFilesystem).read().isEmpty());
+  }
+}
@@ -22,6 +22,9 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
 
 import org.easymock.EasyMockSupport;
 import org.eclipse.jetty.server.Request;
@@ -30,12 +33,14 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
 import java.util.regex.Matcher;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -62,15 +67,17 @@ public class TraceDataHandlerTest extends EasyMockSupport {
     expect(baseRequest.getMethod()).andReturn("GET");
     expect(baseRequest.getPathInfo()).andReturn("/abcdef");
     expect(baseRequest.getParameter("callback")).andReturn(null);
+    expect(baseRequest.getHeader("Range")).andReturn(null);
+    expect(baseRequest.getHeader("Accept-Encoding")).andReturn(null);
     baseRequest.setHandled(true);
     HttpServletRequest request = createMock(HttpServletRequest.class);
 
     HttpServletResponse response = createMock(HttpServletResponse.class);
     response.setStatus(200);
     response.setContentType("application/javascript; charset=utf-8");
-    StringWriter stringWriter = new StringWriter();
-    PrintWriter printWriter = new PrintWriter(stringWriter);
-    expect(response.getWriter()).andReturn(printWriter);
+    response.setHeader("Accept-Ranges", "bytes");
+    ByteArrayServletOutputStream output = new ByteArrayServletOutputStream();
+    expect(response.getOutputStream()).andReturn(output);
     response.flushBuffer();
 
     TracesHelper tracesHelper = createMock(TracesHelper.class);
@@ -87,7 +94,7 @@ public class TraceDataHandlerTest extends EasyMockSupport {
         response);
     verifyAll();
 
-    assertEquals("[{\"foo\":\"bar\"}]", stringWriter.toString());
+    assertEquals("[{\"foo\":\"bar\"}]", output.toString());
   }
 
   @Test
@@ -96,15 +103,17 @@ public class TraceDataHandlerTest extends EasyMockSupport {
     expect(baseRequest.getMethod()).andReturn("GET");
     expect(baseRequest.getPathInfo()).andReturn("/abcdef");
     expect(baseRequest.getParameter("callback")).andReturn(null);
+    expect(baseRequest.getHeader("Range")).andReturn(null);
+    expect(baseRequest.getHeader("Accept-Encoding")).andReturn(null);
     baseRequest.setHandled(true);
     HttpServletRequest request = createMock(HttpServletRequest.class);
 
     HttpServletResponse response = createMock(HttpServletResponse.class);
     response.setStatus(200);
     response.setContentType("application/javascript; charset=utf-8");
-    StringWriter stringWriter = new StringWriter();
-    PrintWriter printWriter = new PrintWriter(stringWriter);
-    expect(response.getWriter()).andReturn(printWriter);
+    response.setHeader("Accept-Ranges", "bytes");
+    ByteArrayServletOutputStream output = new ByteArrayServletOutputStream();
+    expect(response.getOutputStream()).andReturn(output);
     response.flushBuffer();
 
     TracesHelper tracesHelper = createMock(TracesHelper.class);
@@ -124,7 +133,7 @@ public class TraceDataHandlerTest extends EasyMockSupport {
 
     assertEquals(
         "[{\"foo\":\"bar\"},{\"baz\":\"blech\"}]",
-        stringWriter.toString());
+        output.toString());
   }
 
   @Test
@@ -133,15 +142,17 @@ public class TraceDataHandlerTest extends EasyMockSupport {
     expect(baseRequest.getMethod()).andReturn("GET");
     expect(baseRequest.getPathInfo()).andReturn("/abcdef");
     expect(baseRequest.getParameter("callback")).andReturn("my.callback");
+    expect(baseRequest.getHeader("Range")).andReturn(null);
+    expect(baseRequest.getHeader("Accept-Encoding")).andReturn(null);
     baseRequest.setHandled(true);
     HttpServletRequest request = createMock(HttpServletRequest.class);
 
     HttpServletResponse response = createMock(HttpServletResponse.class);
     response.setStatus(200);
     response.setContentType("application/javascript; charset=utf-8");
-    StringWriter stringWriter = new StringWriter();
-    PrintWriter printWriter = new PrintWriter(stringWriter);
-    expect(response.getWriter()).andReturn(printWriter);
+    response.setHeader("Accept-Ranges", "bytes");
+    ByteArrayServletOutputStream output = new ByteArrayServletOutputStream();
+    expect(response.getOutputStream()).andReturn(output);
     response.flushBuffer();
 
     TracesHelper tracesHelper = createMock(TracesHelper.class);
@@ -158,7 +169,7 @@ public class TraceDataHandlerTest extends EasyMockSupport {
         response);
     verifyAll();
 
-    assertEquals("my.callback([{\"foo\":\"bar\"}]);\n", stringWriter.toString());
+    assertEquals("my.callback([{\"foo\":\"bar\"}]);\n", output.toString());
   }
 
   @Test
@@ -167,15 +178,17 @@ public class TraceDataHandlerTest extends EasyMockSupport {
     expect(baseRequest.getMethod()).andReturn("GET");
     expect(baseRequest.getPathInfo()).andReturn("/abcdef");
     expect(baseRequest.getParameter("callback")).andReturn("my.callback");
+    expect(baseRequest.getHeader("Range")).andReturn(null);
+    expect(baseRequest.getHeader("Accept-Encoding")).andReturn(null);
     baseRequest.setHandled(true);
     HttpServletRequest request = createMock(HttpServletRequest.class);
 
     HttpServletResponse response = createMock(HttpServletResponse.class);
     response.setStatus(200);
     response.setContentType("application/javascript; charset=utf-8");
-    StringWriter stringWriter = new StringWriter();
-    PrintWriter printWriter = new PrintWriter(stringWriter);
-    expect(response.getWriter()).andReturn(printWriter);
+    response.setHeader("Accept-Ranges", "bytes");
+    ByteArrayServletOutputStream output = new ByteArrayServletOutputStream();
+    expect(response.getOutputStream()).andReturn(output);
     response.flushBuffer();
 
     TracesHelper tracesHelper = createMock(TracesHelper.class);
@@ -195,6 +208,151 @@ public class TraceDataHandlerTest extends EasyMockSupport {
 
     assertEquals(
         "my.callback([{\"foo\":\"bar\"},{\"baz\":\"blech\"}]);\n",
-        stringWriter.toString());
+        output.toString());
+  }
+
+  @Test
+  public void testHandleGetWithGzip() throws IOException, ServletException {
+    Request baseRequest = createMock(Request.class);
+    expect(baseRequest.getMethod()).andReturn("GET");
+    expect(baseRequest.getPathInfo()).andReturn("/abcdef");
+    expect(baseRequest.getParameter("callback")).andReturn(null);
+    expect(baseRequest.getHeader("Range")).andReturn(null);
+    expect(baseRequest.getHeader("Accept-Encoding")).andReturn("deflate, gzip");
+    baseRequest.setHandled(true);
+    HttpServletRequest request = createMock(HttpServletRequest.class);
+
+    HttpServletResponse response = createMock(HttpServletResponse.class);
+    response.setStatus(200);
+    response.setContentType("application/javascript; charset=utf-8");
+    response.setHeader("Accept-Ranges", "bytes");
+    response.setHeader("Content-Encoding", "gzip");
+    ByteArrayServletOutputStream output = new ByteArrayServletOutputStream();
+    expect(response.getOutputStream()).andReturn(output);
+    response.flushBuffer();
+
+    TracesHelper tracesHelper = createMock(TracesHelper.class);
+    Iterable<InputStream> traces = Arrays.<InputStream>asList(
+        new ByteArrayInputStream("{\"foo\":\"bar\"}".getBytes(Charsets.UTF_8)));
+    expect(tracesHelper.getInputsForTraces("abcdef")).andReturn(traces);
+    TraceDataHandler traceDataHandler = new TraceDataHandler(tracesHelper);
+
+    replayAll();
+    traceDataHandler.handle("/trace/abcdef",
+        baseRequest,
+        request,
+        response);
+    verifyAll();
+
+    assertEquals(
+        "[{\"foo\":\"bar\"}]",
+        new String(
+            ByteStreams.toByteArray(
+                new GZIPInputStream(new ByteArrayInputStream(output.toByteArray()))),
+            Charsets.UTF_8));
+  }
+
+  @Test
+  public void testHandleGetWithRange() throws IOException, ServletException {
+    Request baseRequest = createMock(Request.class);
+    expect(baseRequest.getMethod()).andReturn("GET");
+    expect(baseRequest.getPathInfo()).andReturn("/abcdef");
+    expect(baseRequest.getParameter("callback")).andReturn(null);
+    expect(baseRequest.getHeader("Range")).andReturn("bytes=1-14");
+    baseRequest.setHandled(true);
+    HttpServletRequest request = createMock(HttpServletRequest.class);
+
+    HttpServletResponse response = createMock(HttpServletResponse.class);
+    response.setStatus(206);
+    response.setContentType("application/javascript; charset=utf-8");
+    response.setHeader("Accept-Ranges", "bytes");
+    response.setHeader("Content-Range", "bytes 1-14/31");
+    response.setHeader("Content-Length", "14");
+    ByteArrayServletOutputStream output = new ByteArrayServletOutputStream();
+    expect(response.getOutputStream()).andReturn(output);
+    response.flushBuffer();
+
+    TracesHelper tracesHelper = createMock(TracesHelper.class);
+    Iterable<InputStream> traces = Arrays.<InputStream>asList(
+        new ByteArrayInputStream("{\"foo\":\"bar\"}".getBytes(Charsets.UTF_8)),
+        new ByteArrayInputStream("{\"baz\":\"blech\"}".getBytes(Charsets.UTF_8)));
+    expect(tracesHelper.getInputsForTraces("abcdef")).andReturn(traces);
+    expect(tracesHelper.getSizesOfTraces("abcdef"))
+        .andReturn(Optional.of(ImmutableList.of(13L, 15L)));
+    TraceDataHandler traceDataHandler = new TraceDataHandler(tracesHelper);
+
+    replayAll();
+    traceDataHandler.handle("/trace/abcdef",
+        baseRequest,
+        request,
+        response);
+    verifyAll();
+
+    assertEquals("{\"foo\":\"bar\"},", output.toString());
+  }
+
+  @Test
+  public void testHandleGetWithRangeOfCompressedTraces() throws IOException, ServletException {
+    Request baseRequest = createMock(Request.class);
+    expect(baseRequest.getMethod()).andReturn("GET");
+    expect(baseRequest.getPathInfo()).andReturn("/abcdef");
+    expect(baseRequest.getParameter("callback")).andReturn(null);
+    expect(baseRequest.getHeader("Range")).andReturn("bytes=-5");
+    expect(baseRequest.getHeader("Accept-Encoding")).andReturn(null);
+    baseRequest.setHandled(true);
+    HttpServletRequest request = createMock(HttpServletRequest.class);
+
+    HttpServletResponse response = createMock(HttpServletResponse.class);
+    response.setStatus(200);
+    response.setContentType("application/javascript; charset=utf-8");
+    response.setHeader("Accept-Ranges", "bytes");
+    ByteArrayServletOutputStream output = new ByteArrayServletOutputStream();
+    expect(response.getOutputStream()).andReturn(output);
+    response.flushBuffer();
+
+    TracesHelper tracesHelper = createMock(TracesHelper.class);
+    Iterable<InputStream> traces = Arrays.<InputStream>asList(
+        new ByteArrayInputStream("{\"foo\":\"bar\"}".getBytes(Charsets.UTF_8)));
+    expect(tracesHelper.getInputsForTraces("abcdef")).andReturn(traces);
+    expect(tracesHelper.getSizesOfTraces("abcdef"))
+        .andReturn(Optional.<ImmutableList<Long>>absent());
+    TraceDataHandler traceDataHandler = new TraceDataHandler(tracesHelper);
+
+    replayAll();
+    traceDataHandler.handle("/trace/abcdef",
+        baseRequest,
+        request,
+        response);
+    verifyAll();
+
+    assertEquals("[{\"foo\":\"bar\"}]", output.toString());
+  }
+
+  private static class ByteArrayServletOutputStream extends ServletOutputStream {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    @Override
+    public void write(int b) {
+      bytes.write(b);
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      throw new UnsupportedOperationException();
+    }
+
+    public byte[] toByteArray() {
+      return bytes.toByteArray();
+    }
+
+    @Override
+    public String toString() {
+      return new String(bytes.toByteArray(), Charsets.UTF_8);
+    }
   }
 }
@@ -17,6 +17,7 @@
 package com.facebook.buck.httpserver;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 
 import com.facebook.buck.httpserver.TracesHelper.TraceAttributes;
@@ -25,14 +26,20 @@ import com.facebook.buck.timing.FakeClock;
 import com.facebook.buck.timing.SettableFakeClock;
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.HumanReadableException;
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.io.ByteStreams;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 public class TracesHelperTest {
 
@@ -176,4 +183,47 @@ public class TracesHelperTest {
     TracesHelper helper = new TracesHelper(projectFilesystem);
     helper.getTraceAttributesFor("nonexistent");
   }
+
+  @Test
+  public void testGetTraceAttributesFromCatalogWithoutParsing() throws IOException {
+    FakeProjectFilesystem projectFilesystem = new FakeProjectFilesystem(
+        new FakeClock(TimeUnit.MILLISECONDS.toNanos(2000L)));
+    Path trace = BuckConstant.BUCK_TRACE_DIR.resolve("build.d.trace");
+    // Not a trace that parsing could get a command from.
+    projectFilesystem.writeContentsToPath("not json", trace);
+    new TraceCatalog(projectFilesystem).record(
+        trace,
+        new TraceCatalog.Entry("d", "buck build //foo:bar", 1000L, 234L, 8L));
+
+    TracesHelper helper = new TracesHelper(projectFilesystem);
+    TraceAttributes traceAttributes = helper.getTraceAttributesFor(trace);
+    assertEquals(Optional.of("buck build //foo:bar"), traceAttributes.getCommand());
+    assertEquals(1234L, traceAttributes.getLastModifiedTime());
+  }
+
+  @Test
+  public void testCompressedTraces() throws IOException {
+    FakeProjectFilesystem projectFilesystem = new FakeProjectFilesystem(
+        new FakeClock(TimeUnit.MILLISECONDS.toNanos(2000L)));
+    String contents =
+        "[{\"name\":\"build\",\"ph\":\"B\",\"args\":{\"command_args\":\"//foo:bar\"}}]";
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+      output.write(contents.getBytes(Charsets.UTF_8));
+    }
+    Path trace = BuckConstant.BUCK_TRACE_DIR.resolve("build.2015-01-01.00-00-00.e.trace.gz");
+    projectFilesystem.writeBytesToPath(compressed.toByteArray(), trace);
+
+    TracesHelper helper = new TracesHelper(projectFilesystem);
+    assertEquals(ImmutableSet.of(trace), helper.listTraceFilesByLastModified());
+    assertEquals(
+        Optional.of("buck build //foo:bar"),
+        helper.getTraceAttributesFor("e").getCommand());
+    assertEquals(
+        contents,
+        new String(
+            ByteStreams.toByteArray(Iterables.getOnlyElement(helper.getInputsForTraces("e"))),
+            Charsets.UTF_8));
+    assertFalse(helper.getSizesOfTraces("e").isPresent());
+  }
 }
@@ -26,6 +26,7 @@ import com.facebook.buck.test.selectors.TestSelectorList;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.MoreAsserts;
 import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.Verbosity;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
@@ -95,7 +96,8 @@ public class JUnitStepTest {
         /* testRuleTimeoutMs*/ Optional.<Long>absent(),
         /* stdOutLogLevel */ Optional.<Level>absent(),
         /* stdErrLogLevel */ Optional.<Level>absent(),
-        /* pathToJavAgent */ Optional.<String>absent());
+        /* pathToJavAgent */ Optional.<String>absent(),
+        /* testJvmPool */ Optional.<TestJvmPool>absent());
 
     ExecutionContext executionContext = EasyMock.createMock(ExecutionContext.class);
     EasyMock.expect(executionContext.getVerbosity()).andReturn(Verbosity.ALL);
@@ -178,7 +180,8 @@ public class JUnitStepTest {
         /* testRuleTimeoutMs*/ Optional.<Long>absent(),
         /* stdOutLogLevel */ Optional.<Level>absent(),
         /* stdErrLogLevel */ Optional.<Level>absent(),
-        /* pathToJavaAgent */ Optional.<String> absent());
+        /* pathToJavaAgent */ Optional.<String> absent(),
+        /* testJvmPool */ Optional.<TestJvmPool>absent());
 
     TestConsole console = new TestConsole(Verbosity.ALL);
     ExecutionContext executionContext = TestExecutionContext.newBuilder()
@@ -216,4 +219,58 @@ public class JUnitStepTest {
     assertEquals("Debugging. Suspending JVM. Connect a JDWP debugger to port 5005 to proceed.",
         console.getTextWrittenToStdErr().trim());
   }
+
+  @Test
+  public void testsRunInThePoolAreGivenTheSystemPropertiesAndArgumentsOfTheStep()
+      throws InterruptedException {
+    Path testRunnerClasspath = Paths.get("/opt/build/classes/junit");
+    Path directoryForTestResults = Paths.get("buck-out/gen/theresults/");
+    BuildId buildId = new BuildId("pretend-build-id");
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+
+    TestJvmPool pool = EasyMock.createMock(TestJvmPool.class);
+    EasyMock
+        .expect(
+            pool.run(
+                testRunnerClasspath,
+                ImmutableList.of(testRunnerClasspath, filesystem.resolve("foo")),
+                JUnitStep.JUNIT_TEST_RUNNER_CLASS_NAME,
+                ImmutableList.of(directoryForTestResults.toString(), "5000", "", "", "Test"),
+                ImmutableMap.of(
+                    "buck.testrunner_classes", testRunnerClasspath.toString(),
+                    JUnitStep.BUILD_ID_PROPERTY, buildId.toString(),
+                    JUnitStep.MODULE_BASE_PATH_PROPERTY, "module",
+                    "name", "value"),
+                Optional.<Long>absent()))
+        .andReturn(Optional.of(new ProcessExecutor.Result(0, "", "")));
+    EasyMock.replay(pool);
+
+    JUnitStep junit = new JUnitStep(
+        filesystem,
+        ImmutableSet.of(Paths.get("foo")),
+        ImmutableList.of("Test"),
+        ImmutableList.of("-Dname=value"),
+        /* nativeLibsEnvironment */ ImmutableMap.<String, String>of(),
+        directoryForTestResults,
+        Paths.get("module"),
+        Paths.get("buck-out/gen/thetmp/"),
+        /* isCodeCoverageEnabled */ false,
+        /* isDebugEnabled */ false,
+        buildId,
+        TestSelectorList.empty(),
+        /* isDryRun */ false,
+        TestType.JUNIT,
+        testRunnerClasspath,
+        /* testRuleTimeoutMs*/ Optional.<Long>absent(),
+        /* stdOutLogLevel */ Optional.<Level>absent(),
+        /* stdErrLogLevel */ Optional.<Level>absent(),
+        /* pathToJavaAgent */ Optional.<String>absent(),
+        Optional.of(pool));
+
+    ExecutionContext executionContext = TestExecutionContext.newBuilder()
+        .setDefaultTestTimeoutMillis(5000L)
+        .build();
+    assertEquals(0, junit.execute(executionContext));
+    EasyMock.verify(pool);
+  }
 }
@@ -56,6 +56,11 @@ public class JavaLibraryBuilder extends AbstractNodeBuilder<JavaLibraryDescripti
     return this;
   }
 
+  public JavaLibraryBuilder addTest(BuildTarget test) {
+    arg.tests = amend(arg.tests, test);
+    return this;
+  }
+
   public JavaLibraryBuilder addResource(SourcePath sourcePath) {
     arg.resources = amend(arg.resources, sourcePath);
     return this;
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.java.intellij;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.java.JavaLibraryBuilder;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.TargetNode;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class IjProjectTest {
+
+  private FakeProjectFilesystem filesystem;
+  private TargetNode<?> guavaTargetNode;
+  private TargetNode<?> baseTargetNode;
+  private IjModule guavaModule;
+  private IjModule baseModule;
+
+  @Before
+  public void setUp() throws Exception {
+    filesystem = new FakeProjectFilesystem();
+    guavaTargetNode = JavaLibraryBuilder
+        .createBuilder(BuildTargetFactory.newInstance("//third_party/guava:guava"))
+        .addSrc(Paths.get("third_party/guava/src/Collections.java"))
+        .build();
+    baseTargetNode = JavaLibraryBuilder
+        .createBuilder(BuildTargetFactory.newInstance("//java/com/example/base:base"))
+        .addDep(guavaTargetNode.getBuildTarget())
+        .addSrc(Paths.get("java/com/example/base/Base.java"))
+        .build();
+
+    IjModuleGraph moduleGraph =
+        IjModuleGraphTest.createModuleGraph(ImmutableSet.of(guavaTargetNode, baseTargetNode));
+    guavaModule = IjModuleGraphTest.getModuleForTarget(moduleGraph, guavaTargetNode);
+    baseModule = IjModuleGraphTest.getModuleForTarget(moduleGraph, baseTargetNode);
+
+    for (IjModule module : ImmutableSet.of(guavaModule, baseModule)) {
+      Path moduleFile = IjProjectTemplateDataPreparer.getModuleOutputFilePath(module.getName());
+      filesystem.createParentDirs(moduleFile);
+      filesystem.writeContentsToPath("<module/>", moduleFile);
+    }
+  }
+
+  @Test
+  public void modulesContainingOrDependingOnAChangedTargetAreAffected() {
+    Predicate<IjModule> isAffected = IjProject.isAffectedBy(
+        ImmutableSet.of(guavaTargetNode.getBuildTarget()),
+        previousModuleTargets(),
+        filesystem);
+
+    assertTrue(isAffected.apply(guavaModule));
+    assertTrue(isAffected.apply(baseModule));
+  }
+
+  @Test
+  public void modulesUnrelatedToTheChangedTargetsAreNotAffected() {
+    Predicate<IjModule> isAffected = IjProject.isAffectedBy(
+        ImmutableSet.of(baseTargetNode.getBuildTarget()),
+        previousModuleTargets(),
+        filesystem);
+
+    assertFalse(isAffected.apply(guavaModule));
+    assertTrue(isAffected.apply(baseModule));
+  }
+
+  @Test
+  public void modulesThatUsedToContainAChangedTargetAreAffected() {
+    BuildTarget deletedTarget = BuildTargetFactory.newInstance("//third_party/guava:old-guava");
+    ImmutableSetMultimap<String, String> previousModuleTargets =
+        ImmutableSetMultimap.<String, String>builder()
+            .putAll(previousModuleTargets())
+            .put(guavaModule.getName(), deletedTarget.getFullyQualifiedName())
+            .build();
+
+    Predicate<IjModule> isAffected = IjProject.isAffectedBy(
+        ImmutableSet.of(deletedTarget),
+        previousModuleTargets,
+        filesystem);
+
+    assertTrue(isAffected.apply(guavaModule));
+    assertFalse(isAffected.apply(baseModule));
+  }
+
+  @Test
+  public void modulesThatWereNeverWrittenAreAffected() throws Exception {
+    filesystem.deleteFileAtPath(
+        IjProjectTemplateDataPreparer.getModuleOutputFilePath(guavaModule.getName()));
+
+    Predicate<IjModule> isAffected = IjProject.isAffectedBy(
+        ImmutableSet.<BuildTarget>of(),
+        previousModuleTargets(),
+        filesystem);
+
+    assertTrue(isAffected.apply(guavaModule));
+    assertFalse(isAffected.apply(baseModule));
+  }
+
+  private ImmutableSetMultimap<String, String> previousModuleTargets() {
+    return ImmutableSetMultimap.of(
+        guavaModule.getName(), guavaTargetNode.getBuildTarget().getFullyQualifiedName(),
+        baseModule.getName(), baseTargetNode.getBuildTarget().getFullyQualifiedName());
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.java.intellij;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.java.DefaultJavaPackageFinder;
+import com.facebook.buck.java.JavaLibraryBuilder;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.TargetNode;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Executors;
+
+public class IjProjectWriterTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private ListeningExecutorService executorService;
+  private ImmutableSet<TargetNode<?>> targetNodes;
+  private IjModuleGraph moduleGraph;
+
+  @Before
+  public void setUp() throws Exception {
+    filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+
+    ImmutableSet.Builder<TargetNode<?>> targetNodesBuilder = ImmutableSet.builder();
+    for (int i = 0; i < 10; i++) {
+      String name = "module" + i;
+      targetNodesBuilder.add(
+          JavaLibraryBuilder
+              .createBuilder(BuildTargetFactory.newInstance("//java/com/example/" + name + ":lib"))
+              .addSrc(Paths.get("java/com/example/" + name + "/Source.java"))
+              .build());
+    }
+    targetNodes = targetNodesBuilder.build();
+    moduleGraph = IjModuleGraphTest.createModuleGraph(targetNodes);
+  }
+
+  @After
+  public void tearDown() {
+    executorService.shutdownNow();
+  }
+
+  @Test
+  public void writesEveryModuleInParallel() throws Exception {
+    createWriter().write();
+
+    for (IjModule module : moduleGraph.getModuleNodes()) {
+      assertTrue(
+          filesystem.exists(
+              IjProjectTemplateDataPreparer.getModuleOutputFilePath(module.getName())));
+    }
+    assertTrue(filesystem.exists(IjProjectWriter.IDEA_CONFIG_DIR_PREFIX.resolve("modules.xml")));
+  }
+
+  @Test
+  public void filesWithUnchangedContentsAreLeftAlone() throws Exception {
+    createWriter().write();
+    TargetNode<?> targetNode = targetNodes.iterator().next();
+    Path moduleFile = IjProjectTemplateDataPreparer.getModuleOutputFilePath(
+        IjModuleGraphTest.getModuleForTarget(moduleGraph, targetNode).getName());
+    FileTime longAgo = FileTime.fromMillis(0);
+    filesystem.setLastModifiedTime(moduleFile, longAgo);
+
+    createWriter().write();
+
+    assertEquals(longAgo.toMillis(), filesystem.getLastModifiedTime(moduleFile));
+  }
+
+  @Test
+  public void onlyTheModulesAcceptedByThePredicateAreRewritten() throws Exception {
+    createWriter().write();
+    final IjModule writtenModule =
+        IjModuleGraphTest.getModuleForTarget(moduleGraph, targetNodes.iterator().next());
+    for (IjModule module : moduleGraph.getModuleNodes()) {
+      filesystem.writeContentsToPath(
+          "stale",
+          IjProjectTemplateDataPreparer.getModuleOutputFilePath(module.getName()));
+    }
+
+    createWriter().write(
+        new Predicate<IjModule>() {
+          @Override
+          public boolean apply(IjModule module) {
+            return module.equals(writtenModule);
+          }
+        });
+
+    for (IjModule module : moduleGraph.getModuleNodes()) {
+      Optional<String> contents = filesystem.readFileIfItExists(
+          IjProjectTemplateDataPreparer.getModuleOutputFilePath(module.getName()));
+      if (module.equals(writtenModule)) {
+        assertNotEquals(Optional.of("stale"), contents);
+      } else {
+        assertEquals(Optional.of("stale"), contents);
+      }
+    }
+  }
+
+  @Test
+  public void recordsTheTargetsOfEveryModule() throws Exception {
+    assertFalse(IjProjectWriter.readPreviousModuleTargets(filesystem).isPresent());
+
+    createWriter().write();
+
+    ImmutableSetMultimap<String, String> moduleTargets =
+        IjProjectWriter.readPreviousModuleTargets(filesystem).get();
+    assertEquals(targetNodes.size(), moduleTargets.keySet().size());
+    for (TargetNode<?> targetNode : targetNodes) {
+      IjModule module = IjModuleGraphTest.getModuleForTarget(moduleGraph, targetNode);
+      assertThat(
+          moduleTargets.get(module.getName()),
+          containsInAnyOrder(targetNode.getBuildTarget().getFullyQualifiedName()));
+    }
+  }
+
+  private IjProjectWriter createWriter() {
+    return new IjProjectWriter(
+        new IjProjectTemplateDataPreparer(
+            DefaultJavaPackageFinder.createDefaultJavaPackageFinder(ImmutableSet.of("/java/")),
+            moduleGraph,
+            filesystem),
+        filesystem,
+        executorService);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class CachingGlobberTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private Path root;
+  private CachingGlobber globber;
+
+  @Before
+  public void setUp() throws IOException {
+    root = tmp.getRoot().toPath();
+    touch("java/com/example/BUCK");
+    touch("java/com/example/A.java");
+    touch("java/com/example/B.java");
+    touch("java/com/example/impl/C.java");
+    touch("java/com/example/impl/README");
+    touch("java/com/example/.D.java");
+    globber = new CachingGlobber(root);
+  }
+
+  @Test
+  public void globsAreRelativeToTheBasePath() throws IOException {
+    assertEquals(
+        ImmutableList.of("A.java", "B.java", "impl/C.java"),
+        glob("java/com/example", ImmutableList.of("**/*.java"), ImmutableList.<String>of()));
+    assertEquals(
+        ImmutableList.of("A.java", "B.java"),
+        glob("java/com/example", ImmutableList.of("*.java"), ImmutableList.<String>of()));
+  }
+
+  @Test
+  public void excludesAndDotfiles() throws IOException {
+    assertEquals(
+        ImmutableList.of("A.java", "impl/C.java"),
+        glob("java/com/example", ImmutableList.of("**/*.java"), ImmutableList.of("B.java")));
+    assertEquals(
+        ImmutableList.of(".D.java", "A.java", "B.java", "impl/C.java"),
+        globber.glob(
+            Paths.get("java/com/example"),
+            ImmutableList.of("**/*.java"),
+            ImmutableList.<String>of(),
+            /* includeDotfiles */ true));
+  }
+
+  @Test
+  public void resultsAreMemoizedUntilInvalidated() throws IOException {
+    ImmutableList<String> includes = ImmutableList.of("impl/*");
+    assertEquals(
+        ImmutableList.of("impl/C.java", "impl/README"),
+        glob("java/com/example", includes, ImmutableList.<String>of()));
+
+    Files.delete(root.resolve("java/com/example/impl/README"));
+    assertEquals(
+        ImmutableList.of("impl/C.java", "impl/README"),
+        glob("java/com/example", includes, ImmutableList.<String>of()));
+
+    globber.invalidate(Paths.get("java/com/example/impl/README"));
+    assertEquals(
+        ImmutableList.of("impl/C.java"),
+        glob("java/com/example", includes, ImmutableList.<String>of()));
+  }
+
+  @Test
+  public void invalidatingADeletedDirectoryForgetsEverythingBelowIt() throws IOException {
+    ImmutableList<String> includes = ImmutableList.of("**/*.java");
+    assertEquals(
+        ImmutableList.of("A.java", "B.java", "impl/C.java"),
+        glob("java/com/example", includes, ImmutableList.<String>of()));
+
+    Files.delete(root.resolve("java/com/example/impl/C.java"));
+    Files.delete(root.resolve("java/com/example/impl/README"));
+    Files.delete(root.resolve("java/com/example/impl"));
+    globber.invalidate(Paths.get("java/com/example/impl"));
+
+    assertEquals(
+        ImmutableList.of("A.java", "B.java"),
+        glob("java/com/example", includes, ImmutableList.<String>of()));
+  }
+
+  @Test
+  public void globsOfTheRootPackageAreInvalidated() throws IOException {
+    ImmutableList<String> includes = ImmutableList.of("java/com/example/*.java");
+    assertEquals(
+        ImmutableList.of("java/com/example/A.java", "java/com/example/B.java"),
+        glob("", includes, ImmutableList.<String>of()));
+
+    touch("java/com/example/E.java");
+    globber.invalidate(Paths.get("java/com/example/E.java"));
+
+    assertEquals(
+        ImmutableList.of(
+            "java/com/example/A.java",
+            "java/com/example/B.java",
+            "java/com/example/E.java"),
+        glob("", includes, ImmutableList.<String>of()));
+  }
+
+  private ImmutableList<String> glob(
+      String basePath,
+      ImmutableList<String> includes,
+      ImmutableList<String> excludes) throws IOException {
+    return globber.glob(Paths.get(basePath), includes, excludes, /* includeDotfiles */ false);
+  }
+
+  private void touch(String path) throws IOException {
+    Path file = root.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, new byte[0]);
+  }
+}
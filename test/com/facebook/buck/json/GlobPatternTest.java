@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GlobPatternTest {
+
+  @Test
+  public void starDoesNotCrossDirectories() {
+    GlobPattern pattern = GlobPattern.compile("*.java", false);
+    assertTrue(pattern.matches("Foo.java"));
+    assertFalse(pattern.matches("foo/Foo.java"));
+    assertEquals("", pattern.getLiteralPrefix());
+    assertEquals(1, pattern.getMaxDepth());
+  }
+
+  @Test
+  public void doubleStarMatchesZeroOrMoreDirectories() {
+    GlobPattern pattern = GlobPattern.compile("src/**/*.java", false);
+    assertTrue(pattern.matches("src/Foo.java"));
+    assertTrue(pattern.matches("src/a/b/Foo.java"));
+    assertFalse(pattern.matches("test/Foo.java"));
+    assertEquals("src", pattern.getLiteralPrefix());
+    assertEquals(Integer.MAX_VALUE, pattern.getMaxDepth());
+  }
+
+  @Test
+  public void trailingDoubleStarMatchesEverythingBelow() {
+    GlobPattern pattern = GlobPattern.compile("res/**", false);
+    assertTrue(pattern.matches("res/values/strings.xml"));
+    assertFalse(pattern.matches("res"));
+  }
+
+  @Test
+  public void dotfilesMustBeMatchedExplicitly() {
+    assertFalse(GlobPattern.compile("*", false).matches(".hidden"));
+    assertFalse(GlobPattern.compile("**/*.txt", false).matches(".git/a.txt"));
+    assertTrue(GlobPattern.compile(".*", false).matches(".hidden"));
+    assertTrue(GlobPattern.compile("*", true).matches(".hidden"));
+    assertTrue(GlobPattern.compile("**/*.txt", true).matches(".git/a.txt"));
+  }
+
+  @Test
+  public void questionMarksAndCharacterClasses() {
+    GlobPattern pattern = GlobPattern.compile("lib?/[a-c]*.[!o]", false);
+    assertTrue(pattern.matches("lib1/apple.c"));
+    assertFalse(pattern.matches("lib1/apple.o"));
+    assertFalse(pattern.matches("lib1/zebra.c"));
+    assertFalse(pattern.matches("lib/apple.c"));
+    assertEquals(2, pattern.getMaxDepth());
+  }
+
+  @Test
+  public void literalCharactersAreNotRegexSyntax() {
+    GlobPattern pattern = GlobPattern.compile("a+b(c).txt", false);
+    assertTrue(pattern.matches("a+b(c).txt"));
+    assertFalse(pattern.matches("aab(c)xtxt"));
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.junit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.java.TestJvmPool;
+import com.facebook.buck.util.ProcessExecutor;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.hamcrest.Description;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class TestRunnerWorkerTest {
+
+  private static final String PROPERTY = "com.facebook.buck.junit.TestRunnerWorkerTest.value";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private TestJvmPool pool;
+
+  /**
+   * Run in the workers, rather than by the test runner of this test.
+   */
+  public static class PrintsProperty {
+    @Test
+    public void printProperty() {
+      System.out.println(System.getProperty(PROPERTY));
+    }
+  }
+
+  public static class UsesTmpDirectory {
+    @Test
+    public void useTmpDirectory() throws IOException {
+      File tmpDirectory = new File(System.getProperty("java.io.tmpdir"));
+      System.out.println(
+          tmpDirectory + " " + System.getenv("TMP") + " " + tmpDirectory.list().length);
+      File.createTempFile("left", "behind").deleteOnExit();
+    }
+  }
+
+  public static class Sleeps {
+    @Test
+    public void sleep() throws InterruptedException {
+      Thread.sleep(60000);
+    }
+  }
+
+  public static class Exits {
+    @Test
+    public void exit() {
+      System.exit(3);
+    }
+  }
+
+  @Before
+  public void setUp() {
+    pool = new TestJvmPool(
+        Paths.get("").toAbsolutePath(),
+        ImmutableMap.copyOf(System.getenv()),
+        temporaryFolder.getRoot().toPath().resolve("worker.log"),
+        temporaryFolder.getRoot().toPath().resolve("workers"),
+        /* maxWorkers */ 1,
+        /* maxRunsPerWorker */ 2,
+        /* maxHeapGrowthBytes */ Long.MAX_VALUE,
+        ImmutableSet.<String>of());
+  }
+
+  @After
+  public void tearDown() {
+    pool.close();
+  }
+
+  private static Path locationOf(Class<?> clazz) throws Exception {
+    return Paths.get(clazz.getProtectionDomain().getCodeSource().getLocation().toURI());
+  }
+
+  private Optional<ProcessExecutor.Result> run(
+      File outputDirectory,
+      Class<?> testClass,
+      String value,
+      Optional<Long> timeoutMs) throws Exception {
+    return pool.run(
+        locationOf(TestRunnerWorker.class),
+        ImmutableList.of(
+            locationOf(JUnitMain.class),
+            locationOf(TestRunnerWorkerTest.class),
+            locationOf(Test.class),
+            locationOf(Description.class)),
+        JUnitMain.class.getName(),
+        ImmutableList.of(outputDirectory.toString(), "0", "", "", testClass.getName()),
+        ImmutableMap.of(PROPERTY, value),
+        timeoutMs);
+  }
+
+  private String readResults(File outputDirectory, Class<?> testClass) throws Exception {
+    return new String(
+        Files.readAllBytes(outputDirectory.toPath().resolve(testClass.getName() + ".xml")),
+        UTF_8);
+  }
+
+  @Test
+  public void runsEachRuleWithItsOwnSystemPropertiesAcrossRetiredWorkers() throws Exception {
+    // With two runs per worker, the third run needs a new worker.
+    for (String value : ImmutableList.of("first", "second", "third")) {
+      File outputDirectory = temporaryFolder.newFolder();
+      Optional<ProcessExecutor.Result> result =
+          run(outputDirectory, PrintsProperty.class, value, Optional.<Long>absent());
+      assertTrue(result.isPresent());
+      assertEquals(0, result.get().getExitCode());
+      assertThat(
+          readResults(outputDirectory, PrintsProperty.class),
+          containsString("<stdout>" + value));
+    }
+    assertEquals(null, System.getProperty(PROPERTY));
+  }
+
+  @Test
+  public void eachWorkerHasATmpDirectoryThatIsEmptiedBeforeEachRun() throws Exception {
+    Path tmpDirectory = temporaryFolder.getRoot().toPath().resolve("workers").resolve("0");
+    for (int i = 0; i < 2; i++) {
+      File outputDirectory = temporaryFolder.newFolder();
+      Optional<ProcessExecutor.Result> result =
+          run(outputDirectory, UsesTmpDirectory.class, "", Optional.<Long>absent());
+      assertTrue(result.isPresent());
+      assertEquals(0, result.get().getExitCode());
+      assertThat(
+          readResults(outputDirectory, UsesTmpDirectory.class),
+          containsString("<stdout>" + tmpDirectory + " " + tmpDirectory + " 0"));
+    }
+  }
+
+  @Test
+  public void timedOutWorkerIsReplaced() throws Exception {
+    Optional<ProcessExecutor.Result> result =
+        run(temporaryFolder.newFolder(), Sleeps.class, "sleeping", Optional.of(500L));
+    assertTrue(result.isPresent());
+    assertTrue(result.get().isTimedOut());
+
+    File outputDirectory = temporaryFolder.newFolder();
+    result = run(outputDirectory, PrintsProperty.class, "awake", Optional.<Long>absent());
+    assertTrue(result.isPresent());
+    assertThat(
+        readResults(outputDirectory, PrintsProperty.class),
+        containsString("<stdout>awake"));
+  }
+
+  @Test
+  public void workerThatExitsReportsNoResult() throws Exception {
+    assertFalse(
+        run(temporaryFolder.newFolder(), Exits.class, "exiting", Optional.<Long>absent())
+            .isPresent());
+
+    File outputDirectory = temporaryFolder.newFolder();
+    assertTrue(
+        run(outputDirectory, PrintsProperty.class, "again", Optional.<Long>absent()).isPresent());
+  }
+}
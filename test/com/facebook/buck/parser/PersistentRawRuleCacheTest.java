@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import com.facebook.buck.json.CachingGlobber;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+public class PersistentRawRuleCacheTest {
+
+  private static final HashCode BUCK_PY_HASH =
+      HashCode.fromString("9876543210987654321098765432109876543210");
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private Path root;
+  private Path buildFile;
+  private Path include;
+  private CachingGlobber globber;
+  private PersistentRawRuleCache cache;
+  private HashCode configKey;
+  private List<Map<String, Object>> rules;
+  private List<Map<String, Object>> globs;
+
+  @Before
+  public void setUp() throws IOException {
+    root = tmp.getRoot().toPath();
+    Files.createDirectories(root.resolve("foo"));
+    buildFile = write("foo/BUCK", "java_library(name = 'foo', srcs = glob(['*.java']))");
+    include = write("DEFS", "FOO = 1");
+    write("foo/A.java", "");
+
+    globber = new CachingGlobber(root);
+    cache = new PersistentRawRuleCache(root.resolve("buck-out/parse_cache"), globber);
+    configKey = configKey(ImmutableMap.<String, String>of());
+
+    rules = ImmutableList.<Map<String, Object>>of(
+        ImmutableMap.<String, Object>of(
+            "buck.type", "java_library",
+            "name", "foo",
+            "srcs", ImmutableList.of("A.java"),
+            "exported_deps", ImmutableList.of()),
+        ImmutableMap.<String, Object>of(
+            "__includes", ImmutableList.of(buildFile.toString(), include.toString())));
+    globs = ImmutableList.<Map<String, Object>>of(
+        ImmutableMap.<String, Object>of(
+            "base_path", "foo",
+            "includes", ImmutableList.of("*.java"),
+            "excludes", ImmutableList.of(),
+            "include_dotfiles", false,
+            "files", ImmutableList.of("A.java")));
+  }
+
+  private Path write(String path, String contents) throws IOException {
+    return Files.write(root.resolve(path), contents.getBytes(UTF_8));
+  }
+
+  private static HashCode configKey(ImmutableMap<String, String> environment) {
+    return configKey(BUCK_PY_HASH, environment);
+  }
+
+  private static HashCode configKey(
+      HashCode buckPyHash,
+      ImmutableMap<String, String> environment) {
+    return PersistentRawRuleCache.computeConfigKey(
+        buckPyHash,
+        "BUCK",
+        ImmutableList.of("//DEFS"),
+        /* allowEmptyGlobs */ true,
+        ImmutableList.of("java_library"),
+        environment);
+  }
+
+  @Test
+  public void returnsStoredRulesWhenInputsAreUnchanged() {
+    assertEquals(Optional.absent(), cache.lookup(buildFile, configKey));
+
+    cache.store(buildFile, configKey, rules, globs);
+
+    PersistentRawRuleCache newCache =
+        new PersistentRawRuleCache(root.resolve("buck-out/parse_cache"), new CachingGlobber(root));
+    assertEquals(Optional.of(rules), newCache.lookup(buildFile, configKey));
+  }
+
+  @Test
+  public void missesWhenAnIncludeChanges() throws IOException {
+    cache.store(buildFile, configKey, rules, globs);
+    write("DEFS", "FOO = 2");
+    assertFalse(cache.lookup(buildFile, configKey).isPresent());
+  }
+
+  @Test
+  public void missesWhenAGlobResultChanges() throws IOException {
+    cache.store(buildFile, configKey, rules, globs);
+    write("foo/B.java", "");
+    globber.invalidate(Paths.get("foo/B.java"));
+    assertFalse(cache.lookup(buildFile, configKey).isPresent());
+  }
+
+  @Test
+  public void missesWhenTheConfigurationChanges() {
+    cache.store(buildFile, configKey, rules, globs);
+    HashCode otherKey = configKey(ImmutableMap.of("JAVA_HOME", "/opt/jdk"));
+    assertNotEquals(configKey, otherKey);
+    assertFalse(cache.lookup(buildFile, otherKey).isPresent());
+  }
+
+  @Test
+  public void missesWhenBuckPyChanges() {
+    cache.store(buildFile, configKey, rules, globs);
+    HashCode otherKey = configKey(
+        HashCode.fromString("0123456789012345678901234567890123456789"),
+        ImmutableMap.<String, String>of());
+    assertNotEquals(configKey, otherKey);
+    assertFalse(cache.lookup(buildFile, otherKey).isPresent());
+  }
+
+  @Test
+  public void ignoresEnvironmentVariablesThatDoNotAffectParsing() {
+    assertEquals(configKey, configKey(ImmutableMap.of("NAILGUN_TTY_1", "1")));
+  }
+
+  @Test
+  public void missesWhenTheEntryIsCorrupt() throws IOException {
+    cache.store(buildFile, configKey, rules, globs);
+    try (DirectoryStream<Path> entries =
+             Files.newDirectoryStream(root.resolve("buck-out/parse_cache"))) {
+      for (Path entry : entries) {
+        Files.write(entry, new byte[] {0, 1, 3, 100, 0});
+      }
+    }
+    assertFalse(cache.lookup(buildFile, configKey).isPresent());
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.java.JavaLibraryBuilder;
+import com.facebook.buck.java.JavaTestBuilder;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+
+public class TargetNodeInputIndexTest {
+
+  private final BuildTarget base = BuildTargetFactory.newInstance("//base:base");
+  private final BuildTarget app = BuildTargetFactory.newInstance("//app:app");
+  private final BuildTarget other = BuildTargetFactory.newInstance("//other:other");
+  private final BuildTarget baseTest = BuildTargetFactory.newInstance("//base:test");
+
+  private TargetNodeInputIndex index;
+
+  @Before
+  public void setUp() {
+    index = new TargetNodeInputIndex("BUCK");
+    index.add(
+        JavaLibraryBuilder.createBuilder(base)
+            .addSrc(Paths.get("base/Base.java"))
+            .addTest(baseTest)
+            .build());
+    index.add(
+        JavaLibraryBuilder.createBuilder(app)
+            .addSrc(Paths.get("app/App.java"))
+            .addDep(base)
+            .build());
+    index.add(
+        JavaLibraryBuilder.createBuilder(other)
+            .addSrc(Paths.get("other/Other.java"))
+            .build());
+    index.add(
+        JavaTestBuilder.createBuilder(baseTest)
+            .addSrc(Paths.get("base/BaseTest.java"))
+            .addDep(base)
+            .build());
+  }
+
+  @Test
+  public void findsOwnersOfInputs() {
+    assertEquals(ImmutableSortedSet.of(base), index.getOwners(Paths.get("base/Base.java")));
+    assertEquals(ImmutableSortedSet.<BuildTarget>of(), index.getOwners(Paths.get("base/New.java")));
+    assertEquals(
+        ImmutableSortedSet.of(base, baseTest),
+        index.getTargetsDefinedIn(Paths.get("base/BUCK")));
+  }
+
+  @Test
+  public void reverseClosureFollowsDependents() {
+    assertEquals(
+        ImmutableSortedSet.of(base, app, baseTest),
+        index.getReverseTransitiveClosure(ImmutableList.of(base), /* includeTests */ false));
+    assertEquals(
+        ImmutableSortedSet.of(app),
+        index.getReverseTransitiveClosure(ImmutableList.of(app), /* includeTests */ true));
+  }
+
+  @Test
+  public void removingANodeForgetsItsInputsAndEdges() {
+    index.remove(app);
+    assertEquals(ImmutableSortedSet.<BuildTarget>of(), index.getOwners(Paths.get("app/App.java")));
+    assertEquals(
+        ImmutableSortedSet.of(base, baseTest),
+        index.getReverseTransitiveClosure(ImmutableList.of(base), /* includeTests */ false));
+  }
+
+  @Test
+  public void readdingANodeReplacesItsEntries() {
+    index.add(
+        JavaLibraryBuilder.createBuilder(app)
+            .addSrc(Paths.get("app/Renamed.java"))
+            .build());
+    assertEquals(ImmutableSortedSet.<BuildTarget>of(), index.getOwners(Paths.get("app/App.java")));
+    assertEquals(ImmutableSortedSet.of(app), index.getOwners(Paths.get("app/Renamed.java")));
+    assertEquals(
+        ImmutableSortedSet.of(base, baseTest),
+        index.getReverseTransitiveClosure(ImmutableList.of(base), /* includeTests */ true));
+  }
+}
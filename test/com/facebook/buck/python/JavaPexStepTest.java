@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.python;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.timing.DefaultClock;
+import com.facebook.buck.zip.PrecompressedEntry;
+import com.facebook.buck.zip.PrecompressedZipOutputStream;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+public class JavaPexStepTest {
+
+  private static final String HASHBANG = "#!/usr/bin/env python2.7";
+  private static final Path DESTINATION = Paths.get("out/bin.pex");
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private ObjectMapper objectMapper;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    filesystem.mkdirs(Paths.get("out"));
+    filesystem.mkdirs(Paths.get("src/foo/bar"));
+    filesystem.mkdirs(Paths.get("bootstrap"));
+    filesystem.writeContentsToPath("import foo.bar.baz", Paths.get("src/main.py"));
+    filesystem.writeContentsToPath("print('baz')", Paths.get("src/foo/bar/baz.py"));
+    filesystem.writeContentsToPath("# package", Paths.get("src/foo/__init__.py"));
+    filesystem.writeContentsToPath("data", Paths.get("src/data.txt"));
+    filesystem.writeContentsToPath("# bootstrap", Paths.get("bootstrap/pkg_resources.py"));
+    objectMapper = new ObjectMapper();
+  }
+
+  private JavaPexStep createStep() {
+    return new JavaPexStep(
+        filesystem,
+        Paths.get("tmp"),
+        DESTINATION,
+        HASHBANG,
+        "main",
+        ImmutableMap.of(
+            Paths.get("main.py"), Paths.get("src/main.py"),
+            Paths.get("foo/bar/baz.py"), Paths.get("src/foo/bar/baz.py"),
+            Paths.get("foo/__init__.py"), Paths.get("src/foo/__init__.py")),
+        ImmutableMap.of(Paths.get("foo/data.txt"), Paths.get("src/data.txt")),
+        ImmutableSortedMap.of(
+            ".bootstrap/pkg_resources.py",
+            filesystem.resolve("bootstrap/pkg_resources.py")),
+        /* zipSafe */ true);
+  }
+
+  private void writePex() throws IOException, InterruptedException {
+    createStep().writePex(MoreExecutors.newDirectExecutorService(), objectMapper);
+  }
+
+  private static String read(ZipFile zipFile, String name) throws IOException {
+    ZipEntry entry = zipFile.getEntry(name);
+    assertTrue("Missing " + name, entry != null);
+    try (InputStream in = zipFile.getInputStream(entry)) {
+      return new String(ByteStreams.toByteArray(in), UTF_8);
+    }
+  }
+
+  @Test
+  public void writesAnExecutablePexWithEverythingPexPyWould() throws Exception {
+    writePex();
+
+    Path pex = filesystem.resolve(DESTINATION);
+    assertTrue(Files.isExecutable(pex));
+    assertThat(new String(Files.readAllBytes(pex), UTF_8), startsWith(HASHBANG + "\n"));
+    assertFalse(Files.exists(pex.resolveSibling("bin.pex~")));
+
+    try (ZipFile zipFile = new ZipFile(pex.toFile())) {
+      assertEquals("import foo.bar.baz", read(zipFile, "main.py"));
+      assertEquals("print('baz')", read(zipFile, "foo/bar/baz.py"));
+      assertEquals("# package", read(zipFile, "foo/__init__.py"));
+      assertEquals(
+          "__import__('pkg_resources').declare_namespace(__name__)",
+          read(zipFile, "foo/bar/__init__.py"));
+      assertEquals("data", read(zipFile, "foo/data.txt"));
+      assertEquals("# bootstrap", read(zipFile, ".bootstrap/pkg_resources.py"));
+      assertThat(read(zipFile, "__main__.py"), startsWith("\nimport os"));
+
+      Map<String, Object> pexInfo = objectMapper.readValue(
+          read(zipFile, "PEX-INFO"),
+          new TypeReference<Map<String, Object>>() {});
+      assertThat(pexInfo, hasEntry("entry_point", (Object) "main"));
+      assertThat(pexInfo, hasEntry("zip_safe", (Object) true));
+      assertTrue(pexInfo.containsKey("code_hash"));
+    }
+  }
+
+  @Test
+  public void pexIsDeterministic() throws Exception {
+    writePex();
+    byte[] first = Files.readAllBytes(filesystem.resolve(DESTINATION));
+    filesystem.deleteFileAtPath(DESTINATION);
+    writePex();
+    assertArrayEquals(first, Files.readAllBytes(filesystem.resolve(DESTINATION)));
+  }
+
+  @Test
+  public void unchangedEntriesOfThePreviousPexAreReused() throws Exception {
+    // Store main.py uncompressed in the previous PEX, which the step would never do itself, so
+    // that we can tell whether it was copied over.
+    byte[] main = "import foo.bar.baz".getBytes(UTF_8);
+    byte[] stale = "print('stale')".getBytes(UTF_8);
+    try (OutputStream out = Files.newOutputStream(filesystem.resolve(DESTINATION));
+         PrecompressedZipOutputStream zip =
+             new PrecompressedZipOutputStream(new DefaultClock(), out, 0)) {
+      zip.putEntry(
+          PrecompressedEntry.compress(
+              "main.py",
+              main,
+              Deflater.NO_COMPRESSION,
+              Hashing.sha1().hashBytes(main).toString()));
+      zip.putEntry(
+          PrecompressedEntry.compress(
+              "foo/bar/baz.py",
+              stale,
+              Deflater.NO_COMPRESSION,
+              Hashing.sha1().hashBytes(stale).toString()));
+    }
+
+    writePex();
+
+    try (ZipFile zipFile = new ZipFile(filesystem.resolve(DESTINATION).toFile())) {
+      assertEquals(ZipEntry.STORED, zipFile.getEntry("main.py").getMethod());
+      assertEquals("import foo.bar.baz", read(zipFile, "main.py"));
+      assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("foo/bar/baz.py").getMethod());
+      assertEquals("print('baz')", read(zipFile, "foo/bar/baz.py"));
+    }
+  }
+
+  @Test
+  public void hashbangNamesTheMajorAndMinorVersion() {
+    assertEquals(
+        Optional.of("#!/usr/bin/env python2.7"),
+        JavaPexStep.getHashbang(PythonVersion.of("Python 2.7")));
+    assertEquals(Optional.<String>absent(), JavaPexStep.getHashbang(PythonVersion.of("2.7")));
+  }
+}
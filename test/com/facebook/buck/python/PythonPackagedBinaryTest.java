@@ -41,6 +41,7 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 
 import org.junit.Rule;
@@ -74,6 +75,7 @@ public class PythonPackagedBinaryTest {
         PEX,
         ImmutableList.<String>of(),
         Paths.get("dummy_path_to_pex_runner"),
+        Optional.<ImmutableSortedMap<String, Path>>absent(),
         ".pex",
         new PythonEnvironment(Paths.get("fake_python"), PythonVersion.of("Python 2.7")),
         "main",
@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 /** Utility class used to test the QueryParser */
@@ -40,6 +41,11 @@ public class FakeQueryEnvironment implements QueryEnvironment<QueryTarget> {
     throw new QueryException("Method not implemented in FakeQueryEnvironment");
   }
 
+  @Override
+  public Set<QueryTarget> newTargetSet() {
+    return new LinkedHashSet<>();
+  }
+
   @Override
   public Collection<QueryTarget> getFwdDeps(Iterable<QueryTarget> targets)
       throws QueryException, InterruptedException {
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.facebook.buck.timing.DefaultClock;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class BuildMetadataStoreTest {
+
+  private static final BuildTarget TARGET = BuildTarget.builder("//foo", "bar").build();
+  private static final BuildTarget OTHER_TARGET = BuildTarget.builder("//foo", "baz").build();
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private Path getLogFile() {
+    return tmp.getRoot().toPath().resolve("buck-out/bin/.build_metadata");
+  }
+
+  @Test
+  public void updatesSurviveReopening() throws IOException {
+    try (BuildMetadataStore store = BuildMetadataStore.open(getLogFile())) {
+      store.put(TARGET, ImmutableMap.of("RULE_KEY", "a", "TARGET", "//foo:bar"));
+      store.merge(TARGET, ImmutableMap.of("RULE_KEY", "b"));
+      store.put(OTHER_TARGET, ImmutableMap.of("RULE_KEY", "c"));
+      store.delete(OTHER_TARGET);
+    }
+
+    try (BuildMetadataStore store = BuildMetadataStore.open(getLogFile())) {
+      assertEquals(
+          Optional.of(ImmutableMap.of("RULE_KEY", "b", "TARGET", "//foo:bar")),
+          store.get(TARGET));
+      assertFalse(store.get(OTHER_TARGET).isPresent());
+    }
+  }
+
+  @Test
+  public void tornRecordIsDiscardedAndAppendedOver() throws IOException {
+    try (BuildMetadataStore store = BuildMetadataStore.open(getLogFile())) {
+      store.put(TARGET, ImmutableMap.of("RULE_KEY", "a"));
+      store.put(OTHER_TARGET, ImmutableMap.of("RULE_KEY", "b"));
+    }
+    // Cut the last record short, as a crash in the middle of writing it would.
+    try (FileChannel channel = FileChannel.open(getLogFile(), StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+
+    try (BuildMetadataStore store = BuildMetadataStore.open(getLogFile())) {
+      assertEquals(Optional.of(ImmutableMap.of("RULE_KEY", "a")), store.get(TARGET));
+      assertFalse(store.get(OTHER_TARGET).isPresent());
+      store.put(OTHER_TARGET, ImmutableMap.of("RULE_KEY", "c"));
+    }
+
+    try (BuildMetadataStore store = BuildMetadataStore.open(getLogFile())) {
+      assertEquals(Optional.of(ImmutableMap.of("RULE_KEY", "a")), store.get(TARGET));
+      assertEquals(Optional.of(ImmutableMap.of("RULE_KEY", "c")), store.get(OTHER_TARGET));
+    }
+  }
+
+  @Test
+  public void supersededRecordsAreCompactedAway() throws IOException {
+    String value = Strings.repeat("x", 4096);
+    try (BuildMetadataStore store = BuildMetadataStore.open(getLogFile())) {
+      for (int i = 0; i < 2 * BuildMetadataStore.MIN_COMPACTION_SIZE / value.length(); i++) {
+        store.put(TARGET, ImmutableMap.of("DEP_FILE", value + i));
+      }
+    }
+    assertThat(
+        Files.size(getLogFile()),
+        Matchers.greaterThan(BuildMetadataStore.MIN_COMPACTION_SIZE));
+
+    try (BuildMetadataStore store = BuildMetadataStore.open(getLogFile())) {
+      assertThat(Files.size(getLogFile()), Matchers.lessThan(2L * value.length()));
+      assertEquals(
+          Optional.of(
+              ImmutableMap.of(
+                  "DEP_FILE",
+                  value + (2 * BuildMetadataStore.MIN_COMPACTION_SIZE / value.length() - 1))),
+          store.get(TARGET));
+    }
+  }
+
+  @Test
+  public void logIsDiscardedWithoutItsValidityMarker() throws IOException {
+    try (BuildMetadataStore store = BuildMetadataStore.open(getLogFile())) {
+      store.put(TARGET, ImmutableMap.of("RULE_KEY", "a"));
+    }
+    Path validityMarker = BuildMetadataStore.getValidityMarker(getLogFile());
+    assertTrue(Files.exists(validityMarker));
+    Files.delete(validityMarker);
+
+    try (BuildMetadataStore store = BuildMetadataStore.open(getLogFile())) {
+      assertFalse(store.get(TARGET).isPresent());
+    }
+    assertTrue(Files.exists(validityMarker));
+  }
+
+  @Test
+  public void onDiskBuildInfoPrefersTheStoreAndFallsBackToMetadataFiles() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    Path metadataDirectory = BuildInfo.getPathToMetadataDirectory(TARGET);
+    filesystem.mkdirs(metadataDirectory);
+    filesystem.writeContentsToPath("legacy", metadataDirectory.resolve("RULE_KEY"));
+    filesystem.writeContentsToPath("//foo:bar", metadataDirectory.resolve("TARGET"));
+
+    try (BuildMetadataStore store = BuildMetadataStore.open(getLogFile())) {
+      OnDiskBuildInfo onDiskBuildInfo =
+          new DefaultOnDiskBuildInfo(TARGET, filesystem, Optional.of(store));
+      assertEquals(Optional.of("legacy"), onDiskBuildInfo.getValue("RULE_KEY"));
+
+      store.merge(TARGET, ImmutableMap.of("RULE_KEY", "stored", "DEP_FILE", "stored"));
+      assertEquals(Optional.of("stored"), onDiskBuildInfo.getValue("RULE_KEY"));
+      assertEquals(Optional.of("stored"), onDiskBuildInfo.getValue("DEP_FILE"));
+      assertEquals(Optional.of("//foo:bar"), onDiskBuildInfo.getValue("TARGET"));
+
+      onDiskBuildInfo.deleteExistingMetadata();
+      assertFalse(store.get(TARGET).isPresent());
+      assertFalse(onDiskBuildInfo.getValue("RULE_KEY").isPresent());
+    }
+  }
+
+  @Test
+  public void buildMetadataIsOnlyWrittenToTheStore() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    Path metadataDirectory = BuildInfo.getPathToMetadataDirectory(TARGET);
+
+    try (BuildMetadataStore store = BuildMetadataStore.open(getLogFile())) {
+      BuildInfoRecorder recorder = createBuildInfoRecorder(filesystem, Optional.of(store));
+      recorder.addMetadata("RECORDED_PATHS", "[]");
+      recorder.addBuildMetadata("RULE_KEY", "a");
+      recorder.writeMetadataToDisk(/* clearExistingMetadata */ true);
+
+      ImmutableMap<String, String> stored = store.get(TARGET).get();
+      assertEquals("[]", stored.get("RECORDED_PATHS"));
+      assertEquals("a", stored.get("RULE_KEY"));
+    }
+    // The rest of the metadata is uploaded along with the outputs of the rule, so it is still
+    // written to files.
+    assertEquals(
+        Optional.of("[]"),
+        filesystem.readFileIfItExists(metadataDirectory.resolve("RECORDED_PATHS")));
+    assertFalse(filesystem.exists(metadataDirectory.resolve("RULE_KEY")));
+  }
+
+  @Test
+  public void metadataWrittenWhileTheStoreIsOffIsNotShadowedOnceItIsBackOn()
+      throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+
+    try (BuildMetadataStores stores = BuildMetadataStores.create()) {
+      BuildInfoRecorder recorder = createBuildInfoRecorder(filesystem, stores.get(filesystem));
+      recorder.addBuildMetadata("RULE_KEY", "old");
+      recorder.addBuildMetadata("DEP_FILE", "old-dep-file");
+      recorder.writeMetadataToDisk(/* clearExistingMetadata */ true);
+    }
+
+    try (BuildMetadataStores stores = BuildMetadataStores.disabled()) {
+      Optional<BuildMetadataStore> store = stores.get(filesystem);
+      assertFalse(store.isPresent());
+      BuildInfoRecorder recorder = createBuildInfoRecorder(filesystem, store);
+      recorder.addBuildMetadata("RULE_KEY", "new");
+      recorder.writeMetadataToDisk(/* clearExistingMetadata */ false);
+    }
+
+    try (BuildMetadataStores stores = BuildMetadataStores.create()) {
+      Optional<BuildMetadataStore> store = stores.get(filesystem);
+      assertTrue(store.isPresent());
+      OnDiskBuildInfo onDiskBuildInfo = new DefaultOnDiskBuildInfo(TARGET, filesystem, store);
+      assertEquals(Optional.of("new"), onDiskBuildInfo.getValue("RULE_KEY"));
+      // The dep file was only in the discarded store, so the rule has to be built again to get it.
+      assertFalse(onDiskBuildInfo.getValue("DEP_FILE").isPresent());
+
+      BuildInfoRecorder recorder = createBuildInfoRecorder(filesystem, store);
+      recorder.addBuildMetadata("RULE_KEY", "newest");
+      recorder.writeMetadataToDisk(/* clearExistingMetadata */ true);
+      assertEquals(Optional.of("newest"), onDiskBuildInfo.getValue("RULE_KEY"));
+      assertFalse(
+          filesystem.exists(BuildInfo.getPathToMetadataDirectory(TARGET).resolve("RULE_KEY")));
+    }
+  }
+
+  @Test
+  public void aStoreThatIsAlreadyOpenInThisProcessIsNotUsed() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    try (BuildMetadataStores first = BuildMetadataStores.create();
+         BuildMetadataStores second = BuildMetadataStores.create()) {
+      assertTrue(first.get(filesystem).isPresent());
+      assertFalse(second.get(filesystem).isPresent());
+      // The second build keeps its metadata in files, which the store must not shadow later.
+      assertFalse(Files.exists(BuildMetadataStore.getValidityMarker(getLogFile())));
+    }
+  }
+
+  private static BuildInfoRecorder createBuildInfoRecorder(
+      ProjectFilesystem filesystem,
+      Optional<BuildMetadataStore> store) {
+    return new BuildInfoRecorder(
+        TARGET,
+        filesystem,
+        new DefaultClock(),
+        new BuildId(),
+        ImmutableMap.<String, String>of(),
+        store);
+  }
+}
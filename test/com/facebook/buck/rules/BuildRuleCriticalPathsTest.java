@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Test;
+
+public class BuildRuleCriticalPathsTest {
+
+  private static BuildRuleDurationHistory.Entry millis(long durationMillis) {
+    return new BuildRuleDurationHistory.Entry(durationMillis, ImmutableSortedSet.<String>of());
+  }
+
+  @Test
+  public void remainingTimeIsDurationPlusLongestDependent() {
+    SourcePathResolver resolver = new SourcePathResolver(new BuildRuleResolver());
+    BuildRule a = new FakeBuildRule("//:a", resolver);
+    BuildRule b = new FakeBuildRule("//:b", resolver, a);
+    BuildRule d = new FakeBuildRule("//:d", resolver);
+    BuildRule c = new FakeBuildRule("//:c", resolver, b, d);
+    BuildRuleDurationHistory history = new BuildRuleDurationHistory(
+        null,
+        new ObjectMapper(),
+        ImmutableMap.of(
+            "//:a", millis(100),
+            "//:b", millis(200),
+            "//:c", millis(50),
+            "//:d", millis(10)));
+
+    BuildRuleCriticalPaths criticalPaths =
+        BuildRuleCriticalPaths.compute(ImmutableSet.of(c), history);
+
+    assertEquals(50, criticalPaths.getRemainingMillis(c));
+    assertEquals(60, criticalPaths.getRemainingMillis(d));
+    assertEquals(250, criticalPaths.getRemainingMillis(b));
+    assertEquals(350, criticalPaths.getRemainingMillis(a));
+    assertEquals(ImmutableList.of(a, b, c), criticalPaths.getCriticalPath());
+    assertEquals(350, criticalPaths.getCriticalPathMillis());
+  }
+
+  @Test
+  public void rulesOutsideOfTheBuildHaveNoRemainingTime() {
+    SourcePathResolver resolver = new SourcePathResolver(new BuildRuleResolver());
+    BuildRule a = new FakeBuildRule("//:a", resolver);
+    BuildRule other = new FakeBuildRule("//:other", resolver);
+
+    BuildRuleCriticalPaths criticalPaths =
+        BuildRuleCriticalPaths.compute(ImmutableSet.of(a), BuildRuleDurationHistory.inMemory());
+
+    assertEquals(
+        BuildRuleDurationHistory.DEFAULT_DURATION_MILLIS,
+        criticalPaths.getRemainingMillis(a));
+    assertEquals(0, criticalPaths.getRemainingMillis(other));
+    assertEquals(0, BuildRuleCriticalPaths.empty().getCriticalPathMillis());
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BuildRuleDurationHistoryTest {
+
+  @Test
+  public void recordedDurationsAreAveragedAndSaved() throws Exception {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    ObjectMapper objectMapper = new ObjectMapper();
+    SourcePathResolver resolver = new SourcePathResolver(new BuildRuleResolver());
+    BuildRule dep = new FakeBuildRule("//:dep", resolver);
+    BuildRule rule = new FakeBuildRule("//:rule", resolver, dep);
+
+    BuildRuleDurationHistory history = BuildRuleDurationHistory.load(filesystem, objectMapper);
+    assertEquals(
+        BuildRuleDurationHistory.DEFAULT_DURATION_MILLIS,
+        history.getEstimatedDurationMillis(rule));
+    history.record(rule, 100);
+    history.record(rule, 300);
+    history.save();
+
+    BuildRuleDurationHistory loaded = BuildRuleDurationHistory.load(filesystem, objectMapper);
+    assertEquals(200, loaded.getEstimatedDurationMillis(rule));
+    assertEquals(
+        ImmutableSortedSet.of("//:dep"),
+        loaded.getEntries().get("//:rule").getDeps());
+  }
+
+  @Test
+  public void unreadableHistoryIsIgnored() throws Exception {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    filesystem.writeContentsToPath("not json", BuildRuleDurationHistory.PATH);
+
+    BuildRuleDurationHistory history =
+        BuildRuleDurationHistory.load(filesystem, new ObjectMapper());
+
+    assertEquals(0, history.getEntries().size());
+  }
+
+  @Test
+  public void savingKeepsTheEntriesOfConcurrentBuilds() throws Exception {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    ObjectMapper objectMapper = new ObjectMapper();
+    SourcePathResolver resolver = new SourcePathResolver(new BuildRuleResolver());
+    BuildRule first = new FakeBuildRule("//:first", resolver);
+    BuildRule second = new FakeBuildRule("//:second", resolver);
+
+    BuildRuleDurationHistory firstBuild = BuildRuleDurationHistory.load(filesystem, objectMapper);
+    BuildRuleDurationHistory secondBuild = BuildRuleDurationHistory.load(filesystem, objectMapper);
+    firstBuild.record(first, 100);
+    secondBuild.record(second, 200);
+    firstBuild.save();
+    secondBuild.save();
+
+    BuildRuleDurationHistory loaded = BuildRuleDurationHistory.load(filesystem, objectMapper);
+    assertEquals(100, loaded.getEstimatedDurationMillis(first));
+    assertEquals(200, loaded.getEstimatedDurationMillis(second));
+  }
+
+  @Test
+  public void onlyTheMostRecentlyBuiltRulesAreKept() throws Exception {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    ObjectMapper objectMapper = new ObjectMapper();
+    Map<String, BuildRuleDurationHistory.Entry> entries = new LinkedHashMap<>();
+    for (int i = 0; i < BuildRuleDurationHistory.MAX_ENTRIES; i++) {
+      entries.put(
+          "//:old" + i,
+          new BuildRuleDurationHistory.Entry(10, ImmutableSortedSet.<String>of()));
+    }
+    filesystem.writeContentsToPath(
+        objectMapper.writeValueAsString(entries),
+        BuildRuleDurationHistory.PATH);
+    BuildRule rule =
+        new FakeBuildRule("//:new", new SourcePathResolver(new BuildRuleResolver()));
+
+    BuildRuleDurationHistory history = BuildRuleDurationHistory.load(filesystem, objectMapper);
+    history.record(rule, 100);
+    history.save();
+
+    Map<String, BuildRuleDurationHistory.Entry> saved =
+        BuildRuleDurationHistory.load(filesystem, objectMapper).getEntries();
+    assertEquals(BuildRuleDurationHistory.MAX_ENTRIES, saved.size());
+    assertTrue(saved.containsKey("//:new"));
+    assertTrue(saved.containsKey("//:old0"));
+    assertFalse(saved.containsKey("//:old" + (BuildRuleDurationHistory.MAX_ENTRIES - 1)));
+  }
+
+  @Test
+  public void rulesThatAreNotInTheHistoryAreEstimatedFromTheFallbackOnlyWhenNeeded()
+      throws Exception {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    ObjectMapper objectMapper = new ObjectMapper();
+    SourcePathResolver resolver = new SourcePathResolver(new BuildRuleResolver());
+    BuildRule known = new FakeBuildRule("//:known", resolver);
+    BuildRule fallenOut = new FakeBuildRule("//:fallen_out", resolver);
+    BuildRule unknown = new FakeBuildRule("//:unknown", resolver);
+    BuildRuleDurationHistory previousBuild =
+        BuildRuleDurationHistory.load(filesystem, objectMapper);
+    previousBuild.record(known, 100);
+    previousBuild.save();
+    final AtomicInteger reads = new AtomicInteger();
+    Supplier<Map<String, Long>> fallbackDurations = new Supplier<Map<String, Long>>() {
+      @Override
+      public Map<String, Long> get() {
+        reads.incrementAndGet();
+        return ImmutableMap.of("//:known", 5000L, "//:fallen_out", 300L);
+      }
+    };
+
+    BuildRuleDurationHistory history =
+        BuildRuleDurationHistory.load(filesystem, objectMapper, fallbackDurations);
+    assertEquals(100, history.getEstimatedDurationMillis(known));
+    assertEquals(0, reads.get());
+    assertEquals(300, history.getEstimatedDurationMillis(fallenOut));
+    assertEquals(
+        BuildRuleDurationHistory.DEFAULT_DURATION_MILLIS,
+        history.getEstimatedDurationMillis(unknown));
+    assertEquals(1, reads.get());
+  }
+
+  @Test
+  public void buildsThatRecordNothingLeaveTheHistoryAlone() throws Exception {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+
+    BuildRuleDurationHistory.load(filesystem, new ObjectMapper()).save();
+
+    assertFalse(filesystem.exists(BuildRuleDurationHistory.PATH));
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Compares how long a build would take on a number of threads if the rules whose deps are built
+ * started in the order they became ready, as they used to, with starting those with the longest
+ * estimated {@link BuildRuleCriticalPaths remaining time} first. Rules take exactly as long as the
+ * history says, so this measures scheduling alone. The graph comes from a
+ * {@code buck-out/rule_durations.json} recorded by real builds, or is a synthetic one of many short
+ * libraries and a few long chains of packaging rules. Run it with:
+ * <pre>
+ * java -cp ... com.facebook.buck.rules.BuildRuleSchedulingBenchmark \
+ *     [threads] [path/to/rule_durations.json]
+ * </pre>
+ */
+public class BuildRuleSchedulingBenchmark {
+
+  private BuildRuleSchedulingBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0
+        ? Integer.parseInt(args[0])
+        : Runtime.getRuntime().availableProcessors();
+    Map<String, BuildRuleDurationHistory.Entry> entries = args.length > 1
+        ? new ObjectMapper().<Map<String, BuildRuleDurationHistory.Entry>>readValue(
+            new File(args[1]),
+            new TypeReference<Map<String, BuildRuleDurationHistory.Entry>>() {})
+        : createSyntheticEntries(new Random(0), 2000, 4);
+
+    SourcePathResolver resolver = new SourcePathResolver(new BuildRuleResolver());
+    Map<String, BuildRule> rules = new LinkedHashMap<>();
+    for (String target : entries.keySet()) {
+      createRule(target, entries, resolver, rules);
+    }
+    BuildRuleDurationHistory history =
+        new BuildRuleDurationHistory(null, new ObjectMapper(), entries);
+    BuildRuleCriticalPaths criticalPaths =
+        BuildRuleCriticalPaths.compute(ImmutableSet.copyOf(rules.values()), history);
+
+    long fifoMillis = simulate(rules.values(), history, BuildRuleCriticalPaths.empty(), threads);
+    long prioritizedMillis = simulate(rules.values(), history, criticalPaths, threads);
+    System.out.printf(
+        "%d rules on %d thread(s): critical path %d ms, %d ms in order of readiness, " +
+            "%d ms critical path first%n",
+        rules.size(),
+        threads,
+        criticalPaths.getCriticalPathMillis(),
+        fifoMillis,
+        prioritizedMillis);
+  }
+
+  /**
+   * Creates {@code libraries} libraries, each depending on a few random ones before it, and
+   * {@code binaries} chains of long packaging rules, each depending on a random library.
+   */
+  private static Map<String, BuildRuleDurationHistory.Entry> createSyntheticEntries(
+      Random random,
+      int libraries,
+      int binaries) {
+    Map<String, BuildRuleDurationHistory.Entry> entries = new LinkedHashMap<>();
+    for (int i = 0; i < libraries; i++) {
+      ImmutableSortedSet.Builder<String> deps = ImmutableSortedSet.naturalOrder();
+      for (int j = 0; i > 0 && j < 3; j++) {
+        deps.add("//lib:lib" + random.nextInt(i));
+      }
+      entries.put(
+          "//lib:lib" + i,
+          new BuildRuleDurationHistory.Entry(200 + random.nextInt(2000), deps.build()));
+    }
+    for (int i = 0; i < binaries; i++) {
+      String previous = "//lib:lib" + random.nextInt(libraries);
+      for (String step : new String[] {"dex", "merge", "package"}) {
+        String target = "//app" + i + ":" + step;
+        entries.put(
+            target,
+            new BuildRuleDurationHistory.Entry(
+                5000 + random.nextInt(20000),
+                ImmutableSortedSet.of(previous)));
+        previous = target;
+      }
+    }
+    return entries;
+  }
+
+  private static BuildRule createRule(
+      String target,
+      Map<String, BuildRuleDurationHistory.Entry> entries,
+      SourcePathResolver resolver,
+      Map<String, BuildRule> rules) {
+    BuildRule rule = rules.get(target);
+    if (rule != null) {
+      return rule;
+    }
+    List<BuildRule> deps = new ArrayList<>();
+    BuildRuleDurationHistory.Entry entry = entries.get(target);
+    if (entry != null) {
+      for (String dep : entry.getDeps()) {
+        if (entries.containsKey(dep)) {
+          deps.add(createRule(dep, entries, resolver, rules));
+        }
+      }
+    }
+    rule = new FakeBuildRule(target, resolver, deps.toArray(new BuildRule[deps.size()]));
+    rules.put(target, rule);
+    return rule;
+  }
+
+  /**
+   * @return how long building {@code rules} on {@code threads} threads takes if rules whose deps
+   *     are built start by their remaining time in {@code criticalPaths}, then in the order they
+   *     became ready.
+   */
+  private static long simulate(
+      Iterable<BuildRule> rules,
+      BuildRuleDurationHistory history,
+      final BuildRuleCriticalPaths criticalPaths,
+      int threads) {
+    Map<BuildRule, Integer> unbuiltDeps = new HashMap<>();
+    Map<BuildRule, List<BuildRule>> dependents = new HashMap<>();
+    final Map<BuildRule, Long> readiness = new HashMap<>();
+    PriorityQueue<BuildRule> ready = new PriorityQueue<>(
+        11,
+        new Comparator<BuildRule>() {
+          @Override
+          public int compare(BuildRule a, BuildRule b) {
+            int byRemaining = Long.compare(
+                criticalPaths.getRemainingMillis(b),
+                criticalPaths.getRemainingMillis(a));
+            return byRemaining != 0
+                ? byRemaining
+                : Long.compare(readiness.get(a), readiness.get(b));
+          }
+        });
+    for (BuildRule rule : rules) {
+      unbuiltDeps.put(rule, rule.getDeps().size());
+      dependents.put(rule, new ArrayList<BuildRule>());
+    }
+    for (BuildRule rule : rules) {
+      for (BuildRule dep : rule.getDeps()) {
+        dependents.get(dep).add(rule);
+      }
+      if (rule.getDeps().isEmpty()) {
+        readiness.put(rule, (long) readiness.size());
+        ready.add(rule);
+      }
+    }
+
+    // Rules being built, by when they finish.
+    final Map<BuildRule, Long> finishes = new HashMap<>();
+    PriorityQueue<BuildRule> running = new PriorityQueue<>(
+        threads,
+        new Comparator<BuildRule>() {
+          @Override
+          public int compare(BuildRule a, BuildRule b) {
+            return Long.compare(finishes.get(a), finishes.get(b));
+          }
+        });
+    long now = 0;
+    while (!ready.isEmpty() || !running.isEmpty()) {
+      while (running.size() < threads && !ready.isEmpty()) {
+        BuildRule rule = ready.remove();
+        finishes.put(rule, now + history.getEstimatedDurationMillis(rule));
+        running.add(rule);
+      }
+      BuildRule finished = running.remove();
+      now = finishes.get(finished);
+      for (BuildRule dependent : dependents.get(finished)) {
+        int count = unbuiltDeps.get(dependent) - 1;
+        unbuiltDeps.put(dependent, count);
+        if (count == 0) {
+          readiness.put(dependent, (long) readiness.size());
+          ready.add(dependent);
+        }
+      }
+    }
+    return now;
+  }
+}
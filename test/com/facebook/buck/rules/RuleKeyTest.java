@@ -553,6 +553,11 @@ public class RuleKeyTest {
             return true;
           }
 
+          @Override
+          public boolean isCached(Path path) {
+            return false;
+          }
+
           @Override
           public void invalidate(Path path) {
           }
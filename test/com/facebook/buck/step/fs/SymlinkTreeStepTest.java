@@ -17,21 +17,31 @@
 package com.facebook.buck.step.fs;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.util.concurrent.ConcurrencyLimit;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
 
 public class SymlinkTreeStepTest {
 
@@ -39,7 +49,7 @@ public class SymlinkTreeStepTest {
   public final TemporaryFolder tmpDir = new TemporaryFolder();
 
   @Test
-  public void testSymlinkFiles() throws IOException {
+  public void testSymlinkFiles() throws IOException, InterruptedException {
 
     ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
 
@@ -76,4 +86,116 @@ public class SymlinkTreeStepTest {
 
   }
 
+  @Test
+  public void testUpdatesExistingTreeIncrementally() throws Exception {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+    ExecutionContext context = TestExecutionContext.newInstance();
+    Path root = Paths.get("symlink-tree-root");
+
+    Path source1 = Paths.get("source1");
+    projectFilesystem.writeContentsToPath("foo", source1);
+    Path source2 = Paths.get("source2");
+    projectFilesystem.writeContentsToPath("bar", source2);
+
+    Path unchanged = Paths.get("unchanged");
+    Path retargeted = Paths.get("dir", "retargeted");
+    Path removed = Paths.get("old", "dir", "removed");
+
+    assertEquals(
+        0,
+        new SymlinkTreeStep(
+            projectFilesystem,
+            root,
+            ImmutableMap.of(
+                unchanged, source1,
+                retargeted, source1,
+                removed, source2))
+            .execute(context));
+    Object unchangedKey = getFileKey(projectFilesystem.resolve(root.resolve(unchanged)));
+
+    // Drop a stray file into the tree, which should get cleaned up.
+    projectFilesystem.writeContentsToPath("stray", root.resolve("stray"));
+
+    Path added = Paths.get("dir", "added");
+    assertEquals(
+        0,
+        new SymlinkTreeStep(
+            projectFilesystem,
+            root,
+            ImmutableMap.of(
+                unchanged, source1,
+                retargeted, source2,
+                added, source2))
+            .execute(context));
+
+    assertEquals(
+        unchangedKey,
+        getFileKey(projectFilesystem.resolve(root.resolve(unchanged))));
+    assertEquals(Optional.of("bar"), projectFilesystem.readFirstLine(root.resolve(retargeted)));
+    assertEquals(Optional.of("bar"), projectFilesystem.readFirstLine(root.resolve(added)));
+    assertFalse(projectFilesystem.exists(root.resolve(removed)));
+    assertFalse(projectFilesystem.exists(root.resolve("old")));
+    assertFalse(projectFilesystem.exists(root.resolve("stray")));
+  }
+
+  @Test
+  public void testCreatesLargeTreesInParallel() throws Exception {
+    ListeningExecutorService service =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+    try {
+      assertCreatesLargeTree(service);
+    } finally {
+      service.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testCreatesLargeTreesWhenTheSharedPoolIsBusy() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    ListeningExecutorService service =
+        MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    try {
+      service.submit(
+          new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+              release.await();
+              return null;
+            }
+          });
+      assertCreatesLargeTree(service);
+    } finally {
+      release.countDown();
+      service.shutdownNow();
+    }
+  }
+
+  private void assertCreatesLargeTree(ListeningExecutorService service)
+      throws IOException, InterruptedException {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setConcurrencyLimit(new ConcurrencyLimit(4, Double.POSITIVE_INFINITY))
+        .setExecutorService(Optional.of(service))
+        .build();
+    Path root = Paths.get("symlink-tree-root");
+    Path source = Paths.get("source");
+    projectFilesystem.writeContentsToPath("foo", source);
+
+    ImmutableMap.Builder<Path, Path> links = ImmutableMap.builder();
+    int count = SymlinkTreeStep.PARALLEL_LINK_THRESHOLD * 2;
+    for (int i = 0; i < count; i++) {
+      links.put(Paths.get("dir" + i % 7, "link" + i), source);
+    }
+
+    assertEquals(0, new SymlinkTreeStep(projectFilesystem, root, links.build()).execute(context));
+    for (int i = 0; i < count; i++) {
+      assertTrue(projectFilesystem.isSymLink(root.resolve("dir" + i % 7).resolve("link" + i)));
+    }
+  }
+
+  private static Object getFileKey(Path path) throws IOException {
+    return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)
+        .fileKey();
+  }
+
 }
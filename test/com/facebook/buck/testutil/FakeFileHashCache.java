@@ -51,6 +51,11 @@ public class FakeFileHashCache implements FileHashCache {
     return pathsToHashes.containsKey(path);
   }
 
+  @Override
+  public boolean isCached(Path path) {
+    return pathsToHashes.containsKey(path);
+  }
+
   @Override
   public void invalidate(Path path) {
     pathsToHashes.remove(path);
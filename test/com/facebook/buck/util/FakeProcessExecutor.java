@@ -80,7 +80,7 @@ public class FakeProcessExecutor extends ProcessExecutor {
   public FakeProcessExecutor(
       Function<ProcessExecutorParams, FakeProcess> processFunction,
       Console console) {
-    super(console);
+    super(console, /* useNuProcess */ false);
     this.processFunction = processFunction;
     this.launchedProcesses = new HashSet<>();
   }
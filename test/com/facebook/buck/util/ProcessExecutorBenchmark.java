@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many processes per second {@link ProcessExecutor#launchAndExecute} can run, and how
+ * many threads it needs to do so, with and without NuProcess.  Run it with:
+ * <pre>
+ * java -cp ... com.facebook.buck.util.ProcessExecutorBenchmark [processes] [parallelism]
+ * </pre>
+ */
+public class ProcessExecutorBenchmark {
+
+  private ProcessExecutorBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    int processes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+    // Warm up both paths so that class loading and JIT compilation don't skew the first run.
+    run(/* useNuProcess */ false, processes / 10, parallelism);
+    run(/* useNuProcess */ true, processes / 10, parallelism);
+
+    for (boolean useNuProcess : new boolean[] {false, true}) {
+      Measurement measurement = run(useNuProcess, processes, parallelism);
+      System.out.printf(
+          "%-14s %8.1f processes/s, peak threads %d%n",
+          useNuProcess ? "NuProcess" : "java.lang", measurement.processesPerSecond,
+          measurement.peakThreads);
+    }
+  }
+
+  private static class Measurement {
+    public final double processesPerSecond;
+    public final int peakThreads;
+
+    public Measurement(double processesPerSecond, int peakThreads) {
+      this.processesPerSecond = processesPerSecond;
+      this.peakThreads = peakThreads;
+    }
+  }
+
+  private static Measurement run(boolean useNuProcess, int processes, int parallelism)
+      throws Exception {
+    final ProcessExecutor executor = new ProcessExecutor(
+        new Console(
+            Verbosity.SILENT,
+            new CapturingPrintStream(),
+            new CapturingPrintStream(),
+            Ansi.withoutTty()),
+        useNuProcess);
+    final ProcessExecutorParams params = ProcessExecutorParams.builder()
+        .addCommand("sh", "-c", "echo out; echo err >&2")
+        .build();
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+    threads.resetPeakThreadCount();
+    long start = System.nanoTime();
+    try {
+      List<Future<ProcessExecutor.Result>> results = new ArrayList<>(processes);
+      for (int i = 0; i < processes; i++) {
+        results.add(
+            pool.submit(
+                new Callable<ProcessExecutor.Result>() {
+                  @Override
+                  public ProcessExecutor.Result call() throws Exception {
+                    return executor.launchAndExecute(
+                        params,
+                        ImmutableSet.<ProcessExecutor.Option>of(),
+                        /* stdin */ Optional.<String>absent(),
+                        /* timeOutMs */ Optional.<Long>absent(),
+                        /* timeOutHandler */ Optional.<Function<Process, Void>>absent());
+                  }
+                }));
+      }
+      for (Future<ProcessExecutor.Result> result : results) {
+        if (result.get().getExitCode() != 0) {
+          throw new IllegalStateException("Process failed: " + result.get().getStderr());
+        }
+      }
+    } finally {
+      pool.shutdown();
+      pool.awaitTermination(1, TimeUnit.MINUTES);
+    }
+    long elapsedNanos = System.nanoTime() - start;
+    return new Measurement(
+        processes / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1)),
+        threads.getPeakThreadCount());
+  }
+}
@@ -25,6 +25,8 @@ import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
 
+import org.hamcrest.Matchers;
+import org.junit.Assume;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -138,4 +140,52 @@ public class ProcessExecutorTest {
         "process was reported as timed out",
         result.isTimedOut());
   }
+
+  @Test
+  public void testLaunchAndExecuteCapturesOutputAndWritesStdin()
+      throws IOException, InterruptedException {
+    Assume.assumeThat(Platform.detect(), Matchers.not(Platform.WINDOWS));
+    Ansi ansi = Ansi.forceTty();
+    Console console = new Console(
+        Verbosity.ALL, new CapturingPrintStream(), new CapturingPrintStream(), ansi);
+    ProcessExecutor executor = new ProcessExecutor(console);
+    ProcessExecutor.Result result = executor.launchAndExecute(
+        ProcessExecutorParams.builder()
+            .addCommand("sh", "-c", "cat; echo oops >&2; exit 3")
+            .build(),
+        EnumSet.of(ProcessExecutor.Option.EXPECTING_STD_OUT, ProcessExecutor.Option.IS_SILENT),
+        /* stdin */ Optional.of("Hello\r\nWorld"),
+        /* timeOutMs */ Optional.<Long>absent(),
+        /* timeOutHandler */ Optional.<Function<Process, Void>>absent());
+    assertEquals(3, result.getExitCode());
+    assertFalse(result.isTimedOut());
+    assertEquals("Hello\nWorld\n", result.getStdout().get());
+    assertEquals(ansi.asHighlightedFailureText("oops\n"), result.getStderr().get());
+  }
+
+  @Test
+  public void testLaunchAndExecuteTimesOut() throws IOException, InterruptedException {
+    Assume.assumeThat(Platform.detect(), Matchers.not(Platform.WINDOWS));
+    Console console = new Console(
+        Verbosity.ALL, new CapturingPrintStream(), new CapturingPrintStream(), Ansi.withoutTty());
+    ProcessExecutor executor = new ProcessExecutor(console);
+    ProcessExecutor.Result result = executor.launchAndExecute(
+        ProcessExecutorParams.builder().addCommand("sleep", "50").build(),
+        /* options */ ImmutableSet.<ProcessExecutor.Option>of(),
+        /* stdin */ Optional.<String>absent(),
+        /* timeOutMs */ Optional.of((long) 100),
+        /* timeOutHandler */ Optional.<Function<Process, Void>>absent());
+    assertTrue("process was reported as timed out", result.isTimedOut());
+    assertFalse(result.getExitCode() == 0);
+  }
+
+  @Test(expected = IOException.class)
+  public void testLaunchAndExecuteFailsForMissingExecutable()
+      throws IOException, InterruptedException {
+    Console console = new Console(
+        Verbosity.ALL, new CapturingPrintStream(), new CapturingPrintStream(), Ansi.withoutTty());
+    ProcessExecutor executor = new ProcessExecutor(console);
+    executor.launchAndExecute(
+        ProcessExecutorParams.builder().addCommand("this-executable-does-not-exist").build());
+  }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.base.Optional;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+public class ProcessOutputConsumerTest {
+
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+  private static String consumeInChunks(String output, int chunkSize, Ansi ansi, boolean flag) {
+    CapturingPrintStream printStream = new CapturingPrintStream();
+    ProcessOutputConsumer consumer = new ProcessOutputConsumer(printStream, ansi, flag);
+    byte[] bytes = output.getBytes(Charset.defaultCharset());
+    ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+    int offset = 0;
+    do {
+      int length = Math.min(chunkSize, bytes.length - offset);
+      buffer.put(bytes, offset, length);
+      offset += length;
+      buffer.flip();
+      consumer.consume(buffer, offset == bytes.length);
+      buffer.compact();
+    } while (offset < bytes.length);
+    return printStream.getContentsAsString(UTF_8);
+  }
+
+  private static String consumeWithInputStreamConsumer(String output, Ansi ansi, boolean flag) {
+    CapturingPrintStream printStream = new CapturingPrintStream();
+    new InputStreamConsumer(
+        new ByteArrayInputStream(output.getBytes(Charset.defaultCharset())),
+        printStream,
+        ansi,
+        flag,
+        Optional.<InputStreamConsumer.Handler>absent())
+        .run();
+    return printStream.getContentsAsString(UTF_8);
+  }
+
+  @Test
+  public void splitsLinesLikeInputStreamConsumer() {
+    String output = "one\r\ntwo\rthree\n\nfour";
+    for (int chunkSize = 1; chunkSize <= output.length(); chunkSize++) {
+      assertEquals(
+          consumeWithInputStreamConsumer(output, Ansi.withoutTty(), false),
+          consumeInChunks(output, chunkSize, Ansi.withoutTty(), false));
+    }
+    assertEquals(
+        "one" + LINE_SEPARATOR + "two" + LINE_SEPARATOR + "three" + LINE_SEPARATOR +
+            LINE_SEPARATOR + "four" + LINE_SEPARATOR,
+        consumeInChunks(output, 4, Ansi.withoutTty(), false));
+  }
+
+  @Test
+  public void flagsOutputLikeInputStreamConsumer() {
+    Ansi ansi = Ansi.forceTty();
+    assertEquals(
+        consumeWithInputStreamConsumer("warning\n", ansi, true),
+        consumeInChunks("warning\n", 3, ansi, true));
+    assertEquals("", consumeInChunks("", 1, ansi, true));
+  }
+
+  @Test
+  public void decodesCharactersSplitAcrossCallbacks() {
+    if (!Charset.defaultCharset().equals(UTF_8)) {
+      return;
+    }
+    assertEquals(
+        "\u00e9t\u00e9 \u2603" + LINE_SEPARATOR,
+        consumeInChunks("\u00e9t\u00e9 \u2603\n", 1, Ansi.withoutTty(), false));
+  }
+}
@@ -18,6 +18,9 @@ package com.facebook.buck.util.cache;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.io.ProjectFilesystem;
@@ -25,6 +28,7 @@ import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
 import com.facebook.buck.util.HashCodeAndFileType;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 
 import org.hamcrest.junit.ExpectedException;
 import org.junit.Rule;
@@ -32,9 +36,12 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Random;
 
 public class DefaultFileHashCacheTest {
 
@@ -120,4 +127,114 @@ public class DefaultFileHashCacheTest {
 
     assertTrue(cache.loadingCache.asMap().isEmpty());
   }
+
+  @Test
+  public void changingAFileInADirectoryOnlyRehashesThatFileAndItsParents() throws IOException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    DefaultFileHashCache cache = new DefaultFileHashCache(filesystem);
+    Path changed = Paths.get("dir/sub/changed");
+    Path unchanged = Paths.get("dir/unchanged");
+    filesystem.writeContentsToPath("before", changed);
+    filesystem.writeContentsToPath("same", unchanged);
+
+    HashCode before = cache.get(Paths.get("dir"));
+    assertEquals(before, new DefaultFileHashCache(filesystem).get(Paths.get("dir")));
+
+    filesystem.writeContentsToPath("after", changed);
+    cache.invalidate(changed);
+    assertNull(cache.loadingCache.getIfPresent(Paths.get("dir")));
+    assertNull(cache.loadingCache.getIfPresent(Paths.get("dir/sub")));
+    assertNotNull(cache.loadingCache.getIfPresent(unchanged));
+
+    HashCode after = cache.get(Paths.get("dir"));
+    assertNotEquals(before, after);
+    assertEquals(after, new DefaultFileHashCache(filesystem).get(Paths.get("dir")));
+  }
+
+  @Test
+  public void invalidatingADirectoryInvalidatesEverythingUnderIt() throws IOException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    DefaultFileHashCache cache = new DefaultFileHashCache(filesystem);
+    Path file = Paths.get("dir/sub/file");
+    filesystem.writeContentsToPath("before", file);
+    HashCode before = cache.get(Paths.get("dir"));
+
+    filesystem.writeContentsToPath("after", file);
+    cache.invalidate(Paths.get("dir"));
+    assertNull(cache.loadingCache.getIfPresent(file));
+
+    HashCode after = cache.get(Paths.get("dir"));
+    assertNotEquals(before, after);
+    assertEquals(after, new DefaultFileHashCache(filesystem).get(Paths.get("dir")));
+  }
+
+  @Test
+  public void directoryHashDependsOnTheNamesOfItsChildren() throws IOException {
+    ProjectFilesystem first = new FakeProjectFilesystem();
+    first.writeContentsToPath("contents", Paths.get("dir/a"));
+    ProjectFilesystem second = new FakeProjectFilesystem();
+    second.writeContentsToPath("contents", Paths.get("dir/b"));
+
+    assertNotEquals(
+        new DefaultFileHashCache(first).get(Paths.get("dir")),
+        new DefaultFileHashCache(second).get(Paths.get("dir")));
+  }
+
+  @Test
+  public void largeFilesHashTheSameAsTheirContents() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    byte[] contents = new byte[3 * 1024 * 1024 + 17];
+    new Random(0).nextBytes(contents);
+    Path path = Paths.get("large");
+    filesystem.writeBytesToPath(contents, path);
+
+    assertEquals(
+        Hashing.sha1().hashBytes(contents),
+        new DefaultFileHashCache(filesystem).get(path));
+  }
+
+  @Test
+  public void symlinkCyclesFailWithALoopException() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    filesystem.mkdirs(Paths.get("dir/sub"));
+    filesystem.writeContentsToPath("contents", Paths.get("dir/sub/file"));
+    Files.createSymbolicLink(
+        filesystem.resolve(Paths.get("dir/sub/loop")),
+        filesystem.resolve(Paths.get("dir")));
+
+    expectedException.expect(FileSystemLoopException.class);
+    new DefaultFileHashCache(filesystem).get(Paths.get("dir"));
+  }
+
+  @Test
+  public void cyclesThroughSeveralSymlinksFailWithALoopException() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    filesystem.mkdirs(Paths.get("a"));
+    filesystem.mkdirs(Paths.get("b"));
+    Files.createSymbolicLink(
+        filesystem.resolve(Paths.get("a/to-b")),
+        filesystem.resolve(Paths.get("b")));
+    Files.createSymbolicLink(
+        filesystem.resolve(Paths.get("b/to-a")),
+        filesystem.resolve(Paths.get("a")));
+
+    expectedException.expect(FileSystemLoopException.class);
+    new DefaultFileHashCache(filesystem).get(Paths.get("a"));
+  }
+
+  @Test
+  public void symlinksToDirectoriesOutsideTheWalkAreHashed() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    filesystem.mkdirs(Paths.get("target"));
+    filesystem.writeContentsToPath("contents", Paths.get("target/file"));
+    filesystem.mkdirs(Paths.get("dir"));
+    Files.createSymbolicLink(
+        filesystem.resolve(Paths.get("dir/first")),
+        filesystem.resolve(Paths.get("target")));
+    Files.createSymbolicLink(
+        filesystem.resolve(Paths.get("dir/second")),
+        filesystem.resolve(Paths.get("target")));
+
+    assertNotNull(new DefaultFileHashCache(filesystem).get(Paths.get("dir")));
+  }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class FileHashPrefetcherTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private ListeningExecutorService executorService;
+
+  @Before
+  public void setUp() {
+    executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2));
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    executorService.shutdown();
+    executorService.awaitTermination(1, TimeUnit.MINUTES);
+  }
+
+  @Test
+  public void prefetchedFilesAreCached() throws IOException, InterruptedException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    filesystem.mkdirs(Paths.get("a"));
+    filesystem.mkdirs(Paths.get("b/c"));
+    filesystem.writeContentsToPath("12345", Paths.get("a/one"));
+    filesystem.writeContentsToPath("123", Paths.get("b/two"));
+    filesystem.writeContentsToPath("1", Paths.get("b/c/three"));
+    DefaultFileHashCache cache = new DefaultFileHashCache(filesystem);
+
+    FileHashPrefetchStats stats = new FileHashPrefetcher(executorService, 1).prefetch(
+        cache,
+        ImmutableList.of(
+            filesystem.resolve("a/one"),
+            filesystem.resolve("b"),
+            filesystem.resolve("missing")));
+
+    assertEquals(2, stats.getPaths());
+    assertEquals(5, stats.getBytes());
+    assertNotNull(cache.loadingCache.getIfPresent(Paths.get("a/one")));
+    assertNotNull(cache.loadingCache.getIfPresent(Paths.get("b")));
+    assertNotNull(cache.loadingCache.getIfPresent(Paths.get("b/c/three")));
+    assertNull(cache.loadingCache.getIfPresent(Paths.get("missing")));
+  }
+
+  @Test
+  public void alreadyCachedFilesAreNotCounted() throws IOException, InterruptedException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    filesystem.writeContentsToPath("12345", Paths.get("one"));
+    filesystem.writeContentsToPath("123", Paths.get("two"));
+    DefaultFileHashCache cache = new DefaultFileHashCache(filesystem);
+    cache.get(filesystem.resolve("one"));
+
+    FileHashPrefetchStats stats = new FileHashPrefetcher(executorService, 1).prefetch(
+        cache,
+        ImmutableList.of(filesystem.resolve("one"), filesystem.resolve("two")));
+
+    assertEquals(1, stats.getPaths());
+    assertEquals(3, stats.getBytes());
+  }
+
+  @Test
+  public void prefetchInBackgroundHashesTheSamePaths() throws Exception {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    filesystem.writeContentsToPath("12345", Paths.get("one"));
+    DefaultFileHashCache cache = new DefaultFileHashCache(filesystem);
+
+    FileHashPrefetchStats stats = new FileHashPrefetcher(executorService, 1)
+        .prefetchInBackground(cache, ImmutableList.of(filesystem.resolve("one")))
+        .get(1, TimeUnit.MINUTES);
+
+    assertEquals(1, stats.getPaths());
+    assertEquals(5, stats.getBytes());
+    assertNotNull(cache.loadingCache.getIfPresent(Paths.get("one")));
+  }
+
+  @Test
+  public void filesAreHashedInTheOrderOfTheirDirectories()
+      throws IOException, InterruptedException {
+    final List<Path> hashed = new ArrayList<>();
+    FileHashCache cache = new NullFileHashCache() {
+      @Override
+      public boolean willGet(Path path) {
+        return true;
+      }
+
+      @Override
+      public HashCode get(Path path) {
+        hashed.add(path);
+        return HashCode.fromInt(0);
+      }
+    };
+
+    new FileHashPrefetcher(MoreExecutors.newDirectExecutorService(), 1).prefetch(
+        cache,
+        ImmutableList.of(
+            Paths.get("/a/b/c"),
+            Paths.get("/a/ba"),
+            Paths.get("/a/b.txt")));
+
+    assertEquals(
+        ImmutableList.of(Paths.get("/a/b.txt"), Paths.get("/a/ba"), Paths.get("/a/b/c")),
+        hashed);
+  }
+}
@@ -20,6 +20,8 @@ import static com.facebook.buck.testutil.WatchEvents.createOverflowEvent;
 import static com.facebook.buck.testutil.WatchEvents.createPathEvent;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
@@ -120,6 +122,37 @@ public class WatchedFileHashCacheTest {
     assertNotEquals(dirHash, dirHash2);
   }
 
+  @Test
+  public void whenNotifiedOfChangeToDirectoryItsChildrenAreForgotten() throws IOException {
+    WatchedFileHashCache cache =
+        new WatchedFileHashCache(new ProjectFilesystem(tmp.getRoot().toPath()));
+    tmp.newFolder("foo", "bar");
+    tmp.newFile("foo/bar/baz");
+    tmp.newFile("foo/bar/qux");
+
+    Path dir = Paths.get("foo/bar");
+    cache.get(Paths.get("foo"));
+    assertTrue(cache.directoryChildren.containsKey(dir));
+    cache.onFileSystemChange(createPathEvent(dir, StandardWatchEventKinds.ENTRY_DELETE));
+
+    assertTrue(cache.directoryChildren.isEmpty());
+    assertNull(cache.loadingCache.getIfPresent(dir.resolve("baz")));
+    assertNull(cache.loadingCache.getIfPresent(Paths.get("foo")));
+  }
+
+  @Test
+  public void whenNotifiedOfOverflowEventDirectoryChildrenAreForgotten() throws IOException {
+    WatchedFileHashCache cache =
+        new WatchedFileHashCache(new ProjectFilesystem(tmp.getRoot().toPath()));
+    tmp.newFolder("foo");
+    tmp.newFile("foo/bar");
+
+    cache.get(Paths.get("foo"));
+    cache.onFileSystemChange(createOverflowEvent());
+
+    assertTrue(cache.directoryChildren.isEmpty());
+  }
+
   @Test
   public void whenNotifiedOfChangeToSubPathThenDirCacheEntryIsRemoved() throws IOException {
     WatchedFileHashCache cache =
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+public class PrioritizedExecutorTest {
+
+  /** An executor that holds on to what it is given until told to run it. */
+  private static class QueueingExecutor implements Executor {
+    private final List<Runnable> runnables = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable runnable) {
+      runnables.add(runnable);
+    }
+
+    public void runAll() {
+      for (Runnable runnable : runnables) {
+        runnable.run();
+      }
+      runnables.clear();
+    }
+  }
+
+  private static Runnable appending(final List<String> order, final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        order.add(name);
+      }
+    };
+  }
+
+  @Test
+  public void runsWaitingTasksByPriorityThenInOrderOfSubmission() {
+    QueueingExecutor delegate = new QueueingExecutor();
+    PrioritizedExecutor executor = new PrioritizedExecutor(delegate);
+    List<String> order = new ArrayList<>();
+
+    executor.execute(appending(order, "low"), 1);
+    executor.execute(appending(order, "high"), 10);
+    executor.withPriority(5).execute(appending(order, "first medium"));
+    executor.withPriority(5).execute(appending(order, "second medium"));
+    delegate.runAll();
+
+    assertEquals(ImmutableList.of("high", "first medium", "second medium", "low"), order);
+  }
+
+  @Test
+  public void rejectedTaskIsNotLeftWaiting() {
+    final List<String> order = new ArrayList<>();
+    PrioritizedExecutor executor = new PrioritizedExecutor(
+        new Executor() {
+          private boolean reject = true;
+
+          @Override
+          public void execute(Runnable runnable) {
+            if (reject) {
+              reject = false;
+              throw new RejectedExecutionException();
+            }
+            runnable.run();
+          }
+        });
+
+    boolean rejected = false;
+    try {
+      executor.execute(appending(order, "rejected"), 10);
+    } catch (RejectedExecutionException e) {
+      rejected = true;
+    }
+    assertTrue(rejected);
+
+    executor.execute(appending(order, "accepted"), 1);
+    assertEquals(ImmutableList.of("accepted"), order);
+  }
+}
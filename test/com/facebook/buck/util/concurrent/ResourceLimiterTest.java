@@ -0,0 +1,197 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ResourceLimiterTest {
+
+  private static final ResourceAmounts ONE_CORE = new ResourceAmounts(1, 0);
+  private static final ResourceAmounts TWO_CORES = new ResourceAmounts(2, 0);
+
+  private static ResourceLimiter createLimiter(
+      ResourceAmounts capacity,
+      Supplier<Optional<Long>> availableMemoryMegabytes) {
+    return createLimiter(capacity, availableMemoryMegabytes, /* maxOvertakes */ 32);
+  }
+
+  private static ResourceLimiter createLimiter(
+      ResourceAmounts capacity,
+      Supplier<Optional<Long>> availableMemoryMegabytes,
+      int maxOvertakes) {
+    return new ResourceLimiter(
+        capacity,
+        /* loadLimit */ Double.POSITIVE_INFINITY,
+        Suppliers.ofInstance(0.0),
+        availableMemoryMegabytes,
+        maxOvertakes);
+  }
+
+  private static Future<ResourceLimiter.Permit> acquireInBackground(
+      ExecutorService executor,
+      final ResourceLimiter limiter,
+      final ResourceAmounts amounts) throws InterruptedException {
+    int waiting = limiter.getNumberOfWaitingJobs();
+    Future<ResourceLimiter.Permit> permit = executor.submit(
+        new Callable<ResourceLimiter.Permit>() {
+          @Override
+          public ResourceLimiter.Permit call() throws InterruptedException {
+            return limiter.acquire(amounts);
+          }
+        });
+    // Wait until the job is either in line or admitted.
+    while (!permit.isDone() && limiter.getNumberOfWaitingJobs() == waiting) {
+      Thread.sleep(10);
+    }
+    return permit;
+  }
+
+  private static void assertStillWaiting(Future<?> future) throws Exception {
+    try {
+      future.get(200, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      return;
+    }
+    throw new AssertionError("Job should not have been admitted.");
+  }
+
+  @Test
+  public void jobLargerThanTheCapacityRunsWhenNothingElseIs() throws Exception {
+    ResourceLimiter limiter = createLimiter(
+        ONE_CORE,
+        Suppliers.ofInstance(Optional.of(0L)));
+    limiter.acquire(new ResourceAmounts(8, 1024)).close();
+  }
+
+  @Test
+  public void jobWaitsForCoresToBeReleased() throws Exception {
+    ResourceLimiter limiter = createLimiter(
+        TWO_CORES,
+        Suppliers.ofInstance(Optional.<Long>absent()));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      ResourceLimiter.Permit first = limiter.acquire(ONE_CORE);
+      Future<ResourceLimiter.Permit> second = acquireInBackground(executor, limiter, TWO_CORES);
+      assertStillWaiting(second);
+
+      first.close();
+      second.get(5, TimeUnit.SECONDS).close();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void jobWaitsForTheMachineToHaveEnoughMemory() throws Exception {
+    final AtomicLong availableMemory = new AtomicLong(512);
+    ResourceLimiter limiter = createLimiter(
+        new ResourceAmounts(8, Long.MAX_VALUE),
+        new Supplier<Optional<Long>>() {
+          @Override
+          public Optional<Long> get() {
+            return Optional.of(availableMemory.get());
+          }
+        });
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      ResourceLimiter.Permit first = limiter.acquire(ONE_CORE);
+      Future<ResourceLimiter.Permit> second =
+          acquireInBackground(executor, limiter, new ResourceAmounts(1, 1024));
+      assertStillWaiting(second);
+
+      // The limiter notices memory being freed without any job finishing.
+      availableMemory.set(2048);
+      second.get(5, TimeUnit.SECONDS).close();
+      first.close();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void smallJobsThatFitOvertakeALargeOneThatIsWaiting() throws Exception {
+    ResourceLimiter limiter = createLimiter(
+        TWO_CORES,
+        Suppliers.ofInstance(Optional.<Long>absent()));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      ResourceLimiter.Permit first = limiter.acquire(ONE_CORE);
+      Future<ResourceLimiter.Permit> large = acquireInBackground(executor, limiter, TWO_CORES);
+      ResourceLimiter.Permit small =
+          acquireInBackground(executor, limiter, ONE_CORE).get(5, TimeUnit.SECONDS);
+      assertStillWaiting(large);
+
+      first.close();
+      small.close();
+      large.get(5, TimeUnit.SECONDS).close();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void smallJobsStopOvertakingALargeOneOnceItHasBeenOvertakenEnough() throws Exception {
+    ResourceLimiter limiter = createLimiter(
+        TWO_CORES,
+        Suppliers.ofInstance(Optional.<Long>absent()),
+        /* maxOvertakes */ 1);
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      ResourceLimiter.Permit first = limiter.acquire(ONE_CORE);
+      Future<ResourceLimiter.Permit> large = acquireInBackground(executor, limiter, TWO_CORES);
+      acquireInBackground(executor, limiter, ONE_CORE).get(5, TimeUnit.SECONDS).close();
+      Future<ResourceLimiter.Permit> small = acquireInBackground(executor, limiter, ONE_CORE);
+      assertStillWaiting(small);
+      assertFalse(large.isDone());
+
+      first.close();
+      large.get(5, TimeUnit.SECONDS).close();
+      small.get(5, TimeUnit.SECONDS).close();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void availableMemoryIsReadFromMeminfo() {
+    assertEquals(
+        Optional.of(2048L),
+        ResourceLimiter.parseAvailableMemoryMegabytes(
+            "MemTotal:        8388608 kB\n" +
+            "MemFree:          524288 kB\n" +
+            "MemAvailable:    2097152 kB\n"));
+    assertEquals(
+        Optional.<Long>absent(),
+        ResourceLimiter.parseAvailableMemoryMegabytes("MemTotal:        8388608 kB\n"));
+  }
+}
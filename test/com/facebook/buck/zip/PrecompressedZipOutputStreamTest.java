@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.zip;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.timing.DefaultClock;
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+public class PrecompressedZipOutputStreamTest {
+
+  private static final byte[] PREAMBLE = "#!/usr/bin/env python2.7\n".getBytes(UTF_8);
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path writeZip(byte[] preamble, PrecompressedEntry... entries) throws IOException {
+    Path zip = tmp.newFile().toPath();
+    try (OutputStream out = Files.newOutputStream(zip)) {
+      out.write(preamble);
+      try (PrecompressedZipOutputStream zipOut =
+               new PrecompressedZipOutputStream(new DefaultClock(), out, preamble.length)) {
+        for (PrecompressedEntry entry : entries) {
+          zipOut.putEntry(entry);
+        }
+      }
+    }
+    return zip;
+  }
+
+  private static byte[] contents(String prefix) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      builder.append(prefix).append(i).append('\n');
+    }
+    return builder.toString().getBytes(UTF_8);
+  }
+
+  @Test
+  public void entriesCanBeReadByTheJdk() throws IOException {
+    byte[] deflated = contents("deflated");
+    byte[] stored = contents("stored");
+    Path zip = writeZip(
+        PREAMBLE,
+        PrecompressedEntry.compress("a/deflated.py", deflated, Deflater.BEST_COMPRESSION, "one"),
+        PrecompressedEntry.compress("stored.txt", stored, Deflater.NO_COMPRESSION, null));
+
+    try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+      ZipEntry deflatedEntry = zipFile.getEntry("a/deflated.py");
+      assertEquals(ZipEntry.DEFLATED, deflatedEntry.getMethod());
+      assertEquals("one", deflatedEntry.getComment());
+      try (InputStream in = zipFile.getInputStream(deflatedEntry)) {
+        assertArrayEquals(deflated, ByteStreams.toByteArray(in));
+      }
+
+      ZipEntry storedEntry = zipFile.getEntry("stored.txt");
+      assertEquals(ZipEntry.STORED, storedEntry.getMethod());
+      try (InputStream in = zipFile.getInputStream(storedEntry)) {
+        assertArrayEquals(stored, ByteStreams.toByteArray(in));
+      }
+    }
+  }
+
+  @Test
+  public void entriesReadBackCanBeCopiedUnchanged() throws IOException {
+    PrecompressedEntry original = PrecompressedEntry.compress(
+        "module.py",
+        contents("module"),
+        Deflater.DEFAULT_COMPRESSION,
+        "hash");
+    Path zip = writeZip(PREAMBLE, original);
+
+    try (PrecompressedZipFile zipFile = new PrecompressedZipFile(zip)) {
+      assertEquals(Optional.of("hash"), zipFile.getComment("module.py"));
+      assertEquals(Optional.<String>absent(), zipFile.getComment("missing.py"));
+      assertFalse(zipFile.getEntry("missing.py").isPresent());
+
+      PrecompressedEntry copy = zipFile.getEntry("module.py").get();
+      assertEquals(original.getMethod(), copy.getMethod());
+      assertEquals(original.getCrc(), copy.getCrc());
+      assertEquals(original.getSize(), copy.getSize());
+      assertEquals("hash", copy.getComment());
+      assertArrayEquals(original.getData(), copy.getData());
+
+      // Copying an entry into another zip writes exactly the bytes it was first written with.
+      Path copied = writeZip(PREAMBLE, copy);
+      assertArrayEquals(Files.readAllBytes(zip), Files.readAllBytes(copied));
+    }
+  }
+
+  @Test(expected = ZipException.class)
+  public void duplicateEntriesAreRejected() throws IOException {
+    writeZip(
+        new byte[0],
+        PrecompressedEntry.compress("a.py", contents("a"), Deflater.DEFAULT_COMPRESSION, null),
+        PrecompressedEntry.compress("a.py", contents("b"), Deflater.DEFAULT_COMPRESSION, null));
+  }
+}